@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.marvin.mytalkback.benchmark;
+
+import android.os.Parcel;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import com.google.android.marvin.mytalkback.Utterance;
+import com.google.android.marvin.mytalkback.test.TalkBackListener;
+import com.googlecode.eyesfree.utils.LogUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the stream of accessibility events received by TalkBack to a file,
+ * so that it can be replayed later by {@link SpeechRuleBenchmark}. Installed
+ * by {@link RecordEventStream} using {@code TalkBackService#setTestingListener}.
+ * <p>
+ * Each event is stored as its length followed by its parceled form. Parcels
+ * are only guaranteed to be readable on the platform version that wrote them.
+ * </p>
+ */
+public class EventStreamRecorder implements TalkBackListener {
+    private final DataOutputStream mOutput;
+
+    /**
+     * Creates a recorder that appends events to the specified file.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file cannot be opened.
+     */
+    public EventStreamRecorder(File file) throws IOException {
+        mOutput = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    @Override
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        final Parcel parcel = Parcel.obtain();
+
+        try {
+            event.writeToParcel(parcel, 0);
+
+            final byte[] bytes = parcel.marshall();
+            mOutput.writeInt(bytes.length);
+            mOutput.write(bytes);
+        } catch (IOException e) {
+            LogUtils.log(this, Log.ERROR, "Failed to record event: %s", e.toString());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Override
+    public void onUtteranceQueued(Utterance utterance) {
+        // Do nothing.
+    }
+
+    /**
+     * Flushes and closes the output file.
+     */
+    public void close() throws IOException {
+        mOutput.close();
+    }
+
+    /**
+     * Reads all events from a recorded file. The caller is responsible for
+     * recycling the returned events.
+     *
+     * @param file The file to read.
+     * @return The recorded events, in order.
+     * @throws IOException If the file cannot be read.
+     */
+    public static List<AccessibilityEvent> readEvents(File file) throws IOException {
+        final List<AccessibilityEvent> events = new ArrayList<AccessibilityEvent>();
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            while (true) {
+                final int length;
+
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                final byte[] bytes = new byte[length];
+                input.readFully(bytes);
+
+                final Parcel parcel = Parcel.obtain();
+                parcel.unmarshall(bytes, 0, length);
+                parcel.setDataPosition(0);
+                events.add(AccessibilityEvent.CREATOR.createFromParcel(parcel));
+                parcel.recycle();
+            }
+        } finally {
+            input.close();
+        }
+
+        return events;
+    }
+}
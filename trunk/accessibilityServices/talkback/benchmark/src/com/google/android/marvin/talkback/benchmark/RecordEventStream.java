@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.marvin.mytalkback.benchmark;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.google.android.marvin.mytalkback.TalkBackService;
+
+import java.io.File;
+
+/**
+ * Records the accessibility events received by the running TalkBack service
+ * for one minute, for later replay by {@link SpeechRuleBenchmark}. Use the
+ * device normally while recording.
+ * <p>
+ * Each run writes a new timestamped file to the {@code event_streams} folder
+ * in TalkBack's external files directory.
+ * </p>
+ */
+public class RecordEventStream extends InstrumentationTestCase {
+    private static final String TAG = "RecordEventStream";
+
+    /** How long to record events, in milliseconds. */
+    private static final long RECORD_DURATION = 60000;
+
+    public void testRecord() throws Exception {
+        final TalkBackService service = SpeechRuleBenchmark.waitForService();
+        assertNotNull("TalkBack is not running", service);
+
+        final File externalDir = getInstrumentation().getTargetContext().getExternalFilesDir(null);
+        assertNotNull("External storage is not available", externalDir);
+
+        final File streamsDir = new File(externalDir, SpeechRuleBenchmark.STREAMS_DIR);
+        assertTrue("Failed to create " + streamsDir,
+                (streamsDir.isDirectory() || streamsDir.mkdirs()));
+
+        final File file = new File(streamsDir,
+                System.currentTimeMillis() + SpeechRuleBenchmark.STREAM_EXTENSION);
+        final EventStreamRecorder recorder = new EventStreamRecorder(file);
+
+        // The testing listener is called from the service's main thread.
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                service.setTestingListener(recorder);
+            }
+        });
+
+        Log.i(TAG, "Recording events to " + file);
+
+        try {
+            SystemClock.sleep(RECORD_DURATION);
+        } finally {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    service.setTestingListener(null);
+                }
+            });
+
+            recorder.close();
+        }
+
+        Log.i(TAG, "Finished recording events to " + file);
+    }
+}
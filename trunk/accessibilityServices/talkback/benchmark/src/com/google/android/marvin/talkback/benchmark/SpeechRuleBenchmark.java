@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.marvin.mytalkback.benchmark;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import com.google.android.marvin.mytalkback.ProcessorEventQueue;
+import com.google.android.marvin.mytalkback.TalkBackService;
+import com.google.android.marvin.mytalkback.Utterance;
+import com.google.android.marvin.mytalkback.formatter.EventSpeechRuleProcessor;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays event streams recorded by {@link RecordEventStream} against a
+ * freshly loaded {@link EventSpeechRuleProcessor} and reports how long rule
+ * processing takes per event, so that regressions in speech rule matching
+ * show up independently of TTS latency.
+ * <p>
+ * Streams are read from the {@code event_streams} folder in TalkBack's
+ * external files directory. Results are written to the log and to
+ * {@code benchmark.txt} in the same directory.
+ * </p>
+ */
+public class SpeechRuleBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "SpeechRuleBenchmark";
+
+    static final String STREAMS_DIR = "event_streams";
+    static final String STREAM_EXTENSION = ".events";
+    private static final String REPORT_FILE = "benchmark.txt";
+
+    /** Number of passes over the event stream before measuring. */
+    private static final int WARMUP_ITERATIONS = 2;
+
+    /** Number of measured passes over the event stream. */
+    private static final int ITERATIONS = 10;
+
+    /** How long to wait for TalkBack to connect, in milliseconds. */
+    private static final long SERVICE_TIMEOUT = 10000;
+
+    private EventSpeechRuleProcessor mProcessor;
+
+    public void testReplay() throws Exception {
+        final TalkBackService service = waitForService();
+        assertNotNull("TalkBack is not running", service);
+
+        final File[] files = getStreamFiles();
+        assertTrue("No recorded event streams found", (files.length > 0));
+
+        // Speech rules and the class loading manager expect to be used from
+        // the service's main thread.
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mProcessor = new EventSpeechRuleProcessor(service);
+                ProcessorEventQueue.loadDefaultRules(mProcessor);
+            }
+        });
+
+        final StringBuilder report = new StringBuilder();
+        for (File file : files) {
+            final List<AccessibilityEvent> events = EventStreamRecorder.readEvents(file);
+            final String line = file.getName() + ": " + run(events);
+            Log.i(TAG, line);
+            report.append(line).append('\n');
+        }
+
+        writeReport(report.toString());
+    }
+
+    /**
+     * Returns the running TalkBack service, waiting briefly for it to
+     * reconnect after the instrumentation restarted its process.
+     */
+    static TalkBackService waitForService() {
+        final long timeout = (SystemClock.uptimeMillis() + SERVICE_TIMEOUT);
+
+        TalkBackService service = TalkBackService.getInstance();
+        while ((service == null) && (SystemClock.uptimeMillis() < timeout)) {
+            SystemClock.sleep(100);
+            service = TalkBackService.getInstance();
+        }
+
+        return service;
+    }
+
+    private File[] getStreamFiles() {
+        final File externalDir = getInstrumentation().getTargetContext().getExternalFilesDir(null);
+        final File[] files = (externalDir == null) ? null
+                : new File(externalDir, STREAMS_DIR).listFiles(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File dir, String name) {
+                        return name.endsWith(STREAM_EXTENSION);
+                    }
+                });
+        if (files == null) {
+            return new File[0];
+        }
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Replays recorded events and recycles them.
+     *
+     * @param events The events read by {@link EventStreamRecorder#readEvents}.
+     * @return A summary of per-event processing times in microseconds.
+     */
+    private String run(final List<AccessibilityEvent> events) {
+        final long[] samples = new long[events.size() * ITERATIONS];
+
+        try {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                        replay(events, null, 0);
+                    }
+
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        replay(events, samples, i * events.size());
+                    }
+                }
+            });
+
+            return summarize(samples);
+        } finally {
+            for (AccessibilityEvent event : events) {
+                event.recycle();
+            }
+        }
+    }
+
+    /**
+     * Processes each event once, optionally storing the processing time in
+     * microseconds of each event in {@code samples} starting at
+     * {@code offset}.
+     */
+    private void replay(List<AccessibilityEvent> events, long[] samples, int offset) {
+        for (int i = 0, count = events.size(); i < count; i++) {
+            final Utterance utterance = Utterance.obtain();
+            final long startTime = System.nanoTime();
+
+            mProcessor.processEvent(events.get(i), utterance);
+
+            if (samples != null) {
+                samples[offset + i] = (System.nanoTime() - startTime) / 1000;
+            }
+
+            utterance.recycle();
+        }
+    }
+
+    private void writeReport(String report) {
+        final File externalDir = getInstrumentation().getTargetContext().getExternalFilesDir(null);
+        if (externalDir == null) {
+            return;
+        }
+        try {
+            final FileWriter writer = new FileWriter(new File(externalDir, REPORT_FILE), true);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write report", e);
+        }
+    }
+
+    private static String summarize(long[] samples) {
+        if (samples.length == 0) {
+            return "No events";
+        }
+
+        Arrays.sort(samples);
+
+        long sum = 0;
+        for (long sample : samples) {
+            sum += sample;
+        }
+
+        return String.format("events=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus",
+                samples.length, (sum / samples.length), percentile(samples, 50),
+                percentile(samples, 90), percentile(samples, 99),
+                samples[samples.length - 1]);
+    }
+
+    private static long percentile(long[] sortedSamples, int percentile) {
+        final int index = (sortedSamples.length - 1) * percentile / 100;
+        return sortedSamples[index];
+    }
+}
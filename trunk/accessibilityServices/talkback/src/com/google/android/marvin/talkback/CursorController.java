@@ -32,6 +32,7 @@ import com.google.android.marvin.mytalkback.TalkBackService.AccessibilityEventLi
 import com.googlecode.eyesfree.compat.CompatUtils;
 import com.googlecode.eyesfree.utils.AccessibilityNodeInfoRef;
 import com.googlecode.eyesfree.utils.AccessibilityNodeInfoUtils;
+import com.googlecode.eyesfree.utils.AccessibilityNodeTreeSnapshot;
 import com.googlecode.eyesfree.utils.LogUtils;
 import com.googlecode.eyesfree.utils.NodeFilter;
 import com.googlecode.eyesfree.utils.NodeFocusFinder;
@@ -63,6 +64,12 @@ public class CursorController implements AccessibilityEventListener {
     private static final Class<?> CLASS_TOUCHWIZ_TWABSLISTVIEW = CompatUtils.getClass(
             "com.sec.android.touchwiz.widget.TwAbsListView");
 
+    /** Event types that indicate the node tree snapshot is stale. */
+    private static final int MASK_EVENT_TYPES_INVALIDATE_SNAPSHOT =
+            AccessibilityEventCompat.TYPE_WINDOW_CONTENT_CHANGED
+            | AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            | AccessibilityEventCompat.TYPE_VIEW_SCROLLED;
+
     /** Set of "seen" nodes used for eliminating duplicates during navigation. */
     private final HashSet<AccessibilityNodeInfoCompat> mNavigateSeenNodes =
             new HashSet<AccessibilityNodeInfoCompat>();
@@ -79,6 +86,21 @@ public class CursorController implements AccessibilityEventListener {
     /** Whether the user hit an edge with the last swipe. */
     private boolean mReachedEdge;
 
+    /**
+     * Prefetched node tree of the most recently navigated window, or
+     * {@code null} if it has not been built since the window content changed.
+     */
+    private AccessibilityNodeTreeSnapshot mTreeSnapshot;
+
+    /** Whether the window content changed since the last traversal. */
+    private boolean mTreeSnapshotStale = true;
+
+    /**
+     * Window identifier of the last traversal that ran without a snapshot, or
+     * {@code -1} if the next traversal should not build one.
+     */
+    private int mDeferredSnapshotWindowId = -1;
+
     /**
      * Creates a new cursor controller using the specified input controller.
      *
@@ -100,6 +122,7 @@ public class CursorController implements AccessibilityEventListener {
      */
     public void shutdown() {
         mGranularityManager.shutdown();
+        discardTreeSnapshot();
     }
 
     /**
@@ -578,7 +601,7 @@ public class CursorController implements AccessibilityEventListener {
                     wrapNode = navigateSelfOrFrom(compatRoot, direction);
                     break;
                 case NodeFocusFinder.SEARCH_BACKWARD:
-                    tempNode = getLastNodeFrom(compatRoot);
+                    tempNode = getLastNode(compatRoot);
                     wrapNode = navigateSelfOrFrom(tempNode, direction);
                     break;
             }
@@ -594,12 +617,6 @@ public class CursorController implements AccessibilityEventListener {
         }
     }
 
-    private static AccessibilityNodeInfoCompat getLastNodeFrom(AccessibilityNodeInfoCompat root) {
-        final AccessibilityNodeInfoRef ref = AccessibilityNodeInfoRef.obtain(root);
-        ref.lastDescendant();
-        return ref.release();
-    }
-
     private AccessibilityNodeInfoCompat navigateSelfOrFrom(
             AccessibilityNodeInfoCompat node, int direction) {
         if (node == null) {
@@ -619,13 +636,14 @@ public class CursorController implements AccessibilityEventListener {
             return null;
         }
 
+        final AccessibilityNodeTreeSnapshot snapshot = getTreeSnapshot(node);
         AccessibilityNodeInfoCompat next = null;
 
         try {
             // Be cautious and always clear the list of seen nodes.
             AccessibilityNodeInfoUtils.recycleNodes(mNavigateSeenNodes);
 
-            next = NodeFocusFinder.focusSearch(node, direction);
+            next = focusSearch(snapshot, node, direction);
 
             while ((next != null) && !AccessibilityNodeInfoUtils.shouldFocusNode(mService, next)) {
                 if (mNavigateSeenNodes.contains(next)) {
@@ -640,7 +658,7 @@ public class CursorController implements AccessibilityEventListener {
 
                 mNavigateSeenNodes.add(next);
 
-                next = NodeFocusFinder.focusSearch(next, direction);
+                next = focusSearch(snapshot, next, direction);
             }
 
             return next;
@@ -649,6 +667,112 @@ public class CursorController implements AccessibilityEventListener {
         }
     }
 
+    /**
+     * Returns the first node reached via in-order traversal from {@code root}
+     * that satisfies {@code filter}, using the prefetched node tree when one
+     * is available.
+     * <p>
+     * The client is responsible for recycling the resulting node.
+     *
+     * @see AccessibilityNodeInfoUtils#searchFromInOrderTraversal
+     */
+    public AccessibilityNodeInfoCompat searchFromInOrderTraversal(Context context,
+            AccessibilityNodeInfoCompat root, NodeFilter filter, int direction) {
+        final AccessibilityNodeTreeSnapshot snapshot = getTreeSnapshot(root);
+        if (snapshot == null) {
+            return AccessibilityNodeInfoUtils.searchFromInOrderTraversal(
+                    context, root, filter, direction);
+        }
+
+        return snapshot.searchFromInOrderTraversal(context, root, filter, direction);
+    }
+
+    /**
+     * Returns the last node in depth-first order from {@code root}, or
+     * {@code root} itself if it has no visible descendants.
+     */
+    private AccessibilityNodeInfoCompat getLastNode(AccessibilityNodeInfoCompat root) {
+        final AccessibilityNodeTreeSnapshot snapshot = getTreeSnapshot(root);
+        if (snapshot != null) {
+            return snapshot.getLastNode();
+        }
+
+        final AccessibilityNodeInfoRef ref = AccessibilityNodeInfoRef.obtain(root);
+        ref.lastDescendant();
+        return ref.release();
+    }
+
+    private static AccessibilityNodeInfoCompat focusSearch(
+            AccessibilityNodeTreeSnapshot snapshot, AccessibilityNodeInfoCompat node,
+            int direction) {
+        if (snapshot == null) {
+            return NodeFocusFinder.focusSearch(node, direction);
+        }
+
+        return snapshot.focusSearch(node, direction);
+    }
+
+    /**
+     * Returns a prefetched snapshot of the node tree containing {@code node}.
+     * <p>
+     * The snapshot is built lazily: the first traversal after the window
+     * content changes runs against the live tree, and the snapshot is only
+     * prefetched if another traversal follows in the same window before the
+     * content changes again. This avoids prefetching the whole tree for a
+     * single step when content changes between every step.
+     *
+     * @param node A node in the window to snapshot.
+     * @return A snapshot of the node's window, or {@code null} if traversal
+     *         should use the live tree. The caller must not recycle it.
+     */
+    private AccessibilityNodeTreeSnapshot getTreeSnapshot(AccessibilityNodeInfoCompat node) {
+        final int windowId = node.getWindowId();
+
+        if (mTreeSnapshotStale) {
+            discardTreeSnapshot();
+            mTreeSnapshotStale = false;
+            mDeferredSnapshotWindowId = windowId;
+            return null;
+        }
+
+        if (mTreeSnapshot != null) {
+            if (mTreeSnapshot.getWindowId() == windowId) {
+                return mTreeSnapshot;
+            }
+
+            discardTreeSnapshot();
+        }
+
+        if (mDeferredSnapshotWindowId != windowId) {
+            mDeferredSnapshotWindowId = windowId;
+            return null;
+        }
+
+        final AccessibilityNodeInfoCompat root = AccessibilityNodeInfoUtils.getRoot(node);
+        mTreeSnapshot = AccessibilityNodeTreeSnapshot.obtain(root);
+        AccessibilityNodeInfoUtils.recycleNodes(root);
+
+        return mTreeSnapshot;
+    }
+
+    /**
+     * Marks the prefetched node tree snapshot as out of date. The snapshot is
+     * discarded on the next traversal.
+     */
+    private void invalidateTreeSnapshot() {
+        mTreeSnapshotStale = true;
+    }
+
+    /**
+     * Recycles the prefetched node tree snapshot, if any.
+     */
+    private void discardTreeSnapshot() {
+        if (mTreeSnapshot != null) {
+            mTreeSnapshot.recycle();
+            mTreeSnapshot = null;
+        }
+    }
+
     /**
      * Performs the specified action on the current cursor.
      *
@@ -672,6 +796,10 @@ public class CursorController implements AccessibilityEventListener {
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
+        if ((event.getEventType() & MASK_EVENT_TYPES_INVALIDATE_SNAPSHOT) != 0) {
+            invalidateTreeSnapshot();
+        }
+
         if (event.getEventType() == AccessibilityEventCompat.TYPE_VIEW_ACCESSIBILITY_FOCUSED) {
             final AccessibilityNodeInfo node = event.getSource();
             if (node == null) {
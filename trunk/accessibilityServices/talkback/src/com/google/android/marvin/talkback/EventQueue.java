@@ -17,19 +17,30 @@
 package com.google.android.marvin.mytalkback;
 
 import android.support.v4.view.accessibility.AccessibilityEventCompat;
-import android.util.SparseIntArray;
+import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 
 import com.googlecode.eyesfree.compat.view.accessibility.AccessibilityEventCompatUtils;
 import com.googlecode.eyesfree.utils.AccessibilityEventUtils;
+import com.googlecode.eyesfree.utils.LogUtils;
 
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class is a queue that tracks events that TalkBack will process. This
  * queue self-prunes events that exceed a maximum threshold for certain event
  * types.
+ * <p>
+ * The queue is a bounded ring buffer that supports one producer thread
+ * calling {@link #enqueue} concurrently with one consumer thread calling
+ * {@link #dequeue}, {@link #isEmpty} and {@link #clear} without locking.
+ * Pruned events leave an empty slot behind that the consumer skips, so
+ * enqueue, dequeue and pruning all run in constant time. If the ring fills
+ * up, further events go to a locked overflow list until the consumer has
+ * drained both, so bursts never drop events.
+ * </p>
  *
  * @author caseyburkhardt@google.com (Casey Burkhardt)
  */
@@ -48,110 +59,241 @@ class EventQueue {
     private static final int MASK_LIMITED_EVENT_TYPES =
             AccessibilityEventCompat.TYPE_VIEW_HOVER_ENTER;
 
+    /** The maximum number of slots in the queue. Must be a power of two. */
+    private static final int CAPACITY = 256;
+
+    /** Mask used to map a sequence number to a slot index. */
+    private static final int SLOT_MASK = CAPACITY - 1;
+
+    /**
+     * The slots holding queued events. A slot is {@code null} once its event
+     * has been dequeued or pruned.
+     */
+    private final AtomicReferenceArray<AccessibilityEvent> mSlots =
+            new AtomicReferenceArray<AccessibilityEvent>(CAPACITY);
+
+    /**
+     * The sequence number last written to each slot. Only accessed by the
+     * producer.
+     */
+    private final long[] mSlotSequences = new long[CAPACITY];
+
     /**
-     * The list responsible for maintaining events in the event queue.
+     * The sequence numbers of the most recently enqueued events for each type
+     * in {@code MASK_LIMITED_EVENT_TYPES}, indexed by the bit position of the
+     * type. Only accessed by the producer.
      */
-    private final ArrayList<AccessibilityEvent> mEventQueue = new ArrayList<AccessibilityEvent>();
+    private final TypeHistory[] mTypeHistories = new TypeHistory[Integer.SIZE];
+
+    /** The sequence number of the next event to dequeue. */
+    private volatile long mHead = 0;
+
+    /** The sequence number of the next event to enqueue. */
+    private volatile long mTail = 0;
 
     /**
-     * The current number of events in the queue for each event type that match
-     * a type defined in {@code MASK_LIMITED_EVENT_TYPES}.
+     * Events enqueued while the ring was full, in order. All of these are
+     * newer than any event in the ring.
      */
-    private final SparseIntArray mQualifyingEvents = new SparseIntArray();
+    private final LinkedList<AccessibilityEvent> mOverflow = new LinkedList<AccessibilityEvent>();
+
+    /**
+     * Whether new events must go to {@link #mOverflow}. Only set by the
+     * producer and only cleared by the consumer, both while holding the
+     * overflow lock.
+     */
+    private volatile boolean mOverflowing = false;
 
     /**
      * Adds an {@link AccessibilityEvent} to the queue for processing. If this
      * addition causes the queue to exceed the maximum allowable events for an
      * event's type, earlier events of this type will be pruned from the queue.
+     * <p>
+     * Must only be called from the producer thread.
+     * </p>
      *
      * @param event The event to add to the queue
      */
     public void enqueue(AccessibilityEvent event) {
+        final long sequence = mTail;
         final AccessibilityEvent clone = AccessibilityEventCompatUtils.obtain(event);
-        final int eventType = clone.getEventType();
+
+        if (mOverflowing || ((sequence - mHead) >= CAPACITY)) {
+            synchronized (mOverflow) {
+                // The consumer may have drained everything since we checked.
+                if (mOverflowing || ((sequence - mHead) >= CAPACITY)) {
+                    if (!mOverflowing) {
+                        LogUtils.log(this, Log.WARN, "Event queue is full, using overflow list");
+                    }
+
+                    mOverflowing = true;
+                    mOverflow.add(clone);
+                    enforceOverflowLimit(clone);
+                    return;
+                }
+            }
+        }
+
+        final int slot = (int) (sequence & SLOT_MASK);
+
+        mSlotSequences[slot] = sequence;
+        mSlots.set(slot, clone);
 
         if (AccessibilityEventUtils.eventMatchesAnyType(clone, MASK_LIMITED_EVENT_TYPES)) {
-            final int eventCountOfType = mQualifyingEvents.get(eventType, 0);
-            mQualifyingEvents.put(eventType, (eventCountOfType + 1));
+            enforceEventLimit(clone, sequence);
         }
 
-        mEventQueue.add(clone);
-        enforceEventLimits();
+        mTail = sequence + 1;
     }
 
     /**
      * Removes and returns an AccessibilityEvent from the front of the event queue.
+     * <p>
+     * Must only be called from the consumer thread.
+     * </p>
      *
-     * @return The event at the front of the queue.
+     * @return The event at the front of the queue, or {@code null} if the
+     *         queue is empty.
      */
     public AccessibilityEvent dequeue() {
-        if (mEventQueue.isEmpty()) {
+        long head = mHead;
+
+        while (head != mTail) {
+            final AccessibilityEvent event = mSlots.getAndSet((int) (head & SLOT_MASK), null);
+
+            head++;
+            mHead = head;
+
+            // Pruned events leave an empty slot.
+            if (event != null) {
+                return event;
+            }
+        }
+
+        if (!mOverflowing) {
             return null;
         }
 
-        final AccessibilityEvent event = mEventQueue.remove(0);
+        synchronized (mOverflow) {
+            // Events still in the ring are older than overflowing events.
+            if (mHead != mTail) {
+                return dequeue();
+            }
 
-        if (event != null
-                && AccessibilityEventUtils.eventMatchesAnyType(event, MASK_LIMITED_EVENT_TYPES)) {
-            final int eventType = event.getEventType();
-            final int eventCountOfType = mQualifyingEvents.get(eventType, 0);
-            mQualifyingEvents.put(eventType, (eventCountOfType - 1));
+            final AccessibilityEvent event = mOverflow.poll();
+            if (mOverflow.isEmpty()) {
+                mOverflowing = false;
+            }
+
+            return event;
         }
-        return event;
     }
 
     /**
      * Clears the event queue and discards all events waiting for processing.
+     * <p>
+     * Must only be called from the consumer thread.
+     * </p>
      */
     public void clear() {
-        mEventQueue.clear();
-        mQualifyingEvents.clear();
+        AccessibilityEvent event;
+
+        while ((event = dequeue()) != null) {
+            event.recycle();
+        }
     }
 
     /**
-     * Determines if the event queue is empty.
+     * Determines if the event queue is empty. Since pruned events are removed
+     * lazily, {@link #dequeue} may still return {@code null} when this method
+     * returns {@code false}.
      *
      * @return {@code true} if the queue is empty, {@code false} otherwise
      */
     public boolean isEmpty() {
-        return mEventQueue.isEmpty();
+        return ((mHead == mTail) && !mOverflowing);
     }
 
     /**
      * Enforces that the event queue has no more than
-     * {@code MAXIMUM_QUALIFYING_EVENTS} events of each type defined by
-     * {@code MASK_LIMITED_EVENT_TYPES}. The excessive events are pruned by
-     * removing the oldest event first.
+     * {@code MAXIMUM_QUALIFYING_EVENTS} events of the newly enqueued event's
+     * type. The excessive event is pruned by removing the oldest event of that
+     * type first.
+     *
+     * @param event The newly enqueued event.
+     * @param sequence The sequence number of the newly enqueued event.
      */
-    private void enforceEventLimits() {
-        int eventTypesToPrune = 0;
-        // Locate event types which exceed the allowable limit
-        for (int i = 0; i < mQualifyingEvents.size(); i++) {
-            final int eventType = mQualifyingEvents.keyAt(i);
-            final int eventsOfType = mQualifyingEvents.valueAt(i);
-            if (eventsOfType > MAXIMUM_QUALIFYING_EVENTS) {
-                eventTypesToPrune |= eventType;
+    private void enforceEventLimit(AccessibilityEvent event, long sequence) {
+        final int typeIndex = Integer.numberOfTrailingZeros(event.getEventType());
+
+        TypeHistory history = mTypeHistories[typeIndex];
+        if (history == null) {
+            history = new TypeHistory();
+            mTypeHistories[typeIndex] = history;
+        }
+
+        if (history.size == MAXIMUM_QUALIFYING_EVENTS) {
+            final int oldest = history.start;
+            final long oldestSequence = history.sequences[oldest];
+            final AccessibilityEvent oldestEvent = history.events[oldest];
+            final int slot = (int) (oldestSequence & SLOT_MASK);
+
+            history.start = (oldest + 1) % MAXIMUM_QUALIFYING_EVENTS;
+            history.size--;
+
+            // If the slot was reused or the consumer already took the event,
+            // there is nothing to prune.
+            if ((mSlotSequences[slot] == oldestSequence)
+                    && mSlots.compareAndSet(slot, oldestEvent, null)) {
+                oldestEvent.recycle();
             }
         }
 
-        final Iterator<AccessibilityEvent> iterator = mEventQueue.iterator();
-        while (iterator.hasNext() && (eventTypesToPrune != 0)) {
-            final AccessibilityEvent next = iterator.next();
+        final int end = (history.start + history.size) % MAXIMUM_QUALIFYING_EVENTS;
+        history.sequences[end] = sequence;
+        history.events[end] = event;
+        history.size++;
+    }
 
-            // Prune offending events
-            if (AccessibilityEventUtils.eventMatchesAnyType(next, eventTypesToPrune)) {
-                final int eventType = next.getEventType();
-                int eventCountOfType = mQualifyingEvents.get(eventType, 0);
-                eventCountOfType--;
-                mQualifyingEvents.put(eventType, eventCountOfType);
-                iterator.remove();
+    /**
+     * Enforces the limit from {@link #enforceEventLimit} on the overflow list
+     * by removing the oldest overflowing event of the new event's type. Must
+     * be called while holding the overflow lock.
+     *
+     * @param event The event just added to the overflow list.
+     */
+    private void enforceOverflowLimit(AccessibilityEvent event) {
+        if (!AccessibilityEventUtils.eventMatchesAnyType(event, MASK_LIMITED_EVENT_TYPES)) {
+            return;
+        }
 
-                // Stop pruning further events of this type if the number of
-                // events is below the limit
-                if (eventCountOfType <= MAXIMUM_QUALIFYING_EVENTS) {
-                    eventTypesToPrune &= ~eventType;
-                }
+        final int eventType = event.getEventType();
+        int eventsOfType = 0;
+
+        for (AccessibilityEvent queued : mOverflow) {
+            if (queued.getEventType() == eventType) {
+                eventsOfType++;
             }
         }
+
+        final Iterator<AccessibilityEvent> iterator = mOverflow.iterator();
+        while ((eventsOfType > MAXIMUM_QUALIFYING_EVENTS) && iterator.hasNext()) {
+            final AccessibilityEvent next = iterator.next();
+            if (next.getEventType() == eventType) {
+                iterator.remove();
+                next.recycle();
+                eventsOfType--;
+            }
+        }
+    }
+
+    /**
+     * Circular record of the most recently enqueued events of a single type.
+     */
+    private static class TypeHistory {
+        final long[] sequences = new long[MAXIMUM_QUALIFYING_EVENTS];
+        final AccessibilityEvent[] events = new AccessibilityEvent[MAXIMUM_QUALIFYING_EVENTS];
+        int start = 0;
+        int size = 0;
     }
 }
@@ -78,6 +78,21 @@ public class FeedbackItem {
      */
     private UtteranceCompleteRunnable mCompletedAction;
 
+    /**
+     * Uptime in milliseconds when the event that generated this item was
+     * created, or {@code 0} if this item was not generated by an event.
+     */
+    private long mEventTime;
+
+    /** Uptime in milliseconds when speech was requested for this item. */
+    private long mRequestTime;
+
+    /** Uptime in milliseconds when this item was first sent to the TTS. */
+    private long mSubmitTime;
+
+    /** Uptime in milliseconds when the TTS started speaking this item. */
+    private long mAudioStartTime;
+
     /**
      * @return The utterance ID for this item
      */
@@ -208,6 +223,75 @@ public class FeedbackItem {
         mCompletedAction = action;
     }
 
+    /**
+     * @return The uptime in milliseconds when the event that generated this
+     *         item was created, or {@code 0} if unknown.
+     */
+    public long getEventTime() {
+        return mEventTime;
+    }
+
+    /**
+     * Sets the uptime in milliseconds when the event that generated this item
+     * was created.
+     *
+     * @param eventTime The event time to set
+     */
+    public void setEventTime(long eventTime) {
+        mEventTime = eventTime;
+    }
+
+    /**
+     * @return The uptime in milliseconds when speech was requested for this
+     *         item, or {@code 0} if not yet requested.
+     */
+    public long getRequestTime() {
+        return mRequestTime;
+    }
+
+    /**
+     * Sets the uptime in milliseconds when speech was requested for this item.
+     *
+     * @param requestTime The request time to set
+     */
+    public void setRequestTime(long requestTime) {
+        mRequestTime = requestTime;
+    }
+
+    /**
+     * @return The uptime in milliseconds when this item was first sent to the
+     *         TTS, or {@code 0} if not yet sent.
+     */
+    public long getSubmitTime() {
+        return mSubmitTime;
+    }
+
+    /**
+     * Sets the uptime in milliseconds when this item was first sent to the TTS.
+     *
+     * @param submitTime The submit time to set
+     */
+    public void setSubmitTime(long submitTime) {
+        mSubmitTime = submitTime;
+    }
+
+    /**
+     * @return The uptime in milliseconds when the TTS started speaking this
+     *         item, or {@code 0} if not yet started.
+     */
+    public long getAudioStartTime() {
+        return mAudioStartTime;
+    }
+
+    /**
+     * Sets the uptime in milliseconds when the TTS started speaking this item.
+     *
+     * @param audioStartTime The audio start time to set
+     */
+    public void setAudioStartTime(long audioStartTime) {
+        mAudioStartTime = audioStartTime;
+    }
+
     @Override
     public String toString() {
         return "{utteranceId:\"" + mUtteranceId + "\", fragments:" + mFragments
@@ -172,8 +172,9 @@ public class FullScreenReadController implements AccessibilityEventListener {
                 return false;
             }
 
-            currentNode = AccessibilityNodeInfoUtils.searchFromInOrderTraversal(mService, rootNode,
-                    AccessibilityNodeInfoUtils.FILTER_SHOULD_FOCUS, NodeFocusFinder.SEARCH_FORWARD);
+            currentNode = mCursorController.searchFromInOrderTraversal(
+                    mService, rootNode, AccessibilityNodeInfoUtils.FILTER_SHOULD_FOCUS,
+                    NodeFocusFinder.SEARCH_FORWARD);
             if (currentNode == null) {
                 return false;
             }
@@ -275,6 +276,7 @@ public class FullScreenReadController implements AccessibilityEventListener {
 
         mCurrentState = newState;
         mSpeechController.setShouldInjectAutoReadingCallbacks(isActive(), mNodeSpokenRunnable);
+        mSpeechController.setFragmentLookahead(isActive());
     }
 
     public AutomaticReadingState getReadingState() {
@@ -20,10 +20,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Resources;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
-import android.media.MediaPlayer.OnPreparedListener;
 import android.preference.PreferenceManager;
 
 import com.google.android.marvin.utils.MappedSoundPool;
@@ -33,9 +29,6 @@ import com.googlecode.eyesfree.utils.MidiUtils;
 import com.googlecode.eyesfree.utils.PackageManagerUtils;
 import com.googlecode.eyesfree.utils.SharedPreferencesUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.util.Map;
 
 
@@ -368,7 +361,8 @@ public class MappedFeedbackController {
     }
 
     /**
-     * Generates and plays a MIDI scale.
+     * Generates and plays a MIDI scale. The scale is rendered directly to PCM
+     * and played through the sound pool's mixer.
      *
      * @param program The MIDI program ID to use
      * @param velocity The MIDI velocity to use for each note
@@ -394,45 +388,8 @@ public class MappedFeedbackController {
             return false;
         }
 
-        final File file = MidiUtils.generateMidiFileFromArray(mContext, midiSequence);
-        if (file == null) {
-            return false;
-        }
-
-        final MediaPlayer scalePlayer = new MediaPlayer();
-        scalePlayer.setOnPreparedListener(new OnPreparedListener() {
-            @Override
-            public void onPrepared(MediaPlayer mp) {
-                scalePlayer.start();
-            }
-        });
-
-        scalePlayer.setOnCompletionListener(new OnCompletionListener() {
-            @Override
-            public void onCompletion(MediaPlayer mp) {
-                scalePlayer.release();
-                file.delete();
-            }
-        });
-
-        // Use the FD method of setting the MediaPlayer data source for
-        // backwards compatibility.
-        try {
-            final FileInputStream in = new FileInputStream(file);
-
-            try {
-                scalePlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-                scalePlayer.setDataSource(in.getFD());
-                scalePlayer.prepareAsync();
-            } finally {
-                in.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
-
-        return true;
+        return mSoundPool.playMidiNotes(midiSequence, MappedSoundPool.DEFAULT_RATE,
+                MappedSoundPool.DEFAULT_VOLUME, MappedSoundPool.DEFAULT_PAN);
     }
 
     private final SharedPreferences.OnSharedPreferenceChangeListener
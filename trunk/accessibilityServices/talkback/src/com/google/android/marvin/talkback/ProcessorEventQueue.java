@@ -70,7 +70,7 @@ public class ProcessorEventQueue implements AccessibilityEventListener {
         mSpeechController = context.getSpeechController();
         mEventSpeechRuleProcessor = new EventSpeechRuleProcessor(context);
 
-        loadDefaultRules();
+        loadDefaultRules(mEventSpeechRuleProcessor);
     }
 
     public void setTestingListener(TalkBackListener testingListener) {
@@ -85,37 +85,37 @@ public class ProcessorEventQueue implements AccessibilityEventListener {
             mLastWindowStateChanged = SystemClock.uptimeMillis();
         }
 
-        synchronized (mEventQueue) {
-            mEventQueue.enqueue(event);
-            mHandler.postSpeak(event);
-        }
+        mEventQueue.enqueue(event);
+        mHandler.postSpeak(event);
     }
 
 
     /**
      * Loads default speech strategies based on the current SDK version.
+     *
+     * @param processor The processor to which the strategies are added.
      */
-    private void loadDefaultRules() {
+    public static void loadDefaultRules(EventSpeechRuleProcessor processor) {
         // Add version-specific speech strategies for semi-bundled apps.
-        mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_apps);
-        mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_googletv);
+        processor.addSpeechStrategy(R.raw.speechstrategy_apps);
+        processor.addSpeechStrategy(R.raw.speechstrategy_googletv);
 
         // Add platform-specific speech strategies for bundled apps.
         if (Build.VERSION.SDK_INT >= 16) {
-            mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_jellybean);
+            processor.addSpeechStrategy(R.raw.speechstrategy_jellybean);
         } else if (Build.VERSION.SDK_INT >= 14) {
-            mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_ics);
+            processor.addSpeechStrategy(R.raw.speechstrategy_ics);
         } else if (Build.VERSION.SDK_INT >= 11) {
-            mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_honeycomb);
+            processor.addSpeechStrategy(R.raw.speechstrategy_honeycomb);
         } else if (Build.VERSION.SDK_INT >= 9) {
-            mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_gingerbread);
+            processor.addSpeechStrategy(R.raw.speechstrategy_gingerbread);
         } else if (Build.VERSION.SDK_INT >= 8) {
-            mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy_froyo);
+            processor.addSpeechStrategy(R.raw.speechstrategy_froyo);
         }
 
         // Add generic speech strategy. This should always be added last so that
         // the app-specific rules above can override the generic rules.
-        mEventSpeechRuleProcessor.addSpeechStrategy(R.raw.speechstrategy);
+        processor.addSpeechStrategy(R.raw.speechstrategy);
     }
 
     /**
@@ -130,8 +130,13 @@ public class ProcessorEventQueue implements AccessibilityEventListener {
         LogUtils.log(this, Log.DEBUG, "Processing event: %s", event);
 
         final Utterance utterance = Utterance.obtain();
+        final long startTime = SystemClock.uptimeMillis();
+        final boolean processed = mEventSpeechRuleProcessor.processEvent(event, utterance);
 
-        if (!mEventSpeechRuleProcessor.processEvent(event, utterance)) {
+        SpeechLatencyTracker.getInstance().onRulesProcessed(
+                SystemClock.uptimeMillis() - startTime);
+
+        if (!processed) {
             // Failed to match event to a rule, so the utterance is empty.
             LogUtils.log(this, Log.WARN, "Failed to process event");
             utterance.recycle();
@@ -169,7 +174,7 @@ public class ProcessorEventQueue implements AccessibilityEventListener {
         final Bundle speechMetadata = metadata.getBundle(Utterance.KEY_METADATA_SPEECH_PARAMS);
 
         mSpeechController.speak(textToSpeak, utterance.getAuditory(), utterance.getHaptic(),
-                queueMode, flags, speechMetadata, nonSpeechMetadata);
+                queueMode, flags, speechMetadata, nonSpeechMetadata, null, event.getEventTime());
     }
 
     /**
@@ -233,14 +238,10 @@ public class ProcessorEventQueue implements AccessibilityEventListener {
          */
         private void processAllEvents(ProcessorEventQueue parent) {
             while (true) {
-                final AccessibilityEvent event;
-
-                synchronized (parent.mEventQueue) {
-                    if (parent.mEventQueue.isEmpty()) {
-                        return;
-                    }
+                final AccessibilityEvent event = parent.mEventQueue.dequeue();
 
-                    event = parent.mEventQueue.dequeue();
+                if (event == null) {
+                    return;
                 }
 
                 parent.processAndRecycleEvent(event);
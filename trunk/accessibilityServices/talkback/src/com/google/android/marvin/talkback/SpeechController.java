@@ -43,6 +43,7 @@ import com.googlecode.eyesfree.utils.StringBuilderUtils;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.PriorityQueue;
 import java.util.Set;
 
@@ -55,6 +56,12 @@ public class SpeechController {
     /** Prefix for utterance IDs. */
     private static final String UTTERANCE_ID_PREFIX = "talkback_";
 
+    /**
+     * Maximum number of fragments of the current item sent to the TTS ahead of
+     * the fragment being spoken when fragment look-ahead is enabled.
+     */
+    private static final int MAX_FRAGMENT_LOOKAHEAD = 2;
+
     /** Default stream for speech output. */
     public static final int DEFAULT_STREAM = AudioManager.STREAM_MUSIC;
 
@@ -118,7 +125,31 @@ public class SpeechController {
     private SpeechControllerListener mSpeechListener;
 
     /** An iterator at the fragment currently being processed */
-    private Iterator<FeedbackFragment> mCurrentFragmentIterator = null;
+    private ListIterator<FeedbackFragment> mCurrentFragmentIterator = null;
+
+    /**
+     * Text of the fragments of the current item that have been sent to the TTS
+     * and have not completed, in the order they were sent.
+     */
+    private final LinkedList<String> mSubmittedFragments = new LinkedList<String>();
+
+    /** The pitch of the most recently submitted fragment. */
+    private float mSubmittedPitch;
+
+    /** The rate of the most recently submitted fragment. */
+    private float mSubmittedRate;
+
+    /**
+     * Whether fragments should be sent to the TTS before the previous fragment
+     * of the same item completes.
+     */
+    private boolean mFragmentLookahead;
+
+    /**
+     * Whether the TTS failed to queue a fragment of the current item, in which
+     * case its remaining fragments are spoken one at a time.
+     */
+    private boolean mLookaheadFailed;
 
     /** The item current being spoken, or {@code null} if the TTS is idle. */
     private FeedbackItem mCurrentFeedbackItem;
@@ -173,6 +204,9 @@ public class SpeechController {
      */
     private boolean mIsSpeaking;
 
+    /** Collects latency statistics for spoken feedback. */
+    private final SpeechLatencyTracker mLatencyTracker = SpeechLatencyTracker.getInstance();
+
     public SpeechController(TalkBackService context) {
         mService = context;
         mService.addServiceStateListener(mServiceStateListener);
@@ -245,6 +279,18 @@ public class SpeechController {
         }
     }
 
+    /**
+     * Sets whether the fragments of an item should be sent to the TTS ahead of
+     * time, so that the TTS can speak them without a gap. This is used for
+     * continuous reading, where fragments are long and back-to-back.
+     * <p>
+     * Only fragments without earcons or haptics, and with the same pitch and
+     * rate as the preceding fragment, are sent ahead of time.
+     */
+    public void setFragmentLookahead(boolean enabled) {
+        mFragmentLookahead = enabled;
+    }
+
     /**
      * Repeats the last spoken utterance.
      */
@@ -349,9 +395,24 @@ public class SpeechController {
     public void speak(CharSequence text, Set<Integer> earcons, Set<Integer> haptics, int queueMode,
             int flags, Bundle speechParams, Bundle nonSpeechParams,
             UtteranceCompleteRunnable completedAction) {
+        speak(text, earcons, haptics, queueMode, flags, speechParams, nonSpeechParams,
+                completedAction, 0);
+    }
+
+    /**
+     * Cleans up and speaks feedback generated by an accessibility event.
+     *
+     * @see #speak(CharSequence, Set, Set, int, int, Bundle, Bundle, UtteranceCompleteRunnable)
+     * @param eventTime The time the source event was generated, used to
+     *            measure event-to-speech latency, or {@code 0} if unknown.
+     */
+    public void speak(CharSequence text, Set<Integer> earcons, Set<Integer> haptics, int queueMode,
+            int flags, Bundle speechParams, Bundle nonSpeechParams,
+            UtteranceCompleteRunnable completedAction, long eventTime) {
 
         final FeedbackItem pendingItem = FeedbackProcessingUtils.generateFeedbackItemFromInput(
                 mService, text, earcons, haptics, flags, speechParams, nonSpeechParams);
+        pendingItem.setEventTime(eventTime);
 
         speak(pendingItem, queueMode, completedAction);
     }
@@ -373,11 +434,14 @@ public class SpeechController {
             return;
         }
 
+        mLatencyTracker.onFeedbackRequested(item);
+
         item.setUninterruptible(queueMode == QUEUE_MODE_UNINTERRUPTIBLE);
         item.setCompletedAction(completedAction);
 
         if (queueMode != QUEUE_MODE_QUEUE) {
             mCurrentFragmentIterator = null;
+            mSubmittedFragments.clear();
             mFeedbackQueue.clear();
         }
 
@@ -482,6 +546,9 @@ public class SpeechController {
 
         setOverlayEnabled(ttsOverlayEnabled);
 
+        mFailoverTts.setAudioCacheEnabled(SharedPreferencesUtils.getBooleanPref(prefs, res,
+                R.string.pref_speech_cache_key, R.bool.pref_speech_cache_default));
+
         mUseIntonation = SharedPreferencesUtils.getBooleanPref(prefs, res,
                 R.string.pref_intonation_key, R.bool.pref_intonation_default);
         mSpeechPitch = SharedPreferencesUtils.getFloatFromStringPref(prefs, res,
@@ -566,6 +633,12 @@ public class SpeechController {
         processNextFragmentInternal();
     }
 
+    /**
+     * Sends the next fragment of the current item to the TTS, followed by as
+     * many look-ahead fragments as allowed.
+     *
+     * @return {@code false} if there are no more fragments to speak.
+     */
     private boolean processNextFragmentInternal() {
         if (mCurrentFragmentIterator == null || !mCurrentFragmentIterator.hasNext()) {
             return false;
@@ -575,25 +648,106 @@ public class SpeechController {
         playEarconsFromFragment(fragment);
         playHapticsFromFragment(fragment);
 
-        // Reuse the global instance of speech parameters.
-        final HashMap<String, String> params = mSpeechParametersMap;
-        params.clear();
+        final String text = submitFragment(fragment, false /* queue */);
 
-        // Add all custom speech parameters.
-        final Bundle speechParams = fragment.getSpeechParams();
-        for (String key : speechParams.keySet()) {
-            params.put(key, String.valueOf(speechParams.get(key)));
+        if (mTtsOverlay != null) {
+            mTtsOverlay.speak(text);
         }
 
-        // Utterance ID, stream, and volume override item params.
-        params.put(Engine.KEY_PARAM_UTTERANCE_ID, mCurrentFeedbackItem.getUtteranceId());
-        params.put(Engine.KEY_PARAM_STREAM, String.valueOf(DEFAULT_STREAM));
-        params.put(EngineCompatUtils.KEY_PARAM_VOLUME, String.valueOf(mSpeechVolume));
+        submitLookaheadFragments();
+        return true;
+    }
+
+    /**
+     * Handles successful completion of the oldest submitted fragment of the
+     * current item.
+     *
+     * @return {@code false} if there are no more fragments to speak.
+     */
+    private boolean advanceFragment() {
+        if (!mSubmittedFragments.isEmpty()) {
+            mSubmittedFragments.removeFirst();
+        }
+
+        if (mSubmittedFragments.isEmpty()) {
+            return processNextFragmentInternal();
+        }
+
+        // The TTS is already speaking the next fragment.
+        if (mTtsOverlay != null) {
+            mTtsOverlay.speak(mSubmittedFragments.getFirst());
+        }
+
+        submitLookaheadFragments();
+        return true;
+    }
+
+    /**
+     * Adds upcoming fragments of the current item to the TTS queue, if
+     * fragment look-ahead is enabled. Stops at the first fragment that must
+     * wait for the preceding fragment to complete.
+     */
+    private void submitLookaheadFragments() {
+        if (!mFragmentLookahead || mLookaheadFailed
+                || shouldSilenceSpeech(mCurrentFeedbackItem)) {
+            return;
+        }
+
+        while ((mSubmittedFragments.size() <= MAX_FRAGMENT_LOOKAHEAD)
+                && (mCurrentFragmentIterator != null) && mCurrentFragmentIterator.hasNext()) {
+            final FeedbackFragment fragment = mCurrentFragmentIterator.next();
+            if (!canSubmitAhead(fragment)) {
+                mCurrentFragmentIterator.previous();
+                return;
+            }
+
+            if (submitFragment(fragment, true /* queue */) == null) {
+                // Speak the fragment again once the fragment ahead of it
+                // completes, which also handles any further errors.
+                LogUtils.log(this, Log.WARN, "Failed to queue fragment for %s",
+                        mCurrentFeedbackItem.getUtteranceId());
+                mCurrentFragmentIterator.previous();
+                mLookaheadFailed = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns whether a fragment can be sent to the TTS before the preceding
+     * fragment completes. Earcons and haptics would play early, empty text
+     * completes out of order, changing pitch or rate requires stopping the
+     * TTS, and cached audio plays outside of the TTS queue.
+     */
+    private boolean canSubmitAhead(FeedbackFragment fragment) {
+        if (!fragment.getEarcons().isEmpty() || !fragment.getHaptics().isEmpty()
+                || TextUtils.isEmpty(fragment.getText())
+                || mFailoverTts.isPlayingCachedAudio()) {
+            return false;
+        }
+
+        final HashMap<String, String> params = mSpeechParametersMap;
+        fillSpeechParams(fragment, params);
+
+        return (getPitch(params) == mSubmittedPitch) && (getRate(params) == mSubmittedRate);
+    }
 
-        final float pitch =
-                mSpeechPitch * (mUseIntonation ? parseFloatParam(params, SpeechParam.PITCH, 1) : 1);
-        final float rate =
-                mSpeechRate * (mUseIntonation ? parseFloatParam(params, SpeechParam.RATE, 1) : 1);
+    /**
+     * Sends a fragment of the current item to the TTS.
+     *
+     * @param fragment The fragment to speak.
+     * @param queue {@code true} to add the fragment behind fragments already
+     *            sent to the TTS, {@code false} to flush speech first.
+     * @return The text sent to the TTS, or {@code null} if none or if the
+     *         fragment could not be queued.
+     */
+    private String submitFragment(FeedbackFragment fragment, boolean queue) {
+        // Reuse the global instance of speech parameters.
+        final HashMap<String, String> params = mSpeechParametersMap;
+        fillSpeechParams(fragment, params);
+
+        final float pitch = getPitch(params);
+        final float rate = getRate(params);
         final String text;
         if (shouldSilenceSpeech(mCurrentFeedbackItem) || TextUtils.isEmpty(fragment.getText())) {
             text = null;
@@ -603,16 +757,54 @@ public class SpeechController {
 
         LogUtils.log(this, Log.VERBOSE, "Speaking fragment text \"%s\"", text);
 
+        if (!queue) {
+            mSubmittedFragments.clear();
+        }
+
+        mSubmittedFragments.add(text);
+        mSubmittedPitch = pitch;
+        mSubmittedRate = rate;
+
         // It's okay if the utterance is empty, the fail-over TTS will
         // immediately call the fragment completion listener. This process is
         // important for things like continuous reading.
-        mFailoverTts.speak(text, pitch, rate, params);
+        if (!mFailoverTts.speak(text, pitch, rate, params, queue)) {
+            mSubmittedFragments.removeLast();
+            return null;
+        }
 
-        if (mTtsOverlay != null) {
-            mTtsOverlay.speak(text);
+        mLatencyTracker.onFeedbackSubmitted(mCurrentFeedbackItem);
+
+        return text;
+    }
+
+    /**
+     * Populates the TTS parameters for a fragment of the current item.
+     */
+    @SuppressLint("InlinedApi")
+    private void fillSpeechParams(FeedbackFragment fragment, HashMap<String, String> params) {
+        params.clear();
+
+        // Add all custom speech parameters.
+        final Bundle speechParams = fragment.getSpeechParams();
+        for (String key : speechParams.keySet()) {
+            params.put(key, String.valueOf(speechParams.get(key)));
         }
 
-        return true;
+        // Utterance ID, stream, and volume override item params. All fragments
+        // of an item share its utterance ID, and the TTS completes them in
+        // order.
+        params.put(Engine.KEY_PARAM_UTTERANCE_ID, mCurrentFeedbackItem.getUtteranceId());
+        params.put(Engine.KEY_PARAM_STREAM, String.valueOf(DEFAULT_STREAM));
+        params.put(EngineCompatUtils.KEY_PARAM_VOLUME, String.valueOf(mSpeechVolume));
+    }
+
+    private float getPitch(HashMap<String, String> params) {
+        return mSpeechPitch * (mUseIntonation ? parseFloatParam(params, SpeechParam.PITCH, 1) : 1);
+    }
+
+    private float getRate(HashMap<String, String> params) {
+        return mSpeechRate * (mUseIntonation ? parseFloatParam(params, SpeechParam.RATE, 1) : 1);
     }
 
     /**
@@ -711,6 +903,7 @@ public class SpeechController {
     private void clearCurrentAndQueuedUtterances() {
         mFeedbackQueue.clear();
         mCurrentFragmentIterator = null;
+        mSubmittedFragments.clear();
 
         if (mCurrentFeedbackItem != null) {
             final String utteranceId = mCurrentFeedbackItem.getUtteranceId();
@@ -765,7 +958,7 @@ public class SpeechController {
         }
 
         // Process the next fragment for this FeedbackItem if applicable.
-        if ((status == STATUS_SPOKEN) && processNextFragmentInternal()) {
+        if ((status == STATUS_SPOKEN) && advanceFragment()) {
             return;
         } else {
             // If speaking resulted in an error, was ultimately interrupted, or
@@ -851,7 +1044,9 @@ public class SpeechController {
             handleSpeechStarting();
         }
 
-        mCurrentFragmentIterator = nextItem.getFragments().iterator();
+        mCurrentFragmentIterator = nextItem.getFragments().listIterator();
+        mSubmittedFragments.clear();
+        mLookaheadFailed = false;
         speakNextItemInternal(nextItem);
         return true;
     }
@@ -959,6 +1154,14 @@ public class SpeechController {
             SpeechController.this.onTtsInitialized(wasSwitchingEngines);
         }
 
+        @Override
+        public void onUtteranceStarted(String utteranceId) {
+            final FeedbackItem item = mCurrentFeedbackItem;
+            if ((item != null) && item.getUtteranceId().equals(utteranceId)) {
+                mLatencyTracker.onFeedbackStarted(item);
+            }
+        }
+
         @Override
         public void onUtteranceCompleted(String utteranceId, boolean success) {
             // Utterances from FailoverTts are considered fragments in SpeechController
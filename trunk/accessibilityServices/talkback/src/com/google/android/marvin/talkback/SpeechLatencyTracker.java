@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.marvin.mytalkback;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+
+/**
+ * Collects latency histograms for each stage of the speech pipeline, from the
+ * time an {@link android.view.accessibility.AccessibilityEvent} is generated
+ * until the text-to-speech engine starts speaking the resulting
+ * {@link FeedbackItem}.
+ * <p>
+ * Histograms are exposed through {@link StatusProvider}.
+ * </p>
+ */
+public class SpeechLatencyTracker {
+    /** Time spent matching an event against speech rules. */
+    public static final int STAGE_RULE_PROCESSING = 0;
+
+    /** Time from event generation until speech is requested. */
+    public static final int STAGE_EVENT_TO_REQUEST = 1;
+
+    /** Time from event generation until text is sent to the TTS engine. */
+    public static final int STAGE_EVENT_TO_SUBMIT = 2;
+
+    /** Time from event generation until the TTS engine starts speaking. */
+    public static final int STAGE_EVENT_TO_AUDIO = 3;
+
+    /** Time from a speech request until the TTS engine starts speaking. */
+    public static final int STAGE_REQUEST_TO_AUDIO = 4;
+
+    /** Stage names, indexed by stage. */
+    private static final String[] STAGE_NAMES = new String[] {
+            "rule_processing", "event_to_request", "event_to_submit", "event_to_audio",
+            "request_to_audio"
+    };
+
+    /** Columns of the cursor returned by {@link #query()}. */
+    public static final String[] COLUMNS = new String[] {
+            "stage", "count", "mean", "p50", "p90", "p99", "max"
+    };
+
+    /**
+     * Number of histogram buckets. Bucket {@code i} holds samples in the range
+     * [2^(i-1), 2^i) milliseconds, and the last bucket holds everything
+     * longer.
+     */
+    private static final int BUCKET_COUNT = 14;
+
+    /** The singleton instance of this class. */
+    private static SpeechLatencyTracker sInstance;
+
+    /** Histograms, indexed by stage. */
+    private final Histogram[] mHistograms = new Histogram[STAGE_NAMES.length];
+
+    /**
+     * @return The singleton instance of this class.
+     */
+    public static synchronized SpeechLatencyTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new SpeechLatencyTracker();
+        }
+
+        return sInstance;
+    }
+
+    private SpeechLatencyTracker() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records the time spent matching an event against speech rules.
+     *
+     * @param durationMillis The processing time in milliseconds.
+     */
+    public void onRulesProcessed(long durationMillis) {
+        record(STAGE_RULE_PROCESSING, durationMillis);
+    }
+
+    /**
+     * Marks a feedback item as requested by a client of
+     * {@link SpeechController}.
+     *
+     * @param item The requested item.
+     */
+    public void onFeedbackRequested(FeedbackItem item) {
+        final long now = SystemClock.uptimeMillis();
+        item.setRequestTime(now);
+
+        if (item.getEventTime() > 0) {
+            record(STAGE_EVENT_TO_REQUEST, now - item.getEventTime());
+        }
+    }
+
+    /**
+     * Marks the first fragment of a feedback item as sent to the TTS engine.
+     *
+     * @param item The submitted item.
+     */
+    public void onFeedbackSubmitted(FeedbackItem item) {
+        if (item.getSubmitTime() > 0) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        item.setSubmitTime(now);
+
+        if (item.getEventTime() > 0) {
+            record(STAGE_EVENT_TO_SUBMIT, now - item.getEventTime());
+        }
+    }
+
+    /**
+     * Marks a feedback item as started by the TTS engine.
+     *
+     * @param item The started item.
+     */
+    public void onFeedbackStarted(FeedbackItem item) {
+        if (item.getAudioStartTime() > 0) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        item.setAudioStartTime(now);
+
+        if (item.getEventTime() > 0) {
+            record(STAGE_EVENT_TO_AUDIO, now - item.getEventTime());
+        }
+
+        if (item.getRequestTime() > 0) {
+            record(STAGE_REQUEST_TO_AUDIO, now - item.getRequestTime());
+        }
+    }
+
+    /**
+     * Adds a sample to the histogram for a stage.
+     *
+     * @param stage The stage, one of the {@code STAGE_*} constants.
+     * @param durationMillis The duration in milliseconds.
+     */
+    public void record(int stage, long durationMillis) {
+        final Histogram histogram = mHistograms[stage];
+
+        synchronized (histogram) {
+            histogram.add(Math.max(0, durationMillis));
+        }
+    }
+
+    /**
+     * Clears all histograms.
+     */
+    public void reset() {
+        for (Histogram histogram : mHistograms) {
+            synchronized (histogram) {
+                histogram.clear();
+            }
+        }
+    }
+
+    /**
+     * @return A cursor with one row per stage, using the columns in
+     *         {@link #COLUMNS}. Percentiles are reported as the upper bound of
+     *         the containing bucket.
+     */
+    public Cursor query() {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS, mHistograms.length);
+
+        for (int i = 0; i < mHistograms.length; i++) {
+            final Histogram histogram = mHistograms[i];
+
+            synchronized (histogram) {
+                cursor.addRow(new Object[] {
+                        STAGE_NAMES[i], histogram.mCount, histogram.getMean(),
+                        histogram.getPercentile(50), histogram.getPercentile(90),
+                        histogram.getPercentile(99), histogram.mMax
+                });
+            }
+        }
+
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < mHistograms.length; i++) {
+            final Histogram histogram = mHistograms[i];
+
+            synchronized (histogram) {
+                builder.append(STAGE_NAMES[i]);
+                builder.append(": count=");
+                builder.append(histogram.mCount);
+                builder.append(", mean=");
+                builder.append(histogram.getMean());
+                builder.append(", p50=");
+                builder.append(histogram.getPercentile(50));
+                builder.append(", p90=");
+                builder.append(histogram.getPercentile(90));
+                builder.append(", max=");
+                builder.append(histogram.mMax);
+                builder.append('\n');
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Histogram with logarithmic millisecond buckets.
+     */
+    private static class Histogram {
+        private final long[] mBuckets = new long[BUCKET_COUNT];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        public void add(long durationMillis) {
+            final int bucket = Math.min(BUCKET_COUNT - 1,
+                    64 - Long.numberOfLeadingZeros(durationMillis));
+
+            mBuckets[bucket]++;
+            mCount++;
+            mSum += durationMillis;
+            mMax = Math.max(mMax, durationMillis);
+        }
+
+        public void clear() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets[i] = 0;
+            }
+
+            mCount = 0;
+            mSum = 0;
+            mMax = 0;
+        }
+
+        public long getMean() {
+            return (mCount == 0) ? 0 : (mSum / mCount);
+        }
+
+        public long getPercentile(int percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+
+            final long threshold = (mCount * percentile + 99) / 100;
+            long seen = 0;
+
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets[i];
+
+                if (seen >= threshold) {
+                    // Report the bucket's upper bound, capped by the maximum.
+                    return Math.min(mMax, (1L << i) - 1);
+                }
+            }
+
+            return mMax;
+        }
+    }
+}
@@ -44,6 +44,11 @@ import android.net.Uri;
  * 3. The status provider returns 0 for inactive, and
  *    1 for active.
  *
+ * Querying the path "latency" returns speech pipeline latency statistics
+ * collected by {@link SpeechLatencyTracker}, one row per stage. Deleting the
+ * same path resets the statistics. This path requires the signature-level
+ * LATENCY_STATS permission declared in the manifest.
+ *
  * NOTE: This class is required for pre-Honeycomb compatibility.
  *
  * @author clchen@google.com (Charles L. Chen)
@@ -54,6 +59,9 @@ public class StatusProvider extends ContentProvider {
     private static final int DISABLED = 0x00000002;
     private static final String[] EMPTY_STRING_ARRAY = new String[] {
             "" };
+    private static final String PATH_LATENCY = "/latency";
+    private static final String PERMISSION_LATENCY_STATS =
+            "com.google.android.marvin.myfeedback.permission.LATENCY_STATS";
 
     private class StatusCursor extends MatrixCursor {
         private int status;
@@ -84,6 +92,11 @@ public class StatusProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        if (PATH_LATENCY.equals(uri.getPath())) {
+            enforceLatencyPermission();
+            SpeechLatencyTracker.getInstance().reset();
+        }
+
         return 0;
     }
 
@@ -105,6 +118,11 @@ public class StatusProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
+        if (PATH_LATENCY.equals(uri.getPath())) {
+            enforceLatencyPermission();
+            return SpeechLatencyTracker.getInstance().query();
+        }
+
         final StatusCursor cursor = new StatusCursor();
 
         if (TalkBackService.isServiceActive()) {
@@ -116,6 +134,15 @@ public class StatusProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Older platforms don't deny access when a path permission is missing and
+     * the provider itself is unprotected, so check the permission here too.
+     */
+    private void enforceLatencyPermission() {
+        getContext().enforceCallingOrSelfPermission(
+                PERMISSION_LATENCY_STATS, "Reading speech latency statistics");
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         return 0;
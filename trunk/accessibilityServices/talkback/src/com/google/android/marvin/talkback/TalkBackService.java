@@ -831,6 +831,8 @@ public class TalkBackService extends AccessibilityService
 
         // Add event processors. These will process incoming AccessibilityEvents
         // in the order they are added.
+        mAccessibilityEventListeners.add(NodeSpeechRuleProcessor.getInstance());
+
         mProcessorEventQueue = new ProcessorEventQueue(this);
         mProcessorEventQueue.setTestingListener(mTestingListener);
 
@@ -102,6 +102,75 @@ public class EventSpeechRule {
     private static final String PROPERTY_PLATFORM_RELEASE = "platformRelease";
     private static final String PROPERTY_PLATFORM_SDK = "platformSdk";
 
+    // Property identifiers, resolved from property names at load time.
+    private static final int PROPERTY_ID_UNKNOWN = 0;
+    private static final int PROPERTY_ID_EVENT_TYPE = 1;
+    private static final int PROPERTY_ID_PACKAGE_NAME = 2;
+    private static final int PROPERTY_ID_CLASS_NAME = 3;
+    private static final int PROPERTY_ID_CLASS_NAME_STRICT = 4;
+    private static final int PROPERTY_ID_TEXT = 5;
+    private static final int PROPERTY_ID_BEFORE_TEXT = 6;
+    private static final int PROPERTY_ID_CONTENT_DESCRIPTION = 7;
+    private static final int PROPERTY_ID_CONTENT_DESCRIPTION_OR_TEXT = 8;
+    private static final int PROPERTY_ID_NODE_DESCRIPTION_OR_FALLBACK = 9;
+    private static final int PROPERTY_ID_EVENT_TIME = 10;
+    private static final int PROPERTY_ID_ITEM_COUNT = 11;
+    private static final int PROPERTY_ID_CURRENT_ITEM_INDEX = 12;
+    private static final int PROPERTY_ID_FROM_INDEX = 13;
+    private static final int PROPERTY_ID_TO_INDEX = 14;
+    private static final int PROPERTY_ID_SCROLLABLE = 15;
+    private static final int PROPERTY_ID_SCROLL_X = 16;
+    private static final int PROPERTY_ID_SCROLL_Y = 17;
+    private static final int PROPERTY_ID_RECORD_COUNT = 18;
+    private static final int PROPERTY_ID_CHECKED = 19;
+    private static final int PROPERTY_ID_ENABLED = 20;
+    private static final int PROPERTY_ID_FULL_SCREEN = 21;
+    private static final int PROPERTY_ID_PASSWORD = 22;
+    private static final int PROPERTY_ID_ADDED_COUNT = 23;
+    private static final int PROPERTY_ID_REMOVED_COUNT = 24;
+    private static final int PROPERTY_ID_QUEUING = 25;
+    private static final int PROPERTY_ID_VERSION_CODE = 26;
+    private static final int PROPERTY_ID_VERSION_NAME = 27;
+    private static final int PROPERTY_ID_PLATFORM_RELEASE = 28;
+    private static final int PROPERTY_ID_PLATFORM_SDK = 29;
+
+    /** Mapping from property name to property identifier. */
+    private static final HashMap<String, Integer> sPropertyNameToIdMap =
+            new HashMap<String, Integer>();
+    static {
+        sPropertyNameToIdMap.put(PROPERTY_EVENT_TYPE, PROPERTY_ID_EVENT_TYPE);
+        sPropertyNameToIdMap.put(PROPERTY_PACKAGE_NAME, PROPERTY_ID_PACKAGE_NAME);
+        sPropertyNameToIdMap.put(PROPERTY_CLASS_NAME, PROPERTY_ID_CLASS_NAME);
+        sPropertyNameToIdMap.put(PROPERTY_CLASS_NAME_STRICT, PROPERTY_ID_CLASS_NAME_STRICT);
+        sPropertyNameToIdMap.put(PROPERTY_TEXT, PROPERTY_ID_TEXT);
+        sPropertyNameToIdMap.put(PROPERTY_BEFORE_TEXT, PROPERTY_ID_BEFORE_TEXT);
+        sPropertyNameToIdMap.put(PROPERTY_CONTENT_DESCRIPTION, PROPERTY_ID_CONTENT_DESCRIPTION);
+        sPropertyNameToIdMap.put(PROPERTY_CONTENT_DESCRIPTION_OR_TEXT,
+                PROPERTY_ID_CONTENT_DESCRIPTION_OR_TEXT);
+        sPropertyNameToIdMap.put(PROPERTY_NODE_DESCRIPTION_OR_FALLBACK,
+                PROPERTY_ID_NODE_DESCRIPTION_OR_FALLBACK);
+        sPropertyNameToIdMap.put(PROPERTY_EVENT_TIME, PROPERTY_ID_EVENT_TIME);
+        sPropertyNameToIdMap.put(PROPERTY_ITEM_COUNT, PROPERTY_ID_ITEM_COUNT);
+        sPropertyNameToIdMap.put(PROPERTY_CURRENT_ITEM_INDEX, PROPERTY_ID_CURRENT_ITEM_INDEX);
+        sPropertyNameToIdMap.put(PROPERTY_FROM_INDEX, PROPERTY_ID_FROM_INDEX);
+        sPropertyNameToIdMap.put(PROPERTY_TO_INDEX, PROPERTY_ID_TO_INDEX);
+        sPropertyNameToIdMap.put(PROPERTY_SCROLLABLE, PROPERTY_ID_SCROLLABLE);
+        sPropertyNameToIdMap.put(PROPERTY_SCROLL_X, PROPERTY_ID_SCROLL_X);
+        sPropertyNameToIdMap.put(PROPERTY_SCROLL_Y, PROPERTY_ID_SCROLL_Y);
+        sPropertyNameToIdMap.put(PROPERTY_RECORD_COUNT, PROPERTY_ID_RECORD_COUNT);
+        sPropertyNameToIdMap.put(PROPERTY_CHECKED, PROPERTY_ID_CHECKED);
+        sPropertyNameToIdMap.put(PROPERTY_ENABLED, PROPERTY_ID_ENABLED);
+        sPropertyNameToIdMap.put(PROPERTY_FULL_SCREEN, PROPERTY_ID_FULL_SCREEN);
+        sPropertyNameToIdMap.put(PROPERTY_PASSWORD, PROPERTY_ID_PASSWORD);
+        sPropertyNameToIdMap.put(PROPERTY_ADDED_COUNT, PROPERTY_ID_ADDED_COUNT);
+        sPropertyNameToIdMap.put(PROPERTY_REMOVED_COUNT, PROPERTY_ID_REMOVED_COUNT);
+        sPropertyNameToIdMap.put(PROPERTY_QUEUING, PROPERTY_ID_QUEUING);
+        sPropertyNameToIdMap.put(PROPERTY_VERSION_CODE, PROPERTY_ID_VERSION_CODE);
+        sPropertyNameToIdMap.put(PROPERTY_VERSION_NAME, PROPERTY_ID_VERSION_NAME);
+        sPropertyNameToIdMap.put(PROPERTY_PLATFORM_RELEASE, PROPERTY_ID_PLATFORM_RELEASE);
+        sPropertyNameToIdMap.put(PROPERTY_PLATFORM_SDK, PROPERTY_ID_PLATFORM_SDK);
+    }
+
     // Property types.
     private static final int PROPERTY_TYPE_UNKNOWN = 0;
     private static final int PROPERTY_TYPE_BOOLEAN = 1;
@@ -326,35 +395,78 @@ public class EventSpeechRule {
     }
 
     /**
-     * Applies this rule's {@link AccessibilityEventFilter} to an
-     * {@link AccessibilityEvent}.
+     * Returns the event types that this rule's filter is guaranteed to reject
+     * events outside of. Used to index rules by event type.
+     *
+     * @return The accepted event types, or {@code null} if this rule may
+     *         accept any event type.
+     */
+    public int[] getAcceptedEventTypes() {
+        if (mFilter instanceof DefaultFilter) {
+            return ((DefaultFilter) mFilter).getAcceptedEventTypes();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the exact class names that this rule's filter is guaranteed to
+     * reject events outside of. Used to index rules by class name.
+     *
+     * @return The accepted class names, or {@code null} if this rule may
+     *         accept any class name.
+     */
+    public String[] getAcceptedClassNames() {
+        if (mFilter instanceof DefaultFilter) {
+            return ((DefaultFilter) mFilter).getAcceptedStrictClassNames();
+        }
+
+        return null;
+    }
+
+    /**
+     * Applies this rule's {@link AccessibilityEventFilter} to the event held
+     * by an {@link EvaluationContext}. Property values computed while
+     * filtering are kept in the context for use by subsequent rules.
      *
-     * @param event The event to which this rule's filter will be applied.
+     * @param values The evaluation context for the event.
      * @return {@code true} if the event was accepted by the filter,
      *         {@code false} otherwise.
      */
-    public boolean applyFilter(AccessibilityEvent event) {
+    public boolean applyFilter(EvaluationContext values) {
         // Rules without a filter will match all events.
         if (mFilter == null) {
             return true;
+        } else if (mFilter instanceof DefaultFilter) {
+            return ((DefaultFilter) mFilter).accept(values);
         } else {
-            return mFilter.accept(event, mContext);
+            return mFilter.accept(values.getEvent(), mContext);
         }
     }
 
     /**
      * Uses this rule's {@link AccessibilityEventFormatter} to populate a
-     * formatted {@link Utterance} based on an {@link AccessibilityEvent}
+     * formatted {@link Utterance} based on the event held by an
+     * {@link EvaluationContext}.
      *
-     * @param event The event to be used by this rule's
-     *            {@link AccessibilityEventFormatter}
+     * @param values The evaluation context for the event.
      * @param utterance The utterance to format
      * @return {@code true} if the formatter successfully populated the
      *         utterance, {@code false} otherwise
      */
-    public boolean applyFormatter(AccessibilityEvent event, Utterance utterance) {
+    public boolean applyFormatter(EvaluationContext values, Utterance utterance) {
+        final boolean formatted;
+
         // No formatter indicates there is no utterance text.
-        if ((mFormatter != null) && !mFormatter.format(event, mContext, utterance)) {
+        if (mFormatter == null) {
+            formatted = true;
+        } else if (mFormatter instanceof DefaultFormatter) {
+            formatted = ((DefaultFormatter) mFormatter).format(values, utterance);
+        } else {
+            formatted = mFormatter.format(values.getEvent(), mContext, utterance);
+        }
+
+        if (!formatted) {
             return false;
         }
 
@@ -414,18 +526,33 @@ public class EventSpeechRule {
      * @return The parsed value or null if parse error occurs.
      */
     private static Comparable<?> parsePropertyValue(String name, String value) {
-        if (PROPERTY_EVENT_TYPE.equals(name)) {
+        return parsePropertyValue(getPropertyId(name), name, value);
+    }
+
+    /**
+     * Parses a property according to the type of the property with the
+     * specified identifier. Parsing failures are logged and null is returned.
+     *
+     * @param propertyId The property identifier.
+     * @param name The property name, used for logging.
+     * @param value The property value.
+     * @return The parsed value or null if parse error occurs.
+     */
+    private static Comparable<?> parsePropertyValue(int propertyId, String name, String value) {
+        if (propertyId == PROPERTY_ID_EVENT_TYPE) {
             return sEventTypeNameToValueMap.get(value);
         }
 
-        final int propertyType = getPropertyType(name);
+        final int propertyType = getPropertyType(propertyId);
 
         switch (propertyType) {
             case PROPERTY_TYPE_BOOLEAN:
                 return Boolean.valueOf(value);
             case PROPERTY_TYPE_FLOAT:
                 try {
-                    return Float.valueOf(value);
+                    // Parse as double so that event times keep millisecond
+                    // precision.
+                    return Double.valueOf(value);
                 } catch (NumberFormatException nfe) {
                     LogUtils.log(EventSpeechRule.class, Log.WARN, "Property '%s' not float.", name);
                     return null;
@@ -444,83 +571,67 @@ public class EventSpeechRule {
         }
     }
 
-    private static final int getPropertyType(String propertyName) {
-        if (isBooleanProperty(propertyName)) {
-            return PROPERTY_TYPE_BOOLEAN;
-        } else if (isFloatProperty(propertyName)) {
-            return PROPERTY_TYPE_FLOAT;
-        } else if (isIntegerProperty(propertyName)) {
-            return PROPERTY_TYPE_INTEGER;
-        } else if (isStringProperty(propertyName)) {
-            return PROPERTY_TYPE_STRING;
-        } else {
-            return PROPERTY_TYPE_UNKNOWN;
-        }
-    }
-
     /**
-     * Returns if a property is an integer.
+     * Returns the identifier for a property name.
      *
      * @param propertyName The property name.
-     * @return True if the property is an integer, false otherwise.
+     * @return The property identifier, or {@link #PROPERTY_ID_UNKNOWN} if the
+     *         property name is not recognized.
      */
-    private static boolean isIntegerProperty(String propertyName) {
-        return (PROPERTY_EVENT_TYPE.equals(propertyName)
-                || PROPERTY_ITEM_COUNT.equals(propertyName)
-                || PROPERTY_CURRENT_ITEM_INDEX.equals(propertyName)
-                || PROPERTY_FROM_INDEX.equals(propertyName)
-                || PROPERTY_TO_INDEX.equals(propertyName)
-                || PROPERTY_SCROLL_X.equals(propertyName)
-                || PROPERTY_SCROLL_Y.equals(propertyName)
-                || PROPERTY_RECORD_COUNT.equals(propertyName)
-                || PROPERTY_ADDED_COUNT.equals(propertyName)
-                || PROPERTY_REMOVED_COUNT.equals(propertyName)
-                || PROPERTY_QUEUING.equals(propertyName))
-                || PROPERTY_VERSION_CODE.equals(propertyName)
-                || PROPERTY_PLATFORM_SDK.equals(propertyName);
-    }
+    private static int getPropertyId(String propertyName) {
+        final Integer propertyId = sPropertyNameToIdMap.get(propertyName);
 
-    /**
-     * Returns if a property is a float.
-     *
-     * @param propertyName The property name.
-     * @return True if the property is a float, false otherwise.
-     */
-    private static boolean isFloatProperty(String propertyName) {
-        return PROPERTY_EVENT_TIME.equals(propertyName);
-    }
+        if (propertyId == null) {
+            return PROPERTY_ID_UNKNOWN;
+        }
 
-    /**
-     * Returns if a property is a string.
-     *
-     * @param propertyName The property name.
-     * @return True if the property is a string, false otherwise.
-     */
-    private static boolean isStringProperty(String propertyName) {
-        return (PROPERTY_PACKAGE_NAME.equals(propertyName)
-                || PROPERTY_CLASS_NAME.equals(propertyName)
-                || PROPERTY_CLASS_NAME_STRICT.equals(propertyName)
-                || PROPERTY_TEXT.equals(propertyName)
-                || PROPERTY_BEFORE_TEXT.equals(propertyName)
-                || PROPERTY_CONTENT_DESCRIPTION.equals(propertyName)
-                || PROPERTY_CONTENT_DESCRIPTION_OR_TEXT.equals(propertyName)
-                || PROPERTY_NODE_DESCRIPTION_OR_FALLBACK.equals(propertyName)
-                || PROPERTY_VERSION_NAME.equals(propertyName)
-                || PROPERTY_PLATFORM_RELEASE.equals(propertyName));
+        return propertyId;
     }
 
     /**
-     * Returns if a property is a boolean.
+     * Returns the type of the property with the specified identifier.
      *
-     * @param propertyName The property name.
-     * @return True if the property is a boolean, false otherwise.
+     * @param propertyId The property identifier.
+     * @return The property type.
      */
-    private static boolean isBooleanProperty(String propertyName) {
-        return (PROPERTY_CHECKED.equals(propertyName)
-                || PROPERTY_ENABLED.equals(propertyName)
-                || PROPERTY_FULL_SCREEN.equals(propertyName)
-                || PROPERTY_SCROLLABLE.equals(propertyName)
-                || PROPERTY_PASSWORD.equals(propertyName));
+    private static int getPropertyType(int propertyId) {
+        switch (propertyId) {
+            case PROPERTY_ID_CHECKED:
+            case PROPERTY_ID_ENABLED:
+            case PROPERTY_ID_FULL_SCREEN:
+            case PROPERTY_ID_SCROLLABLE:
+            case PROPERTY_ID_PASSWORD:
+                return PROPERTY_TYPE_BOOLEAN;
+            case PROPERTY_ID_EVENT_TIME:
+                return PROPERTY_TYPE_FLOAT;
+            case PROPERTY_ID_EVENT_TYPE:
+            case PROPERTY_ID_ITEM_COUNT:
+            case PROPERTY_ID_CURRENT_ITEM_INDEX:
+            case PROPERTY_ID_FROM_INDEX:
+            case PROPERTY_ID_TO_INDEX:
+            case PROPERTY_ID_SCROLL_X:
+            case PROPERTY_ID_SCROLL_Y:
+            case PROPERTY_ID_RECORD_COUNT:
+            case PROPERTY_ID_ADDED_COUNT:
+            case PROPERTY_ID_REMOVED_COUNT:
+            case PROPERTY_ID_QUEUING:
+            case PROPERTY_ID_VERSION_CODE:
+            case PROPERTY_ID_PLATFORM_SDK:
+                return PROPERTY_TYPE_INTEGER;
+            case PROPERTY_ID_PACKAGE_NAME:
+            case PROPERTY_ID_CLASS_NAME:
+            case PROPERTY_ID_CLASS_NAME_STRICT:
+            case PROPERTY_ID_TEXT:
+            case PROPERTY_ID_BEFORE_TEXT:
+            case PROPERTY_ID_CONTENT_DESCRIPTION:
+            case PROPERTY_ID_CONTENT_DESCRIPTION_OR_TEXT:
+            case PROPERTY_ID_NODE_DESCRIPTION_OR_FALLBACK:
+            case PROPERTY_ID_VERSION_NAME:
+            case PROPERTY_ID_PLATFORM_RELEASE:
+                return PROPERTY_TYPE_STRING;
+            default:
+                return PROPERTY_TYPE_UNKNOWN;
+        }
     }
 
     /**
@@ -743,6 +854,12 @@ public class EventSpeechRule {
      * {@link AccessibilityEvent}.
      */
     private class DefaultFilter implements AccessibilityEventFilter {
+        /** Property matchers in evaluation order. */
+        private final PropertyMatcher[] mMatchers;
+
+        /** The package name used when resolving filtering class names. */
+        private final String mFilteringPackage;
+
         public DefaultFilter(Context context, Node node) {
             NodeList properties = node.getChildNodes();
 
@@ -766,14 +883,40 @@ public class EventSpeechRule {
                     mPackageName = textContent;
                 }
             }
+
+            mMatchers = mPropertyMatchers.values().toArray(
+                    new PropertyMatcher[mPropertyMatchers.size()]);
+
+            final PropertyMatcher packageNameMatcher = mPropertyMatchers.get(
+                    PROPERTY_PACKAGE_NAME);
+            if ((packageNameMatcher != null) && (packageNameMatcher.getAcceptedValues() != null)) {
+                mFilteringPackage = (String) packageNameMatcher.getAcceptedValues()[0];
+            } else {
+                mFilteringPackage = null;
+            }
         }
 
         @Override
         public boolean accept(AccessibilityEvent event, TalkBackService context) {
-            final AccessibilityRecordCompat record = new AccessibilityRecordCompat(event);
+            final EvaluationContext values = EvaluationContext.obtain(context, event);
+
+            try {
+                return accept(values);
+            } finally {
+                values.recycle();
+            }
+        }
 
-            for (PropertyMatcher matcher : mPropertyMatchers.values()) {
-                if (!evaluatePropertyForEvent(context, matcher, event, record)) {
+        /**
+         * Checks if the filter accepts the event held by an evaluation
+         * context.
+         *
+         * @param values The evaluation context for the event.
+         * @return True if the event is accepted, false otherwise.
+         */
+        public boolean accept(EvaluationContext values) {
+            for (PropertyMatcher matcher : mMatchers) {
+                if (!matcher.accept(values, mFilteringPackage)) {
                     return false;
                 }
             }
@@ -781,138 +924,412 @@ public class EventSpeechRule {
             return true;
         }
 
-        private boolean evaluatePropertyForEvent(Context context, PropertyMatcher matcher,
-                AccessibilityEvent event, AccessibilityRecordCompat record) {
-            final String propertyName = matcher.mPropertyName;
-            final Object propertyValue = getPropertyValue(context, propertyName, event);
+        /**
+         * @return The event types accepted by this filter, or {@code null} if
+         *         the filter does not constrain the event type to a fixed set.
+         */
+        public int[] getAcceptedEventTypes() {
+            final PropertyMatcher matcher = mPropertyMatchers.get(PROPERTY_EVENT_TYPE);
+            if ((matcher == null) || !matcher.isEqualityMatch()) {
+                return null;
+            }
 
-            // Special case for filtering based classes on package.
-            // TODO(alanv): Is this necessary?
-            if (PROPERTY_CLASS_NAME.equals(propertyName)
-                    || PROPERTY_CLASS_NAME_STRICT.equals(propertyName)) {
-                final CharSequence eventPackage = event.getPackageName();
-                final PropertyMatcher packageNameMatcher = mPropertyMatchers.get(
-                        PROPERTY_PACKAGE_NAME);
-                final String filteringPackage;
-
-                if (packageNameMatcher != null) {
-                    filteringPackage = (String) packageNameMatcher.getAcceptedValues()[0];
-                } else {
-                    filteringPackage = null;
+            final Object[] acceptedValues = matcher.getAcceptedValues();
+            final int[] eventTypes = new int[acceptedValues.length];
+            for (int i = 0; i < acceptedValues.length; i++) {
+                if (acceptedValues[i] == null) {
+                    return null;
                 }
 
-                return matcher.accept(propertyValue, eventPackage, filteringPackage);
+                eventTypes[i] = (Integer) acceptedValues[i];
             }
 
-            return matcher.accept(propertyValue);
+            return eventTypes;
         }
-    }
 
-    /**
-     * Returns the value of a given <code>property</code> of an <code>event</code>.
-     *
-     * @param property The property
-     * @param event The event.
-     * @return the value.
-     */
-    private Object getPropertyValue(Context context, String property, AccessibilityEvent event) {
-        final AccessibilityRecordCompat record = new AccessibilityRecordCompat(event);
-
-        // TODO(alanv): Don't do so many string comparisons here.
-        if (PROPERTY_EVENT_TYPE.equals(property)) {
-            return event.getEventType();
-        } else if (PROPERTY_PACKAGE_NAME.equals(property)) {
-            return event.getPackageName();
-        } else if (PROPERTY_CLASS_NAME.equals(property)) {
-            return event.getClassName();
-        } else if (PROPERTY_CLASS_NAME_STRICT.equals(property)) {
-            return event.getClassName();
-        } else if (PROPERTY_TEXT.equals(property)) {
-            return AccessibilityEventUtils.getEventAggregateText(event);
-        } else if (PROPERTY_BEFORE_TEXT.equals(property)) {
-            return event.getBeforeText();
-        } else if (PROPERTY_CONTENT_DESCRIPTION.equals(property)) {
-            return event.getContentDescription();
-        } else if (PROPERTY_CONTENT_DESCRIPTION_OR_TEXT.equals(property)) {
-            return AccessibilityEventUtils.getEventTextOrDescription(event);
-        } else if (PROPERTY_NODE_DESCRIPTION_OR_FALLBACK.equals(property)) {
-            return getNodeDescriptionOrFallback(event);
-        } else if (PROPERTY_EVENT_TIME.equals(property)) {
-            return event.getEventTime();
-        } else if (PROPERTY_ITEM_COUNT.equals(property)) {
-            return event.getItemCount();
-        } else if (PROPERTY_CURRENT_ITEM_INDEX.equals(property)) {
-            return event.getCurrentItemIndex();
-        } else if (PROPERTY_FROM_INDEX.equals(property)) {
-            return event.getFromIndex();
-        } else if (PROPERTY_TO_INDEX.equals(property)) {
-            return record.getToIndex();
-        } else if (PROPERTY_SCROLLABLE.equals(property)) {
-            return record.isScrollable();
-        } else if (PROPERTY_SCROLL_X.equals(property)) {
-            return record.getScrollX();
-        } else if (PROPERTY_SCROLL_Y.equals(property)) {
-            return record.getScrollY();
-        } else if (PROPERTY_RECORD_COUNT.equals(property)) {
-            return AccessibilityEventCompat.getRecordCount(event);
-        } else if (PROPERTY_CHECKED.equals(property)) {
-            return event.isChecked();
-        } else if (PROPERTY_ENABLED.equals(property)) {
-            return event.isEnabled();
-        } else if (PROPERTY_FULL_SCREEN.equals(property)) {
-            return event.isFullScreen();
-        } else if (PROPERTY_PASSWORD.equals(property)) {
-            return event.isPassword();
-        } else if (PROPERTY_ADDED_COUNT.equals(property)) {
-            return event.getAddedCount();
-        } else if (PROPERTY_REMOVED_COUNT.equals(property)) {
-            return event.getRemovedCount();
-        } else if (PROPERTY_VERSION_CODE.equals(property)) {
-            return PackageManagerUtils.getVersionCode(context, event.getPackageName());
-        } else if (PROPERTY_VERSION_NAME.equals(property)) {
-            return PackageManagerUtils.getVersionName(context, event.getPackageName());
-        } else if (PROPERTY_PLATFORM_RELEASE.equals(property)) {
-            return Build.VERSION.RELEASE;
-        } else if (PROPERTY_PLATFORM_SDK.equals(property)) {
-            return Build.VERSION.SDK_INT;
-        } else {
-            throw new IllegalArgumentException("Unknown property : " + property);
+        /**
+         * @return The exact class names accepted by this filter, or
+         *         {@code null} if the filter does not constrain the class name
+         *         to a fixed set.
+         */
+        public String[] getAcceptedStrictClassNames() {
+            final PropertyMatcher matcher = mPropertyMatchers.get(PROPERTY_CLASS_NAME_STRICT);
+            if ((matcher == null) || !matcher.isEqualityMatch()) {
+                return null;
+            }
+
+            final Object[] acceptedValues = matcher.getAcceptedValues();
+            final String[] classNames = new String[acceptedValues.length];
+            for (int i = 0; i < acceptedValues.length; i++) {
+                classNames[i] = (String) acceptedValues[i];
+            }
+
+            return classNames;
         }
     }
 
     /**
-     * Attempts to obtain a description for an event, using the
-     * {@link NodeSpeechRuleProcessor} to obtain a description for the source
-     * node if possible or falling back on the event text or content description
-     * otherwise.
-     *
-     * @param event The event to generate a description for.
-     * @return A description of the event, or an empty string on failure.
+     * Holds the property values of a single {@link AccessibilityEvent} while
+     * it is matched against speech rules. Each property is computed at most
+     * once per event, no matter how many rules read it, and numeric and
+     * boolean properties are stored unboxed. Instances are cached in a pool
+     * to avoid object creation on every event.
      */
-    private CharSequence getNodeDescriptionOrFallback(AccessibilityEvent event) {
-        AccessibilityNodeInfoCompat source = null;
+    public static class EvaluationContext {
+        /** The maximum size of the pool with cached contexts. */
+        private static final int MAX_POOL_SIZE = 3;
 
-        try {
-            source = new AccessibilityRecordCompat(event).getSource();
-            if (source != null) {
-                final NodeSpeechRuleProcessor nodeProcessor = NodeSpeechRuleProcessor.getInstance();
-                final CharSequence treeDescription = nodeProcessor.getDescriptionForTree(
-                        source, event, source);
-                if (!TextUtils.isEmpty(treeDescription)) {
-                    return treeDescription;
+        /** The number of property identifiers. */
+        private static final int PROPERTY_COUNT = PROPERTY_ID_PLATFORM_SDK + 1;
+
+        /** Lock for accessing the context pool. */
+        private static final Object sPoolLock = new Object();
+
+        /** Pool of cached contexts. */
+        private static EvaluationContext sPool;
+
+        /** The current size of the context pool. */
+        private static int sPoolSize;
+
+        /** Values of integer properties, indexed by property identifier. */
+        private final int[] mIntValues = new int[PROPERTY_COUNT];
+
+        /** Values of boolean properties, indexed by property identifier. */
+        private final boolean[] mBooleanValues = new boolean[PROPERTY_COUNT];
+
+        /** Values of string properties, indexed by property identifier. */
+        private final CharSequence[] mStringValues = new CharSequence[PROPERTY_COUNT];
+
+        /** The context used for resolving package versions. */
+        private Context mContext;
+
+        /** The event whose properties are evaluated. */
+        private AccessibilityEvent mEvent;
+
+        /** Lazily created record wrapper for the event. */
+        private AccessibilityRecordCompat mRecord;
+
+        /** Bit mask of property identifiers whose values have been computed. */
+        private int mComputedProperties;
+
+        /** The next cached context. */
+        private EvaluationContext mNext;
+
+        /** Denotes if a context is currently in the cache pool. */
+        private boolean mIsInPool;
+
+        private EvaluationContext() {
+            // This class is not publicly instantiable.
+        }
+
+        /**
+         * Returns a cached instance if such is available or a new one is
+         * instantiated, and sets the event to evaluate.
+         *
+         * @param context The context used for resolving package versions.
+         * @param event The event whose properties will be evaluated.
+         * @return An instance.
+         */
+        public static EvaluationContext obtain(Context context, AccessibilityEvent event) {
+            EvaluationContext values = null;
+
+            synchronized (sPoolLock) {
+                if (sPool != null) {
+                    values = sPool;
+                    sPool = sPool.mNext;
+                    sPoolSize--;
+                    values.mNext = null;
+                    values.mIsInPool = false;
                 }
             }
-        } finally {
-            AccessibilityNodeInfoUtils.recycleNodes(source);
+
+            if (values == null) {
+                values = new EvaluationContext();
+            }
+
+            values.mContext = context;
+            values.mEvent = event;
+
+            return values;
+        }
+
+        /**
+         * Return an instance back to be reused.
+         * <p>
+         * <b>Note: You must not touch the object after calling this function.</b>
+         */
+        public void recycle() {
+            if (mIsInPool) {
+                return;
+            }
+
+            clear();
+
+            synchronized (sPoolLock) {
+                if (sPoolSize < MAX_POOL_SIZE) {
+                    mNext = sPool;
+                    sPool = this;
+                    mIsInPool = true;
+                    sPoolSize++;
+                }
+            }
+        }
+
+        /**
+         * @return The event whose properties are evaluated.
+         */
+        public AccessibilityEvent getEvent() {
+            return mEvent;
+        }
+
+        /**
+         * Returns the value of an integer property.
+         *
+         * @param propertyId The property identifier.
+         * @return The property value.
+         */
+        private int getInt(int propertyId) {
+            ensureComputed(propertyId);
+            return mIntValues[propertyId];
+        }
+
+        /**
+         * Returns the value of a boolean property.
+         *
+         * @param propertyId The property identifier.
+         * @return The property value.
+         */
+        private boolean getBoolean(int propertyId) {
+            ensureComputed(propertyId);
+            return mBooleanValues[propertyId];
+        }
+
+        /**
+         * Returns the value of a float property. The event time is the only
+         * float property, and it is returned unconverted so that uptime
+         * values keep millisecond precision.
+         *
+         * @param propertyId The property identifier.
+         * @return The property value.
+         */
+        private long getLong(int propertyId) {
+            if (propertyId != PROPERTY_ID_EVENT_TIME) {
+                throw new IllegalArgumentException("Unknown property : " + propertyId);
+            }
+
+            return mEvent.getEventTime();
+        }
+
+        /**
+         * Returns the value of a string property.
+         *
+         * @param propertyId The property identifier.
+         * @return The property value, may be {@code null}.
+         */
+        private CharSequence getString(int propertyId) {
+            ensureComputed(propertyId);
+            return mStringValues[propertyId];
+        }
+
+        /**
+         * Returns the boxed value of a property, for use as a formatting
+         * argument.
+         *
+         * @param propertyId The property identifier.
+         * @return The property value, may be {@code null}.
+         */
+        private Object getValue(int propertyId) {
+            if (propertyId == PROPERTY_ID_EVENT_TIME) {
+                return mEvent.getEventTime();
+            }
+
+            switch (getPropertyType(propertyId)) {
+                case PROPERTY_TYPE_BOOLEAN:
+                    return getBoolean(propertyId);
+                case PROPERTY_TYPE_INTEGER:
+                    return getInt(propertyId);
+                default:
+                    return getString(propertyId);
+            }
+        }
+
+        private void ensureComputed(int propertyId) {
+            if ((propertyId < 0) || (propertyId >= PROPERTY_COUNT)) {
+                throw new IllegalArgumentException("Unknown property : " + propertyId);
+            }
+
+            final int mask = (1 << propertyId);
+            if ((mComputedProperties & mask) == 0) {
+                computeProperty(propertyId);
+                mComputedProperties |= mask;
+            }
+        }
+
+        /**
+         * Computes the value of a property and stores it in the array
+         * matching its type.
+         */
+        private void computeProperty(int propertyId) {
+            final AccessibilityEvent event = mEvent;
+
+            switch (propertyId) {
+                case PROPERTY_ID_EVENT_TYPE:
+                    mIntValues[propertyId] = event.getEventType();
+                    break;
+                case PROPERTY_ID_PACKAGE_NAME:
+                    mStringValues[propertyId] = event.getPackageName();
+                    break;
+                case PROPERTY_ID_CLASS_NAME:
+                case PROPERTY_ID_CLASS_NAME_STRICT:
+                    mStringValues[propertyId] = event.getClassName();
+                    break;
+                case PROPERTY_ID_TEXT:
+                    mStringValues[propertyId] =
+                            AccessibilityEventUtils.getEventAggregateText(event);
+                    break;
+                case PROPERTY_ID_BEFORE_TEXT:
+                    mStringValues[propertyId] = event.getBeforeText();
+                    break;
+                case PROPERTY_ID_CONTENT_DESCRIPTION:
+                    mStringValues[propertyId] = event.getContentDescription();
+                    break;
+                case PROPERTY_ID_CONTENT_DESCRIPTION_OR_TEXT:
+                    mStringValues[propertyId] = getContentDescriptionOrText();
+                    break;
+                case PROPERTY_ID_NODE_DESCRIPTION_OR_FALLBACK:
+                    mStringValues[propertyId] = getNodeDescriptionOrFallback();
+                    break;
+                case PROPERTY_ID_ITEM_COUNT:
+                    mIntValues[propertyId] = event.getItemCount();
+                    break;
+                case PROPERTY_ID_CURRENT_ITEM_INDEX:
+                    mIntValues[propertyId] = event.getCurrentItemIndex();
+                    break;
+                case PROPERTY_ID_FROM_INDEX:
+                    mIntValues[propertyId] = event.getFromIndex();
+                    break;
+                case PROPERTY_ID_TO_INDEX:
+                    mIntValues[propertyId] = getRecord().getToIndex();
+                    break;
+                case PROPERTY_ID_SCROLLABLE:
+                    mBooleanValues[propertyId] = getRecord().isScrollable();
+                    break;
+                case PROPERTY_ID_SCROLL_X:
+                    mIntValues[propertyId] = getRecord().getScrollX();
+                    break;
+                case PROPERTY_ID_SCROLL_Y:
+                    mIntValues[propertyId] = getRecord().getScrollY();
+                    break;
+                case PROPERTY_ID_RECORD_COUNT:
+                    mIntValues[propertyId] = AccessibilityEventCompat.getRecordCount(event);
+                    break;
+                case PROPERTY_ID_CHECKED:
+                    mBooleanValues[propertyId] = event.isChecked();
+                    break;
+                case PROPERTY_ID_ENABLED:
+                    mBooleanValues[propertyId] = event.isEnabled();
+                    break;
+                case PROPERTY_ID_FULL_SCREEN:
+                    mBooleanValues[propertyId] = event.isFullScreen();
+                    break;
+                case PROPERTY_ID_PASSWORD:
+                    mBooleanValues[propertyId] = event.isPassword();
+                    break;
+                case PROPERTY_ID_ADDED_COUNT:
+                    mIntValues[propertyId] = event.getAddedCount();
+                    break;
+                case PROPERTY_ID_REMOVED_COUNT:
+                    mIntValues[propertyId] = event.getRemovedCount();
+                    break;
+                case PROPERTY_ID_VERSION_CODE:
+                    mIntValues[propertyId] = PackageManagerUtils.getVersionCode(
+                            mContext, event.getPackageName());
+                    break;
+                case PROPERTY_ID_VERSION_NAME:
+                    mStringValues[propertyId] = PackageManagerUtils.getVersionName(
+                            mContext, event.getPackageName());
+                    break;
+                case PROPERTY_ID_PLATFORM_RELEASE:
+                    mStringValues[propertyId] = Build.VERSION.RELEASE;
+                    break;
+                case PROPERTY_ID_PLATFORM_SDK:
+                    mIntValues[propertyId] = Build.VERSION.SDK_INT;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown property : " + propertyId);
+            }
+        }
+
+        private AccessibilityRecordCompat getRecord() {
+            if (mRecord == null) {
+                mRecord = new AccessibilityRecordCompat(mEvent);
+            }
+
+            return mRecord;
+        }
+
+        /**
+         * Equivalent to
+         * {@link AccessibilityEventUtils#getEventTextOrDescription}, but reuses
+         * the aggregate text if it has already been computed.
+         */
+        private CharSequence getContentDescriptionOrText() {
+            final CharSequence contentDescription = getString(PROPERTY_ID_CONTENT_DESCRIPTION);
+            if (!TextUtils.isEmpty(contentDescription)) {
+                return contentDescription;
+            }
+
+            return getString(PROPERTY_ID_TEXT);
         }
 
-        final CharSequence eventDescription =
-                AccessibilityEventUtils.getEventTextOrDescription(event);
-        if (!TextUtils.isEmpty(eventDescription)) {
-            return eventDescription;
+        /**
+         * Attempts to obtain a description for the event, using the
+         * {@link NodeSpeechRuleProcessor} to obtain a description for the
+         * source node if possible or falling back on the event text or content
+         * description otherwise.
+         *
+         * @return A description of the event, or an empty string on failure.
+         */
+        private CharSequence getNodeDescriptionOrFallback() {
+            AccessibilityNodeInfoCompat source = null;
+
+            try {
+                source = getRecord().getSource();
+                if (source != null) {
+                    final NodeSpeechRuleProcessor nodeProcessor =
+                            NodeSpeechRuleProcessor.getInstance();
+                    final CharSequence treeDescription = nodeProcessor.getDescriptionForTree(
+                            source, mEvent, source);
+                    if (!TextUtils.isEmpty(treeDescription)) {
+                        return treeDescription;
+                    }
+                }
+            } finally {
+                AccessibilityNodeInfoUtils.recycleNodes(source);
+            }
+
+            final CharSequence eventDescription =
+                    getString(PROPERTY_ID_CONTENT_DESCRIPTION_OR_TEXT);
+            if (!TextUtils.isEmpty(eventDescription)) {
+                return eventDescription;
+            }
+
+            return "";
         }
 
-        return "";
+        /**
+         * Clears the state of this instance.
+         */
+        private void clear() {
+            for (int i = 0; i < PROPERTY_COUNT; i++) {
+                mStringValues[i] = null;
+            }
+
+            mContext = null;
+            mEvent = null;
+            mRecord = null;
+            mComputedProperties = 0;
+        }
     }
 
     /**
@@ -938,6 +1355,9 @@ public class EventSpeechRule {
 
         private final List<Pair<String, String>> mSelectors;
 
+        /** Property identifiers for each selector, resolved at load time. */
+        private final int[] mSelectorPropertyIds;
+
         /**
          * Creates a new formatter from a given DOM {@link Node}.
          *
@@ -970,20 +1390,43 @@ public class EventSpeechRule {
             }
 
             mTemplate = template;
+            mSelectorPropertyIds = new int[mSelectors.size()];
+
+            for (int i = 0, count = mSelectors.size(); i < count; i++) {
+                mSelectorPropertyIds[i] = getPropertyId(mSelectors.get(i).second);
+            }
         }
 
         @Override
         public boolean format(AccessibilityEvent event, TalkBackService context, Utterance utterance) {
+            final EvaluationContext values = EvaluationContext.obtain(context, event);
+
+            try {
+                return format(values, utterance);
+            } finally {
+                values.recycle();
+            }
+        }
+
+        /**
+         * Formats an <code>utterance</code> from the event held by an
+         * evaluation context.
+         *
+         * @param values The evaluation context for the event.
+         * @param utterance The utterance instance to populate.
+         * @return {@code true} if the formatter produced output.
+         */
+        public boolean format(EvaluationContext values, Utterance utterance) {
+            final AccessibilityEvent event = values.getEvent();
             final List<Pair<String, String>> selectors = mSelectors;
             final Object[] arguments = new Object[selectors.size()];
 
             for (int i = 0, count = selectors.size(); i < count; i++) {
                 final Pair<String, String> selector = selectors.get(i);
                 final String selectorType = selector.first;
-                final String selectorValue = selector.second;
 
                 if (NODE_NAME_PROPERTY.equals(selectorType)) {
-                    final Object propertyValue = getPropertyValue(context, selectorValue, event);
+                    final Object propertyValue = values.getValue(mSelectorPropertyIds[i]);
                     arguments[i] = (propertyValue != null) ? propertyValue : "";
                 } else {
                     throw new IllegalArgumentException("Unknown selector type: [" + selector.first
@@ -1155,6 +1598,9 @@ public class EventSpeechRule {
          */
         private final String mPropertyName;
 
+        /** The identifier of the property matched by this instance. */
+        private final int mPropertyId;
+
         /** The type of property matched by this instance. */
         private final int mPropertyType;
 
@@ -1168,6 +1614,15 @@ public class EventSpeechRule {
          */
         private final Object[] mAcceptedValues;
 
+        /** The parsed accepted values of an integer property. */
+        private final int[] mAcceptedInts;
+
+        /** The parsed accepted values of a float property. */
+        private final double[] mAcceptedFloats;
+
+        /** The parsed accepted values of a boolean property. */
+        private final boolean[] mAcceptedBooleans;
+
         /**
          * Context handled for accessing resources.
          */
@@ -1183,10 +1638,14 @@ public class EventSpeechRule {
         public PropertyMatcher(Context context, String propertyName, String acceptedValue) {
             mContext = context;
             mPropertyName = propertyName;
-            mPropertyType = getPropertyType(propertyName);
+            mPropertyId = getPropertyId(propertyName);
+            mPropertyType = getPropertyType(mPropertyId);
 
             if (acceptedValue == null) {
                 mAcceptedValues = null;
+                mAcceptedInts = null;
+                mAcceptedFloats = null;
+                mAcceptedBooleans = null;
                 mType = TYPE_EQUALS;
                 return;
             }
@@ -1200,7 +1659,7 @@ public class EventSpeechRule {
                 final int fromIndex = acceptedValue.indexOf(LESS_THAN_OR_EQUAL);
                 final String valueString = acceptedValue.substring(fromIndex + 2).trim();
                 mAcceptedValues = new Object[] {
-                        parsePropertyValue(propertyName, valueString)
+                        parsePropertyValue(mPropertyId, propertyName, valueString)
                 };
             } else if (isNumericPropertyType
                     && PATTERN_GREATER_THAN_OR_EQUAL.matcher(acceptedValue).matches()) {
@@ -1208,7 +1667,7 @@ public class EventSpeechRule {
                 final int fromIndex = acceptedValue.indexOf(GREATER_THAN_OR_EQUAL);
                 final String valueString = acceptedValue.substring(fromIndex + 2).trim();
                 mAcceptedValues = new Object[] {
-                        parsePropertyValue(propertyName, valueString)
+                        parsePropertyValue(mPropertyId, propertyName, valueString)
                 };
             } else if (isNumericPropertyType
                     && PATTERN_LESS_THAN.matcher(acceptedValue).matches()) {
@@ -1216,7 +1675,7 @@ public class EventSpeechRule {
                 final int fromIndex = acceptedValue.indexOf(LESS_THAN);
                 final String valueString = acceptedValue.substring(fromIndex + 1).trim();
                 mAcceptedValues = new Object[] {
-                        parsePropertyValue(propertyName, valueString)
+                        parsePropertyValue(mPropertyId, propertyName, valueString)
                 };
             } else if (isNumericPropertyType
                     && PATTERN_GREATER_THAN.matcher(acceptedValue).matches()) {
@@ -1224,21 +1683,51 @@ public class EventSpeechRule {
                 final int fromIndex = acceptedValue.indexOf(GREATER_THAN);
                 final String valueString = acceptedValue.substring(fromIndex + 1).trim();
                 mAcceptedValues = new Object[] {
-                        parsePropertyValue(propertyName, valueString)
+                        parsePropertyValue(mPropertyId, propertyName, valueString)
                 };
             } else if (PATTERN_OR.matcher(acceptedValue).matches()) {
                 mType = TYPE_OR;
                 final String[] acceptedValues = PATTERN_SPLIT_OR.split(acceptedValue);
                 mAcceptedValues = new Object[acceptedValues.length];
                 for (int i = 0, count = acceptedValues.length; i < count; i++) {
-                    mAcceptedValues[i] = parsePropertyValue(propertyName, acceptedValues[i]);
+                    mAcceptedValues[i] = parsePropertyValue(mPropertyId, propertyName, acceptedValues[i]);
                 }
             } else {
                 mType = TYPE_EQUALS;
                 mAcceptedValues = new Object[] {
-                        parsePropertyValue(propertyName, acceptedValue)
+                        parsePropertyValue(mPropertyId, propertyName, acceptedValue)
                 };
             }
+
+            // Values that failed to parse can never be matched, so drop them.
+            int validCount = 0;
+            for (Object value : mAcceptedValues) {
+                if (value != null) {
+                    validCount++;
+                }
+            }
+
+            mAcceptedInts = (mPropertyType == PROPERTY_TYPE_INTEGER) ? new int[validCount] : null;
+            mAcceptedFloats = (mPropertyType == PROPERTY_TYPE_FLOAT) ? new double[validCount] : null;
+            mAcceptedBooleans =
+                    (mPropertyType == PROPERTY_TYPE_BOOLEAN) ? new boolean[validCount] : null;
+
+            for (int i = 0, j = 0; i < mAcceptedValues.length; i++) {
+                final Object value = mAcceptedValues[i];
+                if (value == null) {
+                    continue;
+                }
+
+                if (mAcceptedInts != null) {
+                    mAcceptedInts[j] = (Integer) value;
+                } else if (mAcceptedFloats != null) {
+                    mAcceptedFloats[j] = (Double) value;
+                } else if (mAcceptedBooleans != null) {
+                    mAcceptedBooleans[j] = (Boolean) value;
+                }
+
+                j++;
+            }
         }
 
         /**
@@ -1249,33 +1738,48 @@ public class EventSpeechRule {
         }
 
         /**
-         * @return True if the given <code>value</code> with specified <code>arguments</code>
-         *         is accepted by this matcher.
+         * @return {@code true} if this matcher only accepts values equal to
+         *         one of its accepted values.
+         */
+        public boolean isEqualityMatch() {
+            return (mAcceptedValues != null) && ((mType == TYPE_EQUALS) || (mType == TYPE_OR));
+        }
+
+        /**
+         * @return True if the value of the matched property for the event held
+         *         by <code>values</code> is accepted by this matcher. The
+         *         <code>filteringPackageName</code> is used to resolve class
+         *         names.
          */
-        public boolean accept(Object value, Object... arguments) {
+        public boolean accept(EvaluationContext values, String filteringPackageName) {
             if (mAcceptedValues == null) {
                 return true;
             }
 
-            if (value == null) {
-                if (mPropertyType == PROPERTY_TYPE_STRING) {
-                    value = "";
-                } else {
+            switch (mPropertyType) {
+                case PROPERTY_TYPE_BOOLEAN:
+                    return acceptBooleanProperty(values.getBoolean(mPropertyId));
+                case PROPERTY_TYPE_INTEGER:
+                    return acceptIntProperty(values.getInt(mPropertyId));
+                case PROPERTY_TYPE_FLOAT:
+                    return acceptFloatProperty(values.getLong(mPropertyId));
+                case PROPERTY_TYPE_STRING:
+                    break;
+                default:
                     return false;
-                }
             }
 
-            if (PROPERTY_CLASS_NAME.equals(mPropertyName)
-                    || PROPERTY_CLASS_NAME_STRICT.equals(mPropertyName)) {
-                final String eventClassName = (String) value;
-                final String eventPackageName = (String) arguments[0];
-                final String filteringPackageName = (String) arguments[1];
+            final CharSequence value = values.getString(mPropertyId);
 
-                return acceptClassNameProperty(eventClassName, eventPackageName,
-                        filteringPackageName, PROPERTY_CLASS_NAME_STRICT.equals(mPropertyName));
+            // Special case for filtering based classes on package.
+            // TODO(alanv): Is this necessary?
+            if ((mPropertyId == PROPERTY_ID_CLASS_NAME)
+                    || (mPropertyId == PROPERTY_ID_CLASS_NAME_STRICT)) {
+                return acceptClassNameProperty(value, values.getEvent().getPackageName(),
+                        filteringPackageName, (mPropertyId == PROPERTY_ID_CLASS_NAME_STRICT));
             }
 
-            return acceptProperty(value);
+            return acceptStringProperty((value != null) ? value : "");
         }
 
         /**
@@ -1283,8 +1787,9 @@ public class EventSpeechRule {
          *         <code>packageName</code> while comparing it against the filtered event
          *         (#PROPERTY_CLASS_NAME) from the <code>filteredPackageName</code>.
          */
-        private boolean acceptClassNameProperty(String eventClassName, String eventPackageName,
-                String filteringPackageName, boolean requireExactMatch) {
+        private boolean acceptClassNameProperty(CharSequence eventClassName,
+                CharSequence eventPackageName, String filteringPackageName,
+                boolean requireExactMatch) {
 
             // Events with empty class names won't match the filter.
             if (TextUtils.isEmpty(eventClassName)) {
@@ -1295,39 +1800,68 @@ public class EventSpeechRule {
                 final String filteringClassName = (String) acceptedValue;
 
                 // Try a shortcut for efficiency.
-                if (filteringClassName.equals(eventClassName)) {
+                if (TextUtils.equals(filteringClassName, eventClassName)) {
                     return true;
                 } else if (requireExactMatch) {
                     return false;
                 }
 
-                final Class<?> filteringClass =
-                        ClassLoadingManager.getInstance().loadOrGetCachedClass(mContext,
-                                filteringClassName, filteringPackageName);
-                final Class<?> eventClass =
-                        ClassLoadingManager.getInstance().loadOrGetCachedClass(mContext,
-                                eventClassName.toString(), eventPackageName);
+                final ClassLoadingManager manager = ClassLoadingManager.getInstance();
+                if (manager.checkInstanceOf(mContext, eventClassName, eventPackageName,
+                        filteringClassName, filteringPackageName)) {
+                    return true;
+                }
 
-                if ((filteringClass != null) && (eventClass != null)) {
-                    return (filteringClass.isAssignableFrom(eventClass));
+                // The first accepted class that loads decides the match. Only
+                // fall through to the next value if either class is missing.
+                // Failed loads are cached, so this is cheap.
+                if ((manager.loadOrGetCachedClass(
+                        mContext, filteringClassName, filteringPackageName) != null)
+                        && (manager.loadOrGetCachedClass(
+                                mContext, eventClassName, eventPackageName) != null)) {
+                    return false;
                 }
             }
             return false;
         }
 
         /**
-         * @return True if this matcher accepts the given <code>value</code> for the
-         *         property it matches.
+         * @return True if this matcher accepts the given string
+         *         <code>value</code>. Compares contents without converting
+         *         the value to a {@link String}.
          */
-        private boolean acceptProperty(Object value) {
-            // Convert CharSequences to Strings.
-            if (value instanceof CharSequence) {
-                value = value.toString();
+        private boolean acceptStringProperty(CharSequence value) {
+            for (Object acceptedValue : mAcceptedValues) {
+                if (TextUtils.equals((String) acceptedValue, value)) {
+                    return true;
+                }
             }
 
+            return false;
+        }
+
+        /**
+         * @return True if this matcher accepts the given boolean
+         *         <code>value</code>.
+         */
+        private boolean acceptBooleanProperty(boolean value) {
+            for (boolean acceptedValue : mAcceptedBooleans) {
+                if (value == acceptedValue) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * @return True if this matcher accepts the given integer
+         *         <code>value</code>.
+         */
+        private boolean acceptIntProperty(int value) {
             if ((mType == TYPE_EQUALS) || (mType == TYPE_OR)) {
-                for (Object acceptedValue : mAcceptedValues) {
-                    if (value.equals(acceptedValue)) {
+                for (int acceptedValue : mAcceptedInts) {
+                    if (value == acceptedValue) {
                         return true;
                     }
                 }
@@ -1335,19 +1869,39 @@ public class EventSpeechRule {
                 return false;
             }
 
-            switch (mPropertyType) {
-                case PROPERTY_TYPE_INTEGER:
-                    return acceptComparableProperty((Integer) value, (Integer) mAcceptedValues[0]);
-                case PROPERTY_TYPE_FLOAT:
-                    return acceptComparableProperty((Float) value, (Float) mAcceptedValues[0]);
-                default:
-                    return false;
+            if (mAcceptedInts.length == 0) {
+                return false;
             }
+
+            final int acceptedValue = mAcceptedInts[0];
+            final int result = (value < acceptedValue) ? -1 : ((value == acceptedValue) ? 0 : 1);
+
+            return acceptComparisonResult(result);
         }
 
-        private <T> boolean acceptComparableProperty(Comparable<T> value, T accepted) {
-            final int result = value.compareTo(accepted);
+        /**
+         * @return True if this matcher accepts the given <code>value</code>
+         *         of a float property.
+         */
+        private boolean acceptFloatProperty(long value) {
+            if ((mType == TYPE_EQUALS) || (mType == TYPE_OR)) {
+                for (double acceptedValue : mAcceptedFloats) {
+                    if (Double.compare(value, acceptedValue) == 0) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            if (mAcceptedFloats.length == 0) {
+                return false;
+            }
+
+            return acceptComparisonResult(Double.compare(value, mAcceptedFloats[0]));
+        }
 
+        private boolean acceptComparisonResult(int result) {
             switch (mType) {
                 case TYPE_LESS_THAN_OR_EQUAL:
                     return (result <= 0);
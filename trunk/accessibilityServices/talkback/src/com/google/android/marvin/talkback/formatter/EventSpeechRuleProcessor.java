@@ -18,20 +18,25 @@ package com.google.android.marvin.mytalkback.formatter;
 
 import android.content.res.Resources;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.accessibility.AccessibilityEvent;
 
 import com.google.android.marvin.mytalkback.TalkBackService;
 import com.google.android.marvin.mytalkback.Utterance;
+import com.google.android.marvin.mytalkback.formatter.EventSpeechRule.EvaluationContext;
 import com.googlecode.eyesfree.utils.LogUtils;
 
 import org.w3c.dom.Document;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -49,6 +54,11 @@ import javax.xml.parsers.ParserConfigurationException;
  * successfully applied i.e. an utterance is formatted, processing stops. In
  * other words, the first applicable speech rule wins.
  * </p>
+ * <p>
+ * Loaded rules are compiled into an immutable dispatch index keyed by package
+ * name, event type and class name, so only rules that could possibly accept
+ * an event are evaluated.
+ * </p>
  *
  * @author svetoslavganov@google.com (Svetoslav Ganov)
  */
@@ -67,6 +77,16 @@ public class EventSpeechRuleProcessor {
     private final Map<String, List<EventSpeechRule>>
             mPackageNameToSpeechRulesMap = new HashMap<String, List<EventSpeechRule>>();
 
+    /**
+     * Dispatch index compiled from {@link #mPackageNameToSpeechRulesMap}.
+     * Replaced, never modified, whenever speech rules are added.
+     */
+    private volatile RuleIndex mRuleIndex = new RuleIndex(
+            new HashMap<String, List<EventSpeechRule>>());
+
+    /** Cache of compiled speech strategies, used to skip XML parsing. */
+    private final SpeechStrategyCache mStrategyCache;
+
     /** A lazily-constructed shared instance of a document builder. */
     private DocumentBuilder mDocumentBuilder;
 
@@ -77,6 +97,7 @@ public class EventSpeechRuleProcessor {
      */
     public EventSpeechRuleProcessor(TalkBackService context) {
         mContext = context;
+        mStrategyCache = new SpeechStrategyCache(context);
     }
 
     /**
@@ -91,24 +112,31 @@ public class EventSpeechRuleProcessor {
      * @return True if the event was processed false otherwise.
      */
     public boolean processEvent(AccessibilityEvent event, Utterance utterance) {
-        synchronized (mPackageNameToSpeechRulesMap) {
+        final RuleIndex ruleIndex = mRuleIndex;
+
+        // Property values are shared by all rules evaluated for this event.
+        final EvaluationContext values = EvaluationContext.obtain(mContext, event);
+
+        try {
             // Try package specific speech rules first.
-            List<EventSpeechRule> speechRules = mPackageNameToSpeechRulesMap
-                    .get(event.getPackageName());
+            EventSpeechRule[] speechRules = ruleIndex.getCandidateRules(
+                    event.getPackageName(), event);
 
-            if ((speechRules != null) && processEvent(speechRules, event, utterance)) {
+            if ((speechRules != null) && processEvent(speechRules, values, utterance)) {
                 return true;
             }
 
             // Package specific rule not found; try undefined package ones.
-            speechRules = mPackageNameToSpeechRulesMap.get(UNDEFINED_PACKAGE_NAME);
+            speechRules = ruleIndex.getCandidateRules(UNDEFINED_PACKAGE_NAME, event);
 
-            if ((speechRules != null) && processEvent(speechRules, event, utterance)) {
+            if ((speechRules != null) && processEvent(speechRules, values, utterance)) {
                 return true;
             }
-        }
 
-        return false;
+            return false;
+        } finally {
+            values.recycle();
+        }
     }
 
     /**
@@ -124,8 +152,15 @@ public class EventSpeechRuleProcessor {
     public void addSpeechStrategy(int resourceId) {
         final Resources res = mContext.getResources();
         final String speechStrategy = res.getResourceName(resourceId);
-        final InputStream inputStream = res.openRawResource(resourceId);
-        final Document document = parseSpeechStrategy(inputStream);
+        final String cacheName = res.getResourceEntryName(resourceId);
+        Document document = loadCachedSpeechStrategy(cacheName);
+
+        if (document == null) {
+            final InputStream inputStream = res.openRawResource(resourceId);
+            document = parseSpeechStrategy(inputStream);
+            mStrategyCache.store(cacheName, document);
+        }
+
         final ArrayList<EventSpeechRule> speechRules = EventSpeechRule.createSpeechRules(
                 mContext, document);
 
@@ -149,6 +184,8 @@ public class EventSpeechRuleProcessor {
                     count++;
                 }
             }
+
+            mRuleIndex = new RuleIndex(mPackageNameToSpeechRulesMap);
         }
 
         return count;
@@ -180,13 +217,13 @@ public class EventSpeechRuleProcessor {
      *
      * @return {@code true} if the event was processed, {@code false} otherwise.
      */
-    private boolean processEvent(List<EventSpeechRule> speechRules, AccessibilityEvent event,
+    private boolean processEvent(EventSpeechRule[] speechRules, EvaluationContext values,
             Utterance utterance) {
         for (EventSpeechRule speechRule : speechRules) {
             // We should never crash because of a bug in speech rules.
             try {
-                if (speechRule.applyFilter(event)) {
-                    if (speechRule.applyFormatter(event, utterance)) {
+                if (speechRule.applyFilter(values)) {
+                    if (speechRule.applyFormatter(values, utterance)) {
                         LogUtils.log(EventSpeechRuleProcessor.class, Log.VERBOSE,
                                 "Processed event using rule:\n%s", speechRule);
                         return true;
@@ -209,6 +246,24 @@ public class EventSpeechRuleProcessor {
         return false;
     }
 
+    /**
+     * Loads a previously compiled speech strategy from the cache.
+     *
+     * @param name The name of the speech strategy.
+     * @return The cached {@link Document} or <code>null</code> if there is no
+     *         valid cached copy.
+     */
+    private Document loadCachedSpeechStrategy(String name) {
+        try {
+            return mStrategyCache.load(name, getDocumentBuilder());
+        } catch (ParserConfigurationException e) {
+            LogUtils.log(EventSpeechRuleProcessor.class, Log.ERROR,
+                    "Could not create document builder\n%s", e.toString());
+        }
+
+        return null;
+    }
+
     /**
      * Parses a speech strategy XML file specified by <code>resourceId</code> and returns
      * a <code>document</code>. If an error occurs during the parsing, it is logged and
@@ -242,4 +297,168 @@ public class EventSpeechRuleProcessor {
 
         return mDocumentBuilder;
     }
+
+    /**
+     * Immutable index of speech rules keyed by package name, event type and
+     * class name. Each lookup returns the subset of a package's rules that
+     * may accept an event, in the order the rules were defined.
+     */
+    private static class RuleIndex {
+        /** Mapping from package name to the indexed rules for that package. */
+        private final HashMap<String, PackageRules> mPackageRules =
+                new HashMap<String, PackageRules>();
+
+        public RuleIndex(Map<String, List<EventSpeechRule>> packageNameToSpeechRulesMap) {
+            for (Map.Entry<String, List<EventSpeechRule>> entry :
+                    packageNameToSpeechRulesMap.entrySet()) {
+                mPackageRules.put(entry.getKey(), new PackageRules(entry.getValue()));
+            }
+        }
+
+        /**
+         * Returns the rules for a package that may accept an event.
+         *
+         * @param packageName The package whose rules should be returned.
+         * @param event The event to match.
+         * @return The candidate rules in definition order, or {@code null} if
+         *         there are no rules for the package.
+         */
+        public EventSpeechRule[] getCandidateRules(
+                CharSequence packageName, AccessibilityEvent event) {
+            final PackageRules packageRules = mPackageRules.get(packageName);
+            if (packageRules == null) {
+                return null;
+            }
+
+            return packageRules.getCandidateRules(event.getEventType(), event.getClassName());
+        }
+    }
+
+    /**
+     * Indexed speech rules for a single package.
+     */
+    private static class PackageRules {
+        /** Mapping from event type to rules that may accept that type. */
+        private final SparseArray<ClassNameRules> mEventTypeRules =
+                new SparseArray<ClassNameRules>();
+
+        /** Rules that may accept event types not present in the index. */
+        private final ClassNameRules mAnyEventTypeRules;
+
+        public PackageRules(List<EventSpeechRule> speechRules) {
+            final EventSpeechRule[] rules = speechRules.toArray(
+                    new EventSpeechRule[speechRules.size()]);
+            final int[][] acceptedEventTypes = new int[rules.length][];
+            final Set<Integer> indexedEventTypes = new HashSet<Integer>();
+
+            for (int i = 0; i < rules.length; i++) {
+                acceptedEventTypes[i] = rules[i].getAcceptedEventTypes();
+
+                if (acceptedEventTypes[i] != null) {
+                    for (int eventType : acceptedEventTypes[i]) {
+                        indexedEventTypes.add(eventType);
+                    }
+                }
+            }
+
+            for (int eventType : indexedEventTypes) {
+                final List<EventSpeechRule> candidates = new ArrayList<EventSpeechRule>();
+
+                for (int i = 0; i < rules.length; i++) {
+                    if ((acceptedEventTypes[i] == null)
+                            || contains(acceptedEventTypes[i], eventType)) {
+                        candidates.add(rules[i]);
+                    }
+                }
+
+                mEventTypeRules.put(eventType, new ClassNameRules(candidates));
+            }
+
+            final List<EventSpeechRule> anyTypeCandidates = new ArrayList<EventSpeechRule>();
+
+            for (int i = 0; i < rules.length; i++) {
+                if (acceptedEventTypes[i] == null) {
+                    anyTypeCandidates.add(rules[i]);
+                }
+            }
+
+            mAnyEventTypeRules = new ClassNameRules(anyTypeCandidates);
+        }
+
+        public EventSpeechRule[] getCandidateRules(int eventType, CharSequence className) {
+            final ClassNameRules classNameRules = mEventTypeRules.get(
+                    eventType, mAnyEventTypeRules);
+
+            return classNameRules.getCandidateRules(className);
+        }
+
+        private static boolean contains(int[] values, int value) {
+            for (int candidate : values) {
+                if (candidate == value) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Speech rules for a single package and event type, indexed by the exact
+     * class names that rules require.
+     */
+    private static class ClassNameRules {
+        /** Mapping from class name to rules that may accept that class. */
+        private final HashMap<String, EventSpeechRule[]> mClassNameRules =
+                new HashMap<String, EventSpeechRule[]>();
+
+        /** Rules that may accept class names not present in the index. */
+        private final EventSpeechRule[] mAnyClassNameRules;
+
+        public ClassNameRules(List<EventSpeechRule> rules) {
+            final int count = rules.size();
+            final String[][] acceptedClassNames = new String[count][];
+            final Set<String> indexedClassNames = new HashSet<String>();
+            final List<EventSpeechRule> anyClassCandidates = new ArrayList<EventSpeechRule>();
+
+            for (int i = 0; i < count; i++) {
+                final EventSpeechRule rule = rules.get(i);
+                acceptedClassNames[i] = rule.getAcceptedClassNames();
+
+                if (acceptedClassNames[i] == null) {
+                    anyClassCandidates.add(rule);
+                } else {
+                    indexedClassNames.addAll(Arrays.asList(acceptedClassNames[i]));
+                }
+            }
+
+            for (String className : indexedClassNames) {
+                final List<EventSpeechRule> candidates = new ArrayList<EventSpeechRule>();
+
+                for (int i = 0; i < count; i++) {
+                    if ((acceptedClassNames[i] == null)
+                            || Arrays.asList(acceptedClassNames[i]).contains(className)) {
+                        candidates.add(rules.get(i));
+                    }
+                }
+
+                mClassNameRules.put(className,
+                        candidates.toArray(new EventSpeechRule[candidates.size()]));
+            }
+
+            mAnyClassNameRules = anyClassCandidates.toArray(
+                    new EventSpeechRule[anyClassCandidates.size()]);
+        }
+
+        public EventSpeechRule[] getCandidateRules(CharSequence className) {
+            if ((className != null) && !mClassNameRules.isEmpty()) {
+                final EventSpeechRule[] rules = mClassNameRules.get(className.toString());
+                if (rules != null) {
+                    return rules;
+                }
+            }
+
+            return mAnyClassNameRules;
+        }
+    }
 }
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.marvin.mytalkback.formatter;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.util.Log;
+
+import com.googlecode.eyesfree.utils.LogUtils;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+
+/**
+ * Stores parsed speech strategy documents in a compact binary form so that
+ * subsequent service starts can rebuild the rule tree from a memory-mapped
+ * file instead of parsing the raw XML resource.
+ * <p>
+ * Cached files are tagged with the version code and modification time of the
+ * installed APK and are ignored (and rewritten) once either changes.
+ * </p>
+ * <p>
+ * The binary format contains only the element and text nodes of the
+ * document, which is all that {@link EventSpeechRule} reads:
+ * <pre>
+ * int magic, int format version, int version code, long APK modified time
+ * int string count, { int byte length, UTF-8 bytes } * string count
+ * node: byte type, ELEMENT: int name index, int child count, node * count
+ *                  TEXT: int value index
+ * </pre>
+ * </p>
+ */
+class SpeechStrategyCache {
+    /** Name of the cache subdirectory containing compiled strategies. */
+    private static final String CACHE_DIR_NAME = "speechstrategy";
+
+    /** File extension for compiled strategies. */
+    private static final String CACHE_FILE_EXTENSION = ".bin";
+
+    /** Magic number identifying a compiled speech strategy file. */
+    private static final int MAGIC = 0x54425353;
+
+    /** Version of the binary format, incremented when the format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Character set used for encoding strings. */
+    private static final String CHARSET = "UTF-8";
+
+    private static final byte TYPE_ELEMENT = 1;
+    private static final byte TYPE_TEXT = 2;
+
+    /** Directory in which compiled strategies are stored. */
+    private final File mCacheDir;
+
+    /** Version code of the installed package. */
+    private final int mVersionCode;
+
+    /** Modification time of the installed APK. */
+    private final long mApkModifiedTime;
+
+    /**
+     * Creates a new cache for the given context.
+     *
+     * @param context The context used to resolve the cache directory and the
+     *            installed package version.
+     */
+    public SpeechStrategyCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+
+        int versionCode = -1;
+        long apkModifiedTime = -1;
+
+        try {
+            final PackageManager pm = context.getPackageManager();
+            final PackageInfo packageInfo = pm.getPackageInfo(context.getPackageName(), 0);
+            versionCode = packageInfo.versionCode;
+            apkModifiedTime = new File(packageInfo.applicationInfo.sourceDir).lastModified();
+        } catch (NameNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        mVersionCode = versionCode;
+        mApkModifiedTime = apkModifiedTime;
+    }
+
+    /**
+     * Loads a previously compiled speech strategy.
+     *
+     * @param name The name of the speech strategy.
+     * @param builder A document builder used to create the returned document.
+     * @return The speech strategy document, or {@code null} if there is no
+     *         valid compiled copy.
+     */
+    public Document load(String name, DocumentBuilder builder) {
+        final File file = getCacheFile(name);
+        if (!file.exists()) {
+            return null;
+        }
+
+        FileInputStream inputStream = null;
+
+        try {
+            inputStream = new FileInputStream(file);
+
+            final FileChannel channel = inputStream.getChannel();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if ((buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT_VERSION)
+                    || (buffer.getInt() != mVersionCode) || (buffer.getLong() != mApkModifiedTime)) {
+                LogUtils.log(SpeechStrategyCache.class, Log.INFO,
+                        "Discarding stale compiled speech strategy: %s", name);
+                file.delete();
+                return null;
+            }
+
+            final String[] strings = new String[buffer.getInt()];
+            byte[] bytes = new byte[0];
+
+            for (int i = 0; i < strings.length; i++) {
+                final int length = buffer.getInt();
+
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, CHARSET);
+            }
+
+            final Document document = builder.newDocument();
+            document.appendChild(readNode(buffer, document, strings));
+
+            return document;
+        } catch (IOException e) {
+            LogUtils.log(SpeechStrategyCache.class, Log.WARN,
+                    "Failed to read compiled speech strategy %s: %s", name, e.toString());
+        } catch (RuntimeException e) {
+            // Covers truncated files and invalid indices.
+            LogUtils.log(SpeechStrategyCache.class, Log.WARN,
+                    "Corrupt compiled speech strategy %s: %s", name, e.toString());
+            file.delete();
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        return null;
+    }
+
+    /**
+     * Compiles a speech strategy document and stores it in the cache. Failures
+     * are logged and otherwise ignored.
+     *
+     * @param name The name of the speech strategy.
+     * @param document The parsed speech strategy.
+     */
+    public void store(String name, Document document) {
+        if ((document == null) || (mVersionCode < 0)) {
+            return;
+        }
+
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            LogUtils.log(SpeechStrategyCache.class, Log.WARN,
+                    "Failed to create speech strategy cache directory");
+            return;
+        }
+
+        final List<String> strings = new ArrayList<String>();
+        final HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+        collectStrings(document.getDocumentElement(), strings, stringIndices);
+
+        final File file = getCacheFile(name);
+        final File tempFile = new File(mCacheDir, name + CACHE_FILE_EXTENSION + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mVersionCode);
+            out.writeLong(mApkModifiedTime);
+            out.writeInt(strings.size());
+
+            for (String string : strings) {
+                final byte[] bytes = string.getBytes(CHARSET);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            writeNode(out, document.getDocumentElement(), stringIndices);
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(file)) {
+                LogUtils.log(SpeechStrategyCache.class, Log.WARN,
+                        "Failed to store compiled speech strategy: %s", name);
+            }
+        } catch (IOException e) {
+            LogUtils.log(SpeechStrategyCache.class, Log.WARN,
+                    "Failed to write compiled speech strategy %s: %s", name, e.toString());
+        } finally {
+            closeQuietly(out);
+            tempFile.delete();
+        }
+    }
+
+    private File getCacheFile(String name) {
+        return new File(mCacheDir, name + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Recursively reads a node and its children.
+     */
+    private static Node readNode(ByteBuffer buffer, Document document, String[] strings) {
+        final byte type = buffer.get();
+
+        switch (type) {
+            case TYPE_ELEMENT: {
+                final Element element = document.createElement(strings[buffer.getInt()]);
+                final int childCount = buffer.getInt();
+
+                for (int i = 0; i < childCount; i++) {
+                    element.appendChild(readNode(buffer, document, strings));
+                }
+
+                return element;
+            }
+            case TYPE_TEXT:
+                return document.createTextNode(strings[buffer.getInt()]);
+            default:
+                throw new BufferUnderflowException();
+        }
+    }
+
+    /**
+     * Recursively writes a node and its element and text children.
+     */
+    private static void writeNode(DataOutputStream out, Node node,
+            HashMap<String, Integer> stringIndices) throws IOException {
+        if (node.getNodeType() == Node.TEXT_NODE) {
+            out.writeByte(TYPE_TEXT);
+            out.writeInt(stringIndices.get(((Text) node).getData()));
+            return;
+        }
+
+        final NodeList children = node.getChildNodes();
+        int childCount = 0;
+
+        for (int i = 0, count = children.getLength(); i < count; i++) {
+            if (isSupportedNode(children.item(i))) {
+                childCount++;
+            }
+        }
+
+        out.writeByte(TYPE_ELEMENT);
+        out.writeInt(stringIndices.get(node.getNodeName()));
+        out.writeInt(childCount);
+
+        for (int i = 0, count = children.getLength(); i < count; i++) {
+            final Node child = children.item(i);
+
+            if (isSupportedNode(child)) {
+                writeNode(out, child, stringIndices);
+            }
+        }
+    }
+
+    /**
+     * Recursively populates the string table for a node.
+     */
+    private static void collectStrings(Node node, List<String> strings,
+            HashMap<String, Integer> stringIndices) {
+        final String value;
+
+        if (node.getNodeType() == Node.TEXT_NODE) {
+            value = ((Text) node).getData();
+        } else {
+            value = node.getNodeName();
+        }
+
+        if (!stringIndices.containsKey(value)) {
+            stringIndices.put(value, strings.size());
+            strings.add(value);
+        }
+
+        final NodeList children = node.getChildNodes();
+
+        for (int i = 0, count = children.getLength(); i < count; i++) {
+            final Node child = children.item(i);
+
+            if (isSupportedNode(child)) {
+                collectStrings(child, strings, stringIndices);
+            }
+        }
+    }
+
+    private static boolean isSupportedNode(Node node) {
+        final int nodeType = node.getNodeType();
+        return (nodeType == Node.ELEMENT_NODE) || (nodeType == Node.TEXT_NODE);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Do nothing.
+        }
+    }
+}
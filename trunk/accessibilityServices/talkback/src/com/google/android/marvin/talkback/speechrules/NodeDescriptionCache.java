@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.marvin.mytalkback.speechrules;
+
+import android.os.SystemClock;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.text.SpannedString;
+import android.text.TextUtils;
+import android.view.accessibility.AccessibilityEvent;
+
+import com.googlecode.eyesfree.utils.AccessibilityEventUtils;
+import com.googlecode.eyesfree.utils.AccessibilityNodeInfoUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived cache of tree descriptions produced by
+ * {@link NodeSpeechRuleProcessor}, keyed by window and node identity. Entries
+ * are dropped when their window's content or state changes, or after
+ * {@link #ENTRY_TIMEOUT} milliseconds, whichever comes first.
+ * <p>
+ * Since the source event contributes to the description of the source node,
+ * each entry also records the source node and the event values that rules
+ * read. An entry is only returned if those match.
+ * </p>
+ */
+class NodeDescriptionCache {
+    /** Maximum number of cached descriptions. */
+    private static final int MAX_ENTRIES = 32;
+
+    /** Maximum age in milliseconds of a cached description. */
+    private static final long ENTRY_TIMEOUT = 1000;
+
+    /** Mapping from announced node to cached description, in access order. */
+    private final LinkedHashMap<AccessibilityNodeInfoCompat, Entry> mEntries =
+            new LinkedHashMap<AccessibilityNodeInfoCompat, Entry>(MAX_ENTRIES, 0.75f, true);
+
+    /**
+     * Returns the cached description for a node, if valid.
+     *
+     * @param announcedNode The root node of the described subtree.
+     * @param event The source event, may be {@code null}.
+     * @param source The event's source node, may be {@code null}.
+     * @return The cached description, or {@code null} if there is no valid
+     *         cached description.
+     */
+    public synchronized CharSequence get(AccessibilityNodeInfoCompat announcedNode,
+            AccessibilityEvent event, AccessibilityNodeInfoCompat source) {
+        final Entry entry = mEntries.get(announcedNode);
+        if (entry == null) {
+            return null;
+        }
+
+        final long age = (SystemClock.uptimeMillis() - entry.timestamp);
+        if ((age > ENTRY_TIMEOUT) || !entry.matches(event, source)) {
+            remove(announcedNode);
+            return null;
+        }
+
+        return entry.description;
+    }
+
+    /**
+     * Caches a description for a node.
+     *
+     * @param announcedNode The root node of the described subtree.
+     * @param event The source event, may be {@code null}.
+     * @param source The event's source node, may be {@code null}.
+     * @param description The description to cache.
+     */
+    public synchronized void put(AccessibilityNodeInfoCompat announcedNode,
+            AccessibilityEvent event, AccessibilityNodeInfoCompat source,
+            CharSequence description) {
+        remove(announcedNode);
+
+        if (mEntries.size() >= MAX_ENTRIES) {
+            final Iterator<Map.Entry<AccessibilityNodeInfoCompat, Entry>> iterator =
+                    mEntries.entrySet().iterator();
+            final Map.Entry<AccessibilityNodeInfoCompat, Entry> eldest = iterator.next();
+            iterator.remove();
+            recycleEntry(eldest.getKey(), eldest.getValue());
+        }
+
+        final Entry entry = new Entry();
+        entry.description = new SpannedString(description);
+        entry.timestamp = SystemClock.uptimeMillis();
+
+        if (event != null) {
+            entry.hasEvent = true;
+            entry.source = (source != null) ? AccessibilityNodeInfoCompat.obtain(source) : null;
+            entry.eventText = AccessibilityEventUtils.getEventAggregateText(event);
+            entry.itemCount = event.getItemCount();
+            entry.currentItemIndex = event.getCurrentItemIndex();
+        }
+
+        mEntries.put(AccessibilityNodeInfoCompat.obtain(announcedNode), entry);
+    }
+
+    /**
+     * Removes cached descriptions for nodes in the specified window.
+     *
+     * @param windowId The window identifier.
+     */
+    public synchronized void invalidateWindow(int windowId) {
+        final Iterator<Map.Entry<AccessibilityNodeInfoCompat, Entry>> iterator =
+                mEntries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<AccessibilityNodeInfoCompat, Entry> next = iterator.next();
+
+            if (next.getKey().getWindowId() == windowId) {
+                iterator.remove();
+                recycleEntry(next.getKey(), next.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes all cached descriptions.
+     */
+    public synchronized void clear() {
+        for (Map.Entry<AccessibilityNodeInfoCompat, Entry> entry : mEntries.entrySet()) {
+            recycleEntry(entry.getKey(), entry.getValue());
+        }
+
+        mEntries.clear();
+    }
+
+    private void remove(AccessibilityNodeInfoCompat announcedNode) {
+        // Find the original key so that it can be recycled.
+        final Iterator<Map.Entry<AccessibilityNodeInfoCompat, Entry>> iterator =
+                mEntries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<AccessibilityNodeInfoCompat, Entry> next = iterator.next();
+
+            if (next.getKey().equals(announcedNode)) {
+                iterator.remove();
+                recycleEntry(next.getKey(), next.getValue());
+                return;
+            }
+        }
+    }
+
+    private static void recycleEntry(AccessibilityNodeInfoCompat key, Entry entry) {
+        AccessibilityNodeInfoUtils.recycleNodes(key, entry.source);
+    }
+
+    /**
+     * A cached description and the event values it was computed from.
+     */
+    private static class Entry {
+        CharSequence description;
+        long timestamp;
+        boolean hasEvent;
+        AccessibilityNodeInfoCompat source;
+        CharSequence eventText;
+        int itemCount;
+        int currentItemIndex;
+
+        boolean matches(AccessibilityEvent event, AccessibilityNodeInfoCompat eventSource) {
+            if (event == null) {
+                return !hasEvent;
+            } else if (!hasEvent) {
+                return false;
+            }
+
+            if ((source == null) ? (eventSource != null) : !source.equals(eventSource)) {
+                return false;
+            }
+
+            return (itemCount == event.getItemCount())
+                    && (currentItemIndex == event.getCurrentItemIndex())
+                    && TextUtils.equals(eventText,
+                            AccessibilityEventUtils.getEventAggregateText(event));
+        }
+    }
+}
@@ -17,13 +17,16 @@
 package com.google.android.marvin.mytalkback.speechrules;
 
 import android.content.Context;
+import android.support.v4.view.accessibility.AccessibilityEventCompat;
 import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.view.accessibility.AccessibilityRecordCompat;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 
 import com.google.android.marvin.mytalkback.R;
+import com.google.android.marvin.mytalkback.TalkBackService.AccessibilityEventListener;
 import com.googlecode.eyesfree.compat.view.accessibility.AccessibilityNodeInfoCompatUtils;
 import com.googlecode.eyesfree.utils.AccessibilityNodeInfoUtils;
 import com.googlecode.eyesfree.utils.AccessibilityNodeInfoUtils.TopToBottomLeftToRightComparator;
@@ -35,10 +38,32 @@ import java.util.TreeSet;
 
 /**
  * Rule-based processor for {@link AccessibilityNodeInfoCompat}s.
+ * <p>
+ * Tree descriptions are cached briefly, since the same subtree is often
+ * described for several events in a row. Register this processor as an
+ * {@link AccessibilityEventListener} so that the cache is invalidated when
+ * window content changes.
+ * </p>
  *
  * @author alanv@google.com (Alan Viverette)
  */
-public class NodeSpeechRuleProcessor {
+public class NodeSpeechRuleProcessor implements AccessibilityEventListener {
+    /**
+     * Event types that invalidate cached descriptions for their window. This
+     * includes events that indicate a change in checked, selected or text
+     * state, which may not be followed by a content change event, and scroll
+     * events, since list rows are rebound to new data without changing their
+     * node IDs.
+     */
+    private static final int MASK_INVALIDATING_EVENT_TYPES =
+            AccessibilityEventCompat.TYPE_WINDOW_CONTENT_CHANGED
+            | AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            | AccessibilityEvent.TYPE_VIEW_CLICKED
+            | AccessibilityEvent.TYPE_VIEW_LONG_CLICKED
+            | AccessibilityEvent.TYPE_VIEW_SELECTED
+            | AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
+            | AccessibilityEventCompat.TYPE_VIEW_SCROLLED;
+
     /** Comparator for sorting on-screen content. */
     private static final TopToBottomLeftToRightComparator
             COMPARATOR = new TopToBottomLeftToRightComparator();
@@ -85,10 +110,29 @@ public class NodeSpeechRuleProcessor {
     /** The parent context. */
     private final Context mContext;
 
+    /** Recently computed tree descriptions. */
+    private final NodeDescriptionCache mDescriptionCache = new NodeDescriptionCache();
+
     private NodeSpeechRuleProcessor(Context context) {
         mContext = context;
     }
 
+    @Override
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        if ((event.getEventType() & MASK_INVALIDATING_EVENT_TYPES) == 0) {
+            return;
+        }
+
+        final AccessibilityRecordCompat record = new AccessibilityRecordCompat(event);
+        final int windowId = record.getWindowId();
+
+        if (windowId == -1) {
+            mDescriptionCache.clear();
+        } else {
+            mDescriptionCache.invalidateWindow(windowId);
+        }
+    }
+
     /**
      * Returns the best description for the subtree rooted at
      * {@code announcedNode}.
@@ -105,12 +149,19 @@ public class NodeSpeechRuleProcessor {
             return null;
         }
 
+        final CharSequence cachedDescription = mDescriptionCache.get(announcedNode, event, source);
+        if (cachedDescription != null) {
+            return cachedDescription;
+        }
+
         final SpannableStringBuilder builder = new SpannableStringBuilder();
 
         appendDescriptionForTree(announcedNode, builder, event, source);
         formatTextWithLabel(announcedNode, builder);
         appendRootMetadataToBuilder(announcedNode, builder);
 
+        mDescriptionCache.put(announcedNode, event, source, builder);
+
         return builder;
     }
 
@@ -17,6 +17,7 @@ import android.speech.tts.TextToSpeech;
 import android.speech.tts.TextToSpeech.Engine;
 import android.speech.tts.TextToSpeech.OnInitListener;
 import android.speech.tts.TextToSpeech.OnUtteranceCompletedListener;
+import android.speech.tts.UtteranceProgressListener;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -36,7 +37,8 @@ import java.util.Set;
  * engine does not work.
  * <p>
  * Does <strong>NOT</strong> implement queuing! Every call to {@link #speak}
- * flushes the global speech queue.
+ * flushes the global speech queue, unless the caller explicitly asks to add
+ * the text behind the utterance that is currently speaking.
  * <p>
  * This wrapper handles the following:
  * <ul>
@@ -45,6 +47,8 @@ import java.util.Set;
  * <li>Switching to the system TTS when media is unmounted
  * <li>Utterance-specific pitch and rate changes
  * <li>Pitch and rate changes relative to the user preference
+ * <li>Optionally playing frequent short utterances from a
+ * {@link SpeechAudioCache}
  * </ul>
  */
 @SuppressWarnings("deprecation")
@@ -63,6 +67,13 @@ public class FailoverTextToSpeech {
      */
     private static final int MAX_UTTERANCE_LENGTH = 3999;
 
+    /**
+     * Suffix for the utterance ID of the first chunk of split text. It reports
+     * when speech starts, but its completion is ignored since the last chunk
+     * carries the real utterance ID.
+     */
+    private static final String CHUNK_START_ID_SUFFIX = ":start";
+
     /** Constant to flush speech globally. This is a private API. */
     private static final int SPEECH_FLUSH_ALL = 2;
 
@@ -113,6 +124,9 @@ public class FailoverTextToSpeech {
 
     private FailoverTtsListener mListener;
 
+    /** Cache of synthesized short utterances, or {@code null} if disabled. */
+    private SpeechAudioCache mAudioCache;
+
     public FailoverTextToSpeech(Context context) {
         mContext = context;
         mContext.registerReceiver(mMediaStateMonitor, mMediaStateMonitor.getFilter());
@@ -147,6 +161,32 @@ public class FailoverTextToSpeech {
         mListener = listener;
     }
 
+    /**
+     * Sets whether frequently spoken short utterances should be synthesized
+     * ahead of time and played from a {@link SpeechAudioCache}.
+     *
+     * @param enabled Whether to use the cache.
+     */
+    public void setAudioCacheEnabled(boolean enabled) {
+        if (enabled && (mAudioCache == null)) {
+            mAudioCache = new SpeechAudioCache(mContext);
+            mAudioCache.setEngineParameters(mCurrentPitch, mCurrentRate);
+            mAudioCache.setTextToSpeech(mTts);
+        } else if (!enabled && (mAudioCache != null)) {
+            mAudioCache.shutdown();
+            mAudioCache = null;
+        }
+    }
+
+    /**
+     * @return {@code true} if an utterance is playing from the audio cache
+     *         rather than the text-to-speech engine. Text can't be queued
+     *         behind such an utterance.
+     */
+    public boolean isPlayingCachedAudio() {
+        return (mAudioCache != null) && mAudioCache.isPlaying();
+    }
+
     /**
      * Whether the text-to-speech engine is ready to speak.
      *
@@ -174,22 +214,62 @@ public class FailoverTextToSpeech {
      * @param params The parameters to pass to the text-to-speech engine.
      */
     public void speak(String text, float pitch, float rate, HashMap<String, String> params) {
+        speak(text, pitch, rate, params, false);
+    }
+
+    /**
+     * Speak the specified text, optionally adding it behind the utterances
+     * already sent to the text-to-speech engine.
+     * <p>
+     * Queued text should have the same pitch and rate as the utterance ahead
+     * of it, since changing them while queuing does not interrupt speech and
+     * may not affect utterances the engine has already received.
+     *
+     * @param text The text to speak.
+     * @param pitch The pitch adjustment, in the range [0 ... 1].
+     * @param rate The rate adjustment, in the range [0 ... 1].
+     * @param params The parameters to pass to the text-to-speech engine.
+     * @param queue {@code true} to add the text to the engine's queue,
+     *            {@code false} to flush all speech first.
+     * @return {@code false} if queued text could not be sent to the engine,
+     *         in which case no completion will be reported for it.
+     */
+    public boolean speak(String text, float pitch, float rate, HashMap<String, String> params,
+            boolean queue) {
         // Handle empty text immediately.
         if (TextUtils.isEmpty(text)) {
             mHandler.onUtteranceCompleted(params.get(Engine.KEY_PARAM_UTTERANCE_ID));
-            return;
+            return true;
+        }
+
+        if (!queue && (mAudioCache != null) && (mTts != null)) {
+            final float effectivePitch = (pitch * mDefaultPitch);
+            final float effectiveRate = (rate * mDefaultRate);
+            if (mAudioCache.play(text, effectivePitch, effectiveRate, params, mCacheCallback)) {
+                // Cached audio replaces speech, just like flushing would.
+                flushSpeech();
+                return true;
+            }
         }
 
         int result;
 
         Exception failureException = null;
         try {
-            result = trySpeak(text, pitch, rate, params);
+            result = trySpeak(text, pitch, rate, params, queue);
         } catch (Exception e) {
             failureException = e;
             result = TextToSpeech.ERROR;
         }
 
+        if (queue && (result != TextToSpeech.SUCCESS)) {
+            // The engine is still speaking the text ahead of this one, so
+            // don't fail over or report a completion that the caller would
+            // attribute to that text. The caller can speak it again later.
+            LogUtils.log(this, Log.WARN, "Failed to queue \"%s\"", text);
+            return false;
+        }
+
         if (result == TextToSpeech.ERROR) {
             attemptTtsFailover(mTtsEngine);
         }
@@ -205,12 +285,25 @@ public class FailoverTextToSpeech {
 
             mHandler.onUtteranceCompleted(params.get(Engine.KEY_PARAM_UTTERANCE_ID));
         }
+
+        return true;
     }
 
     /**
      * Stops speech from all applications. No utterance callbacks will be sent.
      */
     public void stopAll() {
+        if (mAudioCache != null) {
+            mAudioCache.stop();
+        }
+
+        flushSpeech();
+    }
+
+    /**
+     * Stops speech from all applications, except for cached audio.
+     */
+    private void flushSpeech() {
         try {
             mTts.speak("", SPEECH_FLUSH_ALL, null);
         } catch (Exception e) {
@@ -233,6 +326,11 @@ public class FailoverTextToSpeech {
         mResolver.unregisterContentObserver(mPitchObserver);
         mResolver.unregisterContentObserver(mRateObserver);
 
+        if (mAudioCache != null) {
+            mAudioCache.shutdown();
+            mAudioCache = null;
+        }
+
         TextToSpeechUtils.attemptTtsShutdown(mTts);
         mTts = null;
 
@@ -247,10 +345,12 @@ public class FailoverTextToSpeech {
      * @param pitch
      * @param rate
      * @param params
+     * @param queue
      * @return The result of speaking the specified text.
      */
     @SuppressWarnings("unused")
-    private int trySpeak(String text, float pitch, float rate, HashMap<String, String> params) {
+    private int trySpeak(String text, float pitch, float rate, HashMap<String, String> params,
+            boolean queue) {
         if (mTts == null) {
             return TextToSpeech.ERROR;
         }
@@ -258,14 +358,22 @@ public class FailoverTextToSpeech {
         final float effectivePitch = (pitch * mDefaultPitch);
         final float effectiveRate = (rate * mDefaultRate);
 
-        // Set the pitch and rate only if necessary, since that is slow.
+        // Set the pitch and rate only if necessary, since that is slow. Don't
+        // stop speech that the queued text is meant to follow.
         if ((mCurrentPitch != effectivePitch) || (mCurrentRate != effectiveRate)) {
-            mTts.stop();
+            if (!queue) {
+                mTts.stop();
+            }
+
             mTts.setPitch(effectivePitch);
             mTts.setSpeechRate(effectiveRate);
 
             mCurrentPitch = effectivePitch;
             mCurrentRate = effectiveRate;
+
+            if (mAudioCache != null) {
+                mAudioCache.setEngineParameters(effectivePitch, effectiveRate);
+            }
         }
 
         // Split long utterances to avoid killing TTS. TTS will die if
@@ -276,15 +384,36 @@ public class FailoverTextToSpeech {
             text = speakableUtterances.removeFirst();
         }
 
+        // Only the last chunk reports completion, so that callers see exactly
+        // one completion per call. The first chunk reports when speech starts.
         final String utteranceId = params.get(Engine.KEY_PARAM_UTTERANCE_ID);
-        final int result = mTts.speak(text, SPEECH_FLUSH_ALL, params);
+        final HashMap<String, String> firstChunkParams;
+        final HashMap<String, String> middleChunkParams;
+        if (speakableUtterances.isEmpty()) {
+            firstChunkParams = params;
+            middleChunkParams = null;
+        } else {
+            firstChunkParams = new HashMap<String, String>(params);
+            middleChunkParams = new HashMap<String, String>(params);
+            middleChunkParams.remove(Engine.KEY_PARAM_UTTERANCE_ID);
+
+            if (utteranceId != null) {
+                firstChunkParams.put(
+                        Engine.KEY_PARAM_UTTERANCE_ID, utteranceId + CHUNK_START_ID_SUFFIX);
+            }
+        }
+
+        final int queueMode = (queue ? TextToSpeech.QUEUE_ADD : SPEECH_FLUSH_ALL);
+        final int result = mTts.speak(text, queueMode, firstChunkParams);
         LogUtils.log(this, Log.DEBUG, "Speak call for \"%s\" returned %d", utteranceId, result);
 
         if (result == TextToSpeech.SUCCESS) {
             // If we were able to speak, queue any remaining fragments.
-            for (String speakableUtterance : speakableUtterances) {
+            while (!speakableUtterances.isEmpty()) {
+                final String speakableUtterance = speakableUtterances.removeFirst();
                 LogUtils.log(this, Log.DEBUG, "Queue overflow speech: \"%s\"", speakableUtterance);
-                mTts.speak(speakableUtterance, TextToSpeech.QUEUE_ADD, params);
+                mTts.speak(speakableUtterance, TextToSpeech.QUEUE_ADD,
+                        speakableUtterances.isEmpty() ? params : middleChunkParams);
             }
         } else if (USE_GOOGLE_TTS_WORKAROUNDS) {
             // Otherwise, maybe there's something wrong with the locale.
@@ -400,7 +529,12 @@ public class FailoverTextToSpeech {
         }
 
         mTts = tempTts;
-        mTts.setOnUtteranceCompletedListener(mTtsListener);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setUtteranceProgressListener(mTts);
+        } else {
+            mTts.setOnUtteranceCompletedListener(mTtsListener);
+        }
 
         if (tempTtsEngine == null) {
             mTtsEngine = TextToSpeechCompatUtils.getCurrentEngine(mTts);
@@ -412,6 +546,10 @@ public class FailoverTextToSpeech {
             updateDefaultLocale();
         }
 
+        if (mAudioCache != null) {
+            mAudioCache.setTextToSpeech(mTts);
+        }
+
         LogUtils.log(SpeechController.class, Log.INFO, "Switched to TTS engine: %s", tempTtsEngine);
 
         if (mListener != null) {
@@ -431,6 +569,18 @@ public class FailoverTextToSpeech {
      * @param success {@code true} if the utterance was spoken successfully.
      */
     private void handleUtteranceCompleted(String utteranceId, boolean success) {
+        if (isCacheUtteranceId(utteranceId)) {
+            if (mAudioCache != null) {
+                mAudioCache.onSynthesisCompleted(utteranceId);
+            }
+
+            return;
+        }
+
+        if (isChunkStartUtteranceId(utteranceId)) {
+            return;
+        }
+
         if (success) {
             mTtsFailures = 0;
         }
@@ -440,6 +590,50 @@ public class FailoverTextToSpeech {
         }
     }
 
+    /**
+     * Registers a listener that reports both the start and completion of
+     * utterances.
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+    private void setUtteranceProgressListener(TextToSpeech tts) {
+        tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                mHandler.onUtteranceStarted(utteranceId);
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                mTtsListener.onUtteranceCompleted(utteranceId);
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                mTtsListener.onUtteranceCompleted(utteranceId);
+            }
+        });
+    }
+
+    /**
+     * Handles the start of an utterance.
+     *
+     * @param utteranceId The utteranceId from the onStart callback.
+     */
+    private void handleUtteranceStarted(String utteranceId) {
+        if (isCacheUtteranceId(utteranceId)) {
+            return;
+        }
+
+        if (isChunkStartUtteranceId(utteranceId)) {
+            utteranceId = utteranceId.substring(
+                    0, utteranceId.length() - CHUNK_START_ID_SUFFIX.length());
+        }
+
+        if (mListener != null) {
+            mListener.onUtteranceStarted(utteranceId);
+        }
+    }
+
     /**
      * Handles media state changes.
      *
@@ -487,6 +681,32 @@ public class FailoverTextToSpeech {
         mDefaultPitch = (Secure.getInt(mResolver, Secure.TTS_DEFAULT_PITCH, 100) / 100.0f);
     }
 
+    /**
+     * Drops cached audio, which no longer matches the engine's voice.
+     */
+    private void clearAudioCache() {
+        if (mAudioCache != null) {
+            mAudioCache.clear();
+        }
+    }
+
+    /**
+     * Returns whether an utterance ID belongs to a synthesis request from the
+     * audio cache.
+     */
+    private static boolean isCacheUtteranceId(String utteranceId) {
+        return (utteranceId != null)
+                && utteranceId.startsWith(SpeechAudioCache.UTTERANCE_ID_PREFIX);
+    }
+
+    /**
+     * Returns whether an utterance ID belongs to the first chunk of split
+     * text.
+     */
+    private static boolean isChunkStartUtteranceId(String utteranceId) {
+        return (utteranceId != null) && utteranceId.endsWith(CHUNK_START_ID_SUFFIX);
+    }
+
     /**
      * Loads the default rate adjustment from {@link Secure#TTS_DEFAULT_RATE}.
      * This will take effect during the next call to {@link #trySpeak}.
@@ -678,6 +898,7 @@ public class FailoverTextToSpeech {
         final String defaultLocale = TextToSpeechUtils.getDefaultLocaleForEngine(
                 mResolver, mTtsEngine);
         mDefaultLocale = ((defaultLocale != null) ? new Locale(defaultLocale) : null);
+        clearAudioCache();
 
         // The default locale changed, which may mean we can restore the user's
         // preferred locale.
@@ -697,6 +918,7 @@ public class FailoverTextToSpeech {
         }
 
         mSystemLocale = newLocale;
+        clearAudioCache();
 
         // The system locale changed, which may mean we need to override the
         // current TTS locale.
@@ -802,6 +1024,7 @@ public class FailoverTextToSpeech {
     private final ContentObserver mSynthObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
+            clearAudioCache();
             updateDefaultEngine();
         }
     };
@@ -809,6 +1032,7 @@ public class FailoverTextToSpeech {
     private final ContentObserver mPitchObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
+            clearAudioCache();
             updateDefaultPitch();
         }
     };
@@ -816,6 +1040,7 @@ public class FailoverTextToSpeech {
     private final ContentObserver mRateObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
+            clearAudioCache();
             updateDefaultRate();
         }
     };
@@ -832,6 +1057,20 @@ public class FailoverTextToSpeech {
         }
     };
 
+    /** Reports playback from the audio cache like utterances from the TTS. */
+    private final SpeechAudioCache.PlaybackCallback mCacheCallback =
+            new SpeechAudioCache.PlaybackCallback() {
+                @Override
+                public void onPlaybackStarted(String utteranceId) {
+                    mHandler.onUtteranceStarted(utteranceId);
+                }
+
+                @Override
+                public void onPlaybackCompleted(String utteranceId) {
+                    mHandler.onUtteranceCompleted(utteranceId);
+                }
+            };
+
     /** Hands utterance completed processing to the main thread. */
     private final OnUtteranceCompletedListener mTtsListener = new OnUtteranceCompletedListener() {
         @Override
@@ -906,6 +1145,9 @@ public class FailoverTextToSpeech {
         /** Hand-off media state changes. */
         private static final int MSG_MEDIA_STATE_CHANGED = 3;
 
+        /** Hand-off utterance started. */
+        private static final int MSG_UTTERANCE_STARTED = 4;
+
         public SpeechHandler(FailoverTextToSpeech parent) {
             super(parent);
         }
@@ -921,6 +1163,10 @@ public class FailoverTextToSpeech {
                     break;
                 case MSG_MEDIA_STATE_CHANGED:
                     parent.handleMediaStateChanged((String) msg.obj);
+                    break;
+                case MSG_UTTERANCE_STARTED:
+                    parent.handleUtteranceStarted((String) msg.obj);
+                    break;
             }
         }
 
@@ -928,6 +1174,10 @@ public class FailoverTextToSpeech {
             obtainMessage(MSG_INITIALIZED, status, 0).sendToTarget();
         }
 
+        public void onUtteranceStarted(String utteranceId) {
+            obtainMessage(MSG_UTTERANCE_STARTED, utteranceId).sendToTarget();
+        }
+
         public void onUtteranceCompleted(String utteranceId) {
             obtainMessage(MSG_UTTERANCE_COMPLETED, utteranceId).sendToTarget();
         }
@@ -939,6 +1189,7 @@ public class FailoverTextToSpeech {
 
     public interface FailoverTtsListener {
         public void onTtsInitialized(boolean wasSwitchingEngines);
+        public void onUtteranceStarted(String utteranceId);
         public void onUtteranceCompleted(String utteranceId, boolean success);
     }
 }
@@ -10,13 +10,15 @@ import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import com.googlecode.eyesfree.utils.LogUtils;
-import com.googlecode.eyesfree.utils.MidiUtils;
+import com.googlecode.eyesfree.utils.MidiSynthesizer;
+import com.googlecode.eyesfree.utils.PcmMixer;
 
-import java.io.File;
+import java.util.LinkedList;
 
 /**
  * Wrapper for {@link SoundPool} that maps client-specified IDs to cached
- * sounds.
+ * sounds. MIDI array resources are rendered to PCM and played through the
+ * shared {@link PcmMixer} for their stream instead.
  */
 public class MappedSoundPool {
     /** Default stream for audio feedback. */
@@ -46,9 +48,22 @@ public class MappedSoundPool {
     /** Map of assigned IDs to stream types. */
     private final SparseIntArray mStreamTypeMap = new SparseIntArray();
 
+    /** Map of assigned IDs to rendered mixer sound IDs. */
+    private final SparseIntArray mPcmSoundMap = new SparseIntArray();
+
     /** Map of assigned stream types to sound pools. */
     private final SparseArray<SoundPool> mSoundPoolStreams = new SparseArray<SoundPool>();
 
+    /** Map of assigned stream types to mixers. */
+    private final SparseArray<PcmMixer> mMixerStreams = new SparseArray<PcmMixer>();
+
+    /**
+     * Map of assigned stream types to the most recent sound pool stream IDs,
+     * oldest first. Stopping a stream that has finished has no effect.
+     */
+    private final SparseArray<LinkedList<Integer>> mPlayingStreams =
+            new SparseArray<LinkedList<Integer>>();
+
     /** The parent context. */
     private final Context mContext;
 
@@ -91,21 +106,21 @@ public class MappedSoundPool {
             return false;
         }
 
-        final SoundPool soundPool = getOrCreateSoundPool(streamType);
         final String resType = mResources.getResourceTypeName(resId);
-        final int soundId;
 
         if (RES_TYPE_RAW.equals(resType)) {
-            soundId = soundPool.load(mContext, resId, 1);
+            final SoundPool soundPool = getOrCreateSoundPool(streamType);
+            final int soundId = soundPool.load(mContext, resId, 1);
+            return assign(id, soundId, streamType, false);
         } else if (RES_TYPE_ARRAY.equals(resType)) {
+            final PcmMixer mixer = getOrCreateMixer(streamType);
             final int[] notes = mResources.getIntArray(resId);
-            soundId = loadMidiSoundFromArray(soundPool, notes);
+            final int soundId = mixer.load(MidiSynthesizer.render(notes));
+            return assign(id, soundId, streamType, true);
         } else {
             LogUtils.log(this, Log.ERROR, "Unknown resource type for %d", resId);
             return false;
         }
-
-        return assign(id, soundId, streamType);
     }
 
     /**
@@ -132,7 +147,7 @@ public class MappedSoundPool {
     public boolean load(int id, String path, int streamType) {
         final SoundPool soundPool = getOrCreateSoundPool(streamType);
         final int soundId = soundPool.load(path, 1);
-        return assign(id, soundId, streamType);
+        return assign(id, soundId, streamType, false);
     }
 
     /**
@@ -143,6 +158,17 @@ public class MappedSoundPool {
      *         could not be found.
      */
     public boolean unload(int id) {
+        final int pcmSoundId = mPcmSoundMap.get(id);
+        if (pcmSoundId != 0) {
+            final PcmMixer mixer = mMixerStreams.get(mStreamTypeMap.get(id));
+            if (mixer == null) {
+                return false;
+            }
+
+            mixer.unload(pcmSoundId);
+            return true;
+        }
+
         final int soundId = mSoundPoolMap.get(id);
         if (soundId == 0) {
             return false;
@@ -168,6 +194,18 @@ public class MappedSoundPool {
      * @return Whether sound playback started successfully.
      */
     public boolean play(int id, float rate, float volume, float pan) {
+        final int pcmSoundId = mPcmSoundMap.get(id);
+        if (pcmSoundId != 0) {
+            final PcmMixer mixer = mMixerStreams.get(mStreamTypeMap.get(id));
+            if ((mixer == null) || !mixer.play(
+                    pcmSoundId, (DEFAULT_RATE * rate), (DEFAULT_VOLUME * volume), pan)) {
+                LogUtils.log(this, Log.ERROR, "Failed to play sound id %s", id);
+                return false;
+            }
+
+            return true;
+        }
+
         final int soundId = mSoundPoolMap.get(id);
         if (soundId == 0) {
             return false;
@@ -183,20 +221,53 @@ public class MappedSoundPool {
         final float rightVolume = DEFAULT_VOLUME * Math.min(1.0f, (1.0f + pan)) * volume;
         final float playRate = DEFAULT_RATE * rate;
 
-        final int resultSoundId = soundPool.play(soundId, leftVolume, rightVolume, 0, 0, playRate);
-        if (resultSoundId == 0) {
+        final int streamId = soundPool.play(soundId, leftVolume, rightVolume, 0, 0, playRate);
+        if (streamId == 0) {
             LogUtils.log(this, Log.ERROR, "Failed to play sound id %s", id);
             return false;
         }
 
+        addPlayingStream(streamType, streamId);
         return true;
     }
 
     /**
-     * Stops all active sound playback.
+     * Renders the specified {@code notes} and plays them once on the default
+     * stream (see {@link #DEFAULT_STREAM_TYPE}) without assigning an
+     * identifier.
+     *
+     * @param notes An array specifying a MIDI track.
+     * @param rate The playback rate modifier, range {0...2}.
+     * @param volume The volume level modifier, range {0...1}.
+     * @param pan The panning value, range {-1...1} where 0 is center.
+     * @return Whether sound playback started successfully.
+     */
+    public boolean playMidiNotes(int[] notes, float rate, float volume, float pan) {
+        final PcmMixer mixer = getOrCreateMixer(DEFAULT_STREAM_TYPE);
+        return mixer.play(MidiSynthesizer.render(notes), (DEFAULT_RATE * rate),
+                (DEFAULT_VOLUME * volume), pan);
+    }
+
+    /**
+     * Stops all active sound playback, including sounds played by other
+     * clients of the shared mixers.
      */
     public void interrupt() {
-        // TODO: Stop all active streams.
+        for (int i = (mMixerStreams.size() - 1); i >= 0; i--) {
+            mMixerStreams.valueAt(i).stopAll();
+        }
+
+        for (int i = (mPlayingStreams.size() - 1); i >= 0; i--) {
+            final SoundPool soundPool = mSoundPoolStreams.get(mPlayingStreams.keyAt(i));
+            final LinkedList<Integer> streamIds = mPlayingStreams.valueAt(i);
+            if (soundPool != null) {
+                for (int streamId : streamIds) {
+                    soundPool.stop(streamId);
+                }
+            }
+
+            streamIds.clear();
+        }
     }
 
     /**
@@ -209,6 +280,45 @@ public class MappedSoundPool {
         }
 
         mSoundPoolStreams.clear();
+        mPlayingStreams.clear();
+
+        for (int i = (mPcmSoundMap.size() - 1); i >= 0; i--) {
+            final PcmMixer mixer = mMixerStreams.get(mStreamTypeMap.get(mPcmSoundMap.keyAt(i)));
+            if (mixer != null) {
+                mixer.unload(mPcmSoundMap.valueAt(i));
+            }
+        }
+
+        mPcmSoundMap.clear();
+
+        for (int i = (mMixerStreams.size() - 1); i >= 0; i--) {
+            mMixerStreams.valueAt(i).release();
+        }
+
+        mMixerStreams.clear();
+    }
+
+    /**
+     * Records a sound pool stream so that it can be stopped by
+     * {@link #interrupt}. Only the last {@link #MAX_STREAMS} streams for each
+     * stream type are kept, since the sound pool has already stopped any
+     * older streams.
+     *
+     * @param streamType The playback stream type.
+     * @param streamId The stream ID returned by {@link SoundPool#play}.
+     */
+    private void addPlayingStream(int streamType, int streamId) {
+        LinkedList<Integer> streamIds = mPlayingStreams.get(streamType);
+        if (streamIds == null) {
+            streamIds = new LinkedList<Integer>();
+            mPlayingStreams.put(streamType, streamIds);
+        }
+
+        streamIds.add(streamId);
+
+        if (streamIds.size() > MAX_STREAMS) {
+            streamIds.removeFirst();
+        }
     }
 
     /**
@@ -229,6 +339,24 @@ public class MappedSoundPool {
         return newPool;
     }
 
+    /**
+     * Returns a {@link PcmMixer} for the specified stream type, acquiring the
+     * shared mixer if necessary.
+     *
+     * @param streamType The playback stream type.
+     * @return A {@link PcmMixer} for the specified stream type.
+     */
+    private PcmMixer getOrCreateMixer(int streamType) {
+        final PcmMixer mixer = mMixerStreams.get(streamType);
+        if (mixer != null) {
+            return mixer;
+        }
+
+        final PcmMixer newMixer = PcmMixer.acquire(streamType);
+        mMixerStreams.put(streamType, newMixer);
+        return newMixer;
+    }
+
     /**
      * Associates a loaded sound identifier on a particular stream with a
      * client-specified identifier. If the identifier was already assigned,
@@ -237,38 +365,28 @@ public class MappedSoundPool {
      * @param id The client-specified identifier.
      * @param soundId The sound identifier.
      * @param streamType The client-specified playback stream.
+     * @param pcm Whether the sound identifier belongs to a {@link PcmMixer}.
      * @return Whether the sound was assigned successfully.
      */
-    private boolean assign(int id, int soundId, int streamType) {
+    private boolean assign(int id, int soundId, int streamType, boolean pcm) {
         if (soundId <= 0) {
             LogUtils.log(this, Log.ERROR, "Failed to assign sound for %d", id);
             return false;
         }
 
-        if (mSoundPoolMap.indexOfKey(id) >= 0) {
+        if ((mSoundPoolMap.indexOfKey(id) >= 0) || (mPcmSoundMap.indexOfKey(id) >= 0)) {
             unload(id);
+            mSoundPoolMap.delete(id);
+            mPcmSoundMap.delete(id);
         }
 
-        mSoundPoolMap.put(id, soundId);
-        mStreamTypeMap.put(id, streamType);
-        return true;
-    }
-
-    /**
-     * Generates a MIDI file from the specified {@code notes} array and loads it
-     * into the specified {@code soundPool}.
-     *
-     * @param soundPool The sound pool to load the MIDI file into.
-     * @param notes An array specifying a MIDI track.
-     * @return The sound identifier for the loaded MIDI notes, or {@code -1} on
-     *         error.
-     */
-    private int loadMidiSoundFromArray(SoundPool soundPool, int[] notes) {
-        final File midiFile = MidiUtils.generateMidiFileFromArray(mContext, notes);
-        if (midiFile == null) {
-            return -1;
+        if (pcm) {
+            mPcmSoundMap.put(id, soundId);
+        } else {
+            mSoundPoolMap.put(id, soundId);
         }
 
-        return soundPool.load(midiFile.getPath(), 1);
+        mStreamTypeMap.put(id, streamType);
+        return true;
     }
 }
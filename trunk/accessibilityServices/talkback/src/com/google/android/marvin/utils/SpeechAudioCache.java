@@ -0,0 +1,574 @@
+package com.google.android.marvin.utils;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.media.SoundPool.OnLoadCompleteListener;
+import android.os.Handler;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.TextToSpeech.Engine;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.marvin.mytalkback.SpeechController.SpeechParam;
+import com.googlecode.eyesfree.compat.speech.tts.TextToSpeechCompatUtils.EngineCompatUtils;
+import com.googlecode.eyesfree.utils.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Cache of synthesized audio for short utterances that are spoken often, such
+ * as "Button" or key names.
+ * <p>
+ * Utterances requested at least {@link #MIN_REQUESTS_TO_CACHE} times are
+ * synthesized to files with {@link TextToSpeech#synthesizeToFile} once speech
+ * has been idle for a while, then loaded into a {@link SoundPool}. Later
+ * requests for the same text, engine, pitch and rate are played from the
+ * sound pool without a round-trip through the text-to-speech engine.
+ * <p>
+ * The cache must be cleared whenever the engine, language, pitch or rate
+ * changes. All methods must be called on the main thread.
+ */
+@SuppressWarnings("deprecation")
+public class SpeechAudioCache {
+    /** Prefix for utterance IDs used for synthesis. */
+    public static final String UTTERANCE_ID_PREFIX = "speech_cache_";
+
+    /** Stream for cached speech. Utterances on other streams aren't cached. */
+    private static final int STREAM_TYPE = AudioManager.STREAM_MUSIC;
+
+    /** Maximum length of text to cache. */
+    private static final int MAX_TEXT_LENGTH = 40;
+
+    /** Number of requests after which an utterance is synthesized. */
+    private static final int MIN_REQUESTS_TO_CACHE = 2;
+
+    /** Maximum number of cached utterances. */
+    private static final int MAX_ENTRIES = 50;
+
+    /** Maximum number of utterances tracked for request counts. */
+    private static final int MAX_TRACKED_REQUESTS = 200;
+
+    /** Time without speech requests before synthesis starts. */
+    private static final long SYNTHESIS_IDLE_DELAY = 2000;
+
+    /** Size of the header of files written by the text-to-speech service. */
+    private static final int WAV_HEADER_LENGTH = 44;
+
+    /** Cached utterances, least recently played first. */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > MAX_ENTRIES) {
+                        releaseEntry(eldest.getValue());
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+
+    /** Number of requests for utterances that aren't cached. */
+    private final LinkedHashMap<String, Integer> mRequestCounts =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return (size() > MAX_TRACKED_REQUESTS);
+                }
+            };
+
+    /** Entries waiting for synthesis. */
+    private final LinkedList<Entry> mPendingSynthesis = new LinkedList<Entry>();
+
+    /** Entries being loaded into the sound pool, by sound ID. */
+    private final SparseArray<Entry> mLoadingEntries = new SparseArray<Entry>();
+
+    private final Handler mHandler = new Handler();
+    private final File mCacheDir;
+    private final SoundPool mSoundPool;
+
+    /** The text-to-speech engine used for synthesis. */
+    private TextToSpeech mTts;
+
+    /** The pitch most recently set on the engine for speech. */
+    private float mEnginePitch = 1.0f;
+
+    /** The rate most recently set on the engine for speech. */
+    private float mEngineRate = 1.0f;
+
+    /** The entry currently being synthesized. */
+    private Entry mSynthesizingEntry;
+
+    /** The sound pool stream currently playing, or {@code 0} if none. */
+    private int mPlayingStreamId;
+
+    /** Runnable that reports completion of the current playback. */
+    private Runnable mPlaybackCompletion;
+
+    /** The utterance ID of the current playback. */
+    private String mPlayingUtteranceId;
+
+    /** Receives the completion of the current playback. */
+    private PlaybackCallback mPlayingCallback;
+
+    /** Counter used to create unique file names and utterance IDs. */
+    private int mNextFileIndex;
+
+    public SpeechAudioCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), "speech");
+        mCacheDir.mkdirs();
+        deleteCacheFiles();
+
+        mSoundPool = new SoundPool(1, STREAM_TYPE, 0);
+        mSoundPool.setOnLoadCompleteListener(mLoadCompleteListener);
+    }
+
+    /**
+     * Sets the text-to-speech engine used for synthesis. Clears the cache.
+     *
+     * @param tts The engine to use, or {@code null} to pause synthesis.
+     */
+    public void setTextToSpeech(TextToSpeech tts) {
+        mTts = tts;
+        clear();
+    }
+
+    /**
+     * Records the pitch and rate set on the engine for speech, which are
+     * restored after requesting synthesis at a different pitch or rate.
+     */
+    public void setEngineParameters(float pitch, float rate) {
+        mEnginePitch = pitch;
+        mEngineRate = rate;
+    }
+
+    /**
+     * Attempts to play an utterance from the cache, and counts the request
+     * toward caching the utterance if it isn't cached. Like a flushing speak,
+     * this interrupts any utterance playing from the cache and reports its
+     * completion.
+     *
+     * @param text The text to speak.
+     * @param pitch The effective pitch of the engine.
+     * @param rate The effective rate of the engine.
+     * @param params The parameters that would be passed to the engine.
+     * @param callback Receives the start and completion of playback.
+     * @return {@code true} if the utterance is playing from the cache.
+     */
+    public boolean play(String text, float pitch, float rate, HashMap<String, String> params,
+            final PlaybackCallback callback) {
+        interruptPlayback();
+        deferSynthesis();
+
+        if ((text.length() > MAX_TEXT_LENGTH) || !isCacheable(params)) {
+            return false;
+        }
+
+        final String key = getKey(text, pitch, rate);
+        final Entry entry = mEntries.get(key);
+        if (entry == null) {
+            countRequest(key, text, pitch, rate);
+            return false;
+        }
+
+        if (!entry.loaded) {
+            return false;
+        }
+
+        final float volume = parseFloat(params.get(EngineCompatUtils.KEY_PARAM_VOLUME), 1.0f);
+        final float pan = parseFloat(params.get(EngineCompatUtils.KEY_PARAM_PAN), 0.0f);
+        final float leftVolume = Math.min(1.0f, (1.0f - pan)) * volume;
+        final float rightVolume = Math.min(1.0f, (1.0f + pan)) * volume;
+
+        final int streamId = mSoundPool.play(entry.soundId, leftVolume, rightVolume, 1, 0, 1.0f);
+        if (streamId == 0) {
+            LogUtils.log(this, Log.ERROR, "Failed to play cached speech \"%s\"", text);
+            return false;
+        }
+
+        LogUtils.log(this, Log.VERBOSE, "Playing cached speech \"%s\"", text);
+
+        final String utteranceId = params.get(Engine.KEY_PARAM_UTTERANCE_ID);
+        mPlayingStreamId = streamId;
+        mPlayingUtteranceId = utteranceId;
+        mPlayingCallback = callback;
+        mPlaybackCompletion = new Runnable() {
+            @Override
+            public void run() {
+                mPlayingStreamId = 0;
+                mPlaybackCompletion = null;
+                mPlayingUtteranceId = null;
+                mPlayingCallback = null;
+                callback.onPlaybackCompleted(utteranceId);
+            }
+        };
+
+        callback.onPlaybackStarted(utteranceId);
+        mHandler.postDelayed(mPlaybackCompletion, entry.durationMillis);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if an utterance is playing from the cache.
+     */
+    public boolean isPlaying() {
+        return (mPlayingStreamId != 0);
+    }
+
+    /**
+     * Stops playback from the cache. No completion will be reported for the
+     * stopped utterance.
+     */
+    public void stop() {
+        if (mPlayingStreamId != 0) {
+            mSoundPool.stop(mPlayingStreamId);
+            mPlayingStreamId = 0;
+        }
+
+        if (mPlaybackCompletion != null) {
+            mHandler.removeCallbacks(mPlaybackCompletion);
+            mPlaybackCompletion = null;
+        }
+
+        mPlayingUtteranceId = null;
+        mPlayingCallback = null;
+    }
+
+    /**
+     * Stops playback from the cache and reports completion of the stopped
+     * utterance, just like the engine does for speech it flushes.
+     */
+    private void interruptPlayback() {
+        if (mPlaybackCompletion == null) {
+            return;
+        }
+
+        final String utteranceId = mPlayingUtteranceId;
+        final PlaybackCallback callback = mPlayingCallback;
+
+        stop();
+
+        callback.onPlaybackCompleted(utteranceId);
+    }
+
+    /**
+     * Handles completion of a synthesis request.
+     *
+     * @param utteranceId The utterance ID reported by the engine, which must
+     *            start with {@link #UTTERANCE_ID_PREFIX}.
+     */
+    public void onSynthesisCompleted(String utteranceId) {
+        final Entry entry = mSynthesizingEntry;
+        if ((entry == null) || !entry.utteranceId.equals(utteranceId)) {
+            // Stale completion from before the cache was cleared.
+            return;
+        }
+
+        mSynthesizingEntry = null;
+
+        if (!mEntries.containsKey(entry.key)) {
+            // Evicted during synthesis.
+            releaseEntry(entry);
+            synthesizeNext();
+            return;
+        }
+
+        final int durationMillis = getDurationMillis(entry.file);
+        if (durationMillis <= 0) {
+            LogUtils.log(this, Log.WARN, "Failed to synthesize \"%s\"", entry.text);
+            mEntries.remove(entry.key);
+            releaseEntry(entry);
+        } else {
+            entry.durationMillis = durationMillis;
+            entry.soundId = mSoundPool.load(entry.file.getPath(), 1);
+            if (entry.soundId > 0) {
+                mLoadingEntries.put(entry.soundId, entry);
+            }
+        }
+
+        synthesizeNext();
+    }
+
+    /**
+     * Drops all cached utterances and pending synthesis requests.
+     */
+    public void clear() {
+        stop();
+        mHandler.removeCallbacks(mSynthesizeRunnable);
+
+        for (Entry entry : mEntries.values()) {
+            releaseEntry(entry);
+        }
+
+        mEntries.clear();
+        mRequestCounts.clear();
+        mPendingSynthesis.clear();
+        mLoadingEntries.clear();
+        mSynthesizingEntry = null;
+    }
+
+    /**
+     * Releases all resources. No calls should be made to this object after
+     * calling this method.
+     */
+    public void shutdown() {
+        clear();
+        mTts = null;
+        mSoundPool.release();
+    }
+
+    private void countRequest(String key, String text, float pitch, float rate) {
+        final Integer count = mRequestCounts.get(key);
+        final int newCount = ((count == null) ? 1 : (count + 1));
+        if (newCount < MIN_REQUESTS_TO_CACHE) {
+            mRequestCounts.put(key, newCount);
+            return;
+        }
+
+        mRequestCounts.remove(key);
+
+        final Entry entry = new Entry(key, text, pitch, rate);
+        mEntries.put(key, entry);
+        mPendingSynthesis.add(entry);
+    }
+
+    /**
+     * Postpones synthesis until speech has been idle, since synthesis
+     * competes with speech for the engine.
+     */
+    private void deferSynthesis() {
+        mHandler.removeCallbacks(mSynthesizeRunnable);
+
+        // Speech flushes the engine's queue, including synthesis in progress.
+        if (mSynthesizingEntry != null) {
+            mPendingSynthesis.addFirst(mSynthesizingEntry);
+            mSynthesizingEntry = null;
+        }
+
+        if (!mPendingSynthesis.isEmpty()) {
+            mHandler.postDelayed(mSynthesizeRunnable, SYNTHESIS_IDLE_DELAY);
+        }
+    }
+
+    private void synthesizeNext() {
+        if ((mTts == null) || (mSynthesizingEntry != null)) {
+            return;
+        }
+
+        while (!mPendingSynthesis.isEmpty()) {
+            final Entry entry = mPendingSynthesis.removeFirst();
+            if (!mEntries.containsKey(entry.key)) {
+                // Evicted while waiting.
+                continue;
+            }
+
+            // Synthesis deferred by speech may have left a partial file.
+            if (entry.file != null) {
+                entry.file.delete();
+            }
+
+            entry.utteranceId = UTTERANCE_ID_PREFIX + mNextFileIndex;
+            entry.file = new File(mCacheDir, entry.utteranceId + ".wav");
+            mNextFileIndex++;
+
+            final HashMap<String, String> params = new HashMap<String, String>();
+            params.put(Engine.KEY_PARAM_UTTERANCE_ID, entry.utteranceId);
+
+            // The engine reads pitch and rate when synthesis is requested, so
+            // they can be restored right away.
+            final boolean changeParameters =
+                    (entry.pitch != mEnginePitch) || (entry.rate != mEngineRate);
+            if (changeParameters) {
+                mTts.setPitch(entry.pitch);
+                mTts.setSpeechRate(entry.rate);
+            }
+
+            final int result = mTts.synthesizeToFile(entry.text, params, entry.file.getPath());
+
+            if (changeParameters) {
+                mTts.setPitch(mEnginePitch);
+                mTts.setSpeechRate(mEngineRate);
+            }
+            if (result == TextToSpeech.SUCCESS) {
+                mSynthesizingEntry = entry;
+                return;
+            }
+
+            mEntries.remove(entry.key);
+            releaseEntry(entry);
+        }
+    }
+
+    private void releaseEntry(Entry entry) {
+        if (entry.soundId > 0) {
+            mSoundPool.unload(entry.soundId);
+            mLoadingEntries.remove(entry.soundId);
+            entry.soundId = 0;
+        }
+
+        if (entry.file != null) {
+            entry.file.delete();
+        }
+
+        entry.loaded = false;
+    }
+
+    private void deleteCacheFiles() {
+        final File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private static String getKey(String text, float pitch, float rate) {
+        return pitch + ":" + rate + ":" + text;
+    }
+
+    /**
+     * Returns whether cached audio can stand in for speaking with the
+     * specified parameters. Volume and pan are applied during playback, and
+     * pitch and rate are part of the cache key. Any other parameter may change
+     * the synthesized audio, so the utterance must be spoken by the engine.
+     */
+    private static boolean isCacheable(HashMap<String, String> params) {
+        for (String key : params.keySet()) {
+            if (!Engine.KEY_PARAM_UTTERANCE_ID.equals(key)
+                    && !Engine.KEY_PARAM_STREAM.equals(key)
+                    && !EngineCompatUtils.KEY_PARAM_VOLUME.equals(key)
+                    && !EngineCompatUtils.KEY_PARAM_PAN.equals(key)
+                    && !SpeechParam.PITCH.equals(key)
+                    && !SpeechParam.RATE.equals(key)) {
+                return false;
+            }
+        }
+
+        final String stream = params.get(Engine.KEY_PARAM_STREAM);
+        return ((stream == null) || String.valueOf(STREAM_TYPE).equals(stream));
+    }
+
+    private static float parseFloat(String value, float defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the duration of a PCM WAV file written by the text-to-speech
+     * service, or {@code 0} if the file is empty or can't be read.
+     */
+    private static int getDurationMillis(File file) {
+        RandomAccessFile in = null;
+
+        try {
+            in = new RandomAccessFile(file, "r");
+            if (in.length() <= WAV_HEADER_LENGTH) {
+                return 0;
+            }
+
+            final byte[] header = new byte[WAV_HEADER_LENGTH];
+            in.readFully(header);
+
+            final int channels = readLittleEndian(header, 22, 2);
+            final int sampleRate = readLittleEndian(header, 24, 4);
+            final int bitsPerSample = readLittleEndian(header, 34, 2);
+            final int bytesPerSecond = (sampleRate * channels * bitsPerSample / 8);
+            if (bytesPerSecond <= 0) {
+                return 0;
+            }
+
+            return (int) ((in.length() - WAV_HEADER_LENGTH) * 1000 / bytesPerSecond);
+        } catch (IOException e) {
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Do nothing.
+                }
+            }
+        }
+    }
+
+    private static int readLittleEndian(byte[] bytes, int offset, int length) {
+        int value = 0;
+
+        for (int i = (length - 1); i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    private final Runnable mSynthesizeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synthesizeNext();
+        }
+    };
+
+    private final OnLoadCompleteListener mLoadCompleteListener = new OnLoadCompleteListener() {
+        @Override
+        public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+            final Entry entry = mLoadingEntries.get(sampleId);
+            if (entry == null) {
+                return;
+            }
+
+            mLoadingEntries.remove(sampleId);
+
+            if (status == 0) {
+                entry.loaded = true;
+            } else {
+                LogUtils.log(SpeechAudioCache.this, Log.WARN, "Failed to load \"%s\"", entry.text);
+                mEntries.remove(entry.key);
+                releaseEntry(entry);
+            }
+        }
+    };
+
+    /** A cached utterance. */
+    private static class Entry {
+        public final String key;
+        public final String text;
+        public final float pitch;
+        public final float rate;
+
+        public String utteranceId;
+        public File file;
+        public int soundId;
+        public int durationMillis;
+        public boolean loaded;
+
+        public Entry(String key, String text, float pitch, float rate) {
+            this.key = key;
+            this.text = text;
+            this.pitch = pitch;
+            this.rate = rate;
+        }
+    }
+
+    /** Receives the start and completion of cached playback. */
+    public interface PlaybackCallback {
+        public void onPlaybackStarted(String utteranceId);
+
+        public void onPlaybackCompleted(String utteranceId);
+    }
+}
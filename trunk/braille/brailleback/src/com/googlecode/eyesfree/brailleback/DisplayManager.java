@@ -268,6 +268,9 @@ public class DisplayManager
     private int mCursorPosition = 0;
     private TranslationResult mTranslationResult = new TranslationResult(
         new byte[0], new int[0], new int[0], 0);
+    /** Reuses the translation of unchanged text when content changes. */
+    private final IncrementalTranslator mIncrementalTranslator =
+            new IncrementalTranslator();
     /** Display content without overlays for cursors, focus etc. */
     private byte[] mBrailleContent = new byte[0];
     /**
@@ -636,7 +639,7 @@ public class DisplayManager
             if (mCurrentContent == null) {
                 return;
             }
-            TranslationResult oldTranslationResult = mTranslationResult;
+            mIncrementalTranslator.clear();
             translateCurrentContent();
             mDisplayPosition = textToDisplayPosition(
                     mTranslationResult,
@@ -755,15 +758,17 @@ public class DisplayManager
         // because editing doesn't work in contracted braille.
         // TODO: Refine to only use the uncontracted translator for the current
         // word.
-        BrailleTranslator translator =
-                allowContractedBraille(mCurrentContent)
+        boolean allowContracted = allowContractedBraille(mCurrentContent);
+        BrailleTranslator translator = allowContracted
                 ? mTranslatorManager.getTranslator()
                 : mTranslatorManager.getUncontractedTranslator();
         String textContent = mCurrentContent.mText.toString();
+        mTranslationResult = null;
         if (translator != null) {
-            mTranslationResult = translator.translate(textContent,
-                    mCursorPosition);
-        } else {
+            mTranslationResult = mIncrementalTranslator.translate(translator,
+                    !allowContracted, textContent, mCursorPosition);
+        }
+        if (mTranslationResult == null) {
             mTranslationResult = new TranslationResult(
                     new byte[0], new int[textContent.length()], new int[0],
                     0);
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.brailleback;
+
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
+import com.googlecode.eyesfree.braille.translate.TranslationResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Translates text by splitting it into segments that are translated
+ * independently, reusing the results for segments that didn't change since
+ * the previous call.  This keeps retranslation cheap when the text changes a
+ * little at a time, such as when the user is typing in a long text field.
+ *
+ * Text is always split after line breaks.  If requested, which should only be
+ * done for uncontracted braille, text is also split after spaces, since words
+ * are then translated independently of each other.  Contracted braille has
+ * contractions and indicators that span several words, so it is only split
+ * into paragraphs.
+ *
+ * Not thread-safe.
+ */
+class IncrementalTranslator {
+    private BrailleTranslator mTranslator;
+    private boolean mSplitWords;
+    private String mText;
+    private int mCursorPosition;
+    private TranslationResult mResult;
+    /** Results for the segments of the last translated text without cursor. */
+    private HashMap<String, TranslationResult> mSegments =
+            new HashMap<String, TranslationResult>();
+
+    /**
+     * Translates {@code text} with {@code translator}, which must return
+     * results consistent with the ones from previous calls unless the
+     * translator is different or {@link #clear} has been called.
+     * Returns {@code null} if any part of the text fails to translate.
+     */
+    public TranslationResult translate(BrailleTranslator translator,
+            boolean splitWords, String text, int cursorPosition) {
+        if (!translator.equals(mTranslator) || splitWords != mSplitWords) {
+            clear();
+            mTranslator = translator;
+            mSplitWords = splitWords;
+        } else if (mResult != null && text.equals(mText)
+                && cursorPosition == mCursorPosition) {
+            return mResult;
+        }
+
+        List<String> segments = split(text, splitWords);
+        TranslationResult result;
+        if (segments.size() <= 1) {
+            result = translator.translate(text, cursorPosition);
+            mSegments.clear();
+        } else {
+            result = translateSegments(translator, segments, cursorPosition);
+        }
+        mText = text;
+        mCursorPosition = cursorPosition;
+        mResult = result;
+        return result;
+    }
+
+    /**
+     * Drops all reused results, forcing the next call to {@link #translate}
+     * to translate all of the text.
+     */
+    public void clear() {
+        mTranslator = null;
+        mText = null;
+        mResult = null;
+        mSegments.clear();
+    }
+
+    private TranslationResult translateSegments(BrailleTranslator translator,
+            List<String> segments, int cursorPosition) {
+        HashMap<String, TranslationResult> newSegments =
+                new HashMap<String, TranslationResult>();
+        TranslationResult[] results = new TranslationResult[segments.size()];
+        int textLength = 0;
+        int brailleLength = 0;
+        int cursorSegment = -1;
+        for (int i = 0; i < results.length; ++i) {
+            String segment = segments.get(i);
+            int segmentEnd = textLength + segment.length();
+            // A cursor past the end of the text belongs to the last segment.
+            if (cursorSegment < 0 && cursorPosition >= textLength
+                    && (cursorPosition < segmentEnd
+                            || i == results.length - 1)) {
+                cursorSegment = i;
+                results[i] = translator.translate(segment,
+                        cursorPosition - textLength);
+            } else {
+                results[i] = newSegments.get(segment);
+                if (results[i] == null) {
+                    results[i] = mSegments.get(segment);
+                }
+                if (results[i] == null) {
+                    results[i] = translator.translate(segment, -1);
+                }
+                if (results[i] != null) {
+                    newSegments.put(segment, results[i]);
+                }
+            }
+            if (results[i] == null) {
+                mSegments.clear();
+                return null;
+            }
+            textLength = segmentEnd;
+            brailleLength += results[i].getCells().length;
+        }
+        mSegments = newSegments;
+
+        byte[] cells = new byte[brailleLength];
+        int[] textToBraillePositions = new int[textLength];
+        int[] brailleToTextPositions = new int[brailleLength];
+        int brailleCursorPosition = -1;
+        int textStart = 0;
+        int brailleStart = 0;
+        for (int i = 0; i < results.length; ++i) {
+            int segmentLength = segments.get(i).length();
+            byte[] segmentCells = results[i].getCells();
+            System.arraycopy(segmentCells, 0, cells, brailleStart,
+                    segmentCells.length);
+            // Characters that the translator didn't consume map to the end
+            // of the segment.
+            int[] segmentTextToBraille =
+                    results[i].getTextToBraillePositions();
+            for (int j = 0; j < segmentLength; ++j) {
+                textToBraillePositions[textStart + j] = brailleStart
+                        + (j < segmentTextToBraille.length
+                                ? segmentTextToBraille[j]
+                                : segmentCells.length);
+            }
+            int[] segmentBrailleToText =
+                    results[i].getBrailleToTextPositions();
+            for (int j = 0; j < segmentCells.length; ++j) {
+                brailleToTextPositions[brailleStart + j] =
+                        textStart + segmentBrailleToText[j];
+            }
+            if (i == cursorSegment
+                    && results[i].getCursorPosition() >= 0) {
+                brailleCursorPosition =
+                        brailleStart + results[i].getCursorPosition();
+            }
+            textStart += segmentLength;
+            brailleStart += segmentCells.length;
+        }
+        return new TranslationResult(cells, textToBraillePositions,
+                brailleToTextPositions, brailleCursorPosition);
+    }
+
+    /**
+     * Splits text after each line break and, if {@code splitWords} is
+     * {@code true}, after each run of spaces.  The segments concatenated
+     * are equal to {@code text}.
+     */
+    /*package*/ static List<String> split(String text, boolean splitWords) {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; ++i) {
+            char c = text.charAt(i);
+            boolean end = c == '\n'
+                    || (splitWords && c == ' '
+                            && (i + 1 >= length || text.charAt(i + 1) != ' '));
+            if (end) {
+                segments.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            segments.add(text.substring(start));
+        }
+        return segments;
+    }
+}
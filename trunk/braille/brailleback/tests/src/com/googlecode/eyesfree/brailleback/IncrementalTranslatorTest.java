@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.brailleback;
+
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
+import com.googlecode.eyesfree.braille.translate.TranslationResult;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link IncrementalTranslator}.
+ */
+public class IncrementalTranslatorTest extends TestCase {
+    private FakeTranslator mTranslator;
+    private IncrementalTranslator mIncrementalTranslator;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mTranslator = new FakeTranslator();
+        mIncrementalTranslator = new IncrementalTranslator();
+    }
+
+    public void testSplit() {
+        assertEquals(Arrays.asList("ab\n", "cd  ef"),
+                IncrementalTranslator.split("ab\ncd  ef", false));
+        assertEquals(Arrays.asList("ab\n", "cd  ", "ef"),
+                IncrementalTranslator.split("ab\ncd  ef", true));
+        assertEquals(Arrays.asList("\n", "\n", "a "),
+                IncrementalTranslator.split("\n\na ", true));
+        assertTrue(IncrementalTranslator.split("", true).isEmpty());
+    }
+
+    public void testMatchesFullTranslation() {
+        String[] texts = { "", "a", "abc def", "xa bx\nxx yy\n\n z x" };
+        for (String text : texts) {
+            for (int cursor = -1; cursor <= text.length(); ++cursor) {
+                assertResultEquals(text, cursor,
+                        mTranslator.translate(text, cursor),
+                        mIncrementalTranslator.translate(mTranslator, true,
+                                text, cursor));
+                assertResultEquals(text, cursor,
+                        mTranslator.translate(text, cursor),
+                        mIncrementalTranslator.translate(mTranslator, false,
+                                text, cursor));
+            }
+        }
+    }
+
+    public void testReusesUnchangedSegments() {
+        mIncrementalTranslator.translate(mTranslator, true,
+                "one two three", 13);
+        mTranslator.mTranslated.clear();
+        mIncrementalTranslator.translate(mTranslator, true,
+                "one two threes", 14);
+        assertEquals(Arrays.asList("threes"), mTranslator.mTranslated);
+
+        // Moving the cursor only retranslates the segments that the cursor
+        // moves out of and into.
+        mTranslator.mTranslated.clear();
+        mIncrementalTranslator.translate(mTranslator, true,
+                "one two threes", 0);
+        assertEquals(Arrays.asList("one ", "threes"),
+                mTranslator.mTranslated);
+
+        // Same text and cursor translates nothing.
+        mTranslator.mTranslated.clear();
+        mIncrementalTranslator.translate(mTranslator, true,
+                "one two threes", 0);
+        assertTrue(mTranslator.mTranslated.isEmpty());
+    }
+
+    public void testClear() {
+        mIncrementalTranslator.translate(mTranslator, true, "one two", -1);
+        mIncrementalTranslator.clear();
+        mTranslator.mTranslated.clear();
+        mIncrementalTranslator.translate(mTranslator, true, "one two", -1);
+        assertEquals(Arrays.asList("one ", "two"), mTranslator.mTranslated);
+    }
+
+    public void testFailure() {
+        mTranslator.mFailOn = "two ";
+        assertNull(mIncrementalTranslator.translate(mTranslator, true,
+                "one two three", -1));
+    }
+
+    private static void assertResultEquals(String text, int cursor,
+            TranslationResult expected, TranslationResult actual) {
+        String message = "'" + text + "' with cursor " + cursor;
+        assertTrue(message, Arrays.equals(expected.getCells(),
+                actual.getCells()));
+        assertTrue(message, Arrays.equals(
+                expected.getTextToBraillePositions(),
+                actual.getTextToBraillePositions()));
+        assertTrue(message, Arrays.equals(
+                expected.getBrailleToTextPositions(),
+                actual.getBrailleToTextPositions()));
+        assertEquals(message, expected.getCursorPosition(),
+                actual.getCursorPosition());
+    }
+
+    /**
+     * Translates each character to one cell, except for 'x' which becomes
+     * two cells, and 'z' which is dropped.  Records the translated texts.
+     */
+    private static class FakeTranslator implements BrailleTranslator {
+        private final List<String> mTranslated = new ArrayList<String>();
+        private String mFailOn;
+
+        @Override
+        public TranslationResult translate(String text, int cursorPosition) {
+            mTranslated.add(text);
+            if (text.equals(mFailOn)) {
+                return null;
+            }
+            byte[] cells = new byte[text.length() * 2];
+            int[] textToBraille = new int[text.length()];
+            int[] brailleToText = new int[cells.length];
+            int brailleCursor = -1;
+            int outLength = 0;
+            for (int i = 0; i < text.length(); ++i) {
+                char c = text.charAt(i);
+                textToBraille[i] = outLength;
+                if (i == cursorPosition) {
+                    brailleCursor = outLength;
+                }
+                int count = c == 'x' ? 2 : (c == 'z' ? 0 : 1);
+                for (int j = 0; j < count; ++j) {
+                    cells[outLength] = (byte) c;
+                    brailleToText[outLength] = i;
+                    outLength++;
+                }
+            }
+            if (cursorPosition >= text.length()) {
+                brailleCursor = outLength;
+            }
+            return new TranslationResult(Arrays.copyOf(cells, outLength),
+                    textToBraille, Arrays.copyOf(brailleToText, outLength),
+                    brailleCursor);
+        }
+
+        @Override
+        public String backTranslate(byte[] cells) {
+            return null;
+        }
+    }
+}
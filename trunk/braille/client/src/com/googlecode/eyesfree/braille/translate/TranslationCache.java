@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.braille.translate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of translation results, keyed by table id,
+ * text and cursor position.  Results are shared between callers and must
+ * therefore not be modified.  This class is thread-safe.
+ */
+public class TranslationCache {
+    private final LinkedHashMap<Key, TranslationResult> mMap;
+    private final int mMaxSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * Creates a cache holding at most {@code maxSize} results.
+     */
+    public TranslationCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new LinkedHashMap<Key, TranslationResult>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, TranslationResult> eldest) {
+                if (size() > mMaxSize) {
+                    mEvictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of translating {@code text} with the given
+     * table and cursor position, or {@code null} if there is none.
+     */
+    public synchronized TranslationResult get(String tableId, String text,
+            int cursorPosition) {
+        if (tableId == null || text == null) {
+            return null;
+        }
+        TranslationResult result =
+                mMap.get(new Key(tableId, text, cursorPosition));
+        if (result != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return result;
+    }
+
+    /**
+     * Adds a translation result to the cache, possibly evicting the least
+     * recently used one.  {@code null} results are not cached.
+     */
+    public synchronized void put(String tableId, String text,
+            int cursorPosition, TranslationResult result) {
+        if (tableId == null || text == null || result == null) {
+            return;
+        }
+        mMap.put(new Key(tableId, text, cursorPosition), result);
+    }
+
+    /**
+     * Removes all results from the cache.  The statistics are kept.
+     */
+    public synchronized void clear() {
+        mMap.clear();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format(
+                "TranslationCache[size=%d,maxSize=%d,hits=%d,misses=%d,"
+                + "evictions=%d,hitRate=%d%%]",
+                mMap.size(), mMaxSize, mHitCount, mMissCount, mEvictionCount,
+                hitPercent);
+    }
+
+    private static class Key {
+        private final String mTableId;
+        private final String mText;
+        private final int mCursorPosition;
+
+        public Key(String tableId, String text, int cursorPosition) {
+            mTableId = tableId;
+            mText = text;
+            mCursorPosition = cursorPosition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mCursorPosition == other.mCursorPosition
+                    && mTableId.equals(other.mTableId)
+                    && mText.equals(other.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mTableId.hashCode();
+            result = 31 * result + mText.hashCode();
+            result = 31 * result + mCursorPosition;
+            return result;
+        }
+    }
+}
@@ -21,7 +21,8 @@ import android.os.Parcelable;
 
 /**
  * The result of translating text to braille, including character to
- * cell mappings in both directions.
+ * cell mappings in both directions.  Results may be cached and shared
+ * between callers, so the returned arrays must not be modified.
  */
 public class TranslationResult implements Parcelable {
     private byte[] mCells;
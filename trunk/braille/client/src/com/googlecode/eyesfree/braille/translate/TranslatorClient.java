@@ -58,6 +58,8 @@ public class TranslatorClient {
      */
     private static final int REBIND_DELAY_MILLIS = 500;
     private static final int MAX_REBIND_ATTEMPTS = 5;
+    /** Maximum number of translation results cached by this client. */
+    private static final int TRANSLATION_CACHE_SIZE = 64;
     public static final int ERROR = -1;
     public static final int SUCCESS = 0;
 
@@ -79,6 +81,8 @@ public class TranslatorClient {
     private final TranslatorClientHandler mHandler =
             new TranslatorClientHandler();
     private final ServiceCallback mServiceCallback = new ServiceCallback();
+    private final TranslationCache mTranslationCache =
+            new TranslationCache(TRANSLATION_CACHE_SIZE);
 
     private OnInitListener mOnInitListener;
     private Connection mConnection;
@@ -104,6 +108,7 @@ public class TranslatorClient {
     public void destroy() {
         doUnbindService();
         mHandler.destroy();
+        mTranslationCache.clear();
     }
 
     /**
@@ -210,11 +215,19 @@ public class TranslatorClient {
 
         @Override
         public TranslationResult translate(String text, int cursorPosition) {
+            TranslationResult result = mTranslationCache.get(mTableId, text,
+                    cursorPosition);
+            if (result != null) {
+                return result;
+            }
             ITranslatorService localService = getTranslatorService();
             if (localService != null) {
                 try {
-                    return localService.translate(text, mTableId,
+                    result = localService.translate(text, mTableId,
                             cursorPosition);
+                    mTranslationCache.put(mTableId, text, cursorPosition,
+                            result);
+                    return result;
                 } catch (RemoteException ex) {
                     Log.e(LOG_TAG, "Error in translate", ex);
                 }
@@ -32,6 +32,7 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * A thread that manages an instance of a braille driver.
@@ -45,6 +46,12 @@ import java.io.OutputStream;
 public class DriverThread {
     private static final String LOG_TAG = DriverThread.class.getSimpleName();
     private static final long STOP_WAIT_MILLIS = 1000;
+    /**
+     * Minimum time between writes to the display.  Writes requested more
+     * often are coalesced so that fast panning doesn't saturate the link to
+     * the device and delay input from it.
+     */
+    private static final long MIN_WRITE_INTERVAL_MILLIS = 50;
     /** Wake up the handler thread to poll for input from the device. */
     private static final int MSG_READ = 1;
     /** Wake up the thread to call writeWindow of the driver. */
@@ -60,6 +67,11 @@ public class DriverThread {
 
     private byte[] writeBuffer;
 
+    // Only accessed in the handler thread.
+    /** Last pattern that the driver accepted, or {@code null}. */
+    private byte[] mLastWrittenPattern;
+    private long mLastWriteTime;
+
     /** Stream for writing to the device. */
     private final OutputStream mOutputStream;
 
@@ -123,13 +135,19 @@ public class DriverThread {
 
     /**
      * Update the refreshable display with the given dot pattern.
-     * This method can be called from any thread.
+     * This method can be called from any thread.  Only the latest pattern
+     * is written if this is called repeatedly in a short time, and patterns
+     * equal to what is already on the display are not written at all.
+     * {@code pattern} must not be modified after this call.
      */
     public void writeWindow(byte[] pattern) {
         synchronized (this) {
             writeBuffer = pattern;
         }
-        mHandler.sendEmptyMessage(MSG_WRITE);
+        // A pending (possibly delayed) write will pick up the new pattern.
+        if (!mHandler.hasMessages(MSG_WRITE)) {
+            mHandler.sendEmptyMessage(MSG_WRITE);
+        }
     }
 
     /**
@@ -165,13 +183,29 @@ public class DriverThread {
     }
 
     private void writeWindowInternal() {
+        long now = SystemClock.uptimeMillis();
+        long nextWriteTime = mLastWriteTime + MIN_WRITE_INTERVAL_MILLIS;
+        if (now < nextWriteTime) {
+            mHandler.sendEmptyMessageAtTime(MSG_WRITE, nextWriteTime);
+            return;
+        }
         byte[] buffer = null;
         synchronized (this) {
             buffer = writeBuffer;
             writeBuffer = null;
         }
-        if (buffer != null) {
-            boolean result = mBrlttyWrapper.writeWindow(buffer);
+        if (buffer == null || Arrays.equals(buffer, mLastWrittenPattern)) {
+            return;
+        }
+        // The driver itself only sends the cells that changed since its
+        // last write.
+        if (mBrlttyWrapper.writeWindow(buffer)) {
+            mLastWrittenPattern = buffer;
+            mLastWriteTime = now;
+        } else {
+            // Make sure the next pattern gets written even if it is the
+            // same as the last successful one.
+            mLastWrittenPattern = null;
         }
     }
 
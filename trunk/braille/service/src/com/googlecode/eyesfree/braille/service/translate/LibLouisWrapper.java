@@ -29,7 +29,8 @@ import android.util.Log;
  * therefore be blocking.  In addition, translation by all instances
  * of this class is serialized because of the underlying implementation,
  * which increases the possibility of translations blocking on I/O if multiple
- * translators are used.
+ * translators are used.  Translations that need to run concurrently must
+ * be done in separate processes, see {@link TranslatorWorkerService}.
  */
 public class LibLouisWrapper {
     private static final String LOG_TAG =
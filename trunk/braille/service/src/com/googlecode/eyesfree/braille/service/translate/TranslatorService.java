@@ -22,17 +22,22 @@ import com.googlecode.eyesfree.braille.service.R;
 import com.googlecode.eyesfree.braille.translate.ITranslatorService;
 import com.googlecode.eyesfree.braille.translate.ITranslatorServiceCallback;
 import com.googlecode.eyesfree.braille.translate.TableInfo;
+import com.googlecode.eyesfree.braille.translate.TranslationCache;
 import com.googlecode.eyesfree.braille.translate.TranslationResult;
 import com.googlecode.eyesfree.braille.translate.TranslatorClient;
 import com.googlecode.eyesfree.braille.utils.ZipResourceExtractor;
 
 import android.app.Service;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -49,6 +54,8 @@ public class TranslatorService extends Service {
     private static final int FILES_ERROR = -1;
     private static final int FILES_NOT_EXTRACTED = 0;
     private static final int FILES_EXTRACTED = 1;
+    /** Maximum number of translation results cached across all clients. */
+    private static final int TRANSLATION_CACHE_SIZE = 256;
 
     // Written in main thread, read in binder threads.
     private final ServiceImpl mServiceImpl = new ServiceImpl();
@@ -56,6 +63,15 @@ public class TranslatorService extends Service {
             new HashSet<ITranslatorServiceCallback>();
     private int mDataFileState = FILES_NOT_EXTRACTED;
     private TableList mTableList;
+    // Shared by all binder threads, which would otherwise serialize on
+    // the liblouis lock when retranslating the same text.
+    private final TranslationCache mTranslationCache =
+            new TranslationCache(TRANSLATION_CACHE_SIZE);
+    // Back translations, which come from braille input, are done in a
+    // separate process so that they don't wait for translations for the
+    // display or vice versa.  Null until connected.
+    private final WorkerConnection mWorkerConnection = new WorkerConnection();
+    private volatile ITranslatorService mWorker;
 
     @Override
     public void onCreate() {
@@ -68,6 +84,17 @@ public class TranslatorService extends Service {
     public void onDestroy() {
         super.onDestroy();
         // TODO: Deallocate native data.
+        mTranslationCache.clear();
+        if (mWorkerConnection.mBound) {
+            unbindService(mWorkerConnection);
+            mWorkerConnection.mBound = false;
+        }
+        mWorker = null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println(mTranslationCache);
     }
 
     @Override
@@ -85,6 +112,7 @@ public class TranslatorService extends Service {
                 synchronized (TranslatorService.this) {
                     if (result == RESULT_OK) {
                         mDataFileState = FILES_EXTRACTED;
+                        bindWorker();
                     } else {
                         Log.e(LOG_TAG, "Couldn't extract data files");
                         mDataFileState = FILES_ERROR;
@@ -96,6 +124,15 @@ public class TranslatorService extends Service {
         extractor.execute();
     }
 
+    private void bindWorker() {
+        Intent intent = new Intent(this, TranslatorWorkerService.class);
+        mWorkerConnection.mBound =
+                bindService(intent, mWorkerConnection, BIND_AUTO_CREATE);
+        if (!mWorkerConnection.mBound) {
+            Log.w(LOG_TAG, "Couldn't bind to translator worker");
+        }
+    }
+
     private synchronized boolean checkDataFiles() {
         return (mDataFileState == FILES_EXTRACTED);
     }
@@ -139,6 +176,25 @@ public class TranslatorService extends Service {
         }
     }
 
+    private class WorkerConnection implements ServiceConnection {
+        // Only accessed on the main thread.
+        private boolean mBound;
+
+        @Override
+        public void onServiceConnected(ComponentName className,
+                IBinder binder) {
+            mWorker = ITranslatorService.Stub.asInterface(binder);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName className) {
+            // The worker process died.  Translate locally until it is
+            // restarted.
+            Log.w(LOG_TAG, "Translator worker disconnected");
+            mWorker = null;
+        }
+    }
+
     private class ServiceImpl extends ITranslatorService.Stub {
 
         @Override
@@ -192,7 +248,14 @@ public class TranslatorService extends Service {
                 Log.e(LOG_TAG, "Unknown table id in translate: " + tableId);
                 return null;
             }
-            return LibLouisWrapper.translate(text, tableName, cursorPosition);
+            TranslationResult result = mTranslationCache.get(tableId, text,
+                    cursorPosition);
+            if (result == null) {
+                result = LibLouisWrapper.translate(text, tableName,
+                        cursorPosition);
+                mTranslationCache.put(tableId, text, cursorPosition, result);
+            }
+            return result;
         }
 
         @Override
@@ -214,6 +277,14 @@ public class TranslatorService extends Service {
                         + tableId);
                 return null;
             }
+            ITranslatorService worker = mWorker;
+            if (worker != null) {
+                try {
+                    return worker.backTranslate(cells, tableId);
+                } catch (RemoteException ex) {
+                    Log.e(LOG_TAG, "Error in worker backTranslate", ex);
+                }
+            }
             return LibLouisWrapper.backTranslate(cells, tableName);
         }
     }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import com.googlecode.eyesfree.braille.translate.ITranslatorService;
+import com.googlecode.eyesfree.braille.translate.ITranslatorServiceCallback;
+import com.googlecode.eyesfree.braille.translate.TableInfo;
+import com.googlecode.eyesfree.braille.translate.TranslationResult;
+import com.googlecode.eyesfree.braille.translate.TranslatorClient;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * A private liblouis instance used by {@link TranslatorService}.
+ *
+ * liblouis keeps its compiled tables and translation buffers in global
+ * state, so all calls within a process are serialized by
+ * {@link LibLouisWrapper}.  This service is meant to run in its own
+ * process, giving it an independent copy of that state, so that
+ * translations done here don't block on translations done by
+ * {@link TranslatorService} and vice versa.
+ *
+ * This service doesn't extract the translation tables.  It must only be
+ * used after {@link TranslatorService} has extracted them.
+ */
+public class TranslatorWorkerService extends Service {
+    private static final String LOG_TAG =
+            TranslatorWorkerService.class.getSimpleName();
+
+    private final ServiceImpl mServiceImpl = new ServiceImpl();
+    private TableList mTableList;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mTableList = new TableList(getResources());
+        LibLouisWrapper.setTablesDir(
+            getDir("translator", MODE_PRIVATE).getPath());
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mServiceImpl;
+    }
+
+    private class ServiceImpl extends ITranslatorService.Stub {
+
+        @Override
+        public void setCallback(ITranslatorServiceCallback callback) {
+            if (callback == null) {
+                Log.e(LOG_TAG, "Received null callback");
+                return;
+            }
+            try {
+                callback.onInit(TranslatorClient.SUCCESS);
+            } catch (RemoteException ex) {
+                // The caller died, nothing to do.
+            }
+        }
+
+        @Override
+        public TableInfo[] getTableInfos() {
+            List<TableInfo> l = mTableList.getTables();
+            return l.toArray(new TableInfo[l.size()]);
+        }
+
+        @Override
+        public boolean checkTable(String tableId) {
+            String tableName = getFileName(tableId);
+            if (tableName == null) {
+                return false;
+            }
+            return LibLouisWrapper.checkTable(tableName);
+        }
+
+        @Override
+        public TranslationResult translate(String text, String tableId,
+                int cursorPosition) {
+            String tableName = getFileName(tableId);
+            if (text == null || tableName == null) {
+                return null;
+            }
+            return LibLouisWrapper.translate(text, tableName, cursorPosition);
+        }
+
+        @Override
+        public String backTranslate(byte[] cells, String tableId) {
+            String tableName = getFileName(tableId);
+            if (cells == null || tableName == null) {
+                return null;
+            }
+            return LibLouisWrapper.backTranslate(cells, tableName);
+        }
+
+        private String getFileName(String tableId) {
+            if (tableId == null) {
+                return null;
+            }
+            String tableName = mTableList.getFileName(tableId);
+            if (tableName == null) {
+                Log.e(LOG_TAG, "Unknown table id: " + tableId);
+            }
+            return tableName;
+        }
+    }
+}
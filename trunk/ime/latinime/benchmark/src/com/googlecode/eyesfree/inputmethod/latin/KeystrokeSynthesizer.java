@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+import android.content.Context;
+import android.inputmethodservice.Keyboard.Key;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+/**
+ * Creates typing sessions from plain text by simulating imprecise touches on
+ * the QWERTY keyboard. Each touch lands around the center of the intended key
+ * with a normally distributed error, and is resolved through
+ * {@link ProximityKeyDetector} with the same proximity threshold as
+ * {@link LatinKeyboardBaseView}, so the keystrokes include the nearby codes
+ * that LatinIME would pass to {@link WordComposer}.
+ */
+class KeystrokeSynthesizer {
+    private final Key[] mKeys;
+    private final ProximityKeyDetector mDetector = new ProximityKeyDetector();
+    private final Random mRandom;
+
+    /** Standard deviation of the touch error, as a fraction of the key size. */
+    private final float mErrorRatio;
+
+    /**
+     * @param seed the seed for the touch errors, so that runs are repeatable
+     * @param errorRatio the standard deviation of the touch error, as a
+     *            fraction of the key width and height
+     */
+    KeystrokeSynthesizer(Context context, long seed, float errorRatio) {
+        mKeys = mDetector.setKeyboard(new LatinKeyboard(context, R.xml.kbd_qwerty), 0, 0);
+        mDetector.setProximityCorrectionEnabled(true);
+        mRandom = new Random(seed);
+        mErrorRatio = errorRatio;
+
+        // Same threshold as LatinKeyboardBaseView.computeProximityThreshold().
+        final int verticalGap =
+                (int) context.getResources().getDimension(R.dimen.key_bottom_gap);
+        int dimensionSum = 0;
+        for (Key key : mKeys) {
+            dimensionSum += Math.min(key.width, key.height + verticalGap) + key.gap;
+        }
+        if (mKeys.length > 0) {
+            mDetector.setProximityThreshold((int) (dimensionSum * 1.4f / mKeys.length));
+        }
+    }
+
+    /**
+     * Creates a session from text. Words are runs of letters and apostrophes;
+     * words containing characters that are not on the keyboard are skipped.
+     * Sentences end at '.', '!', '?' and line breaks.
+     */
+    TypingSession synthesize(String text) throws IOException {
+        final StringWriter out = new StringWriter();
+        final WordComposer composer = new WordComposer();
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            final char c = text.charAt(i);
+            if (!isWordChar(c)) {
+                if (c == '.' || c == '!' || c == '?' || c == '\n') {
+                    out.write('\n');
+                }
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < length && isWordChar(text.charAt(end))) {
+                end++;
+            }
+            final String word = text.substring(i, end);
+            if (type(word, composer)) {
+                TypingSession.writeWord(out, word, composer);
+            }
+            i = end;
+        }
+        return TypingSession.read(new ByteArrayInputStream(out.toString().getBytes("UTF-8")));
+    }
+
+    /**
+     * Types a word into the composer.
+     *
+     * @return false if a character of the word is not on the keyboard
+     */
+    private boolean type(String word, WordComposer composer) {
+        composer.reset();
+        for (int i = 0; i < word.length(); i++) {
+            final char c = word.charAt(i);
+            final Key key = findKey(Character.toLowerCase(c));
+            if (key == null) {
+                return false;
+            }
+            final int x = key.x + key.width / 2
+                    + (int) (mRandom.nextGaussian() * key.width * mErrorRatio);
+            final int y = key.y + key.height / 2
+                    + (int) (mRandom.nextGaussian() * key.height * mErrorRatio);
+            final int[] codes = mDetector.newCodeArray();
+            final int index = mDetector.getKeyIndexAndNearbyCodes(x, y, codes);
+            int primaryCode = (index == LatinKeyboardBaseView.NOT_A_KEY)
+                    ? key.codes[0] : mKeys[index].codes[0];
+            if (!Character.isLetter(primaryCode)) {
+                // Missed onto a function key; LatinIME would not add this to
+                // the word, so treat it as a hit on the intended key.
+                primaryCode = key.codes[0];
+            }
+            if (Character.isUpperCase(c)) {
+                // Like a shifted keyboard, only the primary code is shifted.
+                primaryCode = Character.toUpperCase(primaryCode);
+                if (i == 0) {
+                    composer.setFirstCharCapitalized(true);
+                }
+            }
+            composer.add(primaryCode, codes);
+        }
+        return true;
+    }
+
+    private Key findKey(int code) {
+        for (Key key : mKeys) {
+            if (key.codes.length > 0 && key.codes[0] == code) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetter(c) || c == '\'';
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+import android.content.res.AssetManager;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays typing sessions against the suggestion engine and reports, for each
+ * dictionary configuration and session, the latency of each keystroke, the
+ * allocations made while computing suggestions and how often the intended
+ * word was among the top suggestions.
+ * <p>
+ * Each keystroke is measured the way LatinIME computes suggestions, through
+ * {@link SuggestionWorker#compute}. Sessions are read from the
+ * {@code sessions} assets folder and from the {@code sessions} folder in the
+ * app's external files directory, where recorded sessions can be pushed with
+ * adb. A session is also synthesized from the {@code corpus.txt} asset. See
+ * {@link TypingSession} for the file format.
+ * </p>
+ * <p>
+ * Results are written to the log and to {@code benchmark.txt} in the external
+ * files directory.
+ * </p>
+ */
+public class SuggestBenchmark extends AndroidTestCase {
+    private static final String TAG = "SuggestBenchmark";
+
+    private static final String SESSIONS_DIR = "sessions";
+    private static final String CORPUS_ASSET = "corpus.txt";
+    private static final String REPORT_FILE = "benchmark.txt";
+
+    /** Seed for synthesized touches and words, so that runs are comparable. */
+    private static final long SEED = 1;
+
+    /** Standard deviation of synthesized touches, as a fraction of the key size. */
+    private static final float TOUCH_ERROR = 0.25f;
+
+    /** Number of random words in the simulated user dictionary. */
+    private static final int USER_DICTIONARY_SIZE = 2000;
+
+    private static final int WARMUP_PASSES = 1;
+    private static final int TIMED_PASSES = 3;
+
+    /** Suggestion list positions reported for accuracy. */
+    private static final int[] TOP_N = { 1, 3, 5 };
+
+    private Map<String, TypingSession> mSessions;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSessions = loadSessions();
+        assertFalse("No typing sessions found", mSessions.isEmpty());
+    }
+
+    /** Main dictionary only, with auto-correction. */
+    public void testMainDictionary() {
+        final Suggest suggest = createSuggest();
+        suggest.setCorrectionMode(Suggest.CORRECTION_FULL);
+        run("main", suggest);
+        suggest.close();
+    }
+
+    /** Main dictionary plus a large in-memory dictionary, like a contacts list. */
+    public void testUserDictionary() {
+        final Suggest suggest = createSuggest();
+        suggest.setCorrectionMode(Suggest.CORRECTION_FULL);
+        final ExpandableDictionary user =
+                new ExpandableDictionary(getContext(), Suggest.DIC_USER);
+        final Random random = new Random(SEED);
+        for (int i = 0; i < USER_DICTIONARY_SIZE; i++) {
+            user.addWord(randomWord(random), 128);
+        }
+        suggest.setUserDictionary(user);
+        run("main+user", suggest);
+        suggest.close();
+    }
+
+    /**
+     * Main dictionary plus bigrams learned from the sessions themselves. The
+     * accuracy is an upper bound, since every bigram has been seen before.
+     */
+    public void testBigrams() {
+        final Suggest suggest = createSuggest();
+        suggest.setCorrectionMode(Suggest.CORRECTION_FULL_BIGRAM);
+        final ExpandableDictionary bigrams =
+                new ExpandableDictionary(getContext(), Suggest.DIC_USER);
+        for (TypingSession session : mSessions.values()) {
+            for (TypingSession.Word word : session.words) {
+                if (word.previous != null) {
+                    bigrams.addBigram(word.previous, word.expected,
+                            UserBigramDictionary.SUGGEST_THRESHOLD);
+                }
+            }
+        }
+        suggest.setUserBigramDictionary(bigrams);
+        run("main+bigrams", suggest);
+        suggest.close();
+    }
+
+    private Suggest createSuggest() {
+        return new Suggest(getContext(), LatinIME.getDictionary(getContext().getResources()));
+    }
+
+    private void run(String configuration, Suggest suggest) {
+        final StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, TypingSession> entry : mSessions.entrySet()) {
+            final String line = configuration + " " + entry.getKey() + ": "
+                    + replay(suggest, entry.getValue());
+            Log.i(TAG, line);
+            report.append(line).append('\n');
+        }
+        writeReport(report.toString());
+    }
+
+    /**
+     * Replays a session and returns a one-line summary of the results.
+     */
+    private String replay(Suggest suggest, TypingSession session) {
+        final WordComposer composer = new WordComposer();
+        int keystrokes = 0;
+        for (TypingSession.Word word : session.words) {
+            keystrokes += word.primaryCodes.length;
+        }
+
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            replayPass(suggest, session, composer, null, 0, null);
+        }
+
+        // Measure latency and allocations in separate passes, since counting
+        // allocations slows down the allocator.
+        final long[] latencies = new long[keystrokes * TIMED_PASSES];
+        final int[] hits = new int[TOP_N.length];
+        for (int i = 0; i < TIMED_PASSES; i++) {
+            replayPass(suggest, session, composer, latencies, i * keystrokes,
+                    (i == 0) ? hits : null);
+        }
+        Arrays.sort(latencies);
+
+        // The counts include one array per keystroke, copied from the session.
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        replayPass(suggest, session, composer, null, 0, null);
+        final long allocCount = Debug.getThreadAllocCount();
+        final long allocSize = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        final StringBuilder result = new StringBuilder();
+        result.append("words=").append(session.words.size());
+        result.append(" keystrokes=").append(keystrokes);
+        result.append(" latency_us p50=").append(percentile(latencies, 50) / 1000);
+        result.append(" p90=").append(percentile(latencies, 90) / 1000);
+        result.append(" p99=").append(percentile(latencies, 99) / 1000);
+        result.append(" max=").append(latencies.length == 0 ? 0
+                : latencies[latencies.length - 1] / 1000);
+        result.append(" allocs/key=").append(keystrokes == 0 ? 0 : allocCount / keystrokes);
+        result.append(" bytes/key=").append(keystrokes == 0 ? 0 : allocSize / keystrokes);
+        for (int i = 0; i < TOP_N.length; i++) {
+            result.append(" top").append(TOP_N[i]).append('=');
+            result.append(session.words.isEmpty() ? 0
+                    : hits[i] * 100 / session.words.size()).append('%');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Types every word of a session, computing suggestions after each
+     * keystroke.
+     *
+     * @param latencies if not null, receives the latency of each keystroke in
+     *            nanoseconds, starting at {@code offset}
+     * @param hits if not null, counts for each entry of {@link #TOP_N} the
+     *            words found at that position or better after the last
+     *            keystroke
+     */
+    private void replayPass(Suggest suggest, TypingSession session, WordComposer composer,
+            long[] latencies, int offset, int[] hits) {
+        int index = offset;
+        for (TypingSession.Word word : session.words) {
+            composer.reset();
+            SuggestionWorker.Result result = null;
+            for (int i = 0; i < word.primaryCodes.length; i++) {
+                word.addKeystroke(composer, i);
+                final long start = System.nanoTime();
+                result = SuggestionWorker.compute(suggest, null, composer, word.previous);
+                if (latencies != null) {
+                    latencies[index++] = System.nanoTime() - start;
+                }
+            }
+            if (hits != null && result != null) {
+                final int rank = rankOf(word.expected, result.suggestions);
+                for (int i = 0; i < TOP_N.length; i++) {
+                    if (rank >= 0 && rank < TOP_N[i]) {
+                        hits[i]++;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int rankOf(String word, List<CharSequence> suggestions) {
+        for (int i = 0; i < suggestions.size(); i++) {
+            if (word.equalsIgnoreCase(suggestions.get(i).toString())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param sorted values in increasing order
+     */
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (sorted.length * percentile + 99) / 100 - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String randomWord(Random random) {
+        final int length = 3 + random.nextInt(8);
+        final StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Loads the recorded sessions and synthesizes one from the corpus.
+     */
+    private Map<String, TypingSession> loadSessions() throws IOException {
+        final LinkedHashMap<String, TypingSession> sessions =
+                new LinkedHashMap<String, TypingSession>();
+        final AssetManager assets = getContext().getAssets();
+
+        final String corpus = readFully(assets.open(CORPUS_ASSET));
+        sessions.put("synthesized",
+                new KeystrokeSynthesizer(getContext(), SEED, TOUCH_ERROR).synthesize(corpus));
+
+        final String[] names = assets.list(SESSIONS_DIR);
+        if (names != null) {
+            for (String name : names) {
+                sessions.put(name, TypingSession.read(assets.open(SESSIONS_DIR + "/" + name)));
+            }
+        }
+
+        final File externalDir = getContext().getExternalFilesDir(null);
+        final File[] files = (externalDir == null) ? null
+                : new File(externalDir, SESSIONS_DIR).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                sessions.put(file.getName(), TypingSession.read(new FileInputStream(file)));
+            }
+        }
+        return sessions;
+    }
+
+    private void writeReport(String report) {
+        final File externalDir = getContext().getExternalFilesDir(null);
+        if (externalDir == null) {
+            return;
+        }
+        try {
+            final FileWriter writer = new FileWriter(new File(externalDir, REPORT_FILE), true);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write report", e);
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
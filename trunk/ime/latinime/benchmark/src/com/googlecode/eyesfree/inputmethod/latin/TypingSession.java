@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A recorded typing session: a sequence of words, each with the keystrokes
+ * that were used to type it, as they were passed to {@link WordComposer}.
+ * <p>
+ * Sessions are stored as UTF-8 text. Lines starting with {@code #} are
+ * comments and a blank line starts a new sentence, which resets the previous
+ * word used for bigrams. Every other line holds one word: the intended word, a
+ * tab, and one space-separated field per keystroke. A field holds the primary
+ * code of the keystroke, a colon, and the codes passed to
+ * {@link WordComposer#add}, nearest first, separated by commas. For example:
+ * </p>
+ *
+ * <pre>
+ * The	84:116,114,121 104:104,103,106 101:101,119,114
+ * </pre>
+ */
+class TypingSession {
+    /** A word and the keystrokes used to type it. */
+    static class Word {
+        /** The word the user meant to type. */
+        final String expected;
+
+        /** The word typed before this one in the same sentence, or null. */
+        final String previous;
+
+        /** The primary code of each keystroke. */
+        final int[] primaryCodes;
+
+        /** The codes of each keystroke, nearest first, padded with -1. */
+        final int[][] codes;
+
+        Word(String expected, String previous, int[] primaryCodes, int[][] codes) {
+            this.expected = expected;
+            this.previous = previous;
+            this.primaryCodes = primaryCodes;
+            this.codes = codes;
+        }
+
+        /** Adds keystroke {@code index} to a composer, the way LatinIME does. */
+        void addKeystroke(WordComposer composer, int index) {
+            // WordComposer keeps and may reorder the array, so pass a copy.
+            final int[] codes = new int[this.codes[index].length];
+            System.arraycopy(this.codes[index], 0, codes, 0, codes.length);
+            if (index == 0) {
+                composer.setFirstCharCapitalized(Character.isUpperCase(primaryCodes[0]));
+            }
+            composer.add(primaryCodes[index], codes);
+        }
+    }
+
+    /** Number of codes per keystroke, as allocated by ProximityKeyDetector. */
+    static final int MAX_CODES = 12;
+
+    final List<Word> words = new ArrayList<Word>();
+
+    /**
+     * Reads a session and closes the stream.
+     *
+     * @throws IOException if the stream can't be read or is malformed
+     */
+    static TypingSession read(InputStream in) throws IOException {
+        final TypingSession session = new TypingSession();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String previous = null;
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                if (line.trim().length() == 0) {
+                    previous = null;
+                    continue;
+                }
+                final Word word = parseWord(line, previous, lineNumber);
+                session.words.add(word);
+                previous = word.expected;
+            }
+        } finally {
+            reader.close();
+        }
+        return session;
+    }
+
+    /**
+     * Appends a word to a session in the format read by {@link #read}.
+     *
+     * @param composer the composer holding the keystrokes of the word
+     */
+    static void writeWord(Writer out, String expected, WordComposer composer)
+            throws IOException {
+        final CharSequence typed = composer.getTypedWord();
+        out.write(expected);
+        out.write('\t');
+        for (int i = 0; i < composer.size(); i++) {
+            if (i > 0) {
+                out.write(' ');
+            }
+            out.write(Integer.toString(typed.charAt(i)));
+            out.write(':');
+            final int[] codes = composer.getCodesAt(i);
+            for (int j = 0; j < codes.length && codes[j] > 0; j++) {
+                if (j > 0) {
+                    out.write(',');
+                }
+                out.write(Integer.toString(codes[j]));
+            }
+        }
+        out.write('\n');
+    }
+
+    private static Word parseWord(String line, String previous, int lineNumber)
+            throws IOException {
+        final int tab = line.indexOf('\t');
+        if (tab <= 0) {
+            throw new IOException("Missing tab on line " + lineNumber);
+        }
+        final String expected = line.substring(0, tab);
+        final String[] fields = line.substring(tab + 1).trim().split(" +");
+        final int[] primaryCodes = new int[fields.length];
+        final int[][] codes = new int[fields.length][];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                final int colon = fields[i].indexOf(':');
+                if (colon <= 0) {
+                    throw new IOException("Missing primary code on line " + lineNumber);
+                }
+                final String[] values = fields[i].substring(colon + 1).split(",");
+                if (values.length > MAX_CODES) {
+                    throw new IOException("Too many codes on line " + lineNumber);
+                }
+                primaryCodes[i] = Integer.parseInt(fields[i].substring(0, colon));
+                codes[i] = new int[MAX_CODES];
+                Arrays.fill(codes[i], LatinKeyboardBaseView.NOT_A_KEY);
+                for (int j = 0; j < values.length; j++) {
+                    codes[i][j] = Integer.parseInt(values[j]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed code on line " + lineNumber);
+        }
+        return new Word(expected, previous, primaryCodes, codes);
+    }
+}
@@ -16,19 +16,18 @@
 
 package com.googlecode.eyesfree.inputmethod.latin;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
-import android.os.AsyncTask;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 import android.util.Log;
 
 import java.util.HashMap;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * Stores new words temporarily until they are promoted to the user dictionary
@@ -55,6 +54,12 @@ public class AutoDictionary extends ExpandableDictionary {
 
     private HashMap<String,Integer> mPendingWrites = new HashMap<String,Integer>();
     private final Object mPendingWritesLock = new Object();
+    private final WriteBehindQueue mWriteQueue = new WriteBehindQueue(new Runnable() {
+        @Override
+        public void run() {
+            writePendingWords();
+        }
+    });
 
     private static final String DATABASE_NAME = "auto_dict.db";
     private static final int DATABASE_VERSION = 1;
@@ -163,16 +168,53 @@ public class AutoDictionary extends ExpandableDictionary {
 
     /**
      * Schedules a background thread to write any pending words to the database.
+     * @return a future that completes once the pending words are written
+     */
+    public Future<?> flushPendingWrites() {
+        return mWriteQueue.flush();
+    }
+
+    /**
+     * Writes pending words to the database in a single transaction so that it
+     * stays in sync with the in-memory trie. Called on the write-behind thread.
      */
-    public void flushPendingWrites() {
+    private void writePendingWords() {
+        final HashMap<String, Integer> pendingWrites;
         synchronized (mPendingWritesLock) {
             // Nothing pending? Return
             if (mPendingWrites.isEmpty()) return;
-            // Create a background thread to write the pending entries
-            new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale).execute();
             // Create a new map for writing new entries into while the old one is written to db
+            pendingWrites = mPendingWrites;
             mPendingWrites = new HashMap<String, Integer>();
         }
+
+        final SQLiteDatabase db = sOpenHelper.getWritableDatabase();
+        final SQLiteStatement deleteWord = db.compileStatement("DELETE FROM "
+                + AUTODICT_TABLE_NAME + " WHERE " + COLUMN_WORD + "=? AND "
+                + COLUMN_LOCALE + "=?");
+        final SQLiteStatement insertWord = db.compileStatement("INSERT INTO "
+                + AUTODICT_TABLE_NAME + " (" + COLUMN_WORD + "," + COLUMN_FREQUENCY + ","
+                + COLUMN_LOCALE + ") VALUES (?,?,?)");
+        db.beginTransaction();
+        try {
+            for (Entry<String,Integer> entry : pendingWrites.entrySet()) {
+                Integer freq = entry.getValue();
+                deleteWord.bindString(1, entry.getKey());
+                deleteWord.bindString(2, mLocale);
+                deleteWord.execute();
+                if (freq != null) {
+                    insertWord.bindString(1, entry.getKey());
+                    insertWord.bindLong(2, freq);
+                    insertWord.bindString(3, mLocale);
+                    insertWord.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            deleteWord.close();
+            insertWord.close();
+        }
     }
 
     /**
@@ -214,46 +256,4 @@ public class AutoDictionary extends ExpandableDictionary {
                 DEFAULT_SORT_ORDER);
         return c;
     }
-
-    /**
-     * Async task to write pending words to the database so that it stays in sync with
-     * the in-memory trie.
-     */
-    private static class UpdateDbTask extends AsyncTask<Void, Void, Void> {
-        private final HashMap<String, Integer> mMap;
-        private final DatabaseHelper mDbHelper;
-        private final String mLocale;
-
-        public UpdateDbTask(Context context, DatabaseHelper openHelper,
-                HashMap<String, Integer> pendingWrites, String locale) {
-            mMap = pendingWrites;
-            mLocale = locale;
-            mDbHelper = openHelper;
-        }
-
-        @Override
-        protected Void doInBackground(Void... v) {
-            SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            // Write all the entries to the db
-            Set<Entry<String,Integer>> mEntries = mMap.entrySet();
-            for (Entry<String,Integer> entry : mEntries) {
-                Integer freq = entry.getValue();
-                db.delete(AUTODICT_TABLE_NAME, COLUMN_WORD + "=? AND " + COLUMN_LOCALE + "=?",
-                        new String[] { entry.getKey(), mLocale });
-                if (freq != null) {
-                    db.insert(AUTODICT_TABLE_NAME, null,
-                            getContentValues(entry.getKey(), freq, mLocale));
-                }
-            }
-            return null;
-        }
-
-        private ContentValues getContentValues(String word, int frequency, String locale) {
-            ContentValues values = new ContentValues(4);
-            values.put(COLUMN_WORD, word);
-            values.put(COLUMN_FREQUENCY, frequency);
-            values.put(COLUMN_LOCALE, locale);
-            return values;
-        }
-    }
 }
@@ -17,13 +17,17 @@
 package com.googlecode.eyesfree.inputmethod.latin;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.util.Log;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -112,6 +116,72 @@ public class BinaryDictionary extends Dictionary {
             int maxWordLength, int maxBigrams, int maxAlternatives);
 
     private final void loadDictionary(Context context, int[] resId) {
+        // A separated dictionary must be merged into one buffer, so only a
+        // single resource can be mapped in place.
+        if (resId.length == 1 && mapDictionary(context, resId[0])) {
+            return;
+        }
+
+        copyDictionary(context, resId);
+    }
+
+    /**
+     * Maps an uncompressed dictionary resource directly from the APK, so that
+     * the dictionary does not need to be copied into the Java heap or a
+     * direct buffer.
+     *
+     * @return true if the dictionary was mapped and opened, false if the
+     *         resource is compressed or could not be mapped
+     */
+    private final boolean mapDictionary(Context context, int resId) {
+        AssetFileDescriptor afd = null;
+        FileInputStream in = null;
+        try {
+            afd = context.getResources().openRawResourceFd(resId);
+            if (afd == null) {
+                return false;
+            }
+
+            // The mapping stays valid after the channel and descriptor are closed.
+            in = new FileInputStream(afd.getFileDescriptor());
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    afd.getStartOffset(), afd.getLength()).order(ByteOrder.nativeOrder());
+            final int dict = openNative(buffer, TYPED_LETTER_MULTIPLIER,
+                    FULL_WORD_FREQ_MULTIPLIER);
+            if (dict == 0) {
+                return false;
+            }
+
+            mNativeDictDirectBuffer = buffer;
+            mNativeDict = dict;
+            mDictLength = (int) afd.getLength();
+            return true;
+        } catch (Resources.NotFoundException e) {
+            // The resource is compressed and can't be opened as a file descriptor.
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to map binary dictionary, falling back to copying");
+            return false;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close dictionary stream");
+            }
+            try {
+                if (afd != null) {
+                    afd.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close asset file descriptor");
+            }
+        }
+    }
+
+    private final void copyDictionary(Context context, int[] resId) {
         InputStream[] is = null;
         try {
             // merging separated dictionary into one if dictionary is separated
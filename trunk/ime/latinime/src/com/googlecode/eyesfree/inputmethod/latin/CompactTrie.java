@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+/**
+ * Trie used by {@link ExpandableDictionary}, stored as parallel primitive
+ * arrays indexed by node rather than as one object per character.
+ * <p>
+ * The children of a node form a sibling list in insertion order. New nodes
+ * are appended to the end of the arrays, so after many incremental additions
+ * siblings may be scattered. {@link #compact()} returns a copy laid out in
+ * breadth-first order, where siblings are adjacent and the arrays are trimmed
+ * to size.
+ * </p>
+ * <p>
+ * Bigrams are stored the same way: each node has a list of entries holding the
+ * terminal node of the next word and the bigram frequency.
+ * </p>
+ */
+class CompactTrie {
+    /** Index used to indicate a missing node or bigram entry. */
+    static final int NO_NODE = -1;
+
+    /** Index of the root node, which has no character. */
+    static final int ROOT = 0;
+
+    private static final int INITIAL_NODE_CAPACITY = 64;
+    private static final int INITIAL_BIGRAM_CAPACITY = 16;
+
+    char[] codes;
+    int[] frequencies;
+    boolean[] terminals;
+    int[] parents;
+    int[] firstChildren;
+    int[] nextSiblings;
+    int[] bigramHeads;
+    int nodeCount;
+
+    int[] bigramTargets;
+    int[] bigramFrequencies;
+    int[] bigramNexts;
+    int bigramCount;
+
+    CompactTrie() {
+        this(INITIAL_NODE_CAPACITY, INITIAL_BIGRAM_CAPACITY);
+        appendNode(NO_NODE, (char) 0);
+    }
+
+    private CompactTrie(int nodeCapacity, int bigramCapacity) {
+        allocateNodes(nodeCapacity);
+        allocateBigrams(bigramCapacity);
+    }
+
+    /**
+     * Adds the word if it does not exist and marks it as terminal.
+     * @return Returns the terminal node of the word.
+     */
+    int addWord(CharSequence word) {
+        final int length = word.length();
+        int node = ROOT;
+        for (int i = 0; i < length; i++) {
+            node = findOrAddChild(node, word.charAt(i));
+        }
+        if (node != ROOT) {
+            terminals[node] = true;
+        }
+        return node;
+    }
+
+    /**
+     * Search for the terminal node of the word
+     * @return Returns the terminal node of the word if the word exists, or
+     *         {@link #NO_NODE} otherwise.
+     */
+    int findWord(CharSequence word) {
+        final int length = word.length();
+        if (length == 0) {
+            return NO_NODE;
+        }
+        int node = ROOT;
+        for (int i = 0; i < length && node != NO_NODE; i++) {
+            node = findChild(node, word.charAt(i));
+        }
+        if (node == NO_NODE || !terminals[node]) {
+            return NO_NODE;
+        }
+        return node;
+    }
+
+    /**
+     * Adds or updates the bigram from {@code firstWord} to {@code secondWord}.
+     * @param addFrequency if true, it adds to current frequency
+     * @return returns the final frequency
+     */
+    int addOrSetBigram(int firstWord, int secondWord, int frequency, boolean addFrequency) {
+        int last = NO_NODE;
+        for (int i = bigramHeads[firstWord]; i != NO_NODE; i = bigramNexts[i]) {
+            if (bigramTargets[i] == secondWord) {
+                if (addFrequency) {
+                    bigramFrequencies[i] += frequency;
+                } else {
+                    bigramFrequencies[i] = frequency;
+                }
+                return bigramFrequencies[i];
+            }
+            last = i;
+        }
+        if (bigramCount == bigramTargets.length) {
+            growBigrams();
+        }
+        final int entry = bigramCount++;
+        bigramTargets[entry] = secondWord;
+        bigramFrequencies[entry] = frequency;
+        bigramNexts[entry] = NO_NODE;
+        if (last == NO_NODE) {
+            bigramHeads[firstWord] = entry;
+        } else {
+            bigramNexts[last] = entry;
+        }
+        return frequency;
+    }
+
+    /**
+     * Unmarks the word ending at {@code node} and drops the bigrams from it.
+     * Its nodes stay in the trie, so existing node indices remain valid.
+     * Bigrams to the word are kept, but should be skipped by callers while the
+     * word is not terminal.
+     */
+    void removeWord(int node) {
+        terminals[node] = false;
+        frequencies[node] = 0;
+        bigramHeads[node] = NO_NODE;
+    }
+
+    /**
+     * Unlinks the bigram from {@code firstWord} to {@code secondWord}, if any.
+     * The entry itself is not reused.
+     * @return Returns true if the bigram existed.
+     */
+    boolean removeBigram(int firstWord, int secondWord) {
+        int last = NO_NODE;
+        for (int i = bigramHeads[firstWord]; i != NO_NODE; i = bigramNexts[i]) {
+            if (bigramTargets[i] == secondWord) {
+                if (last == NO_NODE) {
+                    bigramHeads[firstWord] = bigramNexts[i];
+                } else {
+                    bigramNexts[last] = bigramNexts[i];
+                }
+                return true;
+            }
+            last = i;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of characters in the word ending at {@code node}
+     */
+    int getDepth(int node) {
+        int depth = 0;
+        for (int i = node; i != ROOT; i = parents[i]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Writes the word ending at {@code node} into {@code word}.
+     * @param length the depth of {@code node}, as returned by {@link #getDepth}
+     */
+    void getWord(int node, char[] word, int length) {
+        for (int i = node, pos = length - 1; i != ROOT; i = parents[i], pos--) {
+            word[pos] = codes[i];
+        }
+    }
+
+    /**
+     * Returns an immutable-layout copy of this trie, with the nodes renumbered
+     * in breadth-first order so that siblings are contiguous, and with each
+     * node's bigram entries stored contiguously. The copy can still be
+     * modified; new nodes are appended after the compacted ones.
+     */
+    CompactTrie compact() {
+        final CompactTrie result = new CompactTrie(nodeCount, bigramCount);
+        final int[] order = new int[nodeCount];
+        final int[] remap = new int[nodeCount];
+
+        // Breadth-first traversal. A node's children are queued together, so
+        // they receive consecutive indices.
+        int head = 0;
+        int tail = 0;
+        order[tail++] = ROOT;
+        while (head < tail) {
+            final int node = order[head++];
+            remap[node] = result.nodeCount;
+            final int parent = (node == ROOT) ? NO_NODE : remap[parents[node]];
+            final int copy = result.appendNode(parent, codes[node]);
+            result.frequencies[copy] = frequencies[node];
+            result.terminals[copy] = terminals[node];
+            for (int child = firstChildren[node]; child != NO_NODE;
+                    child = nextSiblings[child]) {
+                order[tail++] = child;
+            }
+        }
+
+        // Link the copied nodes using the new indices.
+        for (int i = 0; i < nodeCount; i++) {
+            final int node = order[i];
+            final int copy = remap[node];
+            final int firstChild = firstChildren[node];
+            if (firstChild != NO_NODE) {
+                result.firstChildren[copy] = remap[firstChild];
+            }
+            final int nextSibling = nextSiblings[node];
+            if (nextSibling != NO_NODE) {
+                result.nextSiblings[copy] = remap[nextSibling];
+            }
+        }
+
+        // Copy the bigram lists in node order.
+        for (int i = 0; i < nodeCount; i++) {
+            final int node = order[i];
+            int last = NO_NODE;
+            for (int j = bigramHeads[node]; j != NO_NODE; j = bigramNexts[j]) {
+                final int entry = result.bigramCount++;
+                result.bigramTargets[entry] = remap[bigramTargets[j]];
+                result.bigramFrequencies[entry] = bigramFrequencies[j];
+                result.bigramNexts[entry] = NO_NODE;
+                if (last == NO_NODE) {
+                    result.bigramHeads[remap[node]] = entry;
+                } else {
+                    result.bigramNexts[last] = entry;
+                }
+                last = entry;
+            }
+        }
+
+        return result;
+    }
+
+    private int findChild(int parent, char c) {
+        for (int node = firstChildren[parent]; node != NO_NODE; node = nextSiblings[node]) {
+            if (codes[node] == c) {
+                return node;
+            }
+        }
+        return NO_NODE;
+    }
+
+    private int findOrAddChild(int parent, char c) {
+        int last = NO_NODE;
+        for (int node = firstChildren[parent]; node != NO_NODE; node = nextSiblings[node]) {
+            if (codes[node] == c) {
+                return node;
+            }
+            last = node;
+        }
+        final int node = appendNode(parent, c);
+        if (last == NO_NODE) {
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[last] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Appends an unlinked node. The caller is responsible for adding it to
+     * its parent's children.
+     */
+    private int appendNode(int parent, char c) {
+        if (nodeCount == codes.length) {
+            growNodes();
+        }
+        final int node = nodeCount++;
+        codes[node] = c;
+        frequencies[node] = 0;
+        terminals[node] = false;
+        parents[node] = parent;
+        firstChildren[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        bigramHeads[node] = NO_NODE;
+        return node;
+    }
+
+    private void allocateNodes(int capacity) {
+        capacity = Math.max(1, capacity);
+        codes = new char[capacity];
+        frequencies = new int[capacity];
+        terminals = new boolean[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        bigramHeads = new int[capacity];
+    }
+
+    private void allocateBigrams(int capacity) {
+        capacity = Math.max(1, capacity);
+        bigramTargets = new int[capacity];
+        bigramFrequencies = new int[capacity];
+        bigramNexts = new int[capacity];
+    }
+
+    private void growNodes() {
+        final char[] oldCodes = codes;
+        final int[] oldFrequencies = frequencies;
+        final boolean[] oldTerminals = terminals;
+        final int[] oldParents = parents;
+        final int[] oldFirstChildren = firstChildren;
+        final int[] oldNextSiblings = nextSiblings;
+        final int[] oldBigramHeads = bigramHeads;
+        allocateNodes(nodeCount + Math.max(INITIAL_NODE_CAPACITY, nodeCount / 2));
+        System.arraycopy(oldCodes, 0, codes, 0, nodeCount);
+        System.arraycopy(oldFrequencies, 0, frequencies, 0, nodeCount);
+        System.arraycopy(oldTerminals, 0, terminals, 0, nodeCount);
+        System.arraycopy(oldParents, 0, parents, 0, nodeCount);
+        System.arraycopy(oldFirstChildren, 0, firstChildren, 0, nodeCount);
+        System.arraycopy(oldNextSiblings, 0, nextSiblings, 0, nodeCount);
+        System.arraycopy(oldBigramHeads, 0, bigramHeads, 0, nodeCount);
+    }
+
+    private void growBigrams() {
+        final int[] oldTargets = bigramTargets;
+        final int[] oldFrequencies = bigramFrequencies;
+        final int[] oldNexts = bigramNexts;
+        allocateBigrams(bigramCount + Math.max(INITIAL_BIGRAM_CAPACITY, bigramCount / 2));
+        System.arraycopy(oldTargets, 0, bigramTargets, 0, bigramCount);
+        System.arraycopy(oldFrequencies, 0, bigramFrequencies, 0, bigramCount);
+        System.arraycopy(oldNexts, 0, bigramNexts, 0, bigramCount);
+    }
+}
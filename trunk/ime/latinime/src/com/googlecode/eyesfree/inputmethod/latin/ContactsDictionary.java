@@ -25,6 +25,11 @@ import android.provider.ContactsContract.Contacts;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class ContactsDictionary extends ExpandableDictionary {
 
     private static final String[] PROJECTION = {
@@ -40,12 +45,25 @@ public class ContactsDictionary extends ExpandableDictionary {
     private static final int FREQUENCY_FOR_CONTACTS = 128;
     private static final int FREQUENCY_FOR_CONTACTS_BIGRAM = 90;
 
+    private static final int INDEX_ID = 0;
     private static final int INDEX_NAME = 1;
 
     private ContentObserver mObserver;
 
     private long mLastLoadedContacts;
 
+    /**
+     * Display names by contact id as of the last load, or null if the
+     * dictionary has not been loaded successfully.
+     */
+    private volatile HashMap<Long, String> mNames;
+
+    /** Number of names containing each word. */
+    private final HashMap<String, Integer> mWordCounts = new HashMap<String, Integer>();
+
+    /** Number of names containing each pair of adjacent words, joined by a space. */
+    private final HashMap<String, Integer> mBigramCounts = new HashMap<String, Integer>();
+
     public ContactsDictionary(Context context, int dicTypeId) {
         super(context, dicTypeId);
         // Perform a managed query. The Activity will handle closing and requerying the cursor
@@ -74,7 +92,9 @@ public class ContactsDictionary extends ExpandableDictionary {
     @Override
     public void startDictionaryLoadingTaskLocked() {
         long now = SystemClock.uptimeMillis();
-        if (mLastLoadedContacts == 0
+        // Applying the changes since the last load is cheap, so only full
+        // reloads are throttled.
+        if (canLoadDelta() || mLastLoadedContacts == 0
                 || now - mLastLoadedContacts > 30 * 60 * 1000 /* 30 minutes */) {
             super.startDictionaryLoadingTaskLocked();
         }
@@ -94,52 +114,122 @@ public class ContactsDictionary extends ExpandableDictionary {
         mLastLoadedContacts = SystemClock.uptimeMillis();
     }
 
+    @Override
+    protected boolean canLoadDelta() {
+        return mNames != null;
+    }
+
+    @Override
+    protected Delta loadDeltaAsync() {
+        final HashMap<Long, String> names;
+        try {
+            Cursor cursor = getContext().getContentResolver()
+                    .query(Contacts.CONTENT_URI, PROJECTION, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            names = readNames(cursor);
+        } catch(IllegalStateException e) {
+            Log.e(TAG, "Contacts DB is having problems");
+            return null;
+        }
+        mLastLoadedContacts = SystemClock.uptimeMillis();
+
+        // Words and bigrams whose count changed, mapped to whether they were
+        // in the dictionary before.
+        final LinkedHashMap<String, Boolean> changedWords = new LinkedHashMap<String, Boolean>();
+        final LinkedHashMap<String, Boolean> changedBigrams =
+                new LinkedHashMap<String, Boolean>();
+        final ArrayList<String> tokens = new ArrayList<String>();
+
+        for (Map.Entry<Long, String> entry : mNames.entrySet()) {
+            final String newName = names.get(entry.getKey());
+            if (!entry.getValue().equals(newName)) {
+                tokenize(entry.getValue(), tokens);
+                updateCounts(tokens, -1, changedWords, changedBigrams);
+            }
+        }
+        for (Map.Entry<Long, String> entry : names.entrySet()) {
+            final String oldName = mNames.get(entry.getKey());
+            if (!entry.getValue().equals(oldName)) {
+                tokenize(entry.getValue(), tokens);
+                updateCounts(tokens, 1, changedWords, changedBigrams);
+            }
+        }
+        mNames = names;
+
+        // Remove bigrams before the words they refer to, and add them after.
+        final Delta delta = new Delta();
+        for (Map.Entry<String, Boolean> entry : changedBigrams.entrySet()) {
+            final String key = entry.getKey();
+            if (entry.getValue() && !mBigramCounts.containsKey(key)) {
+                final int split = key.indexOf(' ');
+                delta.removeBigram(key.substring(0, split), key.substring(split + 1));
+            }
+        }
+        for (Map.Entry<String, Boolean> entry : changedWords.entrySet()) {
+            final String word = entry.getKey();
+            final boolean present = mWordCounts.containsKey(word);
+            if (entry.getValue() && !present) {
+                delta.removeWord(word);
+            } else if (!entry.getValue() && present) {
+                delta.setWord(word, FREQUENCY_FOR_CONTACTS);
+            }
+        }
+        for (Map.Entry<String, Boolean> entry : changedBigrams.entrySet()) {
+            final String key = entry.getKey();
+            if (!entry.getValue() && mBigramCounts.containsKey(key)) {
+                final int split = key.indexOf(' ');
+                delta.setBigram(key.substring(0, split), key.substring(split + 1),
+                        FREQUENCY_FOR_CONTACTS_BIGRAM);
+            }
+        }
+        return delta;
+    }
+
     private void addWords(Cursor cursor) {
         clearDictionary();
+        mNames = null;
 
-        final int maxWordLength = getMaxWordLength();
+        final HashMap<Long, String> names = readNames(cursor);
+        if (names == null) {
+            return;
+        }
+        mWordCounts.clear();
+        mBigramCounts.clear();
+
+        final ArrayList<String> tokens = new ArrayList<String>();
+        for (String name : names.values()) {
+            tokenize(name, tokens);
+            updateCounts(tokens, 1, null, null);
+
+            String prevWord = null;
+            for (int i = 0; i < tokens.size(); i++) {
+                final String word = tokens.get(i);
+                super.addWord(word, FREQUENCY_FOR_CONTACTS);
+                if (!TextUtils.isEmpty(prevWord)) {
+                    // TODO Do not add email address
+                    // Not so critical
+                    super.setBigram(prevWord, word, FREQUENCY_FOR_CONTACTS_BIGRAM);
+                }
+                prevWord = word;
+            }
+        }
+        mNames = names;
+    }
+
+    /**
+     * Reads the display names of all contacts and closes the cursor.
+     * @return the names by contact id, in query order, or null on failure
+     */
+    private static HashMap<Long, String> readNames(Cursor cursor) {
+        final LinkedHashMap<Long, String> names = new LinkedHashMap<Long, String>();
         try {
             if (cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
                     String name = cursor.getString(INDEX_NAME);
-
                     if (name != null) {
-                        int len = name.length();
-                        String prevWord = null;
-
-                        // TODO: Better tokenization for non-Latin writing systems
-                        for (int i = 0; i < len; i++) {
-                            if (Character.isLetter(name.charAt(i))) {
-                                int j;
-                                for (j = i + 1; j < len; j++) {
-                                    char c = name.charAt(j);
-
-                                    if (!(c == '-' || c == '\'' ||
-                                          Character.isLetter(c))) {
-                                        break;
-                                    }
-                                }
-
-                                String word = name.substring(i, j);
-                                i = j - 1;
-
-                                // Safeguard against adding really long words. Stack
-                                // may overflow due to recursion
-                                // Also don't add single letter words, possibly confuses
-                                // capitalization of i.
-                                final int wordLen = word.length();
-                                if (wordLen < maxWordLength && wordLen > 1) {
-                                    super.addWord(word, FREQUENCY_FOR_CONTACTS);
-                                    if (!TextUtils.isEmpty(prevWord)) {
-                                        // TODO Do not add email address
-                                        // Not so critical
-                                        super.setBigram(prevWord, word,
-                                                FREQUENCY_FOR_CONTACTS_BIGRAM);
-                                    }
-                                    prevWord = word;
-                                }
-                            }
-                        }
+                        names.put(cursor.getLong(INDEX_ID), name);
                     }
                     cursor.moveToNext();
                 }
@@ -147,6 +237,79 @@ public class ContactsDictionary extends ExpandableDictionary {
             cursor.close();
         } catch(IllegalStateException e) {
             Log.e(TAG, "Contacts DB is having problems");
+            return null;
+        }
+        return names;
+    }
+
+    /**
+     * Splits a name into the words that are added to the dictionary.
+     */
+    private void tokenize(String name, ArrayList<String> tokens) {
+        tokens.clear();
+
+        final int maxWordLength = getMaxWordLength();
+        int len = name.length();
+
+        // TODO: Better tokenization for non-Latin writing systems
+        for (int i = 0; i < len; i++) {
+            if (Character.isLetter(name.charAt(i))) {
+                int j;
+                for (j = i + 1; j < len; j++) {
+                    char c = name.charAt(j);
+
+                    if (!(c == '-' || c == '\'' ||
+                          Character.isLetter(c))) {
+                        break;
+                    }
+                }
+
+                String word = name.substring(i, j);
+                i = j - 1;
+
+                // Safeguard against adding really long words. Stack
+                // may overflow due to recursion
+                // Also don't add single letter words, possibly confuses
+                // capitalization of i.
+                final int wordLen = word.length();
+                if (wordLen < maxWordLength && wordLen > 1) {
+                    tokens.add(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds {@code change} to the number of names containing each word and each
+     * pair of adjacent words.
+     * @param changedWords if not null, records words whose count changed,
+     *            mapped to whether they were counted before the first change
+     * @param changedBigrams the same for pairs of words
+     */
+    private void updateCounts(ArrayList<String> tokens, int change,
+            HashMap<String, Boolean> changedWords, HashMap<String, Boolean> changedBigrams) {
+        String prevWord = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            final String word = tokens.get(i);
+            updateCount(mWordCounts, word, change, changedWords);
+            if (prevWord != null) {
+                updateCount(mBigramCounts, prevWord + ' ' + word, change, changedBigrams);
+            }
+            prevWord = word;
+        }
+    }
+
+    private static void updateCount(HashMap<String, Integer> counts, String key, int change,
+            HashMap<String, Boolean> changed) {
+        final Integer count = counts.get(key);
+        if (changed != null && !changed.containsKey(key)) {
+            changed.put(key, count != null);
+        }
+        final int newCount = (count == null ? 0 : count) + change;
+        if (newCount > 0) {
+            counts.put(key, newCount);
+        } else {
+            counts.remove(key);
         }
     }
 }
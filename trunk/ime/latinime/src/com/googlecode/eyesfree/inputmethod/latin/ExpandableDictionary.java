@@ -19,7 +19,8 @@ package com.googlecode.eyesfree.inputmethod.latin;
 import android.content.Context;
 import android.os.AsyncTask;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Base class for an in-memory dictionary that can grow dynamically and can
@@ -38,7 +39,7 @@ public class ExpandableDictionary extends Dictionary {
     private int mMaxDepth;
     private int mInputLength;
     private int[] mNextLettersFrequencies;
-    private StringBuilder sb = new StringBuilder(MAX_WORD_LENGTH);
+    private char[] mReverseWordBuilder = new char[MAX_WORD_LENGTH];
 
     private static final char QUOTE = '\'';
 
@@ -46,54 +47,34 @@ public class ExpandableDictionary extends Dictionary {
 
     private boolean mUpdatingDictionary;
 
-    // Use this lock before touching mUpdatingDictionary & mRequiresDownload
-    private Object mUpdatingLock = new Object();
-
-    static class Node {
-        char code;
-        int frequency;
-        boolean terminal;
-        Node parent;
-        NodeArray children;
-        LinkedList<NextWord> ngrams; // Supports ngram
-    }
+    /** Whether a background task is computing a {@link Delta}. */
+    private boolean mUpdatingDelta;
 
-    static class NodeArray {
-        Node[] data;
-        int length = 0;
-        private static final int INCREMENT = 2;
+    /** Changes computed in the background that have not been applied yet. */
+    private Delta mPendingDelta;
 
-        NodeArray() {
-            data = new Node[INCREMENT];
-        }
-
-        void add(Node n) {
-            if (length + 1 > data.length) {
-                Node[] tempData = new Node[length + INCREMENT];
-                if (length > 0) {
-                    System.arraycopy(data, 0, tempData, 0, length);
-                }
-                data = tempData;
-            }
-            data[length++] = n;
-        }
-    }
+    // Use this lock before touching mUpdatingDictionary, mUpdatingDelta,
+    // mPendingDelta & mRequiresDownload
+    private Object mUpdatingLock = new Object();
 
-    static class NextWord {
-        Node word;
-        NextWord nextWord;
-        int frequency;
+    private CompactTrie mTrie;
 
-        NextWord(Node word, int frequency) {
-            this.word = word;
-            this.frequency = frequency;
-        }
-    }
+    private int[][] mCodes;
 
+    /**
+     * Search frontiers from the previous call to getWords, indexed by skip
+     * position plus one. These let the next call continue from the previous
+     * keystroke instead of searching from the root.
+     */
+    private final SearchFrontier[] mFrontiers = new SearchFrontier[MAX_WORD_LENGTH + 1];
 
-    private NodeArray mRoots;
+    /** Copies of the input codes that the frontiers were computed from. */
+    private final int[][] mFrontierCodes = new int[MAX_WORD_LENGTH][];
+    private int mFrontierCodesLength;
 
-    private int[][] mCodes;
+    /** Trie and trie size that the frontiers were computed from. */
+    private CompactTrie mFrontierTrie;
+    private int mFrontierNodeCount;
 
     ExpandableDictionary(Context context, int dicTypeId) {
         mContext = context;
@@ -109,9 +90,18 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     public void startDictionaryLoadingTaskLocked() {
-        if (!mUpdatingDictionary) {
+        if (mUpdatingDictionary || mUpdatingDelta) {
+            return;
+        }
+        mRequiresReload = false;
+        if (canLoadDelta()) {
+            // Lookups keep using the current trie while the changes are
+            // computed.
+            mUpdatingDelta = true;
+            new LoadDeltaTask().execute();
+        } else {
             mUpdatingDictionary = true;
-            mRequiresReload = false;
+            mPendingDelta = null;
             new LoadDictionaryTask().execute();
         }
     }
@@ -130,6 +120,24 @@ public class ExpandableDictionary extends Dictionary {
     public void loadDictionaryAsync() {
     }
 
+    /**
+     * Override to return true once {@link #loadDeltaAsync()} can compute the
+     * changes since the last load. Reloads then update the current trie in
+     * place instead of rebuilding it.
+     */
+    protected boolean canLoadDelta() {
+        return false;
+    }
+
+    /**
+     * Override to compute the changes since the last load, on a background
+     * thread. The trie must not be modified here; the returned changes are
+     * applied before the next lookup.
+     */
+    protected Delta loadDeltaAsync() {
+        return null;
+    }
+
     Context getContext() {
         return mContext;
     }
@@ -139,41 +147,34 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     public void addWord(String word, int frequency) {
-        addWordRec(mRoots, word, 0, frequency, null);
-    }
-
-    private void addWordRec(NodeArray children, final String word, final int depth,
-            final int frequency, Node parentNode) {
-        final int wordLength = word.length();
-        final char c = word.charAt(depth);
-        // Does children have the current character?
-        final int childrenLength = children.length;
-        Node childNode = null;
-        boolean found = false;
-        for (int i = 0; i < childrenLength; i++) {
-            childNode = children.data[i];
-            if (childNode.code == c) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            childNode = new Node();
-            childNode.code = c;
-            childNode.parent = parentNode;
-            children.add(childNode);
-        }
-        if (wordLength == depth + 1) {
-            // Terminate this word
-            childNode.terminal = true;
-            childNode.frequency = Math.max(frequency, childNode.frequency);
-            if (childNode.frequency > 255) childNode.frequency = 255;
-            return;
-        }
-        if (childNode.children == null) {
-            childNode.children = new NodeArray();
+        if (word.length() == 0) return;
+        final CompactTrie trie = mTrie;
+        final int node = trie.addWord(word);
+        final int newFrequency = Math.max(frequency, trie.frequencies[node]);
+        trie.frequencies[node] = Math.min(newFrequency, 255);
+    }
+
+    /**
+     * Adds the word if needed and sets its frequency, even if it is lower
+     * than the current one.
+     */
+    protected void setWordFrequency(String word, int frequency) {
+        if (word.length() == 0) return;
+        final CompactTrie trie = mTrie;
+        final int node = trie.addWord(word);
+        trie.frequencies[node] = Math.min(frequency, 255);
+    }
+
+    /**
+     * Removes the word and the bigrams from it. Bigrams to it are no longer
+     * suggested, but come back if the word is added again.
+     */
+    protected void removeWord(String word) {
+        final CompactTrie trie = mTrie;
+        final int node = trie.findWord(word);
+        if (node != CompactTrie.NO_NODE) {
+            trie.removeWord(node);
         }
-        addWordRec(childNode.children, word, depth + 1, frequency, childNode);
     }
 
     @Override
@@ -185,6 +186,7 @@ public class ExpandableDictionary extends Dictionary {
             // Currently updating contacts, don't return any results.
             if (mUpdatingDictionary) return;
         }
+        applyPendingDelta();
 
         mInputLength = codes.size();
         mNextLettersFrequencies = nextLettersFrequencies;
@@ -194,9 +196,162 @@ public class ExpandableDictionary extends Dictionary {
             mCodes[i] = codes.getCodesAt(i);
         }
         mMaxDepth = mInputLength * 3;
-        getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, -1, callback);
-        for (int i = 0; i < mInputLength; i++) {
-            getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, i, callback);
+        final CompactTrie trie = mTrie;
+        if (mInputLength == 0 || mInputLength > MAX_WORD_LENGTH) {
+            final int roots = trie.firstChildren[CompactTrie.ROOT];
+            getWordsRec(trie, roots, codes, mWordBuilder, 0, false, 1, 0, -1, callback);
+            for (int i = 0; i < mInputLength; i++) {
+                getWordsRec(trie, roots, codes, mWordBuilder, 0, false, 1, 0, i, callback);
+            }
+            return;
+        }
+
+        // Drop frontier levels computed from input that has changed, including
+        // those of passes that won't run for this input.
+        final int validLevels = updateFrontierCodes(trie) + 1;
+        for (SearchFrontier frontier : mFrontiers) {
+            if (frontier != null && frontier.levelCount > validLevels) {
+                frontier.truncate(validLevels);
+            }
+        }
+        for (int skipPos = -1; skipPos < mInputLength; skipPos++) {
+            SearchFrontier frontier = mFrontiers[skipPos + 1];
+            if (frontier == null) {
+                frontier = new SearchFrontier();
+                mFrontiers[skipPos + 1] = frontier;
+            }
+            getWordsFromFrontier(trie, frontier, codes, skipPos, callback);
+        }
+    }
+
+    /**
+     * Compares the current input against the input that the search frontiers
+     * were computed from, and saves the current input for the next call.
+     * @return the number of leading input positions that are unchanged, or 0 if
+     * the trie has changed since the frontiers were computed
+     */
+    private int updateFrontierCodes(CompactTrie trie) {
+        int unchanged = 0;
+        if (trie == mFrontierTrie && trie.nodeCount == mFrontierNodeCount) {
+            final int maxUnchanged = Math.min(mInputLength, mFrontierCodesLength);
+            while (unchanged < maxUnchanged
+                    && Arrays.equals(mCodes[unchanged], mFrontierCodes[unchanged])) {
+                unchanged++;
+            }
+        }
+        for (int i = unchanged; i < mInputLength; i++) {
+            final int[] currentChars = mCodes[i];
+            final int[] savedChars = mFrontierCodes[i];
+            if (savedChars != null && savedChars.length == currentChars.length) {
+                System.arraycopy(currentChars, 0, savedChars, 0, currentChars.length);
+            } else {
+                mFrontierCodes[i] = currentChars.clone();
+            }
+        }
+        mFrontierCodesLength = mInputLength;
+        mFrontierTrie = trie;
+        mFrontierNodeCount = trie.nodeCount;
+        return unchanged;
+    }
+
+    /**
+     * Runs one pass of the search for a given skip position, starting from the
+     * deepest stored frontier level that is still valid. This reports the same
+     * words in the same order as a pass of getWordsRec from the root, but only
+     * has to match input positions that were added or changed since the last
+     * call. Deleting characters rolls back to a shorter, already stored level.
+     */
+    private void getWordsFromFrontier(CompactTrie trie, SearchFrontier frontier,
+            WordComposer codes, int skipPos, WordCallback callback) {
+        final int lastInput = mInputLength - 1;
+        frontier.truncate(Math.min(frontier.levelCount, mInputLength));
+        final char[] word = mWordBuilder;
+
+        for (int level = frontier.levelCount - 1; level <= lastInput; level++) {
+            final int start = frontier.levelStarts[level];
+            final int end = frontier.size;
+            for (int i = start; i < end; i++) {
+                final int parent = frontier.parents[i];
+                final int depth = frontier.depths[i];
+                trie.getWord(parent, word, depth);
+                expandFrontierRec(trie, parent, codes, word, depth, frontier.snrs[i], level,
+                        skipPos, level == lastInput, frontier, callback);
+            }
+            frontier.levelStarts[level + 2] = frontier.size;
+            frontier.levelCount = level + 2;
+        }
+
+        if (frontier.size > SearchFrontier.MAX_STATES) {
+            frontier.clear();
+        }
+    }
+
+    /**
+     * Matches the children of {@code parent} against one input position,
+     * following the same rules as the non-completion branch of getWordsRec.
+     * Matching children are added to the next frontier level. If this is the
+     * last input position, matching words and their completions are also
+     * reported through the callback.
+     * <p>
+     * Unlike getWordsRec, this does not prune by depth, since the maximum depth
+     * grows with the input and the stored frontier must remain valid for
+     * longer input. Pruned states just don't report anything.
+     */
+    private void expandFrontierRec(CompactTrie trie, int parent, WordComposer codes,
+            char[] word, int depth, int snr, int inputIndex, int skipPos, boolean lastInput,
+            SearchFrontier frontier, WordCallback callback) {
+        if (depth >= word.length) {
+            return;
+        }
+        final boolean pruned = depth > mMaxDepth;
+        final int[] currentChars = mCodes[inputIndex];
+        final char[] nodeCodes = trie.codes;
+        final int[] nodeFirstChildren = trie.firstChildren;
+        final int[] nodeNextSiblings = trie.nextSiblings;
+
+        for (int node = nodeFirstChildren[parent]; node != CompactTrie.NO_NODE;
+                node = nodeNextSiblings[node]) {
+            final char c = nodeCodes[node];
+            final int children = nodeFirstChildren[node];
+            if ((c == QUOTE && currentChars[0] != QUOTE) || depth == skipPos) {
+                // Skip the ' and continue deeper
+                word[depth] = c;
+                if (children != CompactTrie.NO_NODE) {
+                    expandFrontierRec(trie, node, codes, word, depth + 1, snr, inputIndex,
+                            skipPos, lastInput, frontier, callback);
+                }
+                continue;
+            }
+            final char lowerC = toLowerCase(c);
+            // Don't use alternatives if we're looking for missing characters
+            final int alternativesSize = skipPos >= 0? 1 : currentChars.length;
+            for (int j = 0; j < alternativesSize; j++) {
+                final int addedAttenuation = (j > 0 ? 1 : 2);
+                final int currentChar = currentChars[j];
+                if (currentChar == -1) {
+                    break;
+                }
+                if (currentChar != lowerC && currentChar != c) {
+                    continue;
+                }
+                word[depth] = c;
+                if (lastInput && !pruned) {
+                    if (trie.terminals[node] && (INCLUDE_TYPED_WORD_IF_VALID
+                            || !same(word, depth + 1, codes.getTypedWord()))) {
+                        int finalFreq = trie.frequencies[node] * snr * addedAttenuation;
+                        if (skipPos < 0) finalFreq *= FULL_WORD_FREQ_MULTIPLIER;
+                        callback.addWord(word, 0, depth + 1, finalFreq, mDicTypeId,
+                                DataType.UNIGRAM);
+                    }
+                    if (children != CompactTrie.NO_NODE) {
+                        getWordsRec(trie, children, codes, word, depth + 1, true,
+                                snr * addedAttenuation, inputIndex + 1, skipPos, callback);
+                    }
+                }
+                if (children != CompactTrie.NO_NODE) {
+                    frontier.add(node, depth + 1, snr * addedAttenuation);
+                }
+            }
         }
     }
 
@@ -207,6 +362,7 @@ public class ExpandableDictionary extends Dictionary {
             if (mRequiresReload) startDictionaryLoadingTaskLocked();
             if (mUpdatingDictionary) return false;
         }
+        applyPendingDelta();
         final int freq = getWordFrequency(word);
         return freq > -1;
     }
@@ -215,8 +371,9 @@ public class ExpandableDictionary extends Dictionary {
      * Returns the word's frequency or -1 if not found
      */
     public int getWordFrequency(CharSequence word) {
-        Node node = searchNode(mRoots, word, 0, word.length());
-        return (node == null) ? -1 : node.frequency;
+        final CompactTrie trie = mTrie;
+        final int node = trie.findWord(word);
+        return (node == CompactTrie.NO_NODE) ? -1 : trie.frequencies[node];
     }
 
     /**
@@ -225,7 +382,8 @@ public class ExpandableDictionary extends Dictionary {
      * character is actually an array of multiple possible candidates. This function is not
      * optimized for speed, assuming that the user dictionary will only be a few hundred words in
      * size.
-     * @param roots node whose children have to be search for matches
+     * @param trie the trie being searched
+     * @param roots first node of the sibling list that has to be searched for matches
      * @param codes the input character codes
      * @param word the word being composed as a possible match
      * @param depth the depth of traversal - the length of the word being composed thus far
@@ -238,10 +396,9 @@ public class ExpandableDictionary extends Dictionary {
      * inputIndex
      * @param callback the callback class for adding a word
      */
-    protected void getWordsRec(NodeArray roots, final WordComposer codes, final char[] word, 
-            final int depth, boolean completion, int snr, int inputIndex, int skipPos,
-            WordCallback callback) {
-        final int count = roots.length;
+    protected void getWordsRec(final CompactTrie trie, final int roots, final WordComposer codes,
+            final char[] word, final int depth, boolean completion, int snr, int inputIndex,
+            int skipPos, WordCallback callback) {
         final int codeSize = mInputLength;
         // Optimization: Prune out words that are too long compared to how much was typed.
         if (depth > mMaxDepth) {
@@ -254,13 +411,18 @@ public class ExpandableDictionary extends Dictionary {
             currentChars = mCodes[inputIndex];
         }
 
-        for (int i = 0; i < count; i++) {
-            final Node node = roots.data[i];
-            final char c = node.code;
+        final char[] nodeCodes = trie.codes;
+        final boolean[] nodeTerminals = trie.terminals;
+        final int[] nodeFirstChildren = trie.firstChildren;
+        final int[] nodeNextSiblings = trie.nextSiblings;
+        final int[] nodeFrequencies = trie.frequencies;
+
+        for (int node = roots; node != CompactTrie.NO_NODE; node = nodeNextSiblings[node]) {
+            final char c = nodeCodes[node];
             final char lowerC = toLowerCase(c);
-            final boolean terminal = node.terminal;
-            final NodeArray children = node.children;
-            final int freq = node.frequency;
+            final boolean terminal = nodeTerminals[node];
+            final int children = nodeFirstChildren[node];
+            final int freq = nodeFrequencies[node];
             if (completion) {
                 word[depth] = c;
                 if (terminal) {
@@ -274,15 +436,15 @@ public class ExpandableDictionary extends Dictionary {
                         mNextLettersFrequencies[word[inputIndex]]++;
                     }
                 }
-                if (children != null) {
-                    getWordsRec(children, codes, word, depth + 1, completion, snr, inputIndex,
+                if (children != CompactTrie.NO_NODE) {
+                    getWordsRec(trie, children, codes, word, depth + 1, completion, snr, inputIndex,
                             skipPos, callback);
                 }
             } else if ((c == QUOTE && currentChars[0] != QUOTE) || depth == skipPos) {
                 // Skip the ' and continue deeper
                 word[depth] = c;
-                if (children != null) {
-                    getWordsRec(children, codes, word, depth + 1, completion, snr, inputIndex, 
+                if (children != CompactTrie.NO_NODE) {
+                    getWordsRec(trie, children, codes, word, depth + 1, completion, snr, inputIndex, 
                             skipPos, callback);
                 }
             } else {
@@ -307,13 +469,13 @@ public class ExpandableDictionary extends Dictionary {
                                             DataType.UNIGRAM);
                                 }
                             }
-                            if (children != null) {
-                                getWordsRec(children, codes, word, depth + 1,
+                            if (children != CompactTrie.NO_NODE) {
+                                getWordsRec(trie, children, codes, word, depth + 1,
                                         true, snr * addedAttenuation, inputIndex + 1,
                                         skipPos, callback);
                             }
-                        } else if (children != null) {
-                            getWordsRec(children, codes, word, depth + 1, 
+                        } else if (children != CompactTrie.NO_NODE) {
+                            getWordsRec(trie, children, codes, word, depth + 1, 
                                     false, snr * addedAttenuation, inputIndex + 1,
                                     skipPos, callback);
                         }
@@ -331,6 +493,15 @@ public class ExpandableDictionary extends Dictionary {
         return addOrSetBigram(word1, word2, frequency, true);
     }
 
+    protected void removeBigram(String word1, String word2) {
+        final CompactTrie trie = mTrie;
+        final int firstWord = trie.findWord(word1);
+        final int secondWord = trie.findWord(word2);
+        if (firstWord != CompactTrie.NO_NODE && secondWord != CompactTrie.NO_NODE) {
+            trie.removeBigram(firstWord, secondWord);
+        }
+    }
+
     /**
      * Adds bigrams to the in-memory trie structure that is being used to retrieve any word
      * @param frequency frequency for this bigrams
@@ -338,62 +509,10 @@ public class ExpandableDictionary extends Dictionary {
      * @return returns the final frequency
      */
     private int addOrSetBigram(String word1, String word2, int frequency, boolean addFrequency) {
-        Node firstWord = searchWord(mRoots, word1, 0, null);
-        Node secondWord = searchWord(mRoots, word2, 0, null);
-        LinkedList<NextWord> bigram = firstWord.ngrams;
-        if (bigram == null || bigram.size() == 0) {
-            firstWord.ngrams = new LinkedList<NextWord>();
-            bigram = firstWord.ngrams;
-        } else {
-            for (NextWord nw : bigram) {
-                if (nw.word == secondWord) {
-                    if (addFrequency) {
-                        nw.frequency += frequency;
-                    } else {
-                        nw.frequency = frequency;
-                    }
-                    return nw.frequency;
-                }
-            }
-        }
-        NextWord nw = new NextWord(secondWord, frequency);
-        firstWord.ngrams.add(nw);
-        return frequency;
-    }
-
-    /**
-     * Searches for the word and add the word if it does not exist.
-     * @return Returns the terminal node of the word we are searching for.
-     */
-    private Node searchWord(NodeArray children, String word, int depth, Node parentNode) {
-        final int wordLength = word.length();
-        final char c = word.charAt(depth);
-        // Does children have the current character?
-        final int childrenLength = children.length;
-        Node childNode = null;
-        boolean found = false;
-        for (int i = 0; i < childrenLength; i++) {
-            childNode = children.data[i];
-            if (childNode.code == c) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            childNode = new Node();
-            childNode.code = c;
-            childNode.parent = parentNode;
-            children.add(childNode);
-        }
-        if (wordLength == depth + 1) {
-            // Terminate this word
-            childNode.terminal = true;
-            return childNode;
-        }
-        if (childNode.children == null) {
-            childNode.children = new NodeArray();
-        }
-        return searchWord(childNode.children, word, depth + 1, childNode);
+        final CompactTrie trie = mTrie;
+        final int firstWord = trie.addWord(word1);
+        final int secondWord = trie.addWord(word2);
+        return trie.addOrSetBigram(firstWord, secondWord, frequency, addFrequency);
     }
 
     // @VisibleForTesting
@@ -407,9 +526,10 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     private void runReverseLookUp(final CharSequence previousWord, final WordCallback callback) {
-        Node prevWord = searchNode(mRoots, previousWord, 0, previousWord.length());
-        if (prevWord != null && prevWord.ngrams != null) {
-            reverseLookUp(prevWord.ngrams, callback);
+        final CompactTrie trie = mTrie;
+        final int prevWord = trie.findWord(previousWord);
+        if (prevWord != CompactTrie.NO_NODE) {
+            reverseLookUp(trie, trie.bigramHeads[prevWord], callback);
         }
     }
 
@@ -417,6 +537,7 @@ public class ExpandableDictionary extends Dictionary {
     public void getBigrams(final WordComposer codes, final CharSequence previousWord,
             final WordCallback callback, int[] nextLettersFrequencies) {
         if (!reloadDictionaryIfRequired()) {
+            applyPendingDelta();
             runReverseLookUp(previousWord, callback);
         }
     }
@@ -426,7 +547,7 @@ public class ExpandableDictionary extends Dictionary {
      * This function will wait for loading from database to be done
      */
     void waitForDictionaryLoading() {
-        while (mUpdatingDictionary) {
+        while (mUpdatingDictionary || mUpdatingDelta) {
             try {
                 Thread.sleep(100);
             } catch (InterruptedException e) {
@@ -437,65 +558,202 @@ public class ExpandableDictionary extends Dictionary {
     /**
      * reverseLookUp retrieves the full word given a list of terminal nodes and adds those words
      * through callback.
-     * @param terminalNodes list of terminal nodes we want to add
+     * @param trie the trie that holds the bigram list
+     * @param bigram first entry of the bigram list we want to add
      */
-    private void reverseLookUp(LinkedList<NextWord> terminalNodes,
+    private void reverseLookUp(final CompactTrie trie, final int bigram,
             final WordCallback callback) {
-        Node node;
-        int freq;
-        for (NextWord nextWord : terminalNodes) {
-            node = nextWord.word;
-            freq = nextWord.frequency;
+        for (int i = bigram; i != CompactTrie.NO_NODE; i = trie.bigramNexts[i]) {
+            final int freq = trie.bigramFrequencies[i];
+            final int node = trie.bigramTargets[i];
             // TODO Not the best way to limit suggestion threshold
-            if (freq >= UserBigramDictionary.SUGGEST_THRESHOLD) {
-                sb.setLength(0);
-                do {
-                    sb.insert(0, node.code);
-                    node = node.parent;
-                } while(node != null);
-
-                // TODO better way to feed char array?
-                callback.addWord(sb.toString().toCharArray(), 0, sb.length(), freq, mDicTypeId,
+            // Also skip bigrams to words that have been removed.
+            if (freq >= UserBigramDictionary.SUGGEST_THRESHOLD && trie.terminals[node]) {
+                final int length = trie.getDepth(node);
+                if (mReverseWordBuilder.length < length) {
+                    mReverseWordBuilder = new char[length];
+                }
+                trie.getWord(node, mReverseWordBuilder, length);
+                callback.addWord(mReverseWordBuilder, 0, length, freq, mDicTypeId,
                         DataType.BIGRAM);
             }
         }
     }
 
+    protected void clearDictionary() {
+        mTrie = new CompactTrie();
+    }
+
     /**
-     * Search for the terminal node of the word
-     * @return Returns the terminal node of the word if the word exists
+     * Applies the changes computed by the last {@link LoadDeltaTask}. This runs
+     * on the thread doing the lookup, so the trie is only modified by threads
+     * that already serialize their access to it.
      */
-    private Node searchNode(final NodeArray children, final CharSequence word, final int offset,
-            final int length) {
-        // TODO Consider combining with addWordRec
-        final int count = children.length;
-        char currentChar = word.charAt(offset);
-        for (int j = 0; j < count; j++) {
-            final Node node = children.data[j];
-            if (node.code == currentChar) {
-                if (offset == length - 1) {
-                    if (node.terminal) {
-                        return node;
-                    }
-                } else {
-                    if (node.children != null) {
-                        Node returnNode = searchNode(node.children, word, offset + 1, length);
-                        if (returnNode != null) return returnNode;
-                    }
+    private void applyPendingDelta() {
+        final Delta delta;
+        synchronized (mUpdatingLock) {
+            delta = mPendingDelta;
+            mPendingDelta = null;
+        }
+        if (delta != null) {
+            delta.apply(this);
+        }
+    }
+
+    /**
+     * A list of word and bigram changes, recorded on a background thread and
+     * applied to the trie in order.
+     */
+    protected static class Delta {
+        private static final int SET_WORD = 0;
+        private static final int REMOVE_WORD = 1;
+        private static final int SET_BIGRAM = 2;
+        private static final int REMOVE_BIGRAM = 3;
+
+        private final ArrayList<Change> mChanges = new ArrayList<Change>();
+
+        /** Adds the word if needed and sets its frequency. */
+        public void setWord(String word, int frequency) {
+            mChanges.add(new Change(SET_WORD, word, null, frequency));
+        }
+
+        public void removeWord(String word) {
+            mChanges.add(new Change(REMOVE_WORD, word, null, 0));
+        }
+
+        public void setBigram(String word1, String word2, int frequency) {
+            mChanges.add(new Change(SET_BIGRAM, word1, word2, frequency));
+        }
+
+        public void removeBigram(String word1, String word2) {
+            mChanges.add(new Change(REMOVE_BIGRAM, word1, word2, 0));
+        }
+
+        public boolean isEmpty() {
+            return mChanges.isEmpty();
+        }
+
+        private void append(Delta delta) {
+            mChanges.addAll(delta.mChanges);
+        }
+
+        private void apply(ExpandableDictionary dictionary) {
+            final int size = mChanges.size();
+            for (int i = 0; i < size; i++) {
+                final Change change = mChanges.get(i);
+                switch (change.type) {
+                    case SET_WORD:
+                        dictionary.setWordFrequency(change.word1, change.frequency);
+                        break;
+                    case REMOVE_WORD:
+                        dictionary.removeWord(change.word1);
+                        break;
+                    case SET_BIGRAM:
+                        dictionary.setBigram(change.word1, change.word2, change.frequency);
+                        break;
+                    case REMOVE_BIGRAM:
+                        dictionary.removeBigram(change.word1, change.word2);
+                        break;
                 }
             }
         }
-        return null;
+
+        private static class Change {
+            final int type;
+            final String word1;
+            final String word2;
+            final int frequency;
+
+            Change(int type, String word1, String word2, int frequency) {
+                this.type = type;
+                this.word1 = word1;
+                this.word2 = word2;
+                this.frequency = frequency;
+            }
+        }
     }
 
-    protected void clearDictionary() {
-        mRoots = new NodeArray();
+    /**
+     * Search states for one pass of getWords, grouped by the number of input
+     * positions that have been matched. Each state is the parent of a sibling
+     * list that still has to be matched, with the depth and weight it was
+     * reached with. Level 0 holds only the root.
+     */
+    private static class SearchFrontier {
+        /** Frontiers larger than this are not kept between calls. */
+        static final int MAX_STATES = 4096;
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        int[] parents = new int[INITIAL_CAPACITY];
+        int[] depths = new int[INITIAL_CAPACITY];
+        int[] snrs = new int[INITIAL_CAPACITY];
+        int size;
+
+        /** Level k holds the states from levelStarts[k] to levelStarts[k + 1]. */
+        final int[] levelStarts = new int[MAX_WORD_LENGTH + 2];
+        int levelCount;
+
+        SearchFrontier() {
+            clear();
+        }
+
+        void clear() {
+            if (parents.length > INITIAL_CAPACITY) {
+                parents = new int[INITIAL_CAPACITY];
+                depths = new int[INITIAL_CAPACITY];
+                snrs = new int[INITIAL_CAPACITY];
+            }
+            size = 0;
+            add(CompactTrie.ROOT, 0, 1);
+            levelStarts[0] = 0;
+            levelStarts[1] = size;
+            levelCount = 1;
+        }
+
+        /** Discards all but the first {@code levels} levels. */
+        void truncate(int levels) {
+            if (levels < 1) {
+                clear();
+                return;
+            }
+            levelCount = levels;
+            size = levelStarts[levels];
+        }
+
+        void add(int parent, int depth, int snr) {
+            if (size == parents.length) {
+                final int capacity = size * 2;
+                final int[] newParents = new int[capacity];
+                final int[] newDepths = new int[capacity];
+                final int[] newSnrs = new int[capacity];
+                System.arraycopy(parents, 0, newParents, 0, size);
+                System.arraycopy(depths, 0, newDepths, 0, size);
+                System.arraycopy(snrs, 0, newSnrs, 0, size);
+                parents = newParents;
+                depths = newDepths;
+                snrs = newSnrs;
+            }
+            parents[size] = parent;
+            depths[size] = depth;
+            snrs[size] = snr;
+            size++;
+        }
+    }
+
+    /**
+     * Replaces the trie with a compacted copy. Called after the dictionary is
+     * (re)loaded, while lookups are disabled.
+     */
+    private void compactDictionary() {
+        mTrie = mTrie.compact();
     }
 
     private class LoadDictionaryTask extends AsyncTask<Void, Void, Void> {
         @Override
         protected Void doInBackground(Void... v) {
             loadDictionaryAsync();
+            compactDictionary();
             synchronized (mUpdatingLock) {
                 mUpdatingDictionary = false;
             }
@@ -503,6 +761,24 @@ public class ExpandableDictionary extends Dictionary {
         }
     }
 
+    private class LoadDeltaTask extends AsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... v) {
+            final Delta delta = loadDeltaAsync();
+            synchronized (mUpdatingLock) {
+                if (delta != null && !delta.isEmpty()) {
+                    if (mPendingDelta == null) {
+                        mPendingDelta = delta;
+                    } else {
+                        mPendingDelta.append(delta);
+                    }
+                }
+                mUpdatingDelta = false;
+            }
+            return null;
+        }
+    }
+
     static char toLowerCase(char c) {
         if (c < BASE_CHARS.length) {
             c = BASE_CHARS[c];
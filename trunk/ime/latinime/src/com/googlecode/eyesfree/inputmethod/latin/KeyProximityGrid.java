@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+import android.inputmethodservice.Keyboard;
+import android.inputmethodservice.Keyboard.Key;
+
+/**
+ * Divides a keyboard into a grid of cells and lists, for each cell, the keys
+ * that a touch point inside the cell can hit or be close to. Used by
+ * {@link ProximityKeyDetector} so that a lookup only visits a handful of keys
+ * regardless of the size of the keyboard.
+ * <p>
+ * The lists are computed once per keyboard, proximity threshold and
+ * proximity correction setting. Each list is a superset of the keys that can
+ * match: keys are included if a point in the cell can be within the proximity
+ * threshold of the key's center, or if a point in the cell can be inside the
+ * key. Since {@link LatinKeyboard} widens the hit area of some keys, the
+ * bounds used for the second test are generously enlarged. Keys in a cell
+ * appear in increasing index order, matching a scan of the whole keyboard.
+ * </p>
+ * <p>
+ * Touch points outside the keyboard are mapped to the nearest cell. This
+ * cell holds every key close enough to such a point, because no key center is
+ * closer to the point than to its projection onto the keyboard.
+ * </p>
+ */
+class KeyProximityGrid {
+    private static final int GRID_WIDTH = 32;
+    private static final int GRID_HEIGHT = 16;
+
+    /** The proximity threshold that the lists were computed for. */
+    final int proximityThresholdSquare;
+
+    /** The proximity correction setting that the lists were computed for. */
+    final boolean proximityCorrectOn;
+
+    /** Key indices of all cells, stored one cell after the other. */
+    final int[] cellKeys;
+
+    private final int mCellWidth;
+    private final int mCellHeight;
+
+    /** The keys of cell i are at cellKeys[mCellStarts[i]] to cellKeys[mCellStarts[i + 1]]. */
+    private final int[] mCellStarts = new int[GRID_WIDTH * GRID_HEIGHT + 1];
+
+    KeyProximityGrid(Keyboard keyboard, Key[] keys, int proximityThresholdSquare,
+            boolean proximityCorrectOn) {
+        this.proximityThresholdSquare = proximityThresholdSquare;
+        this.proximityCorrectOn = proximityCorrectOn;
+
+        final int width = Math.max(1, keyboard.getMinWidth());
+        final int height = Math.max(1, keyboard.getHeight());
+        mCellWidth = (width + GRID_WIDTH - 1) / GRID_WIDTH;
+        mCellHeight = (height + GRID_HEIGHT - 1) / GRID_HEIGHT;
+
+        // First count the keys of each cell, then fill in the lists.
+        final int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        for (int i = 0; i < keys.length; i++) {
+            for (int cell = 0; cell < counts.length; cell++) {
+                if (isCandidate(keys[i], cell)) {
+                    counts[cell]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < counts.length; cell++) {
+            mCellStarts[cell + 1] = mCellStarts[cell] + counts[cell];
+            counts[cell] = mCellStarts[cell];
+        }
+        cellKeys = new int[mCellStarts[counts.length]];
+        for (int i = 0; i < keys.length; i++) {
+            for (int cell = 0; cell < counts.length; cell++) {
+                if (isCandidate(keys[i], cell)) {
+                    cellKeys[counts[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cell containing the touch point, or the nearest cell if the
+     *         point is outside the keyboard
+     */
+    int getCell(int x, int y) {
+        final int column = Math.max(0, Math.min(x / mCellWidth, GRID_WIDTH - 1));
+        final int row = Math.max(0, Math.min(y / mCellHeight, GRID_HEIGHT - 1));
+        return row * GRID_WIDTH + column;
+    }
+
+    /** @return the index in {@link #cellKeys} of the first key of the cell */
+    int getCellStart(int cell) {
+        return mCellStarts[cell];
+    }
+
+    /** @return the index in {@link #cellKeys} after the last key of the cell */
+    int getCellEnd(int cell) {
+        return mCellStarts[cell + 1];
+    }
+
+    private boolean isCandidate(Key key, int cell) {
+        final int column = cell % GRID_WIDTH;
+        final int row = cell / GRID_WIDTH;
+        final int left = column * mCellWidth;
+        final int top = row * mCellHeight;
+        final int right = left + mCellWidth;
+        final int bottom = top + mCellHeight;
+
+        // The bounds used for hit testing, enlarged by a key width horizontally
+        // and half a key height vertically. Edge keys also catch touches
+        // beyond the edge of the keyboard.
+        final int edgeFlags = key.edgeFlags;
+        final int keyLeft = ((edgeFlags & Keyboard.EDGE_LEFT) != 0)
+                ? Integer.MIN_VALUE : key.x - key.width;
+        final int keyRight = ((edgeFlags & Keyboard.EDGE_RIGHT) != 0)
+                ? Integer.MAX_VALUE : key.x + 2 * key.width;
+        final int keyTop = ((edgeFlags & Keyboard.EDGE_TOP) != 0)
+                ? Integer.MIN_VALUE : key.y - key.height / 2;
+        final int keyBottom = ((edgeFlags & Keyboard.EDGE_BOTTOM) != 0)
+                ? Integer.MAX_VALUE : key.y + key.height + key.height / 2;
+        if (keyLeft < right && keyRight > left && keyTop < bottom && keyBottom > top) {
+            return true;
+        }
+
+        if (!proximityCorrectOn) {
+            return false;
+        }
+
+        // Distance from the key's center to the nearest point of the cell. The
+        // cell is grown by half a key height to allow for keys that measure
+        // from a slightly different center, such as LatinKeyboard's keys.
+        final int slack = key.height / 2;
+        final int centerX = key.x + key.width / 2;
+        final int centerY = key.y + key.height / 2;
+        final long dx = Math.max(0, Math.max(left - slack - centerX, centerX - right - slack));
+        final long dy = Math.max(0, Math.max(top - slack - centerY, centerY - bottom - slack));
+        return dx * dx + dy * dy < proximityThresholdSquare;
+    }
+}
@@ -258,6 +258,8 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
     private LinearLayout mCandidateViewContainer;
     private CandidateView mCandidateView;
     private Suggest mSuggest;
+
+    private SuggestionWorker mSuggestionWorker;
     private CompletionInfo[] mCompletions;
 
     private AlertDialog mOptionsDialog;
@@ -512,6 +514,8 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
         mReCorrectionEnabled = prefs.getBoolean(PREF_RECORRECTION_ENABLED, getResources()
                 .getBoolean(R.bool.default_recorrection_enabled));
 
+        mSuggestionWorker = new SuggestionWorker(mSuggestionListener);
+
         LatinIMEUtil.GCUtils.getInstance().reset();
         boolean tryGC = true;
         for (int i = 0; i < LatinIMEUtil.GCUtils.GC_TRY_LOOP_MAX && tryGC; ++i) {
@@ -622,6 +626,7 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
         conf.locale = new Locale(locale);
         orig.updateConfiguration(conf, orig.getDisplayMetrics());
         if (mSuggest != null) {
+            mSuggestionWorker.cancel();
             mSuggest.close();
         }
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
@@ -658,6 +663,8 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
 
     @Override
     public void onDestroy() {
+        mSuggestionWorker.quit();
+
         if (mUserDictionary != null) {
             mUserDictionary.close();
         }
@@ -959,6 +966,7 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
         // Remove pending messages related to update suggestions
         mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
         mHandler.removeMessages(MSG_UPDATE_OLD_SUGGESTIONS);
+        mSuggestionWorker.cancel();
 
         // If auto-switch is on and we're in auto-switched mode, then restore
         // the previous forced mode.
@@ -1433,7 +1441,9 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
     }
 
     public boolean addWordToDictionary(String word) {
-        mUserDictionary.addWord(word, 128);
+        synchronized (mSuggest) {
+            mUserDictionary.addWord(word, 128);
+        }
         // Suggestion strip should be updated after the operation of adding word
         // to the
         // user dictionary
@@ -1761,6 +1771,7 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
 
     private void postUpdateSuggestions() {
         mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
+        mSuggestionWorker.cancel();
         mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_UPDATE_SUGGESTIONS), 100);
     }
 
@@ -1986,6 +1997,16 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
     }
 
     private void updateSuggestions() {
+        updateSuggestions(true);
+    }
+
+    /**
+     * Updates the candidate strip for the current state.
+     *
+     * @param async whether suggestions for the word being typed should be
+     *            computed on the suggestion worker thread
+     */
+    private void updateSuggestions(boolean async) {
         LatinKeyboardView inputView = mKeyboardSwitcher.getInputView();
         if (inputView == null || inputView.getKeyboard() == null) {
             return;
@@ -2001,13 +2022,19 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
             setNextSuggestions();
             return;
         }
-        showSuggestions(mWord);
+        if (async) {
+            requestSuggestions(mWord);
+        } else {
+            showSuggestions(mWord);
+        }
     }
 
     private List<CharSequence> getTypedSuggestions(WordComposer word) {
-        List<CharSequence> stringList = mSuggest.getSuggestions(mKeyboardSwitcher.getInputView(),
-                word, false, null);
-        return stringList;
+        synchronized (mSuggest) {
+            List<CharSequence> stringList = mSuggest.getSuggestions(
+                    mKeyboardSwitcher.getInputView(), word, false, null);
+            return SuggestionWorker.copySuggestions(stringList);
+        }
     }
 
     private void showCorrections(WordAlternatives alternatives) {
@@ -2016,37 +2043,64 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
         showSuggestions(stringList, alternatives.getOriginalWord(), false, false);
     }
 
+    /**
+     * Computes suggestions for a word on the suggestion worker thread. The
+     * result is shown by {@link #mSuggestionListener} unless a newer request is
+     * made first.
+     */
+    private void requestSuggestions(WordComposer word) {
+        // TODO Maybe need better way of retrieving previous word
+        CharSequence prevWord = EditingUtil.getPreviousWord(getCurrentInputConnection(),
+                mWordSeparators);
+        mSuggestionWorker.request(mSuggest, mKeyboardSwitcher.getInputView(), word, prevWord);
+    }
+
+    private final SuggestionWorker.Listener mSuggestionListener = new SuggestionWorker.Listener() {
+        @Override
+        public void onSuggestionsReady(SuggestionWorker.Result result) {
+            // Drop results for a word that is no longer being typed.
+            if (!mPredicting || !TextUtils.equals(result.typedWord, mWord.getTypedWord())) {
+                return;
+            }
+            final LatinKeyboardView inputView = mKeyboardSwitcher.getInputView();
+            if (inputView == null || inputView.getKeyboard() == null) {
+                return;
+            }
+            showSuggestions(result, mWord.getTypedWord());
+        }
+    };
+
     private void showSuggestions(WordComposer word) {
         // long startTime = System.currentTimeMillis(); // TIME MEASUREMENT!
         // TODO Maybe need better way of retrieving previous word
         CharSequence prevWord = EditingUtil.getPreviousWord(getCurrentInputConnection(),
                 mWordSeparators);
-        List<CharSequence> stringList = mSuggest.getSuggestions(mKeyboardSwitcher.getInputView(),
-                word, false, prevWord);
+        SuggestionWorker.Result result = SuggestionWorker.compute(mSuggest,
+                mKeyboardSwitcher.getInputView(), word, prevWord);
         // long stopTime = System.currentTimeMillis(); // TIME MEASUREMENT!
         // Log.d("LatinIME","Suggest Total Time - " + (stopTime - startTime));
 
-        int[] nextLettersFrequencies = mSuggest.getNextLettersFrequencies();
+        showSuggestions(result, word.getTypedWord());
+    }
 
+    private void showSuggestions(SuggestionWorker.Result result, CharSequence typedWord) {
         ((LatinKeyboard) mKeyboardSwitcher.getInputView().getKeyboard())
-                .setPreferredLetters(nextLettersFrequencies);
+                .setPreferredLetters(result.nextLettersFrequencies);
 
-        boolean correctionAvailable = !mInputTypeNoAutoCorrect && mSuggest.hasMinimalCorrection();
+        boolean correctionAvailable = !mInputTypeNoAutoCorrect && result.hasMinimalCorrection;
         // || mCorrectionMode == mSuggest.CORRECTION_FULL;
-        CharSequence typedWord = word.getTypedWord();
         // If we're in basic correct
-        boolean typedWordValid = mSuggest.isValidWord(typedWord)
-                || (preferCapitalization() && mSuggest.isValidWord(typedWord.toString()
-                        .toLowerCase()));
+        boolean typedWordValid = result.typedWordValid
+                || (preferCapitalization() && result.lowerCaseTypedWordValid);
         if (mCorrectionMode == Suggest.CORRECTION_FULL
                 || mCorrectionMode == Suggest.CORRECTION_FULL_BIGRAM) {
             correctionAvailable |= typedWordValid;
         }
         // Don't auto-correct words with multiple capital letter
-        correctionAvailable &= !word.isMostlyCaps();
+        correctionAvailable &= !result.word.isMostlyCaps();
         correctionAvailable &= !TextEntryState.isCorrecting();
 
-        showSuggestions(stringList, typedWord, typedWordValid, correctionAvailable);
+        showSuggestions(result.suggestions, typedWord, typedWordValid, correctionAvailable);
     }
 
     private void showSuggestions(List<CharSequence> stringList, CharSequence typedWord,
@@ -2066,9 +2120,10 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
 
     private boolean pickDefaultSuggestion() {
         // Complete any pending candidate query first
-        if (mHandler.hasMessages(MSG_UPDATE_SUGGESTIONS)) {
+        if (mHandler.hasMessages(MSG_UPDATE_SUGGESTIONS) || mSuggestionWorker.isPending()) {
             mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
-            updateSuggestions();
+            mSuggestionWorker.cancel();
+            updateSuggestions(false);
         }
         if (mBestWord != null && mBestWord.length() > 0) {
             TextEntryState.acceptedDefault(mWord.getTypedWord(), mBestWord);
@@ -2370,18 +2425,22 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
             return;
         }
         if (suggestion != null) {
-            if (!addToBigramDictionary
-                    && mAutoDictionary.isValidWord(suggestion)
-                    || (!mSuggest.isValidWord(suggestion.toString()) && !mSuggest
-                            .isValidWord(suggestion.toString().toLowerCase()))) {
-                mAutoDictionary.addWord(suggestion.toString(), frequencyDelta);
-            }
-
-            if (mUserBigramDictionary != null) {
-                CharSequence prevWord = EditingUtil.getPreviousWord(getCurrentInputConnection(),
-                        mSentenceSeparators);
-                if (!TextUtils.isEmpty(prevWord)) {
-                    mUserBigramDictionary.addBigrams(prevWord.toString(), suggestion.toString());
+            // The suggestion worker may be reading these dictionaries.
+            synchronized (mSuggest) {
+                if (!addToBigramDictionary
+                        && mAutoDictionary.isValidWord(suggestion)
+                        || (!mSuggest.isValidWord(suggestion.toString()) && !mSuggest
+                                .isValidWord(suggestion.toString().toLowerCase()))) {
+                    mAutoDictionary.addWord(suggestion.toString(), frequencyDelta);
+                }
+
+                if (mUserBigramDictionary != null) {
+                    CharSequence prevWord = EditingUtil.getPreviousWord(
+                            getCurrentInputConnection(), mSentenceSeparators);
+                    if (!TextUtils.isEmpty(prevWord)) {
+                        mUserBigramDictionary.addBigrams(prevWord.toString(),
+                                suggestion.toString());
+                    }
                 }
             }
         }
@@ -2595,9 +2654,11 @@ public class LatinIME extends PersistentInputMethodService implements VoiceInput
     }
 
     /* package */void promoteToUserDictionary(String word, int frequency) {
-        if (mUserDictionary.isValidWord(word))
-            return;
-        mUserDictionary.addWord(word, frequency);
+        synchronized (mSuggest) {
+            if (mUserDictionary.isValidWord(word))
+                return;
+            mUserDictionary.addWord(word, frequency);
+        }
     }
 
     /* package */WordComposer getCurrentWord() {
@@ -16,9 +16,11 @@
 
 package com.googlecode.eyesfree.inputmethod.latin;
 
+import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.Keyboard.Key;
 
 import java.util.Arrays;
+import java.util.WeakHashMap;
 
 class ProximityKeyDetector extends KeyDetector {
     private static final int MAX_NEARBY_KEYS = 12;
@@ -26,6 +28,38 @@ class ProximityKeyDetector extends KeyDetector {
     // working area
     private int[] mDistances = new int[MAX_NEARBY_KEYS];
 
+    /**
+     * Proximity grids by keyboard, so that switching between keyboards, for
+     * example when shifting, doesn't rebuild them.
+     */
+    private final WeakHashMap<Keyboard, KeyProximityGrid> mGrids =
+            new WeakHashMap<Keyboard, KeyProximityGrid>();
+
+    private KeyProximityGrid mGrid;
+
+    @Override
+    public Key[] setKeyboard(Keyboard keyboard, float correctionX, float correctionY) {
+        final Key[] keys = super.setKeyboard(keyboard, correctionX, correctionY);
+        mGrid = mGrids.get(keyboard);
+        return keys;
+    }
+
+    /**
+     * Returns the grid for the current keyboard, rebuilding it if the
+     * proximity settings changed since it was computed.
+     */
+    private KeyProximityGrid getGrid() {
+        final KeyProximityGrid grid = mGrid;
+        if (grid != null && grid.proximityThresholdSquare == mProximityThresholdSquare
+                && grid.proximityCorrectOn == mProximityCorrectOn) {
+            return grid;
+        }
+        mGrid = new KeyProximityGrid(mKeyboard, getKeys(), mProximityThresholdSquare,
+                mProximityCorrectOn);
+        mGrids.put(mKeyboard, mGrid);
+        return mGrid;
+    }
+
     @Override
     protected int getMaxNearbyKeys() {
         return MAX_NEARBY_KEYS;
@@ -41,9 +75,24 @@ class ProximityKeyDetector extends KeyDetector {
         int closestKeyDist = mProximityThresholdSquare + 1;
         int[] distances = mDistances;
         Arrays.fill(distances, Integer.MAX_VALUE);
-        int [] nearestKeyIndices = mKeyboard.getNearestKeys(touchX, touchY);
-        final int keyCount = nearestKeyIndices.length;
-        for (int i = 0; i < keyCount; i++) {
+        final int[] nearestKeyIndices;
+        final int start;
+        final int end;
+        if (mKeyboard instanceof LatinKeyboard
+                && ((LatinKeyboard) mKeyboard).isCurrentlyInSpace()) {
+            // The keyboard restricts the nearest keys while the touch is
+            // locked into the spacebar.
+            nearestKeyIndices = mKeyboard.getNearestKeys(touchX, touchY);
+            start = 0;
+            end = nearestKeyIndices.length;
+        } else {
+            final KeyProximityGrid grid = getGrid();
+            final int cell = grid.getCell(touchX, touchY);
+            nearestKeyIndices = grid.cellKeys;
+            start = grid.getCellStart(cell);
+            end = grid.getCellEnd(cell);
+        }
+        for (int i = start; i < end; i++) {
             final Key key = keys[nearestKeyIndices[i]];
             int dist = 0;
             boolean isInside = key.isInside(touchX, touchY);
@@ -29,7 +29,9 @@ import java.util.List;
 
 /**
  * This class loads a dictionary and provides a list of suggestions for a given sequence of 
- * characters. This includes corrections and completions.
+ * characters. This includes corrections and completions. Suggestions may be
+ * computed on a background thread, so methods that use the dictionaries are
+ * synchronized on this object.
  * @hide pending API Council Approval
  */
 public class Suggest implements Dictionary.WordCallback {
@@ -218,7 +220,7 @@ public class Suggest implements Dictionary.WordCallback {
      * @param prevWordForBigram previous word (used only for bigram)
      * @return list of suggestions.
      */
-    public List<CharSequence> getSuggestions(View view, WordComposer wordComposer, 
+    public synchronized List<CharSequence> getSuggestions(View view, WordComposer wordComposer,
             boolean includeTypedWordIfValid, CharSequence prevWordForBigram) {
         LatinImeLogger.onStartSuggestion(prevWordForBigram);
         mHaveCorrection = false;
@@ -346,7 +348,7 @@ public class Suggest implements Dictionary.WordCallback {
         return mSuggestions;
     }
 
-    public int[] getNextLettersFrequencies() {
+    public synchronized int[] getNextLettersFrequencies() {
         return mNextLettersFrequencies;
     }
 
@@ -377,7 +379,7 @@ public class Suggest implements Dictionary.WordCallback {
         }
     }
 
-    public boolean hasMinimalCorrection() {
+    public synchronized boolean hasMinimalCorrection() {
         return mHaveCorrection;
     }
 
@@ -499,7 +501,7 @@ public class Suggest implements Dictionary.WordCallback {
         return -1;
     }
 
-    public boolean isValidWord(final CharSequence word) {
+    public synchronized boolean isValidWord(final CharSequence word) {
         if (word == null || word.length() == 0) {
             return false;
         }
@@ -526,7 +528,7 @@ public class Suggest implements Dictionary.WordCallback {
         suggestions.clear();
     }
 
-    public void close() {
+    public synchronized void close() {
         if (mMainDict != null) {
             mMainDict.close();
         }
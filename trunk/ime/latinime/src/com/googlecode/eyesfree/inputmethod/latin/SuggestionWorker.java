@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes suggestions on a background thread so that slow dictionaries don't
+ * delay key echo. Each request is tagged with a generation number, and a
+ * request is dropped, either before it runs or before its result is
+ * delivered, once a newer request is made or {@link #cancel()} is called.
+ * <p>
+ * Access to the {@link Suggest} instance and its dictionaries is serialized by
+ * synchronizing on the {@link Suggest} instance. Code that modifies the
+ * dictionaries from another thread must hold the same lock.
+ * </p>
+ */
+class SuggestionWorker {
+    /** Receives results on the thread that created the worker. */
+    interface Listener {
+        void onSuggestionsReady(Result result);
+    }
+
+    /** Suggestions computed for a single word, copied out of {@link Suggest}. */
+    static class Result {
+        final WordComposer word;
+        final CharSequence typedWord;
+        final List<CharSequence> suggestions;
+        final int[] nextLettersFrequencies;
+        final boolean hasMinimalCorrection;
+        final boolean typedWordValid;
+        final boolean lowerCaseTypedWordValid;
+
+        private Result(WordComposer word, List<CharSequence> suggestions,
+                int[] nextLettersFrequencies, boolean hasMinimalCorrection,
+                boolean typedWordValid, boolean lowerCaseTypedWordValid) {
+            this.word = word;
+            this.typedWord = word.getTypedWord();
+            this.suggestions = suggestions;
+            this.nextLettersFrequencies = nextLettersFrequencies;
+            this.hasMinimalCorrection = hasMinimalCorrection;
+            this.typedWordValid = typedWordValid;
+            this.lowerCaseTypedWordValid = lowerCaseTypedWordValid;
+        }
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler();
+    private final Listener mListener;
+
+    /** The generation of the most recent request, incremented on cancel. */
+    private volatile int mGeneration;
+
+    /** Whether a request has been made whose result has not been delivered. */
+    private boolean mPending;
+
+    SuggestionWorker(Listener listener) {
+        mListener = listener;
+        mThread = new HandlerThread("SuggestionWorker", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Requests suggestions for a word. Any earlier request that has not been
+     * delivered yet is dropped. Must be called on the thread that created the
+     * worker.
+     *
+     * @param suggest the suggestion engine
+     * @param view a view for retrieving the context for AutoText
+     * @param word the word being typed; a copy is made
+     * @param prevWord the previous word, used for bigrams
+     */
+    void request(final Suggest suggest, final View view, WordComposer word,
+            final CharSequence prevWord) {
+        final int generation = ++mGeneration;
+        final WordComposer wordCopy = new WordComposer(word);
+        mPending = true;
+        mWorkerHandler.removeCallbacksAndMessages(null);
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Result result;
+                synchronized (suggest) {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                    result = compute(suggest, view, wordCopy, prevWord);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mPending = false;
+                        mListener.onSuggestionsReady(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return whether a request was made whose result has not been delivered
+     */
+    boolean isPending() {
+        return mPending;
+    }
+
+    /**
+     * Drops all requests that have not been delivered yet.
+     */
+    void cancel() {
+        mGeneration++;
+        mPending = false;
+        mWorkerHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Drops pending requests and stops the worker thread.
+     */
+    void quit() {
+        cancel();
+        mThread.quit();
+    }
+
+    /**
+     * Computes suggestions on the calling thread.
+     */
+    static Result compute(Suggest suggest, View view, WordComposer word, CharSequence prevWord) {
+        synchronized (suggest) {
+            final List<CharSequence> suggestions = copySuggestions(
+                    suggest.getSuggestions(view, word, false, prevWord));
+            final int[] nextLettersFrequencies = suggest.getNextLettersFrequencies().clone();
+            final CharSequence typedWord = word.getTypedWord();
+            final boolean typedWordValid = suggest.isValidWord(typedWord);
+            final boolean lowerCaseTypedWordValid = typedWordValid || (typedWord != null
+                    && suggest.isValidWord(typedWord.toString().toLowerCase()));
+            return new Result(word, suggestions, nextLettersFrequencies,
+                    suggest.hasMinimalCorrection(), typedWordValid, lowerCaseTypedWordValid);
+        }
+    }
+
+    /**
+     * Returns a copy of a suggestion list returned by {@link Suggest}, which
+     * reuses the list and its string builders on the next call.
+     */
+    static List<CharSequence> copySuggestions(List<CharSequence> suggestions) {
+        final int size = suggestions.size();
+        final ArrayList<CharSequence> copy = new ArrayList<CharSequence>(size);
+        for (int i = 0; i < size; i++) {
+            final CharSequence suggestion = suggestions.get(i);
+            copy.add(suggestion instanceof StringBuilder ? suggestion.toString() : suggestion);
+        }
+        return copy;
+    }
+}
@@ -16,19 +16,19 @@
 
 package com.googlecode.eyesfree.inputmethod.latin;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
-import android.os.AsyncTask;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 import android.util.Log;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.concurrent.Future;
 
 /**
  * Stores all the pairs user types in databases. Prune the database if the size
@@ -89,7 +89,12 @@ public class UserBigramDictionary extends ExpandableDictionary {
 
     private HashSet<Bigram> mPendingWrites = new HashSet<Bigram>();
     private final Object mPendingWritesLock = new Object();
-    private static volatile boolean sUpdatingDB = false;
+    private final WriteBehindQueue mWriteQueue = new WriteBehindQueue(new Runnable() {
+        @Override
+        public void run() {
+            writePendingBigrams();
+        }
+    });
 
     private final static HashMap<String, String> sDictProjectionMap;
 
@@ -186,28 +191,100 @@ public class UserBigramDictionary extends ExpandableDictionary {
 
     /**
      * Schedules a background thread to write any pending words to the database.
+     * @return a future that completes once the pending words are written
+     */
+    public Future<?> flushPendingWrites() {
+        return mWriteQueue.flush();
+    }
+
+    /** Used for testing purpose **/
+    void waitUntilUpdateDBDone() {
+        mWriteQueue.flushAndWait();
+    }
+
+    /**
+     * Writes pending pairs to the database in a single transaction so that it
+     * stays in sync with the in-memory trie. Called on the write-behind thread.
      */
-    public void flushPendingWrites() {
+    private void writePendingBigrams() {
+        final HashSet<Bigram> pendingWrites;
         synchronized (mPendingWritesLock) {
             // Nothing pending? Return
             if (mPendingWrites.isEmpty()) return;
-            // Create a background thread to write the pending entries
-            new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale).execute();
-            // Create a new map for writing new entries into while the old one is written to db
+            // Create a new set for writing new entries into while the old one is written to db
+            pendingWrites = mPendingWrites;
             mPendingWrites = new HashSet<Bigram>();
         }
-    }
 
-    /** Used for testing purpose **/
-    void waitUntilUpdateDBDone() {
-        synchronized (mPendingWritesLock) {
-            while (sUpdatingDB) {
+        final SQLiteDatabase db = sOpenHelper.getWritableDatabase();
+        // This has no effect inside a transaction.
+        db.execSQL("PRAGMA foreign_keys = ON;");
+        final SQLiteStatement findPair = db.compileStatement("SELECT " + MAIN_COLUMN_ID
+                + " FROM " + MAIN_TABLE_NAME + " WHERE " + MAIN_COLUMN_WORD1 + "=? AND "
+                + MAIN_COLUMN_WORD2 + "=? AND " + MAIN_COLUMN_LOCALE + "=?");
+        final SQLiteStatement insertPair = db.compileStatement("INSERT INTO " + MAIN_TABLE_NAME
+                + " (" + MAIN_COLUMN_WORD1 + "," + MAIN_COLUMN_WORD2 + ","
+                + MAIN_COLUMN_LOCALE + ") VALUES (?,?,?)");
+        final SQLiteStatement deleteFrequency = db.compileStatement("DELETE FROM "
+                + FREQ_TABLE_NAME + " WHERE " + FREQ_COLUMN_PAIR_ID + "=?");
+        final SQLiteStatement insertFrequency = db.compileStatement("INSERT INTO "
+                + FREQ_TABLE_NAME + " (" + FREQ_COLUMN_PAIR_ID + "," + FREQ_COLUMN_FREQUENCY
+                + ") VALUES (?,?)");
+        db.beginTransaction();
+        try {
+            for (Bigram bi : pendingWrites) {
+                // find pair id
+                findPair.bindString(1, bi.word1);
+                findPair.bindString(2, bi.word2);
+                findPair.bindString(3, mLocale);
+                long pairId;
                 try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
+                    // existing pair
+                    pairId = findPair.simpleQueryForLong();
+                    deleteFrequency.bindLong(1, pairId);
+                    deleteFrequency.execute();
+                } catch (SQLiteDoneException e) {
+                    // new pair
+                    insertPair.bindString(1, bi.word1);
+                    insertPair.bindString(2, bi.word2);
+                    insertPair.bindString(3, mLocale);
+                    pairId = insertPair.executeInsert();
                 }
+
+                // insert new frequency
+                insertFrequency.bindLong(1, pairId);
+                insertFrequency.bindLong(2, bi.frequency);
+                insertFrequency.executeInsert();
             }
-            return;
+            checkPruneData(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            findPair.close();
+            insertPair.close();
+            deleteFrequency.close();
+            insertFrequency.close();
+        }
+    }
+
+    /** Prune any old data if the database is getting too big. */
+    private static void checkPruneData(SQLiteDatabase db) {
+        final SQLiteStatement count = db.compileStatement("SELECT COUNT(*) FROM "
+                + FREQ_TABLE_NAME);
+        final long totalRowCount;
+        try {
+            totalRowCount = count.simpleQueryForLong();
+        } finally {
+            count.close();
+        }
+        // prune out old data if we have too much data
+        if (totalRowCount > sMaxUserBigrams) {
+            long numDeleteRows = (totalRowCount - sMaxUserBigrams) + sDeleteUserBigrams;
+            // Deleting from MAIN table will delete the frequencies
+            // due to FOREIGN KEY .. ON DELETE CASCADE
+            db.execSQL("DELETE FROM " + MAIN_TABLE_NAME + " WHERE " + MAIN_COLUMN_ID
+                    + " IN (SELECT " + FREQ_COLUMN_PAIR_ID + " FROM " + FREQ_TABLE_NAME
+                    + " ORDER BY " + FREQ_COLUMN_ID + " LIMIT " + numDeleteRows + ")");
         }
     }
 
@@ -294,108 +371,4 @@ public class UserBigramDictionary extends ExpandableDictionary {
             onCreate(db);
         }
     }
-
-    /**
-     * Async task to write pending words to the database so that it stays in sync with
-     * the in-memory trie.
-     */
-    private static class UpdateDbTask extends AsyncTask<Void, Void, Void> {
-        private final HashSet<Bigram> mMap;
-        private final DatabaseHelper mDbHelper;
-        private final String mLocale;
-
-        public UpdateDbTask(Context context, DatabaseHelper openHelper,
-                HashSet<Bigram> pendingWrites, String locale) {
-            mMap = pendingWrites;
-            mLocale = locale;
-            mDbHelper = openHelper;
-        }
-
-        /** Prune any old data if the database is getting too big. */
-        private void checkPruneData(SQLiteDatabase db) {
-            db.execSQL("PRAGMA foreign_keys = ON;");
-            Cursor c = db.query(FREQ_TABLE_NAME, new String[] { FREQ_COLUMN_PAIR_ID },
-                    null, null, null, null, null);
-            try {
-                int totalRowCount = c.getCount();
-                // prune out old data if we have too much data
-                if (totalRowCount > sMaxUserBigrams) {
-                    int numDeleteRows = (totalRowCount - sMaxUserBigrams) + sDeleteUserBigrams;
-                    int pairIdColumnId = c.getColumnIndex(FREQ_COLUMN_PAIR_ID);
-                    c.moveToFirst();
-                    int count = 0;
-                    while (count < numDeleteRows && !c.isAfterLast()) {
-                        String pairId = c.getString(pairIdColumnId);
-                        // Deleting from MAIN table will delete the frequencies
-                        // due to FOREIGN KEY .. ON DELETE CASCADE
-                        db.delete(MAIN_TABLE_NAME, MAIN_COLUMN_ID + "=?",
-                            new String[] { pairId });
-                        c.moveToNext();
-                        count++;
-                    }
-                }
-            } finally {
-                c.close();
-            }
-        }
-
-        @Override
-        protected void onPreExecute() {
-            sUpdatingDB = true;
-        }
-
-        @Override
-        protected Void doInBackground(Void... v) {
-            SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            db.execSQL("PRAGMA foreign_keys = ON;");
-            // Write all the entries to the db
-            Iterator<Bigram> iterator = mMap.iterator();
-            while (iterator.hasNext()) {
-                Bigram bi = iterator.next();
-
-                // find pair id
-                Cursor c = db.query(MAIN_TABLE_NAME, new String[] { MAIN_COLUMN_ID },
-                        MAIN_COLUMN_WORD1 + "=? AND " + MAIN_COLUMN_WORD2 + "=? AND "
-                        + MAIN_COLUMN_LOCALE + "=?",
-                        new String[] { bi.word1, bi.word2, mLocale }, null, null, null);
-
-                int pairId;
-                if (c.moveToFirst()) {
-                    // existing pair
-                    pairId = c.getInt(c.getColumnIndex(MAIN_COLUMN_ID));
-                    db.delete(FREQ_TABLE_NAME, FREQ_COLUMN_PAIR_ID + "=?",
-                            new String[] { Integer.toString(pairId) });
-                } else {
-                    // new pair
-                    Long pairIdLong = db.insert(MAIN_TABLE_NAME, null,
-                            getContentValues(bi.word1, bi.word2, mLocale));
-                    pairId = pairIdLong.intValue();
-                }
-                c.close();
-
-                // insert new frequency
-                db.insert(FREQ_TABLE_NAME, null, getFrequencyContentValues(pairId, bi.frequency));
-            }
-            checkPruneData(db);
-            sUpdatingDB = false;
-
-            return null;
-        }
-
-        private ContentValues getContentValues(String word1, String word2, String locale) {
-            ContentValues values = new ContentValues(3);
-            values.put(MAIN_COLUMN_WORD1, word1);
-            values.put(MAIN_COLUMN_WORD2, word2);
-            values.put(MAIN_COLUMN_LOCALE, locale);
-            return values;
-        }
-
-        private ContentValues getFrequencyContentValues(int pairId, int frequency) {
-           ContentValues values = new ContentValues(2);
-           values.put(FREQ_COLUMN_PAIR_ID, pairId);
-           values.put(FREQ_COLUMN_FREQUENCY, frequency);
-           return values;
-        }
-    }
-
 }
@@ -23,6 +23,11 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.provider.UserDictionary.Words;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
 public class UserDictionary extends ExpandableDictionary {
 
     private static final String[] PROJECTION = {
@@ -31,12 +36,19 @@ public class UserDictionary extends ExpandableDictionary {
         Words.FREQUENCY
     };
 
+    private static final int INDEX_ID = 0;
     private static final int INDEX_WORD = 1;
     private static final int INDEX_FREQUENCY = 2;
 
     private ContentObserver mObserver;
     private String mLocale;
 
+    /**
+     * Rows by id as of the last load, or null if the dictionary has not been
+     * loaded yet.
+     */
+    private volatile HashMap<Long, Row> mRows;
+
     public UserDictionary(Context context, String locale) {
         super(context, Suggest.DIC_USER);
         mLocale = locale;
@@ -71,6 +83,64 @@ public class UserDictionary extends ExpandableDictionary {
         addWords(cursor);
     }
 
+    @Override
+    protected boolean canLoadDelta() {
+        return mRows != null;
+    }
+
+    @Override
+    protected Delta loadDeltaAsync() {
+        Cursor cursor = getContext().getContentResolver()
+                .query(Words.CONTENT_URI, PROJECTION, "(locale IS NULL) or (locale=?)",
+                        new String[] { mLocale }, null);
+        if (cursor == null) {
+            return null;
+        }
+        final HashMap<Long, Row> rows = readRows(cursor);
+
+        // Collect the words of all rows that were added, removed or changed.
+        final LinkedHashSet<String> changedWords = new LinkedHashSet<String>();
+        for (Map.Entry<Long, Row> entry : mRows.entrySet()) {
+            final Row row = entry.getValue();
+            if (!row.equals(rows.get(entry.getKey()))) {
+                changedWords.add(row.word);
+            }
+        }
+        for (Map.Entry<Long, Row> entry : rows.entrySet()) {
+            final Row row = entry.getValue();
+            if (!row.equals(mRows.get(entry.getKey()))) {
+                changedWords.add(row.word);
+            }
+        }
+        mRows = rows;
+
+        final Delta delta = new Delta();
+        if (changedWords.isEmpty()) {
+            return delta;
+        }
+
+        // A word may appear in several rows, for example with different
+        // locales. As in a full load, it gets the highest frequency.
+        final HashMap<String, Integer> frequencies = new HashMap<String, Integer>();
+        for (Row row : rows.values()) {
+            if (changedWords.contains(row.word)) {
+                final Integer frequency = frequencies.get(row.word);
+                if (frequency == null || frequency < row.frequency) {
+                    frequencies.put(row.word, row.frequency);
+                }
+            }
+        }
+        for (String word : changedWords) {
+            final Integer frequency = frequencies.get(word);
+            if (frequency == null) {
+                delta.removeWord(word);
+            } else {
+                delta.setWord(word, frequency);
+            }
+        }
+        return delta;
+    }
+
     /**
      * Adds a word to the dictionary and makes it persistent.
      * @param word the word to add. If the word is capitalized, then the dictionary will
@@ -125,6 +195,19 @@ public class UserDictionary extends ExpandableDictionary {
 
         clearDictionary();
 
+        final HashMap<Long, Row> rows = readRows(cursor);
+        for (Row row : rows.values()) {
+            super.addWord(row.word, row.frequency);
+        }
+        mRows = rows;
+    }
+
+    /**
+     * Reads all rows and closes the cursor.
+     * @return the rows by id, in query order
+     */
+    private HashMap<Long, Row> readRows(Cursor cursor) {
+        final LinkedHashMap<Long, Row> rows = new LinkedHashMap<Long, Row>();
         final int maxWordLength = getMaxWordLength();
         if (cursor.moveToFirst()) {
             while (!cursor.isAfterLast()) {
@@ -133,11 +216,37 @@ public class UserDictionary extends ExpandableDictionary {
                 // Safeguard against adding really long words. Stack may overflow due
                 // to recursion
                 if (word.length() < maxWordLength) {
-                    super.addWord(word, frequency);
+                    rows.put(cursor.getLong(INDEX_ID), new Row(word, frequency));
                 }
                 cursor.moveToNext();
             }
         }
         cursor.close();
+        return rows;
+    }
+
+    /** A word and its frequency, as stored in the user dictionary provider. */
+    private static class Row {
+        final String word;
+        final int frequency;
+
+        Row(String word, int frequency) {
+            this.word = word;
+            this.frequency = frequency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            final Row row = (Row) o;
+            return frequency == row.frequency && word.equals(row.word);
+        }
+
+        @Override
+        public int hashCode() {
+            return word.hashCode() * 31 + frequency;
+        }
     }
 }
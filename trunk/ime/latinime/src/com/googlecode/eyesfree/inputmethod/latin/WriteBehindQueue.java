@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.inputmethod.latin;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Schedules database writes for a dictionary on a background thread shared by
+ * all dictionaries. Flushes requested while an earlier flush is still queued
+ * are coalesced into it, since the writer collects its pending entries when it
+ * runs rather than when it is scheduled.
+ */
+class WriteBehindQueue {
+    private static final String TAG = "WriteBehindQueue";
+
+    private static ExecutorService sExecutor;
+
+    private final Runnable mWriter;
+
+    /** The flush that has been scheduled but has not started yet. */
+    private Future<?> mQueuedFlush;
+
+    /**
+     * @param writer writes all pending entries; called on the background thread
+     */
+    WriteBehindQueue(Runnable writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * Schedules the writer to run, unless it is already scheduled and has not
+     * started yet.
+     *
+     * @return a future that completes once all entries pending at the time of
+     *         this call have been written
+     */
+    synchronized Future<?> flush() {
+        if (mQueuedFlush == null) {
+            mQueuedFlush = getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (WriteBehindQueue.this) {
+                        mQueuedFlush = null;
+                    }
+                    try {
+                        mWriter.run();
+                    } catch (RuntimeException e) {
+                        // The executor would otherwise hide the failure.
+                        Log.e(TAG, "Failed to write pending entries", e);
+                        throw e;
+                    }
+                }
+            });
+        }
+        return mQueuedFlush;
+    }
+
+    /**
+     * Schedules the writer and blocks until it has finished.
+     */
+    void flushAndWait() {
+        try {
+            flush().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Already logged by the writer.
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "DictionaryWriter");
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
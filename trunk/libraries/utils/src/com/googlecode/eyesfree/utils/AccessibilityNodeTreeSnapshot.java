@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.utils;
+
+import android.content.Context;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A prefetched copy of the visible node tree of a single window, stored in
+ * depth-first order so that in-order navigation runs against local memory
+ * instead of fetching parents, siblings and children one at a time.
+ * <p>
+ * The snapshot is bounded in size and depth. Searches that would leave the
+ * prefetched part of the tree fall back to {@link NodeFocusFinder}, so results
+ * match live traversal as long as the window content has not changed. Owners
+ * are responsible for discarding the snapshot when it does.
+ * </p>
+ */
+public class AccessibilityNodeTreeSnapshot {
+    /** Default maximum number of nodes to prefetch. */
+    public static final int DEFAULT_MAX_NODES = 500;
+
+    /** Default maximum depth to prefetch. */
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    /** Visible nodes in depth-first order, starting with the root. */
+    private final ArrayList<AccessibilityNodeInfoCompat> mNodes =
+            new ArrayList<AccessibilityNodeInfoCompat>();
+
+    /** Mapping from node to its position in {@link #mNodes}. */
+    private final HashMap<AccessibilityNodeInfoCompat, Integer> mNodeIndices =
+            new HashMap<AccessibilityNodeInfoCompat, Integer>();
+
+    /**
+     * Whether each node in {@link #mNodes} had children that were not
+     * prefetched because of the depth limit.
+     */
+    private final BitSet mIncomplete = new BitSet();
+
+    /** The window identifier of the root node. */
+    private final int mWindowId;
+
+    /** Whether prefetching stopped early because of the node limit. */
+    private boolean mTruncated;
+
+    /**
+     * Prefetches the visible tree rooted at {@code root} using the default
+     * limits.
+     *
+     * @param root The root node of the window. The snapshot keeps its own copy.
+     * @return A new snapshot, or {@code null} if {@code root} is {@code null}.
+     */
+    public static AccessibilityNodeTreeSnapshot obtain(AccessibilityNodeInfoCompat root) {
+        return obtain(root, DEFAULT_MAX_NODES, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Prefetches the visible tree rooted at {@code root}.
+     *
+     * @param root The root node of the window. The snapshot keeps its own copy.
+     * @param maxNodes The maximum number of nodes to prefetch.
+     * @param maxDepth The maximum depth to prefetch.
+     * @return A new snapshot, or {@code null} if {@code root} is {@code null}.
+     */
+    public static AccessibilityNodeTreeSnapshot obtain(
+            AccessibilityNodeInfoCompat root, int maxNodes, int maxDepth) {
+        if (root == null) {
+            return null;
+        }
+
+        final AccessibilityNodeTreeSnapshot snapshot =
+                new AccessibilityNodeTreeSnapshot(root.getWindowId());
+        snapshot.prefetch(AccessibilityNodeInfoCompat.obtain(root), 0, maxNodes, maxDepth);
+
+        return snapshot;
+    }
+
+    private AccessibilityNodeTreeSnapshot(int windowId) {
+        mWindowId = windowId;
+    }
+
+    /**
+     * @return The window identifier of the snapshot's root node.
+     */
+    public int getWindowId() {
+        return mWindowId;
+    }
+
+    /**
+     * @return {@code true} if the snapshot contains {@code node}.
+     */
+    public boolean contains(AccessibilityNodeInfoCompat node) {
+        return (node != null) && mNodeIndices.containsKey(node);
+    }
+
+    /**
+     * Returns the last node in depth-first order, which is equivalent to
+     * {@link AccessibilityNodeInfoRef#lastDescendant()} from the root.
+     * <p>
+     * The client is responsible for recycling the resulting node.
+     *
+     * @return The last node, or a copy of the root if it has no visible
+     *         descendants.
+     */
+    public AccessibilityNodeInfoCompat getLastNode() {
+        if (mTruncated || mIncomplete.get(mNodes.size() - 1)) {
+            final AccessibilityNodeInfoRef ref = AccessibilityNodeInfoRef.obtain(mNodes.get(0));
+            ref.lastDescendant();
+            return ref.release();
+        }
+
+        return AccessibilityNodeInfoCompat.obtain(mNodes.get(mNodes.size() - 1));
+    }
+
+    /**
+     * Performs in-order navigation from a given node in a particular
+     * direction, equivalent to
+     * {@link NodeFocusFinder#focusSearch(AccessibilityNodeInfoCompat, int)}.
+     * <p>
+     * The client is responsible for recycling the resulting node.
+     *
+     * @param node The starting node.
+     * @param direction The direction to travel, one of
+     *            {@link NodeFocusFinder#SEARCH_FORWARD} or
+     *            {@link NodeFocusFinder#SEARCH_BACKWARD}.
+     * @return The next node in the specified direction, or {@code null} if
+     *         there are no more nodes.
+     */
+    public AccessibilityNodeInfoCompat focusSearch(
+            AccessibilityNodeInfoCompat node, int direction) {
+        final Integer index = (node != null) ? mNodeIndices.get(node) : null;
+        if (index == null) {
+            return NodeFocusFinder.focusSearch(node, direction);
+        }
+
+        final int lastIndex = (mNodes.size() - 1);
+
+        switch (direction) {
+            case NodeFocusFinder.SEARCH_FORWARD: {
+                if (mIncomplete.get(index) || (mTruncated && (index == lastIndex))) {
+                    return NodeFocusFinder.focusSearch(node, direction);
+                }
+
+                if (index == lastIndex) {
+                    return null;
+                }
+
+                return AccessibilityNodeInfoCompat.obtain(mNodes.get(index + 1));
+            }
+            case NodeFocusFinder.SEARCH_BACKWARD: {
+                if (index == 0) {
+                    return null;
+                }
+
+                if (mIncomplete.get(index - 1)) {
+                    return NodeFocusFinder.focusSearch(node, direction);
+                }
+
+                return AccessibilityNodeInfoCompat.obtain(mNodes.get(index - 1));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first node reached via in-order traversal from {@code root}
+     * that satisfies {@code filter}. Unlike
+     * {@link AccessibilityNodeInfoUtils#searchFromInOrderTraversal}, this does
+     * not need to track visited nodes, since the snapshot cannot contain
+     * cycles.
+     * <p>
+     * The client is responsible for recycling the resulting node.
+     *
+     * @param context The parent context.
+     * @param root The node to search from.
+     * @param filter The filter to satisfy.
+     * @param direction The direction to travel.
+     * @return The first matching node, or {@code null} if none was found.
+     */
+    public AccessibilityNodeInfoCompat searchFromInOrderTraversal(Context context,
+            AccessibilityNodeInfoCompat root, NodeFilter filter, int direction) {
+        if (!contains(root)) {
+            return AccessibilityNodeInfoUtils.searchFromInOrderTraversal(
+                    context, root, filter, direction);
+        }
+
+        AccessibilityNodeInfoCompat currentNode = focusSearch(root, direction);
+
+        while ((currentNode != null) && !filter.accept(context, currentNode)) {
+            final AccessibilityNodeInfoCompat nextNode = focusSearch(currentNode, direction);
+
+            // Once traversal leaves the snapshot, guard against cycles.
+            if ((nextNode != null) && !contains(nextNode)) {
+                final AccessibilityNodeInfoCompat result =
+                        AccessibilityNodeInfoUtils.searchFromInOrderTraversal(
+                                context, currentNode, filter, direction);
+                AccessibilityNodeInfoUtils.recycleNodes(currentNode, nextNode);
+                return result;
+            }
+
+            currentNode.recycle();
+            currentNode = nextNode;
+        }
+
+        return currentNode;
+    }
+
+    /**
+     * Recycles all nodes held by this snapshot. The snapshot should not be
+     * used after this method is called.
+     */
+    public void recycle() {
+        AccessibilityNodeInfoUtils.recycleNodes(mNodes);
+        mNodes.clear();
+        mNodeIndices.clear();
+        mIncomplete.clear();
+    }
+
+    /**
+     * Adds a node and its visible descendants in depth-first order, taking
+     * ownership of {@code node}.
+     */
+    private void prefetch(AccessibilityNodeInfoCompat node, int depth, int maxNodes,
+            int maxDepth) {
+        if (mNodeIndices.containsKey(node)) {
+            // Guard against cycles in broken hierarchies.
+            node.recycle();
+            return;
+        }
+
+        final int index = mNodes.size();
+        mNodes.add(node);
+        mNodeIndices.put(node, index);
+
+        final int childCount = node.getChildCount();
+        if (childCount == 0) {
+            return;
+        }
+
+        if (depth >= maxDepth) {
+            mIncomplete.set(index);
+            return;
+        }
+
+        for (int i = 0; i < childCount; i++) {
+            if (mNodes.size() >= maxNodes) {
+                mTruncated = true;
+                return;
+            }
+
+            final AccessibilityNodeInfoCompat child = node.getChild(i);
+
+            // Live traversal stops at the first missing child.
+            if (child == null) {
+                return;
+            }
+
+            if (!AccessibilityNodeInfoUtils.isVisibleOrLegacy(child)) {
+                child.recycle();
+                continue;
+            }
+
+            prefetch(child, (depth + 1), maxNodes, maxDepth);
+
+            if (mTruncated) {
+                return;
+            }
+        }
+    }
+}
@@ -23,7 +23,9 @@ import android.util.Log;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class manages efficient loading of classes.
@@ -33,6 +35,12 @@ import java.util.List;
  */
 public class ClassLoadingManager {
 
+    /**
+     * The maximum number of cached instance-of verdicts. The cache is cleared
+     * when this is exceeded.
+     */
+    private static final int MAX_CACHED_VERDICTS = 1024;
+
     /**
      * The singleton instance of this class.
      */
@@ -55,6 +63,14 @@ public class ClassLoadingManager {
      */
     private final HashSet<String> mInstalledPackagesSet = new HashSet<String>();
 
+    /**
+     * Cache of instance-of verdicts, including negative verdicts for classes
+     * that could not be loaded. Entries are removed when either package
+     * involved in the check is added, removed or changed.
+     */
+    private final ConcurrentHashMap<VerdictKey, Boolean> mInstanceOfVerdicts =
+            new ConcurrentHashMap<VerdictKey, Boolean>();
+
     /**
      * The singleton instance of this class.
      *
@@ -83,6 +99,7 @@ public class ClassLoadingManager {
     public void shutdown() {
         clearInstalledPackagesCache();
         mClassNameToClassMap.clear();
+        mInstanceOfVerdicts.clear();
         mPackageMonitor.unregister();
     }
 
@@ -121,6 +138,29 @@ public class ClassLoadingManager {
         }
     }
 
+    /**
+     * Removes cached instance-of verdicts and failed loading attempts that
+     * involve the specified package.
+     *
+     * @param packageName The package name to invalidate.
+     */
+    private void invalidatePackage(String packageName) {
+        if (packageName == null) {
+            return;
+        }
+
+        synchronized (mInstalledPackagesSet) {
+            mNotFoundClassesMap.remove(packageName);
+        }
+
+        final Iterator<VerdictKey> iterator = mInstanceOfVerdicts.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().involvesPackage(packageName)) {
+                iterator.remove();
+            }
+        }
+    }
+
     /**
      * Clears the installed package cache.
      */
@@ -234,6 +274,30 @@ public class ClassLoadingManager {
      */
     public boolean checkInstanceOf(Context context, CharSequence targetClassName,
             CharSequence loaderPackage, CharSequence referenceClassName) {
+        return checkInstanceOf(
+                context, targetClassName, loaderPackage, referenceClassName, loaderPackage);
+    }
+
+    /**
+     * Returns whether a target class is an instance of a reference class,
+     * where each class may be loaded from a different app package.
+     * <p>
+     * Verdicts are cached, so repeated checks for the same pair of classes do
+     * not require class loading or reflection.
+     * </p>
+     *
+     * @param context The context from which to first try loading the classes.
+     * @param targetClassName The name of the target class.
+     * @param targetPackage The package to which the target class belongs.
+     * @param referenceClassName The name of the reference class.
+     * @param referencePackage The package to which the reference class
+     *            belongs.
+     * @return {@code true} if the target class is assignable to the reference
+     *         class.
+     */
+    public boolean checkInstanceOf(Context context, CharSequence targetClassName,
+            CharSequence targetPackage, CharSequence referenceClassName,
+            CharSequence referencePackage) {
         if ((targetClassName == null) || (referenceClassName == null)) {
             return false;
         }
@@ -243,13 +307,26 @@ public class ClassLoadingManager {
             return true;
         }
 
+        final VerdictKey key = new VerdictKey(targetClassName, targetPackage,
+                referenceClassName, toPackageKey(referencePackage));
+        final Boolean cachedVerdict = mInstanceOfVerdicts.get(key);
+        if (cachedVerdict != null) {
+            return cachedVerdict;
+        }
+
         final Class<?> referenceClass = loadOrGetCachedClass(
-                context, referenceClassName, loaderPackage);
-        if (referenceClass == null) {
-            return false;
+                context, referenceClassName, referencePackage);
+        final Class<?> targetClass = (referenceClass != null)
+                ? loadOrGetCachedClass(context, targetClassName, targetPackage) : null;
+        final boolean verdict = (targetClass != null)
+                && referenceClass.isAssignableFrom(targetClass);
+
+        // Without a context, outside classes can't be loaded.
+        if (verdict || (context != null)) {
+            cacheVerdict(key, verdict);
         }
 
-        return checkInstanceOf(context, targetClassName, loaderPackage, referenceClass);
+        return verdict;
     }
 
     /**
@@ -265,12 +342,39 @@ public class ClassLoadingManager {
             return false;
         }
 
+        // Reference classes are already loaded, so they don't have a package.
+        final VerdictKey key = new VerdictKey(
+                targetClassName, loaderPackage, referenceClass.getName(), null);
+        final Boolean cachedVerdict = mInstanceOfVerdicts.get(key);
+        if (cachedVerdict != null) {
+            return cachedVerdict;
+        }
+
         final Class<?> targetClass = loadOrGetCachedClass(context, targetClassName, loaderPackage);
-        if (targetClass == null) {
-            return false;
+        final boolean verdict = (targetClass != null)
+                && referenceClass.isAssignableFrom(targetClass);
+
+        if (verdict || (context != null)) {
+            cacheVerdict(key, verdict);
+        }
+
+        return verdict;
+    }
+
+    private void cacheVerdict(VerdictKey key, boolean verdict) {
+        if (mInstanceOfVerdicts.size() >= MAX_CACHED_VERDICTS) {
+            mInstanceOfVerdicts.clear();
         }
 
-        return referenceClass.isAssignableFrom(targetClass);
+        mInstanceOfVerdicts.put(key, verdict);
+    }
+
+    /**
+     * Returns a non-null package key, so that class names loaded from an
+     * unspecified package never collide with already-loaded reference classes.
+     */
+    private static String toPackageKey(CharSequence packageName) {
+        return (packageName == null) ? "" : packageName.toString();
     }
 
     /**
@@ -280,16 +384,85 @@ public class ClassLoadingManager {
         @Override
         protected void onPackageAdded(String packageName) {
             addInstalledPackageToCache(packageName);
+            invalidatePackage(packageName);
         }
 
         @Override
         protected void onPackageRemoved(String packageName) {
             removeInstalledPackageFromCache(packageName);
+            invalidatePackage(packageName);
         }
 
         @Override
         protected void onPackageChanged(String packageName) {
-            // Do nothing.
+            invalidatePackage(packageName);
         }
     };
+
+    /**
+     * Key for a cached instance-of verdict.
+     */
+    private static class VerdictKey {
+        private final String mTargetClassName;
+        private final String mTargetPackage;
+        private final String mReferenceClassName;
+        private final String mReferencePackage;
+        private final int mHashCode;
+
+        public VerdictKey(CharSequence targetClassName, CharSequence targetPackage,
+                CharSequence referenceClassName, String referencePackage) {
+            mTargetClassName = targetClassName.toString();
+            mTargetPackage = (targetPackage == null) ? null : targetPackage.toString();
+            mReferenceClassName = referenceClassName.toString();
+            mReferencePackage = referencePackage;
+
+            int hashCode = mTargetClassName.hashCode();
+            hashCode = 31 * hashCode + ((mTargetPackage == null) ? 0 : mTargetPackage.hashCode());
+            hashCode = 31 * hashCode + mReferenceClassName.hashCode();
+            hashCode = 31 * hashCode
+                    + ((mReferencePackage == null) ? 0 : mReferencePackage.hashCode());
+            mHashCode = hashCode;
+        }
+
+        /**
+         * @return {@code true} if either class in this key is loaded from the
+         *         specified package, or from a package derived from its name.
+         */
+        public boolean involvesPackage(String packageName) {
+            return isInPackage(mTargetClassName, mTargetPackage, packageName)
+                    || isInPackage(mReferenceClassName, mReferencePackage, packageName);
+        }
+
+        private static boolean isInPackage(
+                String className, String classPackage, String packageName) {
+            if (!TextUtils.isEmpty(classPackage)) {
+                return classPackage.equals(packageName);
+            }
+
+            return className.startsWith(packageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof VerdictKey)) {
+                return false;
+            }
+
+            final VerdictKey other = (VerdictKey) obj;
+            return (mHashCode == other.mHashCode)
+                    && mTargetClassName.equals(other.mTargetClassName)
+                    && TextUtils.equals(mTargetPackage, other.mTargetPackage)
+                    && mReferenceClassName.equals(other.mReferenceClassName)
+                    && TextUtils.equals(mReferencePackage, other.mReferencePackage);
+        }
+    }
 }
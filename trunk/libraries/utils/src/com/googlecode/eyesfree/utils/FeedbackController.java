@@ -17,12 +17,8 @@
 package com.googlecode.eyesfree.utils;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
-import android.media.MediaPlayer.OnPreparedListener;
 import android.media.SoundPool;
 import android.media.SoundPool.OnLoadCompleteListener;
 import android.os.Handler;
@@ -31,9 +27,6 @@ import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -63,6 +56,13 @@ public class FeedbackController {
     /** Map of resource IDs to loaded sound stream IDs. */
     private final SparseIntArray mResourceIdToSoundMap = new SparseIntArray();
 
+    /** Map of MIDI array resource IDs to rendered mixer sound IDs. */
+    private final SparseIntArray mResourceIdToPcmSoundMap = new SparseIntArray();
+
+    /** Sound pools used to play sounds on non-default streams. */
+    private final SparseArray<StreamSoundPool> mStreamSoundPools =
+            new SparseArray<StreamSoundPool>();
+
     /** Unloaded resources to play post-load */
     private final ArrayList<Integer> mPostLoadPlayables = new ArrayList<Integer>();
 
@@ -78,6 +78,12 @@ public class FeedbackController {
     /** Sound pool used to play auditory icons. */
     private final SoundPool mSoundPool;
 
+    /** Mixer used to play rendered MIDI sounds, shared with other clients. */
+    private final PcmMixer mMixer;
+
+    /** Sound IDs loaded into the shared mixer by this controller. */
+    private final ArrayList<Integer> mPcmSoundIds = new ArrayList<Integer>();
+
     /** Handler used for delaying feedback */
     private final Handler mHandler;
 
@@ -142,9 +148,11 @@ public class FeedbackController {
                 }
             }
         });
+        mMixer = PcmMixer.acquire(DEFAULT_STREAM);
         mHandler = new Handler();
 
         mResourceIdToSoundMap.clear();
+        mResourceIdToPcmSoundMap.clear();
         mResourceIdToVibrationPatternMap.clear();
         MidiUtils.purgeMidiTempFiles(context);
     }
@@ -193,6 +201,22 @@ public class FeedbackController {
     public void shutdown() {
         mVibrator.cancel();
         mSoundPool.release();
+
+        for (int soundId : mPcmSoundIds) {
+            mMixer.unload(soundId);
+        }
+
+        mPcmSoundIds.clear();
+        mMixer.release();
+
+        synchronized (mStreamSoundPools) {
+            for (int i = 0; i < mStreamSoundPools.size(); i++) {
+                mStreamSoundPools.valueAt(i).release();
+            }
+
+            mStreamSoundPools.clear();
+        }
+
         MidiUtils.purgeMidiTempFiles(mContext);
     }
 
@@ -200,35 +224,42 @@ public class FeedbackController {
      * Asynchronously make a sound available for later use if audio feedback is
      * enabled. Sounds should be loaded using this function whenever audio
      * feedback is enabled.
+     * <p>
+     * Raw resources are loaded into a sound pool. MIDI array resources are
+     * rendered synchronously into the PCM mixer.
      *
      * @param resId Resource ID of the sound to be loaded.
-     * @return The sound pool identifier for the resource.
+     * @return The sound pool or mixer identifier for the resource.
      */
     public int preloadSound(int resId) {
         if (mResourceIdToSoundMap.indexOfKey(resId) >= 0) {
             return mResourceIdToSoundMap.get(resId);
         }
 
-        final int soundPoolId;
+        if (mResourceIdToPcmSoundMap.indexOfKey(resId) >= 0) {
+            return mResourceIdToPcmSoundMap.get(resId);
+        }
+
         final String resType = mResources.getResourceTypeName(resId);
 
         if ("raw".equals(resType)) {
-            soundPoolId = mSoundPool.load(mContext, resId, 1);
+            final int soundPoolId = mSoundPool.load(mContext, resId, 1);
+            if (soundPoolId < 0) {
+                LogUtils.log(this, Log.ERROR, "Failed to load sound: Invalid sound pool ID");
+                return -1;
+            }
+
+            mResourceIdToSoundMap.put(resId, soundPoolId);
+            return soundPoolId;
         } else if ("array".equals(resType)) {
             final int[] notes = mResources.getIntArray(resId);
-            soundPoolId = loadMidiSoundFromArray(notes, false);
+            final int pcmSoundId = loadMidiSoundFromArray(notes, false);
+            mResourceIdToPcmSoundMap.put(resId, pcmSoundId);
+            return pcmSoundId;
         } else {
             LogUtils.log(this, Log.ERROR, "Failed to load sound: Unknown resource type");
             return -1;
         }
-
-        if (soundPoolId < 0) {
-            LogUtils.log(this, Log.ERROR, "Failed to load sound: Invalid sound pool ID");
-            return -1;
-        }
-
-        mResourceIdToSoundMap.put(resId, soundPoolId);
-        return soundPoolId;
     }
 
     /**
@@ -262,7 +293,8 @@ public class FeedbackController {
 
     /**
      * Plays the sound file specified by the given resource identifier on the
-     * given stream
+     * given stream. The sound is loaded into a sound pool for that stream on
+     * first use and played once loading completes.
      *
      * @param resId The resource identifier of the sound to play
      * @param streamId The {@link AudioManager} identifier of the stream on
@@ -274,33 +306,19 @@ public class FeedbackController {
             return false;
         }
 
-        final MediaPlayer mp = new MediaPlayer();
-        mp.setOnPreparedListener(new OnPreparedListener() {
-            @Override
-            public void onPrepared(MediaPlayer mp) {
-                mp.start();
-            }
-        });
+        final StreamSoundPool streamSoundPool;
 
-        mp.setOnCompletionListener(new OnCompletionListener() {
-            @Override
-            public void onCompletion(MediaPlayer mp) {
-                mp.release();
+        synchronized (mStreamSoundPools) {
+            final StreamSoundPool existingPool = mStreamSoundPools.get(streamId);
+            if (existingPool != null) {
+                streamSoundPool = existingPool;
+            } else {
+                streamSoundPool = new StreamSoundPool(streamId);
+                mStreamSoundPools.put(streamId, streamSoundPool);
             }
-        });
-
-        final AssetFileDescriptor fd = mContext.getResources().openRawResourceFd(resId);
-        mp.setAudioStreamType(streamId);
-        try {
-            mp.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
-            mp.setVolume(volume, volume);
-            mp.prepareAsync();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
         }
 
-        return true;
+        return streamSoundPool.play(resId, volume);
     }
 
     /**
@@ -319,8 +337,17 @@ public class FeedbackController {
             return false;
         }
 
-        if (mResourceIdToSoundMap.indexOfKey(resId) < 0) {
+        final float relativeVolume = mVolume * volume;
+
+        if ((mResourceIdToSoundMap.indexOfKey(resId) < 0)
+                && (mResourceIdToPcmSoundMap.indexOfKey(resId) < 0)) {
             final int soundPoolId = preloadSound(resId);
+
+            // Rendered sounds are ready as soon as they're loaded.
+            if (mResourceIdToPcmSoundMap.indexOfKey(resId) >= 0) {
+                return mMixer.play(soundPoolId, rate, relativeVolume, 0);
+            }
+
             mPostLoadPlayables.add(soundPoolId);
 
             // Since we'll play the sound immediately after it loads, just
@@ -328,8 +355,12 @@ public class FeedbackController {
             return true;
         }
 
+        if (mResourceIdToPcmSoundMap.indexOfKey(resId) >= 0) {
+            final int pcmSoundId = mResourceIdToPcmSoundMap.get(resId);
+            return mMixer.play(pcmSoundId, rate, relativeVolume, 0);
+        }
+
         final int soundId = mResourceIdToSoundMap.get(resId);
-        final float relativeVolume = mVolume * volume;
         final int stream = mSoundPool.play(soundId, relativeVolume, relativeVolume, 1, 0, rate);
 
         return (stream != 0);
@@ -372,7 +403,8 @@ public class FeedbackController {
     }
 
     /**
-     * Generates and plays a MIDI scale.
+     * Generates and plays a MIDI scale. The scale is rendered directly to PCM
+     * and played through the mixer.
      *
      * @param program The MIDI program ID to use
      * @param velocity The MIDI velocity to use for each note
@@ -392,56 +424,13 @@ public class FeedbackController {
             return false;
         }
 
-        final int[] midiSequence = MidiUtils.generateMidiScale(
+        final short[] samples = MidiSynthesizer.renderScale(
                 program, velocity, duration, startingPitch, pitchesToPlay, scaleType);
-        if (midiSequence == null) {
-            return false;
-        }
-
-        final File file = MidiUtils.generateMidiFileFromArray(mContext, midiSequence);
-        if (file == null) {
-            return false;
-        }
-
-        final MediaPlayer scalePlayer = new MediaPlayer();
-        scalePlayer.setOnPreparedListener(new OnPreparedListener() {
-            @Override
-            public void onPrepared(MediaPlayer mp) {
-                scalePlayer.start();
-            }
-        });
-
-        scalePlayer.setOnCompletionListener(new OnCompletionListener() {
-            @Override
-            public void onCompletion(MediaPlayer mp) {
-                scalePlayer.release();
-                file.delete();
-            }
-        });
-
-        // Use the FD method of setting the MediaPlayer data source for
-        // backwards compatibility.
-        FileInputStream in = null;
-        try {
-            in = new FileInputStream(file);
-            scalePlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            scalePlayer.setDataSource(in.getFD());
-            scalePlayer.prepareAsync();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (samples == null) {
             return false;
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    return false;
-                }
-            }
         }
 
-        return true;
+        return mMixer.play(samples, DEFAULT_RATE, DEFAULT_VOLUME, 0);
     }
 
     /**
@@ -519,33 +508,88 @@ public class FeedbackController {
         return pattern;
     }
 
+    /**
+     * Plays a sound loaded with {@link #loadMidiSoundFromArray}.
+     *
+     * @param soundID The sound ID returned when the sound was loaded.
+     */
     public void playMidiSoundFromPool(int soundID) {
-        mSoundPool.play(soundID, DEFAULT_VOLUME, DEFAULT_VOLUME, 1, 0, DEFAULT_RATE);
+        mMixer.play(soundID, DEFAULT_RATE, DEFAULT_VOLUME, 0);
     }
 
     /**
-     * Generates a MIDI file and loads it into the sound pool.
+     * Renders a MIDI track sequence to PCM and loads it into the mixer.
      *
      * @param notes The MIDI track sequence to load
      * @param playOnLoad {@code true} to play the sound immediately after it
      *            loads.
-     * @return the sound ID for this sound, or {@code -1} on error.
+     * @return the sound ID for this sound.
      */
     public int loadMidiSoundFromArray(int[] notes, boolean playOnLoad) {
-        final File midiFile = MidiUtils.generateMidiFileFromArray(mContext, notes);
-
-        if (midiFile == null) {
-            return -1;
-        }
+        final int soundId = mMixer.load(MidiSynthesizer.render(notes));
+        mPcmSoundIds.add(soundId);
 
-        final int soundId = mSoundPool.load(midiFile.getPath(), 1);
         if (playOnLoad) {
-            mPostLoadPlayables.add(soundId);
+            mMixer.play(soundId, DEFAULT_RATE, DEFAULT_VOLUME, 0);
         }
 
         return soundId;
     }
 
+    /**
+     * Sound pool for a single non-default audio stream. Sounds are loaded on
+     * first use and played once loading completes.
+     */
+    private class StreamSoundPool implements OnLoadCompleteListener {
+        /** Map of resource IDs to loaded sample IDs. */
+        private final SparseIntArray mResourceIdToSampleMap = new SparseIntArray();
+
+        /** Volumes for samples to play once loaded, keyed by sample ID. */
+        private final SparseArray<Float> mPendingVolumes = new SparseArray<Float>();
+
+        private final SoundPool mStreamPool;
+
+        public StreamSoundPool(int streamId) {
+            mStreamPool = new SoundPool(NUMBER_OF_CHANNELS, streamId, 1);
+            mStreamPool.setOnLoadCompleteListener(this);
+        }
+
+        public synchronized boolean play(int resId, float volume) {
+            final int index = mResourceIdToSampleMap.indexOfKey(resId);
+            if (index >= 0) {
+                final int sampleId = mResourceIdToSampleMap.valueAt(index);
+                return (mStreamPool.play(sampleId, volume, volume, 1, 0, DEFAULT_RATE) != 0);
+            }
+
+            final int sampleId = mStreamPool.load(mContext, resId, 1);
+            if (sampleId <= 0) {
+                LogUtils.log(this, Log.ERROR, "Failed to load sound on stream");
+                return false;
+            }
+
+            mResourceIdToSampleMap.put(resId, sampleId);
+            mPendingVolumes.put(sampleId, volume);
+
+            // Since we'll play the sound immediately after it loads, just
+            // assume it will play successfully.
+            return true;
+        }
+
+        @Override
+        public synchronized void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+            final Float volume = mPendingVolumes.get(sampleId);
+            mPendingVolumes.remove(sampleId);
+
+            if ((status == 0) && (volume != null)) {
+                soundPool.play(sampleId, volume, volume, 1, 0, DEFAULT_RATE);
+            }
+        }
+
+        public void release() {
+            mStreamPool.release();
+        }
+    }
+
     /**
      * Class used for repeated playing of sound resources.
      */
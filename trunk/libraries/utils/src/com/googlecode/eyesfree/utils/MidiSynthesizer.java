@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.utils;
+
+/**
+ * Renders arrays of MIDI notes directly to 16-bit mono PCM samples, so that
+ * short earcons can be played without writing and decoding MIDI files.
+ * <p>
+ * Note arrays use the same format as
+ * {@link MidiUtils#generateMidiFileFromArray}: a program ID followed by
+ * triplets of note pitch, velocity, and duration. Durations are in MIDI ticks
+ * at the tempo and resolution used by {@link MidiUtils}, so rendered sounds
+ * keep their timing. Instruments are approximated by their General MIDI
+ * family using a few harmonics and an amplitude envelope.
+ */
+public class MidiSynthesizer {
+    /** Sample rate of rendered sounds, in Hz. */
+    public static final int SAMPLE_RATE = PcmMixer.SAMPLE_RATE;
+
+    /** Beats-per-minute used by {@link MidiUtils} for MIDI tracks. */
+    private static final int BPM = 95;
+
+    /** Ticks per beat used by {@link MidiUtils} for MIDI tracks. */
+    private static final int TICKS_PER_BEAT = 480;
+
+    /** Peak amplitude of a note at full velocity, leaving room for mixing. */
+    private static final float MAX_AMPLITUDE = 0.6f * Short.MAX_VALUE;
+
+    /** Attack time in seconds, long enough to avoid clicks. */
+    private static final float ATTACK_TIME = 0.002f;
+
+    /** Release time in seconds at the end of each note. */
+    private static final float RELEASE_TIME = 0.010f;
+
+    /**
+     * Relative amplitudes of the first three harmonics for each General MIDI
+     * instrument family (programs 0-7, 8-15, and so on).
+     */
+    private static final float[][] FAMILY_HARMONICS = {
+            { 1.0f, 0.4f, 0.2f }, // Piano
+            { 1.0f, 0.0f, 0.3f }, // Chromatic percussion
+            { 1.0f, 0.7f, 0.5f }, // Organ
+            { 1.0f, 0.5f, 0.3f }, // Guitar
+            { 1.0f, 0.3f, 0.1f }, // Bass
+            { 1.0f, 0.6f, 0.4f }, // Strings
+            { 1.0f, 0.6f, 0.4f }, // Ensemble
+            { 1.0f, 0.8f, 0.6f }, // Brass
+            { 1.0f, 0.2f, 0.5f }, // Reed
+            { 1.0f, 0.1f, 0.05f }, // Pipe
+            { 1.0f, 0.5f, 0.3f }, // Synth lead
+            { 1.0f, 0.3f, 0.2f }, // Synth pad
+            { 1.0f, 0.4f, 0.4f }, // Synth effects
+            { 1.0f, 0.5f, 0.2f }, // Ethnic
+            { 1.0f, 0.2f, 0.1f }, // Percussive
+            { 1.0f, 0.5f, 0.5f }, // Sound effects
+    };
+
+    /**
+     * Decay time constant in seconds for each General MIDI instrument family,
+     * or {@code 0} for sustained instruments.
+     */
+    private static final float[] FAMILY_DECAY = {
+            0.25f, // Piano
+            0.08f, // Chromatic percussion
+            0, // Organ
+            0.20f, // Guitar
+            0.20f, // Bass
+            0, // Strings
+            0, // Ensemble
+            0, // Brass
+            0, // Reed
+            0, // Pipe
+            0, // Synth lead
+            0, // Synth pad
+            0.30f, // Synth effects
+            0.15f, // Ethnic
+            0.04f, // Percussive
+            0.10f, // Sound effects
+    };
+
+    private MidiSynthesizer() {
+        // This class is not instantiable.
+    }
+
+    /**
+     * Renders an array of MIDI notes to PCM samples.
+     *
+     * @param notes A program ID followed by triplets of note pitch, velocity,
+     *            and duration.
+     * @return Mono 16-bit samples at {@link #SAMPLE_RATE}.
+     * @throws IllegalArgumentException if the array is malformed.
+     */
+    public static short[] render(int[] notes) {
+        if ((notes == null) || ((notes.length % 3) != 1)) {
+            throw new IllegalArgumentException(
+                    "MIDI note array must contain a single integer followed by triplets");
+        }
+
+        final int program = notes[0];
+        if ((program < 0) || (program > 127)) {
+            throw new IllegalArgumentException("MIDI track program must be in the range [0,127]");
+        }
+
+        int totalSamples = 0;
+        for (int i = 1; i < notes.length; i += 3) {
+            totalSamples += ticksToSamples(notes[i + 2]);
+        }
+
+        final short[] samples = new short[totalSamples];
+        final float[] harmonics = FAMILY_HARMONICS[program / 8];
+        final float decay = FAMILY_DECAY[program / 8];
+        int offset = 0;
+
+        for (int i = 1; i < notes.length; i += 3) {
+            final int pitch = notes[i];
+            if ((pitch < 21) || (pitch > 108)) {
+                throw new IllegalArgumentException("MIDI note pitch must be in the range [21,108]");
+            }
+
+            final int velocity = notes[i + 1];
+            if ((velocity < 0) || (velocity > 127)) {
+                throw new IllegalArgumentException(
+                        "MIDI note velocity must be in the range [0,127]");
+            }
+
+            final int length = ticksToSamples(notes[i + 2]);
+
+            // A velocity of zero is a rest.
+            if (velocity > 0) {
+                renderNote(samples, offset, length, pitch, velocity, harmonics, decay);
+            }
+
+            offset += length;
+        }
+
+        return samples;
+    }
+
+    /**
+     * Renders a MIDI scale to PCM samples.
+     *
+     * @see MidiUtils#generateMidiScale
+     * @return Mono 16-bit samples at {@link #SAMPLE_RATE}, or {@code null} if
+     *         the scale parameters are invalid.
+     */
+    public static short[] renderScale(int program, int velocity, int duration, int startingPitch,
+            int pitchesToPlay, int scaleType) {
+        final int[] notes = MidiUtils.generateMidiScale(
+                program, velocity, duration, startingPitch, pitchesToPlay, scaleType);
+        if (notes == null) {
+            return null;
+        }
+
+        return render(notes);
+    }
+
+    private static void renderNote(short[] samples, int offset, int length, int pitch,
+            int velocity, float[] harmonics, float decay) {
+        final double frequency = 440.0 * Math.pow(2.0, (pitch - 69) / 12.0);
+        final double phaseStep = (2.0 * Math.PI * frequency / SAMPLE_RATE);
+        final float amplitude = (MAX_AMPLITUDE * velocity / 127.0f);
+        final int attackSamples = Math.max(1, (int) (ATTACK_TIME * SAMPLE_RATE));
+        final int releaseSamples = Math.min(length, (int) (RELEASE_TIME * SAMPLE_RATE));
+        final double decayFactor = ((decay > 0) ? Math.exp(-1.0 / (decay * SAMPLE_RATE)) : 1.0);
+
+        float harmonicSum = 0;
+        for (float harmonic : harmonics) {
+            harmonicSum += harmonic;
+        }
+
+        double envelope = 1.0;
+
+        for (int i = 0; i < length; i++) {
+            final double phase = (phaseStep * i);
+            double value = 0;
+
+            // Skip harmonics above the Nyquist frequency.
+            for (int h = 0; h < harmonics.length; h++) {
+                if ((frequency * (h + 1)) < (SAMPLE_RATE / 2)) {
+                    value += harmonics[h] * Math.sin(phase * (h + 1));
+                }
+            }
+
+            double gain = envelope;
+            if (i < attackSamples) {
+                gain *= ((double) i / attackSamples);
+            }
+            if (i >= (length - releaseSamples)) {
+                gain *= ((double) (length - i) / releaseSamples);
+            }
+
+            samples[offset + i] = (short) (amplitude * gain * value / harmonicSum);
+            envelope *= decayFactor;
+        }
+    }
+
+    private static int ticksToSamples(int ticks) {
+        return (int) ((long) ticks * 60 * SAMPLE_RATE / (BPM * TICKS_PER_BEAT));
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.googlecode.eyesfree.utils;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Mixes short PCM sounds into a single long-lived {@link AudioTrack}.
+ * <p>
+ * Sounds are 16-bit mono samples at {@link #SAMPLE_RATE}, such as those
+ * rendered by {@link MidiSynthesizer}. Playing a sound only adds a voice to
+ * the mixer, so there is no per-sound player setup. The track is paused after
+ * a short period of silence and resumed when another sound is played.
+ * <p>
+ * Clients in the same process should share a mixer per stream through
+ * {@link #acquire} and {@link #release}, so that all of their sounds are mixed
+ * into a single track by a single thread.
+ */
+public class PcmMixer {
+    private static final String TAG = PcmMixer.class.getSimpleName();
+
+    /** Sample rate of mixed sounds, in Hz. */
+    public static final int SAMPLE_RATE = 22050;
+
+    /** Number of stereo frames mixed per write. */
+    private static final int FRAMES_PER_BLOCK = 256;
+
+    /** Number of silent blocks to write before pausing the track. */
+    private static final int IDLE_BLOCKS = 40;
+
+    /** Shared mixers, keyed by stream type. */
+    private static final SparseArray<PcmMixer> sSharedMixers = new SparseArray<PcmMixer>();
+
+    /** Loaded sounds, keyed by sound ID. */
+    private final SparseArray<short[]> mSounds = new SparseArray<short[]>();
+
+    /** Currently playing voices. */
+    private final ArrayList<Voice> mVoices = new ArrayList<Voice>();
+
+    /** Mixing buffer for a single block of stereo frames. */
+    private final int[] mMixBuffer = new int[FRAMES_PER_BLOCK * 2];
+
+    /** Output buffer for a single block of stereo frames. */
+    private final short[] mOutputBuffer = new short[FRAMES_PER_BLOCK * 2];
+
+    /** The stream type used for output. */
+    private final int mStreamType;
+
+    /** The next available sound ID. */
+    private int mNextSoundId = 1;
+
+    /** The mixing thread, or {@code null} if it has not been started. */
+    private Thread mMixerThread;
+
+    /** Whether this mixer has been shut down. */
+    private boolean mShutdown;
+
+    /** Number of clients holding this shared mixer. */
+    private int mReferenceCount;
+
+    /**
+     * Returns the shared mixer for the specified audio stream, creating it if
+     * necessary. Each call must be balanced by a call to {@link #release}.
+     *
+     * @param streamType The audio stream type, e.g.
+     *            {@link AudioManager#STREAM_MUSIC}.
+     * @return The shared mixer for the stream.
+     */
+    public static PcmMixer acquire(int streamType) {
+        synchronized (sSharedMixers) {
+            PcmMixer mixer = sSharedMixers.get(streamType);
+            if (mixer == null) {
+                mixer = new PcmMixer(streamType);
+                sSharedMixers.put(streamType, mixer);
+            }
+
+            mixer.mReferenceCount++;
+            return mixer;
+        }
+    }
+
+    /**
+     * Constructs a new mixer that plays sounds on the specified audio stream.
+     *
+     * @param streamType The audio stream type, e.g.
+     *            {@link AudioManager#STREAM_MUSIC}.
+     */
+    public PcmMixer(int streamType) {
+        mStreamType = streamType;
+    }
+
+    /**
+     * Loads PCM samples into the mixer.
+     *
+     * @param samples Mono 16-bit samples at {@link #SAMPLE_RATE}.
+     * @return The sound ID, which may be passed to {@link #play} and
+     *         {@link #unload}.
+     */
+    public synchronized int load(short[] samples) {
+        final int soundId = mNextSoundId++;
+        mSounds.put(soundId, samples);
+        return soundId;
+    }
+
+    /**
+     * Unloads a sound. Voices that are already playing the sound will finish.
+     *
+     * @param soundId The sound ID returned from {@link #load}.
+     */
+    public synchronized void unload(int soundId) {
+        mSounds.remove(soundId);
+    }
+
+    /**
+     * Plays a loaded sound.
+     *
+     * @param soundId The sound ID returned from {@link #load}.
+     * @param rate The playback rate, where {@code 1.0} is normal.
+     * @param volume The volume in the range [0,1].
+     * @param pan The stereo pan in the range [-1,1].
+     * @return {@code true} if the sound was played.
+     */
+    public synchronized boolean play(int soundId, float rate, float volume, float pan) {
+        final short[] samples = mSounds.get(soundId);
+        if (samples == null) {
+            return false;
+        }
+
+        return play(samples, rate, volume, pan);
+    }
+
+    /**
+     * Plays PCM samples without loading them into the mixer.
+     *
+     * @param samples Mono 16-bit samples at {@link #SAMPLE_RATE}.
+     * @param rate The playback rate, where {@code 1.0} is normal.
+     * @param volume The volume in the range [0,1].
+     * @param pan The stereo pan in the range [-1,1].
+     * @return {@code true} if the sound was played.
+     */
+    public synchronized boolean play(short[] samples, float rate, float volume, float pan) {
+        if (mShutdown || (samples == null) || (samples.length == 0) || (rate <= 0)) {
+            return false;
+        }
+
+        final float clampedVolume = Math.max(0, Math.min(1, volume));
+        final float clampedPan = Math.max(-1, Math.min(1, pan));
+        final float leftGain = clampedVolume * Math.min(1, (1 - clampedPan));
+        final float rightGain = clampedVolume * Math.min(1, (1 + clampedPan));
+
+        mVoices.add(new Voice(samples, rate, leftGain, rightGain));
+
+        if (mMixerThread == null) {
+            mMixerThread = new MixerThread();
+            mMixerThread.start();
+        } else {
+            notifyAll();
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops all playing voices.
+     */
+    public synchronized void stopAll() {
+        mVoices.clear();
+    }
+
+    /**
+     * Releases a mixer obtained from {@link #acquire}. The mixer is shut down
+     * when its last client releases it, so clients should unload their own
+     * sounds first. The caller should not use the mixer after calling this
+     * method.
+     */
+    public void release() {
+        synchronized (sSharedMixers) {
+            mReferenceCount--;
+            if (mReferenceCount > 0) {
+                return;
+            }
+
+            if (sSharedMixers.get(mStreamType) == this) {
+                sSharedMixers.remove(mStreamType);
+            }
+        }
+
+        shutdown();
+    }
+
+    /**
+     * Stops playback, releases the audio track, and unloads all sounds. The
+     * mixer cannot be used after calling this method. Shared mixers should be
+     * released with {@link #release} instead.
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        mVoices.clear();
+        mSounds.clear();
+        notifyAll();
+    }
+
+    /**
+     * Mixes the next block of playing voices into {@link #mOutputBuffer}.
+     *
+     * @return {@code true} if any voices were mixed.
+     */
+    private boolean mixBlock() {
+        final int[] mix = mMixBuffer;
+        final short[] output = mOutputBuffer;
+
+        if (mVoices.isEmpty()) {
+            for (int i = 0; i < output.length; i++) {
+                output[i] = 0;
+            }
+
+            return false;
+        }
+
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = 0;
+        }
+
+        final Iterator<Voice> iterator = mVoices.iterator();
+        while (iterator.hasNext()) {
+            final Voice voice = iterator.next();
+            if (!voice.mixInto(mix)) {
+                iterator.remove();
+            }
+        }
+
+        for (int i = 0; i < output.length; i++) {
+            output[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+        }
+
+        return true;
+    }
+
+    /**
+     * A single playing instance of a sound.
+     */
+    private static class Voice {
+        private final short[] mSamples;
+        private final float mRate;
+        private final float mLeftGain;
+        private final float mRightGain;
+
+        /** The current fractional position within the samples. */
+        private float mPosition;
+
+        public Voice(short[] samples, float rate, float leftGain, float rightGain) {
+            mSamples = samples;
+            mRate = rate;
+            mLeftGain = leftGain;
+            mRightGain = rightGain;
+        }
+
+        /**
+         * Adds the next block of this voice to a stereo mixing buffer.
+         *
+         * @return {@code true} if the voice has more samples to play.
+         */
+        public boolean mixInto(int[] mix) {
+            final short[] samples = mSamples;
+            final int lastIndex = (samples.length - 1);
+
+            for (int i = 0; i < mix.length; i += 2) {
+                final int index = (int) mPosition;
+                if (index > lastIndex) {
+                    return false;
+                }
+
+                // Linearly interpolate between samples for non-unity rates.
+                final float fraction = (mPosition - index);
+                final int next = Math.min(index + 1, lastIndex);
+                final float value = samples[index] + (fraction * (samples[next] - samples[index]));
+
+                mix[i] += (int) (value * mLeftGain);
+                mix[i + 1] += (int) (value * mRightGain);
+                mPosition += mRate;
+            }
+
+            return ((int) mPosition <= lastIndex);
+        }
+    }
+
+    /**
+     * Writes mixed blocks to the audio track while voices are playing.
+     */
+    private class MixerThread extends Thread {
+        public MixerThread() {
+            super(TAG);
+        }
+
+        @Override
+        public void run() {
+            final int minBufferSize = AudioTrack.getMinBufferSize(SAMPLE_RATE,
+                    AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+            final int bufferSize = Math.max(minBufferSize, (FRAMES_PER_BLOCK * 4 * 2));
+            final AudioTrack track;
+
+            try {
+                track = new AudioTrack(mStreamType, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO,
+                        AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Failed to create audio track", e);
+                onMixerThreadFailed();
+                return;
+            }
+
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                Log.e(TAG, "Failed to initialize audio track");
+                track.release();
+                onMixerThreadFailed();
+                return;
+            }
+
+            int idleBlocks = IDLE_BLOCKS;
+
+            try {
+                while (true) {
+                    synchronized (PcmMixer.this) {
+                        if (mShutdown) {
+                            break;
+                        }
+
+                        if (mVoices.isEmpty() && (idleBlocks >= IDLE_BLOCKS)) {
+                            // Everything written so far has played, so it's
+                            // safe to pause and drop the track's buffer.
+                            if (track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+                                track.pause();
+                                track.flush();
+                            }
+
+                            try {
+                                PcmMixer.this.wait();
+                            } catch (InterruptedException e) {
+                                break;
+                            }
+
+                            continue;
+                        }
+
+                        if (mixBlock()) {
+                            idleBlocks = 0;
+                        } else {
+                            idleBlocks++;
+                        }
+                    }
+
+                    if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                        track.play();
+                    }
+
+                    // Blocks until the track has room, which paces the loop.
+                    track.write(mOutputBuffer, 0, mOutputBuffer.length);
+                }
+            } finally {
+                track.stop();
+                track.release();
+            }
+        }
+
+        /**
+         * Drops pending voices so that the next call to {@link #play} can
+         * start a new thread.
+         */
+        private void onMixerThreadFailed() {
+            synchronized (PcmMixer.this) {
+                mVoices.clear();
+                mMixerThread = null;
+            }
+        }
+    }
+}
@@ -673,6 +673,15 @@ public class Ocr {
 
         private static final int PSM_MODE_COUNT = 6;
 
+        /** Background work that may wait behind other jobs. */
+        public static final int PRIORITY_BATCH = 0;
+
+        /** Regular jobs. (Default) */
+        public static final int PRIORITY_NORMAL = 1;
+
+        /** Jobs that a user is actively waiting on, such as camera previews. */
+        public static final int PRIORITY_INTERACTIVE = 2;
+
         private Bundle mVariables;
 
         private Bundle mFlags;
@@ -681,6 +690,10 @@ public class Ocr {
 
         private int mPageSegMode;
 
+        private int mPriority;
+
+        private long mTimeout;
+
         /**
          * Constructs a new Parameters object using the default values.
          */
@@ -689,6 +702,8 @@ public class Ocr {
             mFlags = new Bundle();
             mPageSegMode = PSM_SINGLE_LINE;
             mLanguage = "eng";
+            mPriority = PRIORITY_NORMAL;
+            mTimeout = 0;
         }
 
         /**
@@ -816,6 +831,58 @@ public class Ocr {
             return mPageSegMode;
         }
 
+        /**
+         * Sets the scheduling priority of jobs using these parameters. Jobs
+         * with a higher priority are processed first, and can overtake a
+         * running job of lower priority between text areas. See the
+         * Parameters.PRIORITY_* constants for available values.
+         *
+         * @param priority A priority from Parameters.PRIORITY_* constants.
+         */
+        public void setPriority(int priority) {
+            if (priority < PRIORITY_BATCH || priority > PRIORITY_INTERACTIVE) {
+                throw new IllegalArgumentException("Invalid priority");
+            }
+
+            mPriority = priority;
+        }
+
+        /**
+         * Returns the current scheduling priority as defined in
+         * Parameters.PRIORITY_* constants.
+         *
+         * @return The current scheduling priority.
+         */
+        public int getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * Sets the maximum time a job may take, measured from when it is
+         * enqueued. A job that runs out of time stops and returns the results
+         * it has so far. Among jobs of equal priority, jobs with an earlier
+         * deadline are processed first.
+         *
+         * @param timeout The timeout in milliseconds, or 0 for no timeout.
+         */
+        public void setTimeout(long timeout) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Invalid timeout");
+            }
+
+            mTimeout = timeout;
+        }
+
+        /**
+         * Returns the maximum time a job may take in milliseconds, or 0 if
+         * there is no timeout.
+         *
+         * @return The current timeout in milliseconds.
+         */
+        public long getTimeout() {
+            return mTimeout;
+        }
+
         // ************************
         // * Parcelable functions *
         // ************************
@@ -834,12 +901,23 @@ public class Ocr {
             dest.writeBundle(mVariables);
             dest.writeBundle(mFlags);
             dest.writeString(mLanguage);
+            dest.writeInt(mPriority);
+            dest.writeLong(mTimeout);
         }
 
         private void readFromParcel(Parcel src) {
             mVariables = src.readBundle();
             mFlags = src.readBundle();
             mLanguage = src.readString();
+
+            // Older clients don't write scheduling parameters.
+            if (src.dataAvail() > 0) {
+                mPriority = src.readInt();
+                mTimeout = src.readLong();
+            } else {
+                mPriority = PRIORITY_NORMAL;
+                mTimeout = 0;
+            }
         }
 
         public static final Parcelable.Creator<Parameters> CREATOR = new Parcelable.Creator<Parameters>() {
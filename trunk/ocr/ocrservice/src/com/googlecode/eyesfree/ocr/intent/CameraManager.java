@@ -50,6 +50,12 @@ public class CameraManager implements FrameProducer {
 
     private static final int PICTURE_FORMAT = ImageFormat.JPEG;
 
+    /**
+     * Number of preview buffers allocated up front, enough for the camera to
+     * fill one while the others are being processed.
+     */
+    private static final int NUM_PREVIEW_BUFFERS = 3;
+
     private static enum CameraState {
         NOT_READY, IDLE, FOCUSING, FOCUSED
     }
@@ -165,6 +171,9 @@ public class CameraManager implements FrameProducer {
 
         // TODO(alanv): Need to give all requesters null frames
         mFrameRequesters.clear();
+        synchronized (mPreviewBuffers) {
+            mPreviewBuffers.clear();
+        }
         mAutoFocusCallback = null;
         mTakePictureCallback = null;
     }
@@ -211,11 +220,8 @@ public class CameraManager implements FrameProducer {
         }
 
         if (callback == null) {
-            synchronized (mPreviewBuffers) {
-                mPreviewBuffers.clear();
-                // mCamera.setPreviewCallback(null);
-            }
-
+            // Keep the preview buffers so that they can be reused when
+            // requests resume.
             return;
         }
 
@@ -243,7 +249,10 @@ public class CameraManager implements FrameProducer {
      */
     public void releaseData(byte[] buffer) {
         synchronized (mPreviewBuffers) {
-            mPreviewBuffers.add(buffer);
+            // Drop buffers from before a change in preview size.
+            if (buffer.length == mPreviewBufferSize) {
+                mPreviewBuffers.add(buffer);
+            }
         }
     }
 
@@ -346,9 +355,7 @@ public class CameraManager implements FrameProducer {
             Frame frame = new Frame(data, size.width, size.height, format, timestamp) {
                 @Override
                 public void recycle() {
-                    synchronized (mPreviewBuffers) {
-                        mPreviewBuffers.add(data);
-                    }
+                    releaseData(data);
                 }
             };
 
@@ -426,7 +433,13 @@ public class CameraManager implements FrameProducer {
         parameters.setPreviewSize(selectedSize.width, selectedSize.height);
 
         int bitsPerPixel = ImageFormat.getBitsPerPixel(PREVIEW_FORMAT);
-        mPreviewBufferSize = selectedSize.width * selectedSize.height * bitsPerPixel / 8;
+        synchronized (mPreviewBuffers) {
+            mPreviewBufferSize = selectedSize.width * selectedSize.height * bitsPerPixel / 8;
+            mPreviewBuffers.clear();
+            for (int i = 0; i < NUM_PREVIEW_BUFFERS; i++) {
+                mPreviewBuffers.add(new byte[mPreviewBufferSize]);
+            }
+        }
         mPreviewSize = selectedSize;
         mPreviewFormat = PREVIEW_FORMAT;
 
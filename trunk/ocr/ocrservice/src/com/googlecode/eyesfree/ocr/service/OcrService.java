@@ -89,6 +89,7 @@ public class OcrService extends Service {
 
         unregisterReceiver(mBroadcastReceiver);
 
+        mOcrTaskProcessor.shutdown();
         mCallbacks.kill();
 
         super.onDestroy();
@@ -17,9 +17,9 @@
 package com.googlecode.eyesfree.ocr.service;
 
 import android.graphics.Rect;
-import android.os.AsyncTask;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.googlecode.eyesfree.ocr.client.Ocr;
@@ -39,33 +39,64 @@ import com.googlecode.tesseract.android.TessBaseAPI;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.PriorityQueue;
 
 /**
+ * Schedules OCR jobs on a small pool of worker threads, each with its own
+ * Tesseract instance.
+ * <p>
+ * Each job is split into work items: text detection, followed by recognition
+ * of each detected text area. Items are run in order of job priority, then
+ * job deadline, then submission order, so the text areas of an interactive
+ * job are recognized before the remaining areas of a large batch job, and the
+ * areas of a single job are recognized in parallel. Canceled and expired jobs
+ * stop before the next text area.
+ * </p>
+ *
  * @author alanv@google.com (Alan Viverette)
  */
 public class OcrTaskProcessor {
     private static final String TAG = "OcrTaskProcessor";
 
-    /** The wrapper for the native Tesseract instance. */
-    private final TessBaseAPI mTessBaseAPI;
+    /** Maximum number of worker threads, each holding a Tesseract instance. */
+    private static final int MAX_WORKERS = 2;
+
+    /** Number of text areas used to decide whether the image is upside-down. */
+    private static final int NUM_SAMPLES = 3;
+
+    /** Average confidence below which flipped samples are also tried. */
+    private static final float MIN_SAMPLE_CONFIDENCE = 75.0f;
 
-    /** The wrapper for the native Hydrogen instance. */
+    /** We'd rather not process anything larger than 720p. */
+    private static final int MAX_IMAGE_AREA = 1280 * 720;
+
+    /** The wrapper for the native Hydrogen instance, shared by all workers. */
     private final HydrogenTextDetector mTextDetector;
 
-    /** List of queued tasks with the current task at the front. */
-    private final LinkedList<OcrTask> mTaskQueue;
+    /** Pending work items, highest priority first. Also guards task state. */
+    private final PriorityQueue<WorkItem> mWorkQueue;
+
+    /** Tasks that have been enqueued and not yet completed. */
+    private final LinkedList<OcrTask> mTasks;
 
     /** The path containing the <code>tessdata</code> directory. */
     private final File mDatapath;
 
+    /** Handler on the creating thread, used to deliver results. */
     private final Handler mHandler;
 
+    private final Worker[] mWorkers;
+
     /** Object that receives recognition results. */
     private OcrTaskListener mListener;
 
-    private AsyncOcrTask mCurrentTask;
+    /** Submission counter, used to keep jobs of equal priority in order. */
+    private long mNextSequence;
+
+    private boolean mShutdown;
 
     /**
      * Creates a new OCR task processor using the given data path.
@@ -77,13 +108,23 @@ public class OcrTaskProcessor {
         mDatapath = datapath;
 
         mHandler = new Handler();
-        mTessBaseAPI = new TessBaseAPI();
         mTextDetector = new HydrogenTextDetector();
-        mTaskQueue = new LinkedList<OcrTask>();
+        mWorkQueue = new PriorityQueue<WorkItem>(16, WORK_ITEM_COMPARATOR);
+        mTasks = new LinkedList<OcrTask>();
+
+        final int numWorkers = Math.max(1,
+                Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+        mWorkers = new Worker[numWorkers];
+
+        for (int i = 0; i < numWorkers; i++) {
+            mWorkers[i] = new Worker(i);
+            mWorkers[i].start();
+        }
     }
 
     /**
-     * Sets the object that receives recognition results.
+     * Sets the object that receives recognition results. Results are
+     * delivered on the thread that created this processor.
      *
      * @param listener The object that receives recognition results.
      */
@@ -99,19 +140,10 @@ public class OcrTaskProcessor {
      * @param token The task ID of the OCR job to cancel.
      */
     public boolean cancel(int pid, long token) {
-        synchronized (mTaskQueue) {
-            if (mCurrentTask != null && mCurrentTask.mPid == pid && mCurrentTask.mToken == token) {
-                mCurrentTask.requestStop();
-                return true;
-            }
-
-            final ListIterator<OcrTask> it = mTaskQueue.listIterator();
-
-            while (it.hasNext()) {
-                final OcrTask task = it.next();
-
+        synchronized (mWorkQueue) {
+            for (OcrTask task : mTasks) {
                 if (task.pid == pid && task.token == token) {
-                    it.remove();
+                    cancelLocked(task);
                     return true;
                 }
             }
@@ -128,18 +160,10 @@ public class OcrTaskProcessor {
     public boolean cancelAll(int pid) {
         boolean removed = false;
 
-        synchronized (mTaskQueue) {
-            if (mCurrentTask != null && mCurrentTask.mPid == pid) {
-                mCurrentTask.requestStop();
-            }
-
-            final ListIterator<OcrTask> it = mTaskQueue.listIterator();
-
-            while (it.hasNext()) {
-                final OcrTask task = it.next();
-
+        synchronized (mWorkQueue) {
+            for (OcrTask task : new ArrayList<OcrTask>(mTasks)) {
                 if (task.pid == pid) {
-                    it.remove();
+                    cancelLocked(task);
 
                     removed = true;
                 }
@@ -153,8 +177,10 @@ public class OcrTaskProcessor {
      * Cancels all jobs.
      */
     public void abort() {
-        synchronized (mTaskQueue) {
-            mTaskQueue.clear();
+        synchronized (mWorkQueue) {
+            for (OcrTask task : new ArrayList<OcrTask>(mTasks)) {
+                cancelLocked(task);
+            }
         }
     }
 
@@ -163,9 +189,14 @@ public class OcrTaskProcessor {
      * after calling this method.
      */
     public void shutdown() {
-        abort();
+        synchronized (mWorkQueue) {
+            for (OcrTask task : new ArrayList<OcrTask>(mTasks)) {
+                cancelLocked(task);
+            }
 
-        mTessBaseAPI.end();
+            mShutdown = true;
+            mWorkQueue.notifyAll();
+        }
     }
 
     /**
@@ -193,117 +224,333 @@ public class OcrTaskProcessor {
     }
 
     private long enqueueTask(OcrTask task) {
-        boolean wasEmpty = false;
+        synchronized (mWorkQueue) {
+            task.sequence = mNextSequence++;
+            task.pending = 1;
+            mTasks.add(task);
+            enqueueLocked(task, WorkItem.DETECT, 0);
+        }
 
-        synchronized (mTaskQueue) {
-            wasEmpty = mTaskQueue.isEmpty();
-            mTaskQueue.addLast(task);
+        return task.token;
+    }
+
+    private void enqueueLocked(OcrTask task, int type, int index) {
+        mWorkQueue.add(new WorkItem(task, type, index));
+        mWorkQueue.notify();
+    }
+
+    /**
+     * Stops a task. A task that hasn't started is dropped without notifying
+     * the listener. A running task completes with the results it has so far
+     * once its running work items finish.
+     */
+    private void cancelLocked(OcrTask task) {
+        task.stopRequested = true;
+
+        int removed = 0;
+        final Iterator<WorkItem> it = mWorkQueue.iterator();
+
+        while (it.hasNext()) {
+            if (it.next().task == task) {
+                it.remove();
+                removed++;
+            }
         }
 
-        if (wasEmpty) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    nextTask();
-                }
-            });
+        if (task.phase == OcrTask.PHASE_DETECT && removed > 0) {
+            // Never started.
+            mTasks.remove(task);
+            return;
         }
 
-        return task.token;
+        task.pending -= removed;
+
+        if (removed > 0 && task.pending == 0) {
+            completeLocked(task);
+        }
     }
 
-    private void nextTask() {
-        synchronized (mTaskQueue) {
-            mCurrentTask = new AsyncOcrTask();
-            mCurrentTask.execute(mTaskQueue.getFirst());
+    /**
+     * Called when a work item of a task is done. Starts the next phase of the
+     * task once all items of the current phase are done.
+     */
+    private void itemDoneLocked(OcrTask task) {
+        if (--task.pending > 0) {
+            return;
+        }
+
+        if (task.isStopped() || task.pixa == null) {
+            completeLocked(task);
+            return;
+        }
+
+        switch (task.phase) {
+            case OcrTask.PHASE_DETECT: {
+                task.numSamples = Math.min(NUM_SAMPLES, task.pixa.size());
+                task.samples = new OcrResult[task.numSamples];
+                task.regions = new OcrResult[task.pixa.size()];
+                task.phase = OcrTask.PHASE_SAMPLES;
+                enqueuePhaseLocked(task, WorkItem.SAMPLE, 0, task.numSamples);
+                break;
+            }
+            case OcrTask.PHASE_SAMPLES: {
+                task.avgConfidence = averageConfidence(task.samples);
+
+                // If the preliminary results don't look good, then try again
+                // and rotate them all 180 degrees.
+                if (task.avgConfidence < MIN_SAMPLE_CONFIDENCE) {
+                    Log.e(TAG, "First " + task.numSamples
+                            + " results don't look so hot (avgConfidence="
+                            + task.avgConfidence + ")");
+
+                    task.flippedSamples = new OcrResult[task.numSamples];
+                    task.phase = OcrTask.PHASE_FLIPPED_SAMPLES;
+                    enqueuePhaseLocked(task, WorkItem.FLIPPED_SAMPLE, 0, task.numSamples);
+                } else {
+                    startRegionsLocked(task);
+                }
+                break;
+            }
+            case OcrTask.PHASE_FLIPPED_SAMPLES: {
+                // If the rotated set is better, rotate all future images and
+                // reverse the results when done.
+                if (averageConfidence(task.flippedSamples) > task.avgConfidence) {
+                    Log.e(TAG, "First " + task.numSamples
+                            + " results look upside-down, flipping all subsequent images");
+
+                    task.samples = task.flippedSamples;
+                    task.needsRotation = true;
+                }
+
+                startRegionsLocked(task);
+                break;
+            }
+            default: {
+                completeLocked(task);
+                break;
+            }
         }
     }
 
-    private void finishedTask() {
-        boolean isEmpty = false;
+    private void enqueuePhaseLocked(OcrTask task, int type, int start, int end) {
+        if (start >= end) {
+            completeLocked(task);
+            return;
+        }
 
-        synchronized (mTaskQueue) {
-            mCurrentTask = null;
-            mTaskQueue.removeFirst();
+        task.pending = end - start;
 
-            isEmpty = mTaskQueue.isEmpty();
+        for (int i = start; i < end; i++) {
+            enqueueLocked(task, type, i);
         }
+    }
+
+    private void startRegionsLocked(OcrTask task) {
+        Log.e(TAG, "Found " + task.numSamples + " text areas in first " + task.numSamples
+                + " samples");
 
-        if (!isEmpty) {
-            nextTask();
+        // Run callbacks on whichever mode we're using.
+        for (OcrResult result : task.samples) {
+            postResult(task, result);
         }
+
+        task.phase = OcrTask.PHASE_REGIONS;
+
+        // Since we've already OCR'ed the samples, continue from there...
+        enqueuePhaseLocked(task, WorkItem.REGION, task.numSamples, task.regions.length);
     }
 
-    private class AsyncOcrTask extends AsyncTask<OcrTask, OcrResult, ArrayList<OcrResult>> {
-        private int mPid;
-        private int mToken;
-        private boolean mStopRequested = false;
+    private void completeLocked(final OcrTask task) {
+        if (!mTasks.remove(task)) {
+            return;
+        }
 
-        @Override
-        protected ArrayList<OcrResult> doInBackground(OcrTask... tasks) {
-            if (tasks.length == 0 || tasks[0] == null || isStopRequested()) {
-                return null;
+        ArrayList<OcrResult> results = null;
+
+        if (task.samples != null) {
+            results = new ArrayList<OcrResult>(task.regions.length);
+
+            for (OcrResult result : task.samples) {
+                if (result != null) {
+                    results.add(result);
+                }
             }
 
-            final OcrTask task = tasks[0];
-            final File file = task.file;
-            final byte[] data = task.data;
-            final Pix pix = file == null ? ReadFile.readMem(data) : ReadFile.readFile(file);
+            for (int i = task.numSamples; i < task.regions.length; i++) {
+                final OcrResult result = task.regions[i];
+
+                // Don't bother returning empty results!
+                if (result != null && result.getString().length() > 0) {
+                    results.add(result);
+                }
+            }
+
+            // If we had to rotate the samples, we need to reverse the list as
+            // well.
+            if (task.needsRotation) {
+                Collections.reverse(results);
+            }
+        }
 
-            mPid = task.pid;
-            mToken = task.token;
+        if (task.pixa != null) {
+            task.pixa.recycle();
+            task.pixa = null;
+        }
 
-            // Using arrays because Java can't pass primitives by reference or
-            // return tuples, but we need to get the scale and angle values.
-            final float[] scale = new float[] {
-                1.0f
-            };
-            final float[] angle = new float[] {
-                0.0f
-            };
+        final ArrayList<OcrResult> finalResults = results;
 
-            final Pixa pixa = processPix(task, pix, scale, angle);
-            prepareOcrLibrary(task);
-            final ArrayList<OcrResult> results = recognizeBitmap(task, pixa, scale[0], angle[0]);
-            cleanupOcrLibrary();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onCompleted(task.pid, task.token, finalResults);
+                }
+            }
+        });
+    }
 
-            return results;
+    private void postResult(final OcrTask task, final OcrResult result) {
+        if (result == null) {
+            return;
         }
 
-        @Override
-        protected void onProgressUpdate(OcrResult... values) {
-            if (mListener == null || values.length == 0 || values[0] == null) {
-                return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onResult(task.pid, task.token, result);
+                }
             }
+        });
+    }
+
+    private static float averageConfidence(OcrResult[] results) {
+        float avgConfidence = 0.0f;
+
+        for (OcrResult result : results) {
+            if (result != null) {
+                avgConfidence += result.getAverageConfidence() / results.length;
+            }
+        }
+
+        return avgConfidence;
+    }
+
+    /**
+     * A thread that runs work items with its own Tesseract instance.
+     */
+    private class Worker extends Thread {
+        private final TessBaseAPI mTessBaseAPI = new TessBaseAPI();
 
-            final OcrResult result = values[0];
+        /** The configuration Tesseract was last initialized with. */
+        private String mConfiguration;
 
-            mListener.onResult(mPid, mToken, result);
+        public Worker(int index) {
+            super("OcrWorker" + index);
         }
 
         @Override
-        protected void onPostExecute(ArrayList<OcrResult> results) {
-            if (mListener == null) {
+        public void run() {
+            while (true) {
+                final WorkItem item;
+
+                synchronized (mWorkQueue) {
+                    while (mWorkQueue.isEmpty() && !mShutdown) {
+                        try {
+                            mWorkQueue.wait();
+                        } catch (InterruptedException e) {
+                            // Check the queue again.
+                        }
+                    }
+
+                    if (mShutdown) {
+                        break;
+                    }
+
+                    item = mWorkQueue.poll();
+                }
+
+                final OcrTask task = item.task;
+
+                if (!task.isStopped()) {
+                    if (item.type == WorkItem.DETECT) {
+                        detect(task);
+                    } else {
+                        recognize(item);
+                    }
+                }
+
+                synchronized (mWorkQueue) {
+                    itemDoneLocked(task);
+                }
+            }
+
+            if (mConfiguration != null) {
+                mTessBaseAPI.end();
+            }
+        }
+
+        private void detect(OcrTask task) {
+            final File file = task.file;
+            final byte[] data = task.data;
+            final Pix pix = file == null ? ReadFile.readMem(data) : ReadFile.readFile(file);
+
+            if (pix == null) {
+                Log.e(TAG, "Failed to read image");
                 return;
             }
 
-            mListener.onCompleted(mPid, mToken, results);
+            // The text detector is shared between workers.
+            final Pixa pixa;
 
-            finishedTask();
-        }
+            synchronized (mTextDetector) {
+                pixa = processPix(task, pix);
+            }
 
-        public void requestStop() {
-            mStopRequested = true;
+            synchronized (mWorkQueue) {
+                task.pixa = pixa;
+            }
         }
 
-        public boolean isStopRequested() {
-            return mStopRequested;
+        private void recognize(WorkItem item) {
+            final OcrTask task = item.task;
+            final boolean flip = item.type == WorkItem.FLIPPED_SAMPLE
+                    || (item.type == WorkItem.REGION && task.needsRotation);
+
+            prepareOcrLibrary(task);
+
+            final Pix pix;
+            final Rect bound;
+
+            synchronized (mWorkQueue) {
+                pix = task.pixa.getPix(item.index);
+                bound = task.pixa.getBoxRect(item.index);
+            }
+
+            final OcrResult result = getOcrResult(pix, bound, task.scale, task.angle, flip);
+
+            synchronized (mWorkQueue) {
+                switch (item.type) {
+                    case WorkItem.SAMPLE:
+                        task.samples[item.index] = result;
+                        break;
+                    case WorkItem.FLIPPED_SAMPLE:
+                        task.flippedSamples[item.index] = result;
+                        break;
+                    default:
+                        task.regions[item.index] = result;
+                        break;
+                }
+            }
+
+            if (item.type == WorkItem.REGION && result.getString().length() > 0) {
+                postResult(task, result);
+            }
         }
 
         /**
-         * Opens the configured language and sets variables. We're setting up
-         * Tesseract for this specific job, so we should be the only process
-         * accessing it.
+         * Opens the configured language and sets variables, unless this
+         * worker's Tesseract instance is already set up the same way.
          */
         private void prepareOcrLibrary(OcrTask task) {
             final Parameters params = task.params;
@@ -313,110 +560,38 @@ public class OcrTaskProcessor {
             final int pageSegMode = detectText ? Ocr.Parameters.PSM_SINGLE_LINE : params
                     .getPageSegMode();
 
-            mTessBaseAPI.init(mDatapath.getAbsolutePath() + "/", language);
-            mTessBaseAPI.setDebug(debug);
-            mTessBaseAPI.setPageSegMode(pageSegMode);
+            final StringBuilder configuration = new StringBuilder();
+            configuration.append(language).append('|').append(debug).append('|')
+                    .append(pageSegMode);
 
             for (String key : params.getVariableKeys()) {
-                String value = params.getVariable(key);
-                mTessBaseAPI.setVariable(key, value);
+                configuration.append('|').append(key).append('=')
+                        .append(params.getVariable(key));
             }
-        }
-
-        /**
-         * Loads the image, runs any processing options, and runs OCR on all
-         * bounding rectangles. Finally, releases the image.
-         *
-         * @param pixa A {@link Pixa} containing the images to recognize.
-         * @param scale The scaling factor for the input {@link Pix}.
-         * @return A list of {@link OcrResult}s, one for each {@link Pix}.
-         */
-        private ArrayList<OcrResult> recognizeBitmap(OcrTask task, Pixa pixa, float scale,
-                float angle) {
-            if (isStopRequested() || pixa == null)
-                return null;
-
-            final Parameters params = task.params;
-            final boolean spellcheck = params.getFlag(Ocr.Parameters.FLAG_SPELLCHECK);
-
-            int numSamples = Math.min(3, pixa.size());
-            boolean needsRotation = false;
-            float avgConfidence = 0.0f;
-            ArrayList<OcrResult> results = new ArrayList<OcrResult>(pixa.size());
-
-            // Run first three results to get average confidence
-            for (int i = 0; !isStopRequested() & i < numSamples; i++) {
-                OcrResult result = getOcrResult(pixa, scale, angle, i, spellcheck, false);
-                avgConfidence += result.getAverageConfidence() / numSamples;
-                results.add(result);
-            }
-
-            // If the preliminary results don't look good (avg. conf < 75), then
-            // try
-            // again and rotate them all 180 degrees
-            if (avgConfidence < 75.0f) {
-                Log.e(TAG, "First " + numSamples + " results don't look so hot (avgConfidence="
-                        + avgConfidence + ")");
-
-                float flipAvgConfidence = 0.0f;
-                ArrayList<OcrResult> flipResults = new ArrayList<OcrResult>(3);
-
-                for (int i = 0; !isStopRequested() & i < numSamples; i++) {
-                    OcrResult result = getOcrResult(pixa, scale, angle, i, spellcheck, true);
-                    flipAvgConfidence += result.getAverageConfidence() / numSamples;
-                    flipResults.add(result);
-                }
-
-                // If the rotated set is better, rotate all future images and
-                // reverse the results when done
-                if (flipAvgConfidence > avgConfidence) {
-                    Log.e(TAG, "First " + numSamples
-                            + " results look upside-down, flipping all subsequent images");
 
-                    results = flipResults;
-                    needsRotation = true;
-                }
+            if (configuration.toString().equals(mConfiguration)) {
+                return;
             }
 
-            Log.e(TAG, "Found " + results.size() + " text areas in first " + numSamples
-                    + " samples");
-
-            // Run callbacks on whichever mode we're using
-            for (OcrResult result : results) {
-                onProgressUpdate(result);
+            if (mConfiguration != null) {
+                // Drop variables set for the previous configuration.
+                mTessBaseAPI.end();
             }
 
-            // Expand whichever result list we've decided to use
-            results.ensureCapacity(pixa.size());
-
-            // Since we're already OCR'ed numSamples, continue from there...
-            int i = numSamples;
-            for (; !isStopRequested() && i < pixa.size(); i++) {
-                OcrResult result = getOcrResult(pixa, scale, angle, i, spellcheck, needsRotation);
-
-                // Don't bother returning empty results!
-                if (result.getString().length() > 0) {
-                    results.add(result);
-
-                    onProgressUpdate(result);
-                }
-            }
+            mTessBaseAPI.init(mDatapath.getAbsolutePath() + "/", language);
+            mTessBaseAPI.setDebug(debug);
+            mTessBaseAPI.setPageSegMode(pageSegMode);
 
-            // If we had to rotate the samples, we need to reverse the list as
-            // well
-            if (needsRotation) {
-                Collections.reverse(results);
+            for (String key : params.getVariableKeys()) {
+                String value = params.getVariable(key);
+                mTessBaseAPI.setVariable(key, value);
             }
 
-            pixa.recycle();
-
-            return results;
+            mConfiguration = configuration.toString();
         }
 
-        private OcrResult getOcrResult(Pixa pixa, float scale, float angle, int index,
-                boolean spellcheck, boolean rotate) {
-            Pix pix = pixa.getPix(index);
-
+        private OcrResult getOcrResult(Pix pix, Rect bound, float scale, float angle,
+                boolean rotate) {
             // We've already decided the image is rotated 180 degrees
             // TODO(alanv): Write a native function to in-place rotate
             if (rotate) {
@@ -435,7 +610,6 @@ public class OcrTaskProcessor {
             pix.recycle();
 
             // Scale the bounding rectangle back up
-            Rect bound = pixa.getBoxRect(index);
             scaleRect(bound, scale);
 
             // TODO(alanv): Send the text angle with the result
@@ -455,15 +629,17 @@ public class OcrTaskProcessor {
             rect.right /= scale;
         }
 
-        /** We'd rather not process anything larger than 720p. */
-        private static final int MAX_IMAGE_AREA = 1280 * 720;
-
-        private Pixa processPix(OcrTask task, Pix curr, float[] scale, float[] angle) {
+        /**
+         * Runs any processing options and text detection on an image, setting
+         * the task's scale and angle. Releases the image.
+         *
+         * @return A {@link Pixa} containing the text areas to recognize.
+         */
+        private Pixa processPix(OcrTask task, Pix curr) {
             final Parameters params = task.params;
             final File outputDir = task.outputDir;
             final boolean debug = params.getFlag(Ocr.Parameters.FLAG_DEBUG_MODE);
 
-            long prev;
             long time = System.currentTimeMillis();
 
             // Transfer parameters to text detector
@@ -474,15 +650,14 @@ public class OcrTaskProcessor {
 
             Pix temp = null;
 
-            int w = curr.getWidth();
-            int h = curr.getHeight();
-
             if (outputDir != null && debug) {
                 WriteFile.writeImpliedFormat(curr, new File(outputDir, time + "_0_input.jpg"));
             }
 
-            if (isStopRequested())
+            if (task.isStopped()) {
+                curr.recycle();
                 return null;
+            }
 
             // Convert to 8bpp first if necessary
             if (curr.getDepth() != 8) {
@@ -499,9 +674,9 @@ public class OcrTaskProcessor {
             int[] dimensions = curr.getDimensions();
             int area = dimensions[0] * dimensions[1];
             if (area > MAX_IMAGE_AREA) {
-                scale[0] = MAX_IMAGE_AREA / (float) area;
-                Log.i(TAG, "Scaling input image to a factor of " + scale[0]);
-                temp = Scale.scale(curr, scale[0]);
+                task.scale = MAX_IMAGE_AREA / (float) area;
+                Log.i(TAG, "Scaling input image to a factor of " + task.scale);
+                temp = Scale.scale(curr, task.scale);
                 curr.recycle();
                 curr = temp;
 
@@ -516,7 +691,7 @@ public class OcrTaskProcessor {
             curr.recycle();
 
             // Get alignment angle
-            angle[0] = mTextDetector.getSkewAngle();
+            task.angle = mTextDetector.getSkewAngle();
 
             // Sort by increasing Y-value so that we read results in order
             Pixa unsorted = mTextDetector.getTextAreas();
@@ -529,19 +704,83 @@ public class OcrTaskProcessor {
 
             return pixa;
         }
+    }
 
-        private void cleanupOcrLibrary() {
-            mTessBaseAPI.clear();
+    /**
+     * Orders work items by job priority, then job deadline, then submission
+     * order, then text area.
+     */
+    private static final Comparator<WorkItem> WORK_ITEM_COMPARATOR = new Comparator<WorkItem>() {
+        @Override
+        public int compare(WorkItem lhs, WorkItem rhs) {
+            final OcrTask a = lhs.task;
+            final OcrTask b = rhs.task;
+
+            if (a.priority != b.priority) {
+                return (a.priority > b.priority) ? -1 : 1;
+            }
+
+            if (a.deadline != b.deadline) {
+                return (a.deadline < b.deadline) ? -1 : 1;
+            }
+
+            if (a.sequence != b.sequence) {
+                return (a.sequence < b.sequence) ? -1 : 1;
+            }
+
+            return lhs.index - rhs.index;
+        }
+    };
+
+    private static class WorkItem {
+        /* package */static final int DETECT = 0;
+        /* package */static final int SAMPLE = 1;
+        /* package */static final int FLIPPED_SAMPLE = 2;
+        /* package */static final int REGION = 3;
+
+        /* package */final OcrTask task;
+        /* package */final int type;
+        /* package */final int index;
+
+        public WorkItem(OcrTask task, int type, int index) {
+            this.task = task;
+            this.type = type;
+            this.index = index;
         }
     }
 
-    private class OcrTask {
+    private static class OcrTask {
+        /* package */static final int PHASE_DETECT = 0;
+        /* package */static final int PHASE_SAMPLES = 1;
+        /* package */static final int PHASE_FLIPPED_SAMPLES = 2;
+        /* package */static final int PHASE_REGIONS = 3;
+
         /* package */final int pid;
         /* package */final int token;
         /* package */final File file;
         /* package */final byte[] data;
         /* package */final Ocr.Parameters params;
         /* package */final File outputDir;
+        /* package */final int priority;
+        /** Uptime after which the job is stopped, or Long.MAX_VALUE. */
+        /* package */final long deadline;
+
+        // The following fields are guarded by mWorkQueue, except for values
+        // written before the phase that reads them started.
+        /* package */long sequence;
+        /* package */int phase = PHASE_DETECT;
+        /** Number of work items of the current phase that are not done. */
+        /* package */int pending;
+        /* package */Pixa pixa;
+        /* package */float scale = 1.0f;
+        /* package */float angle = 0.0f;
+        /* package */int numSamples;
+        /* package */OcrResult[] samples;
+        /* package */OcrResult[] flippedSamples;
+        /* package */float avgConfidence;
+        /* package */boolean needsRotation;
+        /* package */OcrResult[] regions;
+        /* package */volatile boolean stopRequested;
 
         public OcrTask(int pid, File file, Ocr.Parameters params) {
             this(pid, file, null, params);
@@ -558,6 +797,17 @@ public class OcrTaskProcessor {
             this.data = data;
             this.params = params;
             this.outputDir = Environment.getExternalStorageDirectory();
+            this.priority = params.getPriority();
+
+            final long timeout = params.getTimeout();
+            this.deadline = timeout > 0 ? SystemClock.uptimeMillis() + timeout : Long.MAX_VALUE;
+        }
+
+        /**
+         * @return Whether the job was canceled or has passed its deadline.
+         */
+        public boolean isStopped() {
+            return stopRequested || SystemClock.uptimeMillis() > deadline;
         }
     }
 
@@ -43,6 +43,10 @@ import java.util.Vector;
 public class FrameLooper implements FrameReceiver {
     private static final String TAG = "FrameLooper";
 
+    // Frames are only held by the processing threads, so more than one spare
+    // frame per thread is never needed.
+    private static final int MAX_POOLED_FRAMES_PER_THREAD = 1;
+
     private final FrameProducer frameProducer;
 
     private final DebugView debugView;
@@ -64,6 +68,9 @@ public class FrameLooper implements FrameReceiver {
 
     ArrayList<FrameProcessor> allPreviewProcessors;
 
+    // Released frames that can be reused for new preview frames.
+    private final ArrayList<TimestampedFrame> framePool = new ArrayList<TimestampedFrame>();
+
     public FrameLooper(
             final FrameProducer cameraManager, final DebugView debugView, final int[] delays) {
         this.frameProducer = cameraManager;
@@ -116,8 +123,8 @@ public class FrameLooper implements FrameReceiver {
     public synchronized void onFrameReceived(final Frame frame) {
         ++numPreviewFrames;
 
-        // Create a new TimestampedFrame to wrap the raw byte[].
-        final TimestampedFrame previewFrame = new TimestampedFrame(frame);
+        // Wrap the raw byte[], reusing a released TimestampedFrame if possible.
+        final TimestampedFrame previewFrame = obtainFrame(frame);
 
         // TODO(alanv): Why does this run on the main thread?!
         processingThreads[0].preprocess(previewFrame);
@@ -150,10 +157,36 @@ public class FrameLooper implements FrameReceiver {
         }
     }
 
-    public synchronized void doneProcessing(final TimestampedFrame frame) {
-        if (frame.allThreadsDone()) {
-            frame.clearRawData();
+    /**
+     * Called by each processing thread when it is done with a frame. The last
+     * call releases the frame's data and returns it to the pool. Not
+     * synchronized on this object so that background threads don't wait for
+     * the first level to finish processing.
+     */
+    public void doneProcessing(final TimestampedFrame frame) {
+        if (!frame.threadDone()) {
+            return;
+        }
+        frame.release();
+        synchronized (framePool) {
+            if (framePool.size() < processingThreads.length * MAX_POOLED_FRAMES_PER_THREAD) {
+                framePool.add(frame);
+            }
+        }
+    }
+
+    private TimestampedFrame obtainFrame(final Frame frame) {
+        TimestampedFrame previewFrame = null;
+        synchronized (framePool) {
+            if (!framePool.isEmpty()) {
+                previewFrame = framePool.remove(framePool.size() - 1);
+            }
+        }
+        if (previewFrame == null) {
+            return new TimestampedFrame(frame);
         }
+        previewFrame.reset(frame);
+        return previewFrame;
     }
 
     /**
@@ -118,7 +118,6 @@ public class ProcessingThread extends Thread {
             }
         }
 
-        frame.threadDone();
         previewLooper.doneProcessing(frame);
         isProcessing = false;
     }
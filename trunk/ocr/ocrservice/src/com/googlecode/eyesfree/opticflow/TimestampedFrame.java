@@ -26,15 +26,21 @@ import com.googlecode.leptonica.android.ReadFile;
 
 /**
  * Class for interfacing efficiently with image data, and keeping track of all
- * records associated with a frame.
+ * records associated with a frame. Instances are reference counted by the
+ * processing threads and recycled by {@link FrameLooper} once every thread is
+ * done with them.
  *
  * @author alanv@google.com (Alan Viverette)
  */
 public class TimestampedFrame {
     private static final String TAG = "TimestampedFrame";
 
+    // Number of processing threads using this frame. Guarded by this.
     private int threadsLeft;
 
+    // Whether the raw data has been returned to the frame producer.
+    private boolean rawDataCleared;
+
     // For caching PIX created from rawFrameData.
     private Pix cachedPix;
 
@@ -54,14 +60,40 @@ public class TimestampedFrame {
     // TODO(alanv): Make this a per-Pix setting?
     private float angle;
 
-    private final Frame originalFrame;
+    private Frame originalFrame;
 
-    // TODO(andrewharp): Create pool of TimestampedFrames so that used frames
-    // can be recycled.
     protected TimestampedFrame(final Frame originalFrame) {
         this.originalFrame = originalFrame;
     }
 
+    /**
+     * Prepares a recycled instance to wrap a new frame.
+     */
+    protected synchronized void reset(final Frame frame) {
+        originalFrame = frame;
+        rawDataCleared = false;
+        threadsLeft = 0;
+        isBlurred = null;
+        takenWhileFocusing = null;
+        textConfidences = null;
+        angle = 0;
+    }
+
+    /**
+     * Frees the cached data of this frame and returns the raw data to the
+     * frame producer. Must only be called once all threads are done.
+     */
+    protected synchronized void release() {
+        if (cachedPix != null) {
+            cachedPix.recycle();
+            cachedPix = null;
+        }
+        recycleDetectedText();
+        if (!rawDataCleared) {
+            clearRawData();
+        }
+    }
+
     public long getTimestamp() {
         return originalFrame.timestamp;
     }
@@ -127,7 +159,7 @@ public class TimestampedFrame {
      * @return Whether or not rawFrameData is null.
      */
     protected synchronized boolean hasRawData() {
-        return originalFrame.data != null;
+        return !rawDataCleared && originalFrame.data != null;
     }
 
     /**
@@ -149,6 +181,7 @@ public class TimestampedFrame {
      */
     protected synchronized byte[] clearRawData() {
         final byte[] tmpData = getRawData(); // So we get the implicit check.
+        rawDataCleared = true;
         originalFrame.recycle();
         // Unblock any threads that are wait()ing in releaesBitmap(true).
         notify();
@@ -189,22 +222,26 @@ public class TimestampedFrame {
     /**
      * Used by a ProcessingThread to signify that it's done processing this
      * frame.
+     *
+     * @return true iff this was the last thread processing this frame, in
+     *         which case the caller is responsible for releasing it.
      */
-    public void threadDone() {
+    public synchronized boolean threadDone() {
         --threadsLeft;
         if (threadsLeft < 0) {
             Log.w(TAG, "Negative number of threads remaining.");
         }
+        return threadsLeft == 0;
     }
 
     /**
      * @return true iff all threads have finished processing this frame.
      */
-    public boolean allThreadsDone() {
+    public synchronized boolean allThreadsDone() {
         return threadsLeft == 0;
     }
 
-    public void threadStart() {
+    public synchronized void threadStart() {
         ++threadsLeft;
     }
 }